@@ -0,0 +1,90 @@
+package edu.webframework;
+
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.UrlPathController;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Conversion of request parameters into controller arguments, through the cast methods of the dispatcher and
+// through the precompiled binders of a handler taking the same arguments
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ArgumentBindingBenchmark {
+
+    @UrlPathController(path = "/bench/binding/")
+    public static class BindingController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void bind(@HttpRequestParameter(name = "number") Integer number,
+                         @HttpRequestParameter(name = "numbers") List<Integer> numbers,
+                         @HttpRequestParameter(name = "testbean") TestBean testBean) {
+        }
+
+    }
+
+    static final Class[] INTEGER_GENERIC_TYPES = { Integer.class };
+
+    BenchmarkServletDispatcher dispatcher;
+    MockHttpServletRequest request;
+    ServletDispatcher.HttpRequestArgumentMethodDescriptor handler;
+
+    @Setup
+    public void setup() throws Exception {
+        dispatcher = new BenchmarkServletDispatcher();
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setParameter("number", "33");
+        request.setParameter("numbers", new String[] { "1", "2", "3", "4", "5" });
+        request.setParameter("testbean.strValue", "hello");
+        request.setParameter("testbean.intValue", "33");
+        request.setParameter("testbean.floatValue", "3.14");
+        request.setParameter("testbean.doubleValue", "153.14433");
+        request.setParameter("testbean.listStr", new String[] { "a", "b", "c" });
+        request.setParameter("testbean.listInt", new String[] { "1", "2", "3" });
+
+        handler = dispatcher.generateDescriptor(BindingController.class).providers.get(HttpMethodType.GET).get(ServletDispatcher.DEFAULT);
+    }
+
+    @Benchmark
+    public Object cast() {
+        return dispatcher.cast(request, Integer.class, new Class[0], "number");
+    }
+
+    @Benchmark
+    public Object castList() {
+        return dispatcher.cast(request, List.class, INTEGER_GENERIC_TYPES, "numbers");
+    }
+
+    @Benchmark
+    public Object castObject() {
+        return dispatcher.castObject(request, TestBean.class, "testbean");
+    }
+
+    @Benchmark
+    public Object bindHandlerArguments() throws Exception {
+        return dispatcher.getMethodArgumentsArray(request, handler, null);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ArgumentBindingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
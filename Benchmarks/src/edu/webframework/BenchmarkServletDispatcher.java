@@ -0,0 +1,33 @@
+package edu.webframework;
+
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletContext;
+import java.net.URLConnection;
+
+// The test dispatcher without its logging, which would otherwise dominate every measurement, and with a single
+// servlet context instead of a new one on each call. The context guesses MIME types from the file name, the mock
+// needs the activation framework, which recent JDKs do not ship.
+public class BenchmarkServletDispatcher extends MockServletDispatcher {
+
+    private final ServletContext servletContext = new MockServletContext() {
+        @Override
+        public String getMimeType(String file) {
+            return URLConnection.guessContentTypeFromName(file);
+        }
+    };
+
+    @Override
+    public void log(String str) {
+    }
+
+    @Override
+    public void log(String str, Throwable t) {
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+}
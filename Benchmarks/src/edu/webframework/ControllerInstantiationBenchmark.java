@@ -0,0 +1,121 @@
+package edu.webframework;
+
+import edu.webframework.annotations.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.TimeUnit;
+
+// Getting a controller ready for a request, services injected, with each of the controller lifecycles
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ControllerInstantiationBenchmark {
+
+    @Service
+    public static class FirstService extends ServiceController {
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @Service
+    public static class SecondService extends ServiceController {
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @UrlPathController(path = "/bench/injected/")
+    public static class InjectedController extends WebController {
+
+        @RequireService
+        FirstService firstService;
+
+        @RequireService
+        SecondService secondService;
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void index() {
+        }
+
+    }
+
+    BenchmarkServletDispatcher dispatcher;
+    MockHttpServletRequest request;
+    MockHttpServletResponse response;
+
+    ServletDispatcher.ControllerDescriptor requestDescriptor;
+    ServletDispatcher.ControllerDescriptor pooledDescriptor;
+    ServletDispatcher.ControllerDescriptor singletonDescriptor;
+
+    @Setup
+    public void setup() throws Exception {
+        dispatcher = new BenchmarkServletDispatcher();
+        dispatcher.initializeServices(new Class[] { FirstService.class, SecondService.class });
+
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+
+        requestDescriptor = descriptor(ControllerLifecycle.REQUEST);
+        pooledDescriptor = descriptor(ControllerLifecycle.POOLED);
+        singletonDescriptor = descriptor(ControllerLifecycle.SINGLETON);
+    }
+
+    private ServletDispatcher.ControllerDescriptor descriptor(ControllerLifecycle lifecycle) throws Exception {
+        ServletDispatcher.ControllerDescriptor descriptor = dispatcher.generateDescriptor(InjectedController.class);
+        descriptor.lifecycle = lifecycle;
+        descriptor.prepareLifecycle(dispatcher.getServletContext());
+        return descriptor;
+    }
+
+    @Benchmark
+    public Object requestLifecycle() throws Exception {
+        return acquireAndRelease(requestDescriptor);
+    }
+
+    @Benchmark
+    public Object pooledLifecycle() throws Exception {
+        return acquireAndRelease(pooledDescriptor);
+    }
+
+    @Benchmark
+    public Object singletonLifecycle() throws Exception {
+        return acquireAndRelease(singletonDescriptor);
+    }
+
+    private Object acquireAndRelease(ServletDispatcher.ControllerDescriptor descriptor) throws Exception {
+        WebController controller = descriptor.acquireWebController(dispatcher.getServletContext(), request, response);
+        descriptor.releaseWebController(controller);
+        return controller;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ControllerInstantiationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
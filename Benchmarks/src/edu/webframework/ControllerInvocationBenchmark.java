@@ -0,0 +1,119 @@
+package edu.webframework;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+// Compares the controller invokers used by the dispatcher on handlers with four and eight arguments
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ControllerInvocationBenchmark {
+
+    public static class Handler extends WebController {
+
+        Blackhole blackhole;
+
+        public void fourArguments(String a, Integer b, Float c, Double d) {
+            blackhole.consume(a);
+            blackhole.consume(b);
+            blackhole.consume(c);
+            blackhole.consume(d);
+        }
+
+        public void eightArguments(String a, Integer b, Float c, Double d, String e, Integer f, Float g, Double h) {
+            blackhole.consume(a);
+            blackhole.consume(b);
+            blackhole.consume(c);
+            blackhole.consume(d);
+            blackhole.consume(e);
+            blackhole.consume(f);
+            blackhole.consume(g);
+            blackhole.consume(h);
+        }
+
+    }
+
+    Handler handler;
+
+    ControllerInvoker fourReflection;
+    ControllerInvoker fourMethodHandle;
+    ControllerInvoker fourLambda;
+    ControllerInvoker eightReflection;
+    ControllerInvoker eightMethodHandle;
+    ControllerInvoker eightLambda;
+
+    Object[] fourArguments;
+    Object[] eightArguments;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Throwable {
+        handler = new Handler();
+        handler.blackhole = blackhole;
+
+        Method four = Handler.class.getMethod("fourArguments", String.class, Integer.class, Float.class, Double.class);
+        Method eight = Handler.class.getMethod("eightArguments", String.class, Integer.class, Float.class, Double.class,
+                String.class, Integer.class, Float.class, Double.class);
+
+        fourReflection = new ControllerInvoker.ReflectionInvoker(four);
+        fourMethodHandle = new ControllerInvoker.MethodHandleInvoker(four);
+        fourLambda = new ControllerInvoker.LambdaInvoker(four);
+        eightReflection = new ControllerInvoker.ReflectionInvoker(eight);
+        eightMethodHandle = new ControllerInvoker.MethodHandleInvoker(eight);
+        eightLambda = new ControllerInvoker.LambdaInvoker(eight);
+
+        fourArguments = new Object[] { "hello", 33, 3.14f, 153.14433d };
+        eightArguments = new Object[] { "hello", 33, 3.14f, 153.14433d, "world", 44, 2.71f, 1.41421d };
+    }
+
+    @Benchmark
+    public void fourArgumentsDirect() {
+        handler.fourArguments((String) fourArguments[0], (Integer) fourArguments[1], (Float) fourArguments[2], (Double) fourArguments[3]);
+    }
+
+    @Benchmark
+    public Object fourArgumentsReflection() throws Exception {
+        return fourReflection.invoke(handler, fourArguments);
+    }
+
+    @Benchmark
+    public Object fourArgumentsMethodHandle() throws Exception {
+        return fourMethodHandle.invoke(handler, fourArguments);
+    }
+
+    @Benchmark
+    public Object fourArgumentsLambda() throws Exception {
+        return fourLambda.invoke(handler, fourArguments);
+    }
+
+    @Benchmark
+    public Object eightArgumentsReflection() throws Exception {
+        return eightReflection.invoke(handler, eightArguments);
+    }
+
+    @Benchmark
+    public Object eightArgumentsMethodHandle() throws Exception {
+        return eightMethodHandle.invoke(handler, eightArguments);
+    }
+
+    @Benchmark
+    public Object eightArgumentsLambda() throws Exception {
+        return eightLambda.invoke(handler, eightArguments);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ControllerInvocationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
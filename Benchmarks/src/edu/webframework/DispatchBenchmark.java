@@ -0,0 +1,258 @@
+package edu.webframework;
+
+import edu.webframework.annotations.CacheResponse;
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.UrlPathController;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Whole requests through processRequest: route resolution, argument binding, controller creation and invocation.
+// Requests and responses are created once, so only the work of the dispatcher is measured.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @UrlPathController(path = "/bench/")
+    public static class HomeController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void index() {
+            setModel("message", "hello");
+        }
+
+    }
+
+    @UrlPathController(path = "/bench/items/{id:int}/")
+    public static class ItemController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show(@HttpRequestParameter(name = "id", fromUrl = true) Integer id,
+                         @HttpRequestParameter(name = "page") Integer page,
+                         @HttpRequestParameter(name = "sort") String sort) {
+            setModel("id", id);
+        }
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void update(@HttpRequestParameter(name = "id", fromUrl = true) Integer id,
+                           @HttpRequestParameter(name = "testbean", required = true) TestBean testBean) {
+            setModel("item", testBean);
+        }
+
+    }
+
+    // Stands for a page rendered by a view, a table of a hundred rows
+    @UrlPathController(path = "/bench/page/")
+    public static class PageController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void rendered(@HttpRequestParameter(name = "filter") String filter) throws IOException {
+            render(filter);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "cached")
+        @CacheResponse(parameters = "filter")
+        public void cached(@HttpRequestParameter(name = "filter") String filter) throws IOException {
+            render(filter);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "versioned")
+        public void versioned(@HttpRequestParameter(name = "filter") String filter) throws IOException {
+            if ( checkNotModified("v1") ) {
+                return;
+            }
+            render(filter);
+        }
+
+        private void render(String filter) throws IOException {
+            getResponse().setContentType("text/html;charset=UTF-8");
+            PrintWriter writer = getResponse().getWriter();
+            writer.write("<html><body><table>");
+            for ( int i = 0; i < 100; i++ ) {
+                writer.write(String.format("<tr><td>%s</td><td>%s</td></tr>", i, filter));
+            }
+            writer.write("</table></body></html>");
+        }
+
+    }
+
+    // The output stream of the Spring mock flushes after every byte, which would be all a cached page measures
+    static class PageResponse extends MockHttpServletResponse {
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+        }
+
+    }
+
+    BenchmarkServletDispatcher dispatcher;
+
+    MockHttpServletRequest homeRequest;
+    MockHttpServletRequest itemRequest;
+    MockHttpServletRequest updateRequest;
+    MockHttpServletRequest unknownRequest;
+    MockHttpServletRequest renderedPageRequest;
+    MockHttpServletRequest compressedPageRequest;
+    MockHttpServletRequest cachedPageRequest;
+    MockHttpServletRequest notModifiedPageRequest;
+    MockHttpServletRequest staticFileRequest;
+    MockHttpServletResponse response;
+
+    @Setup
+    public void setup() throws Exception {
+        dispatcher = new BenchmarkServletDispatcher();
+        dispatcher.initializeWebControllers(new Class[] { HomeController.class, ItemController.class, PageController.class });
+
+        homeRequest = request(HttpMethodType.GET, "/bench/");
+
+        itemRequest = request(HttpMethodType.GET, "/bench/items/33/");
+        itemRequest.setParameter("page", "2");
+        itemRequest.setParameter("sort", "name");
+
+        updateRequest = request(HttpMethodType.POST, "/bench/items/33/");
+        updateRequest.setParameter("testbean.strValue", "hello");
+        updateRequest.setParameter("testbean.intValue", "33");
+        updateRequest.setParameter("testbean.listStr", new String[] { "a", "b", "c" });
+
+        unknownRequest = request(HttpMethodType.GET, "/bench/unknown/");
+
+        renderedPageRequest = request(HttpMethodType.GET, "/bench/page/");
+        renderedPageRequest.setParameter("filter", "active");
+
+        compressedPageRequest = request(HttpMethodType.GET, "/bench/page/");
+        compressedPageRequest.setParameter("filter", "active");
+        compressedPageRequest.addHeader("Accept-Encoding", "gzip, deflate");
+
+        cachedPageRequest = request(HttpMethodType.GET, "/bench/page/");
+        cachedPageRequest.setParameter("filter", "active");
+        cachedPageRequest.setParameter(ServletDispatcher.ACTION, "cached");
+
+        notModifiedPageRequest = request(HttpMethodType.GET, "/bench/page/");
+        notModifiedPageRequest.setParameter("filter", "active");
+        notModifiedPageRequest.setParameter(ServletDispatcher.ACTION, "versioned");
+        notModifiedPageRequest.addHeader("If-None-Match", "\"v1\"");
+
+        // A stylesheet of the size of the TodoMVC one, served by the static resource handler
+        Path directory = Files.createTempDirectory("static");
+        directory.toFile().deleteOnExit();
+        Path stylesheet = Files.write(directory.resolve("index.css"), new byte[8 * 1024]);
+        stylesheet.toFile().deleteOnExit();
+        dispatcher.initializeStaticResources("/static/=" + directory, null);
+        staticFileRequest = request(HttpMethodType.GET, "/static/index.css");
+
+        response = new MockHttpServletResponse();
+    }
+
+    private static MockHttpServletRequest request(String method, String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(method);
+        request.setRequestURI(uri);
+        return request;
+    }
+
+    @Benchmark
+    public void staticRoute() throws Exception {
+        dispatcher.doGet(homeRequest, response);
+    }
+
+    @Benchmark
+    public void pathVariableAndParameters() throws Exception {
+        dispatcher.doGet(itemRequest, response);
+    }
+
+    @Benchmark
+    public void beanBinding() throws Exception {
+        dispatcher.doPost(updateRequest, response);
+    }
+
+    @Benchmark
+    public void unknownRoute() throws Exception {
+        dispatcher.doGet(unknownRequest, response);
+    }
+
+    // Pages write a body, so they get a new response every time
+    @Benchmark
+    public Object renderedPage() throws Exception {
+        MockHttpServletResponse pageResponse = new PageResponse();
+        dispatcher.doGet(renderedPageRequest, pageResponse);
+        return pageResponse;
+    }
+
+    @Benchmark
+    public Object compressedPage() throws Exception {
+        MockHttpServletResponse pageResponse = new PageResponse();
+        dispatcher.doGet(compressedPageRequest, pageResponse);
+        return pageResponse;
+    }
+
+    @Benchmark
+    public Object cachedPage() throws Exception {
+        MockHttpServletResponse pageResponse = new PageResponse();
+        dispatcher.doGet(cachedPageRequest, pageResponse);
+        return pageResponse;
+    }
+
+    @Benchmark
+    public Object notModifiedPage() throws Exception {
+        MockHttpServletResponse pageResponse = new PageResponse();
+        dispatcher.doGet(notModifiedPageRequest, pageResponse);
+        return pageResponse;
+    }
+
+    @Benchmark
+    public Object staticFile() throws Exception {
+        MockHttpServletResponse pageResponse = new PageResponse();
+        dispatcher.doGet(staticFileRequest, pageResponse);
+        return pageResponse;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(DispatchBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
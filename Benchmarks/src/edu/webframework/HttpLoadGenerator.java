@@ -0,0 +1,163 @@
+package edu.webframework;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed loop HTTP/1.1 load: every connection is kept alive and sends its next request as soon as the previous
+// response has been read. Used to compare the same application deployed in a container and on the embedded server.
+//
+// Usage: HttpLoadGenerator <url> [connections] [seconds] [warmup seconds]
+public class HttpLoadGenerator {
+
+    final String host;
+    final int port;
+    final byte[] request;
+    final int connections;
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    volatile boolean measuring;
+    final LongAdder responses = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    HttpLoadGenerator(URI uri, int connections) {
+        host = uri.getHost();
+        port = uri.getPort() > 0 ? uri.getPort() : 80;
+        String target = uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+        request = String.format("GET %s HTTP/1.1\r\nHost: %s:%s\r\nUser-Agent: HttpLoadGenerator\r\n\r\n", target, host, port)
+                .getBytes(StandardCharsets.ISO_8859_1);
+        this.connections = connections;
+    }
+
+    void run(int seconds, int warmupSeconds) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for ( int i = 0; i < connections; i++ ) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    connection();
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+
+        for ( Thread thread : threads ) {
+            thread.join(1000);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "connections [%s] requests [%s] errors [%s] throughput [%.0f req/s]",
+                connections, responses.sum(), errors.sum(), responses.sum() / elapsed));
+        System.out.println(String.format(Locale.ROOT, "latency ms mean [%.3f] p50 [%.3f] p99 [%.3f] p99.9 [%.3f] max [%.3f]",
+                latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+                latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6));
+    }
+
+    private void connection() {
+        while ( running.get() ) {
+            try ( Socket socket = new Socket(host, port) ) {
+                socket.setTcpNoDelay(true);
+                OutputStream output = socket.getOutputStream();
+                InputStream input = new BufferedInputStream(socket.getInputStream());
+
+                boolean keepAlive = true;
+                while ( running.get() && keepAlive ) {
+                    long start = System.nanoTime();
+                    output.write(request);
+                    output.flush();
+                    keepAlive = readResponse(input);
+                    if ( measuring ) {
+                        latency.record(System.nanoTime() - start);
+                        responses.increment();
+                    }
+                }
+            } catch ( IOException ex ) {
+                if ( measuring ) {
+                    errors.increment();
+                }
+            }
+        }
+    }
+
+    // Reads one response with a Content-Length body and tells whether the connection can be reused
+    private boolean readResponse(InputStream input) throws IOException {
+        String statusLine = readLine(input);
+        if ( !statusLine.startsWith("HTTP/1.1 2") && measuring ) {
+            errors.increment();
+        }
+
+        long contentLength = 0;
+        boolean keepAlive = true;
+        String line;
+        while ( !(line = readLine(input)).isEmpty() ) {
+            String lower = line.toLowerCase(Locale.ROOT);
+            if ( lower.startsWith("content-length:") ) {
+                contentLength = Long.parseLong(line.substring(15).trim());
+            } else if ( lower.startsWith("connection:") && lower.contains("close") ) {
+                keepAlive = false;
+            } else if ( lower.startsWith("transfer-encoding:") ) {
+                throw new IOException("Chunked responses are not supported by the load generator");
+            }
+        }
+
+        while ( contentLength > 0 ) {
+            long skipped = input.skip(contentLength);
+            if ( skipped <= 0 ) {
+                if ( input.read() < 0 ) {
+                    throw new IOException("Connection closed before the end of the response");
+                }
+                skipped = 1;
+            }
+            contentLength -= skipped;
+        }
+        return keepAlive;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder(64);
+        int c;
+        while ( (c = input.read()) != '\n' ) {
+            if ( c < 0 ) {
+                throw new IOException("Connection closed");
+            }
+            if ( c != '\r' ) {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if ( args.length < 1 ) {
+            System.out.println("Usage: HttpLoadGenerator <url> [connections] [seconds] [warmup seconds]");
+            return;
+        }
+
+        URI uri = URI.create(args[0]);
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        new HttpLoadGenerator(uri, connections).run(seconds, warmup);
+    }
+
+}
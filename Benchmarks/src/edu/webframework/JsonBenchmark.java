@@ -0,0 +1,166 @@
+package edu.webframework;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A list of a hundred todo items written as JSON to a response stream, with the writer used by WebController.json
+// and with a String concatenated by hand and then encoded, as a handler without a JSON library would do it. The same
+// document is also bound back into a list of items, as an argument with fromBody does.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    // Same shape as the TodoMVC ThingTodo
+    public static class Item {
+
+        private Integer id;
+        private String description;
+        private Boolean completed;
+
+        public Integer getId() {
+            return id;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Boolean isCompleted() {
+            return completed;
+        }
+
+        public void setId(Integer id) {
+            this.id = id;
+        }
+
+        public void setDescription(String description) {
+            this.description = description;
+        }
+
+        public void setCompleted(Boolean completed) {
+            this.completed = completed;
+        }
+
+    }
+
+    // Stands for the response stream, only counts what it is given
+    static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+    List<Item> items;
+    CountingOutputStream out;
+    byte[] body;
+    BeanBindingPlan plan;
+
+    @Setup
+    public void setup() throws Exception {
+        items = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ ) {
+            Item item = new Item();
+            item.id = i;
+            item.description = "Buy \"item\" number " + i;
+            item.completed = i % 3 == 0;
+            items.add(item);
+        }
+        out = new CountingOutputStream();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = JsonWriter.acquire(bytes);
+        try {
+            writer.writeValue(items);
+        } finally {
+            writer.release();
+        }
+        body = bytes.toByteArray();
+        plan = BeanBindingPlan.build(Item.class, new HashMap<Class<?>, BeanBindingPlan>());
+    }
+
+    @Benchmark
+    public long precompiledWriter() throws IOException {
+        JsonWriter writer = JsonWriter.acquire(out);
+        try {
+            writer.writeValue(items);
+        } finally {
+            writer.release();
+        }
+        return out.count;
+    }
+
+    @Benchmark
+    public long stringConcatenation() throws IOException {
+        String json = "[";
+        for ( int i = 0; i < items.size(); i++ ) {
+            Item item = items.get(i);
+            json += (i > 0 ? "," : "") + "{\"id\":" + item.getId() + ",\"description\":\"" + escape(item.getDescription())
+                    + "\",\"completed\":" + item.isCompleted() + "}";
+        }
+        json += "]";
+        out.write(json.getBytes(StandardCharsets.UTF_8));
+        return out.count;
+    }
+
+    @Benchmark
+    public long stringBuilder() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for ( int i = 0; i < items.size(); i++ ) {
+            Item item = items.get(i);
+            json.append(i > 0 ? "," : "").append("{\"id\":").append(item.getId()).append(",\"description\":\"")
+                    .append(escape(item.getDescription())).append("\",\"completed\":").append(item.isCompleted()).append('}');
+        }
+        json.append(']');
+        out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        return out.count;
+    }
+
+    @Benchmark
+    public int bindBody() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), body.length);
+        List<Object> bound = reader.readList(null, plan);
+        reader.end();
+        return bound.size();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(JsonBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,77 @@
+package edu.webframework;
+
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.UrlPathController;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// Route resolution with 10, 100 and 1000 registered controllers, with and without the route cache in front of the
+// trie, cycling through every registered path
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class RouteMatchingBenchmark {
+
+    @UrlPathController(path = "/bench/")
+    public static class RoutedController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show(@HttpRequestParameter(name = "id", fromUrl = true) Integer id) {
+        }
+
+    }
+
+    @Param({ "10", "100", "1000" })
+    int controllers;
+
+    @Param({ "true", "false" })
+    boolean routeCache;
+
+    BenchmarkServletDispatcher dispatcher;
+    String[] uris;
+    int next;
+
+    @Setup
+    public void setup() throws Exception {
+        dispatcher = new BenchmarkServletDispatcher();
+        dispatcher.initializeRouteCache(routeCache ? null : "0");
+
+        uris = new String[controllers];
+        for ( int i = 0; i < controllers; i++ ) {
+            ServletDispatcher.ControllerDescriptor descriptor = dispatcher.generateDescriptor(RoutedController.class);
+            dispatcher.registerRoute(String.format("/bench/controller%s/{id:int}/", i), descriptor);
+            uris[i] = String.format("/bench/controller%s/%s/", i, i);
+        }
+    }
+
+    @Benchmark
+    public Object resolveRoute() throws Exception {
+        String uri = uris[next];
+        next = next + 1 == uris.length ? 0 : next + 1;
+        return dispatcher.resolveRoute(HttpMethodType.GET, uri, ServletDispatcher.DEFAULT);
+    }
+
+    @Benchmark
+    public Object resolveUnknownRoute() throws Exception {
+        return dispatcher.resolveRoute(HttpMethodType.GET, "/bench/unknown/1/", ServletDispatcher.DEFAULT);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(RouteMatchingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,105 @@
+package edu.webframework;
+
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpSession;
+import java.util.Locale;
+
+// Not a JMH benchmark: the heap kept by active sessions, each with the attributes of a login, in the session manager of
+// Tomcat, the container default, and in the framework's memory store. Every run creates the sessions in a fresh manager
+// or store and measures the used heap after a few collections, so it is best run with a fixed heap, like -Xms1g -Xmx1g.
+//
+// Usage: SessionMemoryBenchmark [sessions] [runs]
+public class SessionMemoryBenchmark {
+
+    interface Sessions {
+
+        Object create(int count) throws Exception;
+
+    }
+
+    static final Sessions CONTAINER = new Sessions() {
+        @Override
+        public Object create(int count) {
+            StandardManager manager = new StandardManager();
+            manager.setContext(new StandardContext());
+            for ( int i = 0; i < count; i++ ) {
+                StandardSession session = (StandardSession) manager.createEmptySession();
+                session.setNew(true);
+                session.setValid(true);
+                session.setCreationTime(System.currentTimeMillis());
+                session.setMaxInactiveInterval(ServletDispatcher.DEFAULT_SESSION_TIMEOUT);
+                session.setId(id(i));
+                login(session, i);
+            }
+            return manager;
+        }
+    };
+
+    static final Sessions FRAMEWORK = new Sessions() {
+        @Override
+        public Object create(int count) {
+            FrameworkSessions sessions = new FrameworkSessions(new MemorySessionStore(), new SessionSerializer(getClass().getClassLoader()),
+                    ServletDispatcher.DEFAULT_SESSION_TIMEOUT);
+            for ( int i = 0; i < count; i++ ) {
+                FrameworkSessions.SessionRequest request = sessions.wrap(new MockHttpServletRequest(), new MockHttpServletResponse());
+                login(request.getSession(), i);
+                request.finish();
+            }
+            return sessions;
+        }
+    };
+
+    static String id(int i) {
+        return String.format("%032X", i);
+    }
+
+    static void login(HttpSession session, int i) {
+        session.setAttribute("user", "user" + i);
+        session.setAttribute("userId", i);
+        session.setAttribute("locale", "en_US");
+        session.setAttribute("csrf", id(i * 31 + 7));
+    }
+
+    static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 5; i++ ) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static double measure(Sessions sessions, int count) throws Exception {
+        long before = usedHeap();
+        Object kept = sessions.create(count);
+        long after = usedHeap();
+        if ( kept == null ) {
+            throw new IllegalStateException();
+        }
+        return (double) (after - before) / count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // The first runs warm up the classes of both
+        measure(CONTAINER, count / 10);
+        measure(FRAMEWORK, count / 10);
+
+        double container = Double.MAX_VALUE;
+        double framework = Double.MAX_VALUE;
+        for ( int run = 0; run < runs; run++ ) {
+            container = Math.min(container, measure(CONTAINER, count));
+            framework = Math.min(framework, measure(FRAMEWORK, count));
+        }
+        System.out.println(String.format(Locale.ROOT, "sessions [%s] container [%.0f bytes/session] framework memory store [%.0f bytes/session]",
+                count, container, framework));
+    }
+
+}
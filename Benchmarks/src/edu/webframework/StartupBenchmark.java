@@ -0,0 +1,137 @@
+package edu.webframework;
+
+import edu.webframework.processor.ControllerRegistryProcessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cold dispatcher init for an application with a few hundred controllers, registered from the web.xml lists with
+// reflection or from the registry generated by ControllerRegistryProcessor, eagerly or with lazy activation. The
+// application is compiled in the setup of every fork and init runs once per fork, so each measurement pays for class
+// loading and linking.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    static final int SERVICES = 10;
+
+    @Param({ "300" })
+    int controllers;
+
+    @Param({ "reflection", "generated" })
+    String registry;
+
+    @Param({ "eager", ServletDispatcher.LAZY_ACTIVATION })
+    String activation;
+
+    ClassLoader classLoader;
+    String controllerList;
+    String serviceList;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Path directory = Files.createTempDirectory("startup");
+        Path sources = Files.createDirectories(directory.resolve("src/app"));
+        Path classes = Files.createDirectories(directory.resolve("classes"));
+
+        List<String> arguments = new ArrayList<>(Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", classes.toString()));
+        if ( "generated".equals(registry) ) {
+            arguments.addAll(Arrays.asList("-processor", ControllerRegistryProcessor.class.getName(), "-s", classes.toString()));
+        } else {
+            arguments.add("-proc:none");
+        }
+
+        StringBuilder services = new StringBuilder();
+        for ( int i = 0; i < SERVICES; i++ ) {
+            arguments.add(write(sources, "Service" + i, String.format(
+                    "package app;%n" +
+                    "@edu.webframework.annotations.Service%n" +
+                    "public class Service%1$s extends edu.webframework.ServiceController {%n" +
+                    "    public void initialize() {}%n" +
+                    "    public void shutdown() {}%n" +
+                    "}%n", i)));
+            services.append(i > 0 ? "," : "").append("app.Service").append(i);
+        }
+
+        StringBuilder controllers = new StringBuilder();
+        for ( int i = 0; i < this.controllers; i++ ) {
+            arguments.add(write(sources, "Controller" + i, String.format(
+                    "package app;%n" +
+                    "import edu.webframework.annotations.*;%n" +
+                    "import java.util.List;%n" +
+                    "@UrlPathController(path = \"/items%1$s/{id}/\")%n" +
+                    "public class Controller%1$s extends edu.webframework.WebController {%n" +
+                    "    @RequireService%n" +
+                    "    Service%2$s service;%n" +
+                    "    @HttpMethod(type = HttpMethodType.GET)%n" +
+                    "    public void show(@HttpRequestParameter(name = \"id\", fromUrl = true) Integer id,%n" +
+                    "                     @HttpRequestParameter(name = \"tags\") List<String> tags) {}%n" +
+                    "    @HttpMethod(type = HttpMethodType.POST, action = \"update\")%n" +
+                    "    public void update(@HttpRequestParameter(name = \"id\", fromUrl = true) Integer id,%n" +
+                    "                       @HttpRequestParameter(name = \"name\", required = true) String name) {}%n" +
+                    "}%n", i, i % SERVICES)));
+            controllers.append(i > 0 ? "," : "").append("app.Controller").append(i);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if ( compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])) != 0 ) {
+            throw new IllegalStateException("Could not compile the application");
+        }
+
+        classLoader = new URLClassLoader(new URL[] { classes.toUri().toURL() }, StartupBenchmark.class.getClassLoader());
+        // With the generated registry the lists are not needed, they are kept to show they are skipped
+        controllerList = controllers.toString();
+        serviceList = services.toString();
+    }
+
+    private static String write(Path directory, String name, String source) throws Exception {
+        Path path = directory.resolve(name + ".java");
+        Files.write(path, source.getBytes(StandardCharsets.UTF_8));
+        return path.toString();
+    }
+
+    @Benchmark
+    public Object init() {
+        BenchmarkServletDispatcher dispatcher = new BenchmarkServletDispatcher();
+        MockServletContext servletContext = (MockServletContext) dispatcher.getServletContext();
+        servletContext.addInitParameter("webcontrollers", controllerList);
+        servletContext.addInitParameter("services", serviceList);
+        servletContext.addInitParameter(ServletDispatcher.ACTIVATION, activation);
+
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+        try {
+            dispatcher.init();
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+        return dispatcher;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(StartupBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
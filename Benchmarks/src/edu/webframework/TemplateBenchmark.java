@@ -0,0 +1,204 @@
+package edu.webframework;
+
+import org.apache.jasper.servlet.JasperInitializer;
+import org.apache.jasper.servlet.JspServlet;
+import org.apache.tomcat.InstanceManager;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.SimpleInstanceManager;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletContext;
+import javax.servlet.descriptor.JspConfigDescriptor;
+import javax.servlet.descriptor.JspPropertyGroupDescriptor;
+import javax.servlet.descriptor.TaglibDescriptor;
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The TodoMVC page with a hundred todo items, rendered by the compiled template engine and by Jasper, the JSP engine
+// of Tomcat, from the same index.jsp. Both write to a new PageResponse every time, the template to its output stream and
+// the JSP to its writer. There is no fragment cache in their servlet context, so the todo list is rendered every time,
+// except for the compiled page of cachedFragment. The page is read from the directory of the todo.web property,
+// Examples/TodoMVC/web of the working directory by default, and the JSTL jar from jstl.jar.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+
+    static final String VIEW = "/WEB-INF/jsp/index.jsp";
+    static final String CLASSES = "/WEB-INF/classes/";
+
+    // Same shape as the TodoMVC ThingTodo
+    public static class Item {
+
+        private final Integer id;
+        private final String description;
+        private final Boolean completed;
+
+        Item(Integer id, String description, Boolean completed) {
+            this.id = id;
+            this.description = description;
+            this.completed = completed;
+        }
+
+        public Integer getId() {
+            return id;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Boolean getCompleted() {
+            return completed;
+        }
+
+    }
+
+    MockHttpServletRequest request;
+    MockHttpServletRequest cachedRequest;
+    Template template;
+    JspServlet jsp;
+
+    @Setup
+    public void setup() throws Exception {
+        File web = new File(System.getProperty("todo.web", "Examples/TodoMVC/web"));
+        File jstl = new File(System.getProperty("jstl.jar", "lib/jstl-1.2.jar"));
+        if ( !web.isDirectory() || !jstl.isFile() ) {
+            throw new IllegalStateException(String.format("Cannot find [%s] or [%s], run from the project directory", web, jstl));
+        }
+
+        // Jasper finds the JSTL tag library descriptors in the jars of the class loader of the application
+        final ClassLoader loader = new URLClassLoader(new URL[] { jstl.toURI().toURL() }, getClass().getClassLoader());
+        Thread.currentThread().setContextClassLoader(loader);
+        ServletContext servletContext = new MockServletContext("file:" + web.getAbsolutePath()) {
+            @Override
+            public ClassLoader getClassLoader() {
+                return loader;
+            }
+
+            // The framework's classes are deployed in WEB-INF/classes
+            @Override
+            public URL getResource(String path) throws MalformedURLException {
+                return path.startsWith(CLASSES) ? loader.getResource(path.substring(CLASSES.length())) : super.getResource(path);
+            }
+
+            // The taglib mapping of the TodoMVC web.xml
+            @Override
+            public JspConfigDescriptor getJspConfigDescriptor() {
+                return new JspConfigDescriptor() {
+                    @Override
+                    public Collection<TaglibDescriptor> getTaglibs() {
+                        return Collections.<TaglibDescriptor>singletonList(new TaglibDescriptor() {
+                            @Override
+                            public String getTaglibURI() {
+                                return Template.FRAMEWORK_TAGLIB;
+                            }
+
+                            @Override
+                            public String getTaglibLocation() {
+                                return CLASSES + "META-INF/webframework.tld";
+                            }
+                        });
+                    }
+
+                    @Override
+                    public Collection<JspPropertyGroupDescriptor> getJspPropertyGroups() {
+                        return Collections.emptyList();
+                    }
+                };
+            }
+        };
+        servletContext.setAttribute(InstanceManager.class.getName(), new SimpleInstanceManager());
+        servletContext.setAttribute(JarScanner.class.getName(), new StandardJarScanner());
+        servletContext.setAttribute(ServletContext.TEMPDIR, Files.createTempDirectory("jsp").toFile());
+        new JasperInitializer().onStartup(null, servletContext);
+        MockServletConfig config = new MockServletConfig(servletContext, "jsp");
+        config.addInitParameter("development", "false");
+        jsp = new JspServlet();
+        jsp.init(config);
+
+        template = Template.compile(VIEW, Files.readAllBytes(new File(web, VIEW.substring(1)).toPath()));
+
+        List<Item> things = new ArrayList<>();
+        for ( int i = 0; i < 100; i++ ) {
+            things.add(new Item(i, "Buy <item> & \"more\" number " + i, i % 3 == 0));
+        }
+        request = new MockHttpServletRequest(servletContext, "GET", "/todomvc/all");
+        request.setServletPath(VIEW);
+        request.setAttribute("things", things);
+        request.setAttribute("left", 66);
+        request.setAttribute("total", 100);
+        request.setAttribute("filter", "all");
+
+        MockServletContext cachedContext = new MockServletContext();
+        FragmentCache fragmentCache = new FragmentCache();
+        cachedContext.setAttribute(ServletDispatcher.FragmentCacheAttr, fragmentCache);
+        cachedRequest = new MockHttpServletRequest(cachedContext, "GET", "/todomvc/all");
+        for ( String name : Collections.list(request.getAttributeNames()) ) {
+            cachedRequest.setAttribute(name, request.getAttribute(name));
+        }
+
+        // Jasper compiles the page on its first request, and both have to write the same page
+        byte[] compiled = compiled().body.toByteArray();
+        byte[] container = jsp().getContentAsByteArray();
+        byte[] cached = cachedFragment().body.toByteArray();
+        if ( !Arrays.equals(compiled, container) || !Arrays.equals(compiled, cached) || fragmentCache.size() != 1 ) {
+            throw new IllegalStateException("The compiled template and the JSP do not render the same page");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        jsp.destroy();
+    }
+
+    @Benchmark
+    public DispatchBenchmark.PageResponse compiled() throws Exception {
+        DispatchBenchmark.PageResponse response = new DispatchBenchmark.PageResponse();
+        template.render(request, response);
+        return response;
+    }
+
+    @Benchmark
+    public DispatchBenchmark.PageResponse cachedFragment() throws Exception {
+        DispatchBenchmark.PageResponse response = new DispatchBenchmark.PageResponse();
+        template.render(cachedRequest, response);
+        return response;
+    }
+
+    @Benchmark
+    public DispatchBenchmark.PageResponse jsp() throws Exception {
+        DispatchBenchmark.PageResponse response = new DispatchBenchmark.PageResponse();
+        jsp.service(request, response);
+        return response;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(TemplateBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,50 @@
+package edu.webframework;
+
+import edu.webframework.embedded.EmbeddedServer;
+import org.apache.catalina.startup.Tomcat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Not a JMH benchmark: runs Examples/WebCounter, with its own web.xml, either deployed in an embedded Tomcat, the
+// container, or on the framework's embedded server, for HttpLoadGenerator to compare them. The WebCounter classes have
+// to be on the class path, and it has to be launched from the project directory. Both log warnings only, the
+// dispatcher logs a line for every request.
+//
+// Usage: WebCounterServers tomcat|embedded [port]
+public class WebCounterServers {
+
+    static final String WEB_ROOT = "Examples/WebCounter/web";
+
+    public static void main(String[] args) throws Exception {
+        String server = args.length > 0 ? args[0] : "embedded";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+
+        Logger root = Logger.getLogger("");
+        root.setLevel(Level.WARNING);
+        for ( Handler handler : root.getHandlers() ) {
+            handler.setLevel(Level.WARNING);
+        }
+
+        File webRoot = new File(WEB_ROOT).getAbsoluteFile();
+        if ( "tomcat".equals(server) ) {
+            Tomcat tomcat = new Tomcat();
+            tomcat.setPort(port);
+            tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+            tomcat.addWebapp("/WebCounter", webRoot.getPath());
+            tomcat.start();
+            System.out.println(String.format("Tomcat serving [%s] on [http://localhost:%s/WebCounter/]", webRoot, port));
+            tomcat.getServer().await();
+        } else {
+            EmbeddedServer embedded = new EmbeddedServer(port);
+            embedded.setResourceBase(webRoot);
+            embedded.loadWebXml(new File(webRoot, "WEB-INF/web.xml"));
+            embedded.start();
+            System.out.println(String.format("Embedded server serving [%s] on [http://localhost:%s/]", webRoot, port));
+        }
+    }
+
+}
@@ -28,6 +28,11 @@ public class ThingTodo implements Serializable {
         return completed;
     }
 
+    // The property views read, JSP EL only takes isX() for primitive booleans
+    public Boolean getCompleted() {
+        return completed;
+    }
+
     public void setCompleted(Boolean completed) {
         this.completed = completed;
     }
@@ -16,32 +16,35 @@ public class TodoController extends WebController {
     public TodoListService todoListService;
 
     @HttpMethod(type = HttpMethodType.GET)
+    @CacheResponse(ttl = 300)
     public void index(@HttpRequestParameter(name="filter", fromUrl = true) String filter) throws Exception {
-        List<ThingTodo> thingsTodo;
-
-        switch ( filter ) {
-            case FILTER_ALL:
-                thingsTodo = todoListService.getAllThings();
-                break;
-            case FILTER_ACTIVE:
-                thingsTodo = todoListService.getActiveThingsTodo();
-                break;
-            case FILTER_COMPLETED:
-                thingsTodo = todoListService.getCompletedThingsTodo();
-                break;
-            default:
-                thingsTodo = todoListService.getAllThings();
-                break;
+        if ( checkNotModified(filter + "-" + todoListService.getVersion()) ) {
+            return;
         }
 
+        List<ThingTodo> thingsTodo = getThingsTodo(filter);
+
         filter = filter != null ? filter : FILTER_ALL;
 
         setModel("things", thingsTodo);
         setModel("filter", filter);
+        setModel("left", todoListService.getActiveThingsTodo().size());
+        setModel("total", todoListService.getAllThings().size());
 
         view("index");
     }
 
+    @HttpMethod(type = HttpMethodType.GET, action = "json")
+    public void things(@HttpRequestParameter(name="filter", fromUrl = true) String filter) throws Exception {
+        json(getThingsTodo(filter));
+    }
+
+    @HttpMethod(type = HttpMethodType.POST, action = "json")
+    public void addThing(@HttpRequestParameter(name="thing", required = true, fromBody = true) ThingTodo thing) throws Exception {
+        todoListService.addThingTodo(thing);
+        json(thing);
+    }
+
     @HttpMethod(type = HttpMethodType.POST, action = "addThingTodo")
     public void addThingTodo(@HttpRequestParameter(name="thing") ThingTodo thing) throws Exception {
         todoListService.addThingTodo(thing);
@@ -54,6 +57,19 @@ public class TodoController extends WebController {
         redirect(TodoController.class);
     }
 
+    private List<ThingTodo> getThingsTodo(String filter) {
+        if ( filter == null ) {
+            return todoListService.getAllThings();
+        }
 
+        switch ( filter ) {
+            case FILTER_ACTIVE:
+                return todoListService.getActiveThingsTodo();
+            case FILTER_COMPLETED:
+                return todoListService.getCompletedThingsTodo();
+            default:
+                return todoListService.getAllThings();
+        }
+    }
 
 }
\ No newline at end of file
@@ -1,18 +1,29 @@
 package com.todomvc;
 
+import edu.webframework.FragmentCache;
+import edu.webframework.ResponseCache;
 import edu.webframework.ServiceController;
+import edu.webframework.annotations.RequireService;
 import edu.webframework.annotations.Service;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class TodoListService extends ServiceController {
 
+    @RequireService
+    ResponseCache responseCache;
+
+    @RequireService
+    FragmentCache fragmentCache;
+
     private Map<Integer, ThingTodo> todos;
     private int nextId;
+    private final AtomicInteger version = new AtomicInteger();
 
     @Override
     public void initialize() {
@@ -32,6 +43,11 @@ public class TodoListService extends ServiceController {
     public void shutdown() {
     }
 
+    // Changes every time a thing is added or removed
+    public int getVersion() {
+        return version.get();
+    }
+
     public List<ThingTodo> getAllThings() {
         List<ThingTodo> list = new ArrayList<>();
 
@@ -75,11 +91,17 @@ public class TodoListService extends ServiceController {
 
         thing.setId(newId);
         todos.put(thing.getId(), thing);
+        version.incrementAndGet();
+        responseCache.invalidate(TodoController.class);
+        fragmentCache.invalidate("todo-list");
     }
 
     public void removeThingTodo(Integer thingId) {
         if ( todos.containsKey(thingId) ) {
             todos.remove(thingId);
+            version.incrementAndGet();
+            responseCache.invalidate(TodoController.class);
+            fragmentCache.invalidate("todo-list");
         }
     }
 
@@ -1,5 +1,6 @@
 <%@ page contentType="text/html;charset=UTF-8" language="java" %>
 <%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://edu.webframework/tags" prefix="wf" %>
 <!doctype html>
 <html lang="en">
 <head>
@@ -17,49 +18,42 @@
     <h1>todos</h1>
     <input class="new-todo" placeholder="What needs to be done?" autofocus>
   </header>
-  <!-- This section should be hidden by default and shown when there are todos -->
+  <c:if test="${not empty things}">
+  <wf:cache name="todo-list" key="${filter}" tags="todo-list">
   <section class="main">
     <input class="toggle-all" type="checkbox">
     <label for="toggle-all">Mark all as complete</label>
     <ul class="todo-list">
-      <!-- These are here just to show the structure of the list items -->
-      <!-- List items should get the class `editing` when editing and `completed` when marked as completed -->
-      <li class="completed">
+      <c:forEach items="${things}" var="thing">
+      <li${thing.completed ? ' class="completed"' : ''}>
         <div class="view">
-          <input class="toggle" type="checkbox" checked>
-          <label>Taste JavaScript</label>
+          <input class="toggle" type="checkbox"${thing.completed ? ' checked' : ''}>
+          <label><c:out value="${thing.description}"/></label>
           <button class="destroy"></button>
         </div>
-        <input class="edit" value="Create a TodoMVC template">
-      </li>
-      <li>
-        <div class="view">
-          <input class="toggle" type="checkbox">
-          <label>Buy a unicorn</label>
-          <button class="destroy"></button>
-        </div>
-        <input class="edit" value="Rule the web">
+        <input class="edit" value="<c:out value="${thing.description}"/>">
       </li>
+      </c:forEach>
     </ul>
   </section>
-  <!-- This footer should hidden by default and shown when there are todos -->
+  </wf:cache>
+  </c:if>
   <footer class="footer">
-    <!-- This should be `0 items left` by default -->
-    <span class="todo-count"><strong>0</strong> item left</span>
-    <!-- Remove this if you don't implement routing -->
+    <span class="todo-count"><strong>${left}</strong> ${left == 1 ? 'item' : 'items'} left</span>
     <ul class="filters ${filter}">
       <li>
-        <a href="/todomvc/all">All</a>
+        <a${filter == 'all' ? ' class="selected"' : ''} href="/todomvc/all">All</a>
       </li>
       <li>
-        <a href="/todomvc/active">Active</a>
+        <a${filter == 'active' ? ' class="selected"' : ''} href="/todomvc/active">Active</a>
       </li>
       <li>
-        <a href="/todomvc/completed">Completed</a>
+        <a${filter == 'completed' ? ' class="selected"' : ''} href="/todomvc/completed">Completed</a>
       </li>
     </ul>
-    <!-- Hidden if no completed items are left ↓ -->
+    <c:if test="${left < total}">
     <button class="clear-completed">Clear completed</button>
+    </c:if>
   </footer>
 </section>
 <footer class="info">
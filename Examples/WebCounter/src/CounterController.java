@@ -1,7 +1,7 @@
 import edu.webframework.WebController;
 import edu.webframework.annotations.*;
 
-@UrlPathController(path = "/count/")
+@UrlPathController(path = "/count/", lifecycle = ControllerLifecycle.SINGLETON)
 public class CounterController extends WebController {
 
     @RequireService
@@ -13,4 +13,11 @@ public class CounterController extends WebController {
         view("index");
     }
 
+    // Same counter without the JSP view, used to compare the container deployment with the embedded server
+    @HttpMethod(type = HttpMethodType.GET, action = "plain")
+    public void plain() throws Exception {
+        getResponse().setContentType("text/plain");
+        getResponse().getWriter().print(counterService.count());
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package edu.webframework;
+
+import static org.junit.Assert.*;
+
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.Priority;
+import edu.webframework.processor.ControllerRegistryProcessor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletContext;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+
+public class ControllerRegistryTest {
+
+    private static final String SERVICE =
+            "package app;\n" +
+            "import edu.webframework.*;\n" +
+            "import edu.webframework.annotations.*;\n" +
+            "@Service\n" +
+            "public class GreetingService extends ServiceController {\n" +
+            "    String greeting;\n" +
+            "    public void initialize() { greeting = \"hello\"; }\n" +
+            "    public void shutdown() {}\n" +
+            "}\n";
+
+    private static final String CONTROLLER =
+            "package app;\n" +
+            "import edu.webframework.*;\n" +
+            "import edu.webframework.annotations.*;\n" +
+            "import java.util.List;\n" +
+            "import java.util.concurrent.CompletableFuture;\n" +
+            "@UrlPathController(path = \"/greet/{name}/\", lifecycle = ControllerLifecycle.SINGLETON)\n" +
+            "public class GreetingController extends WebController {\n" +
+            "    @RequireService\n" +
+            "    GreetingService greetingService;\n" +
+            "    @HttpMethod(type = HttpMethodType.GET)\n" +
+            "    @CacheResponse(ttl = 5, parameters = \"times\")\n" +
+            "    public void greet(@HttpRequestParameter(name = \"name\", fromUrl = true) String name,\n" +
+            "                      @HttpRequestParameter(name = \"times\") List<Integer> times) throws java.io.IOException {\n" +
+            "        getResponse().getWriter().write(greetingService.greeting + \" \" + name + \" \" + times);\n" +
+            "    }\n" +
+            "    @HttpMethod(type = HttpMethodType.GET, action = \"later\")\n" +
+            "    @NoCompression\n" +
+            "    @Priority(Priority.CRITICAL)\n" +
+            "    public CompletableFuture<Void> later() { return CompletableFuture.completedFuture(null); }\n" +
+            "    @HttpMethod(type = HttpMethodType.POST)\n" +
+            "    public void count(@HttpRequestParameter(name = \"times\", fromBody = true) List<Integer> times) throws java.io.IOException {\n" +
+            "        getResponse().getWriter().write(String.valueOf(times.size()));\n" +
+            "    }\n" +
+            "}\n";
+
+    private static final String PRIVATE_CONTROLLER =
+            "package app;\n" +
+            "import edu.webframework.*;\n" +
+            "import edu.webframework.annotations.*;\n" +
+            "@UrlPathController(path = \"/private/\")\n" +
+            "public class PrivateController extends WebController {\n" +
+            "    @HttpMethod(type = HttpMethodType.GET)\n" +
+            "    private void hidden() throws java.io.IOException { getResponse().getWriter().write(\"hidden\"); }\n" +
+            "}\n";
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("registry");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        Files.walk(directory).forEach(paths::add);
+        paths.sort(Comparator.reverseOrder());
+        for ( Path path : paths ) {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testGeneratedRegistry() throws Exception {
+        System.out.println("---> [START] [ControllerRegistryTest] [testGeneratedRegistry] <---");
+        ClassLoader classLoader = compile();
+
+        String source = new String(Files.readAllBytes(directory.resolve("generated/app/GeneratedControllerRegistry.java")), StandardCharsets.UTF_8);
+        assertTrue(source.contains("registrar.reflectiveController(app.PrivateController.class);"));
+        assertEquals(new String(Files.readAllBytes(directory.resolve("classes/META-INF/services/edu.webframework.ControllerRegistry")),
+                StandardCharsets.UTF_8).trim(), "app.GeneratedControllerRegistry");
+
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.loadControllerRegistries(classLoader);
+
+        Class[] reflective = s.generatedRegistry.reflectiveControllerClasses(new Class[0]);
+        assertEquals(reflective.length, 1);
+        assertEquals(reflective[0].getName(), "app.PrivateController");
+
+        s.initializeServices(new Class[0]);
+        s.initializeGeneratedWebControllers();
+        s.initializeWebControllers(reflective);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/greet/world/");
+        request.addParameter("times", new String[] { "1", "2" });
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getContentAsString(), "hello world [1, 2]");
+
+        ServletDispatcher.ResolvedRoute route = s.resolveRoute(HttpMethodType.GET, "/greet/world/", ServletDispatcher.DEFAULT);
+        assertTrue(route.argumentMethodDescriptor.invoker instanceof ControllerInvoker.GeneratedInvoker);
+        assertArrayEquals(route.argumentMethodDescriptor.cachePolicy.parameters, new String[] { "times" });
+        assertTrue(s.resolveRoute(HttpMethodType.GET, "/greet/world/", "later").argumentMethodDescriptor.async);
+        assertFalse(s.resolveRoute(HttpMethodType.GET, "/greet/world/", "later").argumentMethodDescriptor.compress);
+        assertTrue(route.argumentMethodDescriptor.compress);
+        assertEquals(s.resolveRoute(HttpMethodType.GET, "/greet/world/", "later").argumentMethodDescriptor.priorityClass,
+                ConcurrencyLimits.priorityClass(Priority.CRITICAL));
+        assertEquals(route.argumentMethodDescriptor.priorityClass, ConcurrencyLimits.priorityClass(Priority.NORMAL));
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.POST);
+        request.setRequestURI("/greet/world/");
+        request.setContent("[1, 2, 3]".getBytes(StandardCharsets.UTF_8));
+        response = new MockHttpServletResponse();
+        s.doPost(request, response);
+        assertEquals(response.getContentAsString(), "3");
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/private/");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getContentAsString(), "hidden");
+        System.out.println("---> [  END] [ControllerRegistryTest] [testGeneratedRegistry] <---");
+    }
+
+    @Test
+    public void testGeneratedRegistryIsOptIn() throws Exception {
+        System.out.println("---> [START] [ControllerRegistryTest] [testGeneratedRegistryIsOptIn] <---");
+        ClassLoader classLoader = compile();
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(classLoader);
+        try {
+            // Generated, but not listed in the web.xml, so not routed
+            assertEquals(greet(init(null)).getStatus(), 404);
+            assertEquals(greet(init(ServletDispatcher.GENERATED_CONTROLLER_REGISTRY)).getContentAsString(), "hello world []");
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+        System.out.println("---> [  END] [ControllerRegistryTest] [testGeneratedRegistryIsOptIn] <---");
+    }
+
+    private static ServletDispatcher init(String registry) throws Exception {
+        final MockServletContext servletContext = new MockServletContext();
+        if ( registry != null ) {
+            servletContext.addInitParameter(ServletDispatcher.CONTROLLER_REGISTRY, registry);
+        }
+        MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.init();
+        return s;
+    }
+
+    private static MockHttpServletResponse greet(ServletDispatcher s) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/greet/world/");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        return response;
+    }
+
+    private ClassLoader compile() throws IOException {
+        Path sources = Files.createDirectories(directory.resolve("src/app"));
+        Path classes = Files.createDirectories(directory.resolve("classes"));
+        Path generated = Files.createDirectories(directory.resolve("generated"));
+
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-processor", ControllerRegistryProcessor.class.getName(),
+                "-d", classes.toString(), "-s", generated.toString()));
+        String[][] files = { { "GreetingService", SERVICE }, { "GreetingController", CONTROLLER }, { "PrivateController", PRIVATE_CONTROLLER } };
+        for ( String[] file : files ) {
+            Path path = sources.resolve(file[0] + ".java");
+            Files.write(path, file[1].getBytes(StandardCharsets.UTF_8));
+            arguments.add(path.toString());
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull(compiler);
+        assertEquals(compiler.run(null, null, null, arguments.toArray(new String[arguments.size()])), 0);
+
+        // Only the registries compiled here are found, not the ones of the tree the test runs in
+        return new URLClassLoader(new URL[] { classes.toUri().toURL() }, getClass().getClassLoader()) {
+            @Override
+            public Enumeration<URL> getResources(String name) throws IOException {
+                return findResources(name);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,43 @@
+package edu.webframework;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() throws Exception {
+        System.out.println("---> [START] [LatencyHistogramTest] [testBuckets] <---");
+        int previous = -1;
+        for ( long value = 0; value < (1L << 20); value++ ) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(index));
+            // Values in a bucket are never further than 1/16 apart
+            assertTrue(LatencyHistogram.upperBoundOf(index) - value <= Math.max(1, value / 16));
+            previous = index;
+        }
+        System.out.println("---> [  END] [LatencyHistogramTest] [testBuckets] <---");
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        System.out.println("---> [START] [LatencyHistogramTest] [testPercentiles] <---");
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+
+        for ( long i = 1; i <= 1000; i++ ) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMax(), 1000000);
+        assertEquals(histogram.getMean(), 500500, 0.001);
+        assertEquals(histogram.getValueAtPercentile(50), 500000, 500000 / 16);
+        assertEquals(histogram.getValueAtPercentile(99), 990000, 990000 / 16);
+        assertEquals(histogram.getValueAtPercentile(100), 1000000);
+        System.out.println("---> [  END] [LatencyHistogramTest] [testPercentiles] <---");
+    }
+
+}
@@ -0,0 +1,132 @@
+package edu.webframework;
+
+import static org.junit.Assert.*;
+
+import edu.webframework.exceptions.WebControllerDefinitionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteTrieTest {
+
+    @Test
+    public void testLiteralRoutes() throws Exception {
+        System.out.println("---> [START] [RouteTrieTest] [testLiteralRoutes] <---");
+        RouteTrie<String> routes = new RouteTrie<>();
+        routes.add("/", "home", new ArrayList<String>());
+        routes.add("/count/", "counter", new ArrayList<String>());
+        routes.add("/test/b/", "b", new ArrayList<String>());
+
+        assertEquals(routes.match("/").value, "home");
+        assertEquals(routes.match("/count/").value, "counter");
+        assertEquals(routes.match("/test/b/").value, "b");
+        assertEquals(routes.match("/test/b/").values.length, 0);
+        assertNull(routes.match("/count"));
+        assertNull(routes.match("/test/b"));
+        assertNull(routes.match("/unknown/"));
+        assertNull(routes.match(""));
+        System.out.println("---> [  END] [RouteTrieTest] [testLiteralRoutes] <---");
+    }
+
+    @Test
+    public void testParameterRoutes() throws Exception {
+        System.out.println("---> [START] [RouteTrieTest] [testParameterRoutes] <---");
+        RouteTrie<String> routes = new RouteTrie<>();
+        List<String> names = new ArrayList<>();
+        routes.add("/test/{param1}/{param2}", "a", names);
+        routes.add("/{filter}", "todo", new ArrayList<String>());
+
+        assertEquals(names.size(), 2);
+        assertEquals(names.get(0), "param1");
+        assertEquals(names.get(1), "param2");
+
+        RouteTrie.RouteMatch<String> match = routes.match("/test/hello/world");
+        assertNotNull(match);
+        assertEquals(match.value, "a");
+        assertEquals(match.values[0], "hello");
+        assertEquals(match.values[1], "world");
+
+        match = routes.match("/active");
+        assertEquals(match.value, "todo");
+        assertEquals(match.values[0], "active");
+
+        match = routes.match("/");
+        assertEquals(match.value, "todo");
+        assertEquals(match.values[0], "");
+
+        assertNull(routes.match("/test/hello"));
+        assertNull(routes.match("/not(allowed)"));
+        System.out.println("---> [  END] [RouteTrieTest] [testParameterRoutes] <---");
+    }
+
+    @Test
+    public void testRoutePriority() throws Exception {
+        System.out.println("---> [START] [RouteTrieTest] [testRoutePriority] <---");
+        RouteTrie<String> routes = new RouteTrie<>();
+        routes.add("/things/{name}", "name", new ArrayList<String>());
+        routes.add("/things/{id:int}", "id", new ArrayList<String>());
+        routes.add("/things/new", "new", new ArrayList<String>());
+        routes.add("/things/{id:int}/edit", "edit", new ArrayList<String>());
+
+        assertEquals(routes.match("/things/new").value, "new");
+        assertEquals(routes.match("/things/42").value, "id");
+        assertEquals(routes.match("/things/-42").value, "id");
+        assertEquals(routes.match("/things/99999999999").value, "name");
+        assertEquals(routes.match("/things/unicorn").value, "name");
+        assertEquals(routes.match("/things/42/edit").value, "edit");
+        assertEquals(routes.match("/things/42/edit").values[0], "42");
+        assertNull(routes.match("/things/unicorn/edit"));
+        System.out.println("---> [  END] [RouteTrieTest] [testRoutePriority] <---");
+    }
+
+    @Test
+    public void testPlaceholdersWithinSegments() throws Exception {
+        System.out.println("---> [START] [RouteTrieTest] [testPlaceholdersWithinSegments] <---");
+        RouteTrie<String> routes = new RouteTrie<>();
+        List<String> names = new ArrayList<>();
+        routes.add("/things/item-{id:int}", "item", names);
+        routes.add("/things/{name}.json", "json", new ArrayList<String>());
+        routes.add("/things/v{major:int}-beta/{name}", "beta", new ArrayList<String>());
+        routes.add("/things/{name}", "name", new ArrayList<String>());
+
+        assertEquals(names.get(0), "id");
+        RouteTrie.RouteMatch<String> match = routes.match("/things/item-42");
+        assertEquals(match.value, "item");
+        assertEquals(match.values[0], "42");
+
+        match = routes.match("/things/unicorn.json");
+        assertEquals(match.value, "json");
+        assertEquals(match.values[0], "unicorn");
+
+        match = routes.match("/things/v2-beta/docs");
+        assertEquals(match.value, "beta");
+        assertEquals(match.values[0], "2");
+        assertEquals(match.values[1], "docs");
+
+        // Literal text that does not match, or a value of the wrong type, falls back to the plain placeholder
+        assertEquals(routes.match("/things/item-unicorn").value, "name");
+        assertEquals(routes.match("/things/item-unicorn").values[0], "item-unicorn");
+        assertEquals(routes.match("/things/unicorn.xml").value, "name");
+        assertNull(routes.match("/things/v2/docs"));
+        System.out.println("---> [  END] [RouteTrieTest] [testPlaceholdersWithinSegments] <---");
+    }
+
+    @Test
+    public void testInvalidTemplates() throws Exception {
+        System.out.println("---> [START] [RouteTrieTest] [testInvalidTemplates] <---");
+        RouteTrie<String> routes = new RouteTrie<>();
+
+        String[] templates = { "/things/{id:uuid}", "/things/{id}/{id}", "/things/{from}-{to}", "/things/item-{id", "/things/item-}{id" };
+        for ( String template : templates ) {
+            try {
+                routes.add(template, "invalid", new ArrayList<String>());
+                fail(String.format("Template [%s] should be rejected", template));
+            } catch ( WebControllerDefinitionException ex ) {
+                System.out.println("Exception caught!");
+            }
+        }
+        System.out.println("---> [  END] [RouteTrieTest] [testInvalidTemplates] <---");
+    }
+
+}
@@ -2,18 +2,59 @@ package edu.webframework;
 
 import static org.junit.Assert.*;
 
+import edu.webframework.annotations.CacheResponse;
+import edu.webframework.annotations.ControllerLifecycle;
 import edu.webframework.annotations.HttpMethod;
 import edu.webframework.annotations.HttpMethodType;
 import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.NoCompression;
+import edu.webframework.annotations.Priority;
+import edu.webframework.annotations.RequireService;
+import edu.webframework.annotations.Service;
+import edu.webframework.annotations.ShallowETag;
 import edu.webframework.annotations.UrlPathController;
 import edu.webframework.exceptions.WebControllerDefinitionException;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class ServletDispatcherTest {
 
@@ -80,6 +121,108 @@ public class ServletDispatcherTest {
         System.out.println("---> [  END] [ServletDispatcherTest] [testCastObject] <---");
     }
 
+    @Test
+    public void testArgumentBinders() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testArgumentBinders] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("integer", "33");
+        request.addParameter("numbers", new String[]{"1", "2"});
+        request.setParameter("testbean.strValue", "hello");
+
+        ArgumentBinder integer = ArgumentBinder.forArgument(s, "integer", false, Integer.class, new Class[0]);
+        ArgumentBinder missing = ArgumentBinder.forArgument(s, "missing", false, Long.class, new Class[0]);
+        ArgumentBinder numbers = ArgumentBinder.forArgument(s, "numbers", false, List.class, new Class[] { Integer.class });
+        ArgumentBinder bean = ArgumentBinder.forArgument(s, "testbean", false, TestBean.class, new Class[0]);
+
+        assertTrue(integer instanceof ArgumentBinder.ScalarBinder);
+        assertTrue(numbers instanceof ArgumentBinder.ListBinder);
+        assertTrue(bean instanceof ArgumentBinder.BeanBinder);
+
+        assertEquals(integer.bind(request, null), 33);
+        assertNull(missing.bind(request, null));
+        assertEquals(numbers.bind(request, null), java.util.Arrays.asList(1, 2));
+        assertEquals(((TestBean) bean.bind(request, null)).getStrValue(), "hello");
+
+        ArgumentBinder flag = ArgumentBinder.forArgument(s, "flag", false, Boolean.class, new Class[0]);
+        request.setParameter("flag", "TRUE");
+        assertEquals(flag.bind(request, null), Boolean.TRUE);
+        request.setParameter("flag", "on");
+        assertEquals(flag.bind(request, null), Boolean.TRUE);
+        request.setParameter("flag", "false");
+        assertEquals(flag.bind(request, null), Boolean.FALSE);
+        request.setParameter("flag", "yes");
+        try {
+            flag.bind(request, null);
+            fail("Only true, false and on are booleans");
+        } catch ( IllegalArgumentException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testArgumentBinders] <---");
+    }
+
+    @Test
+    public void testCastNestedObject() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testCastNestedObject] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("person.name", "Frodo");
+        request.setParameter("person.parent.name", "Drogo");
+        request.setParameter("person.parent.friend.name", "Bilbo");
+
+        Person person = s.castObject(request, Person.class, "person");
+        assertNotNull(person);
+        assertEquals(person.getName(), "Frodo");
+        assertNull(person.getFriend());
+        assertNotNull(person.getParent());
+        assertEquals(person.getParent().getName(), "Drogo");
+        assertNull(person.getParent().getParent());
+        assertEquals(person.getParent().getFriend().getName(), "Bilbo");
+
+        BeanBindingPlan plan = s.getBeanBindingPlan(Person.class);
+        for ( BeanBindingPlan.Property property : plan.properties ) {
+            if ( property.kind == BeanBindingPlan.PropertyKind.BEAN ) {
+                assertSame(plan, property.nested);
+            }
+        }
+        assertSame(plan, s.getBeanBindingPlan(Person.class));
+        System.out.println("---> [  END] [ServletDispatcherTest] [testCastNestedObject] <---");
+    }
+
+    public static class Person {
+
+        private String name;
+        private Person parent;
+        private Person friend;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Person getParent() {
+            return parent;
+        }
+
+        public void setParent(Person parent) {
+            this.parent = parent;
+        }
+
+        public Person getFriend() {
+            return friend;
+        }
+
+        public void setFriend(Person friend) {
+            this.friend = friend;
+        }
+
+    }
+
     @Test
     public void testGenerateDescriptor() throws Exception {
         System.out.println("---> [START] [ServletDispatcherTest] [testGenerateDescriptor] <---");
@@ -158,6 +301,29 @@ public class ServletDispatcherTest {
         System.out.println("---> [  END] [ServletDispatcherTest] [testExecuteGetMethodOnTestControllerB] <---");
     }
 
+    @Test
+    public void testRouteCache() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testRouteCache] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        s.initializeWebControllers(new Class[] { ControllerA.class, ControllerB.class });
+
+        ServletDispatcher.ResolvedRoute first = s.resolveRoute(HttpMethodType.GET, "/test/hello%20there/world", ServletDispatcher.DEFAULT);
+        assertNotNull(first);
+        assertEquals(first.urlRequestParameterDescriptor.getValue("param1"), "hello there");
+        assertEquals(first.urlRequestParameterDescriptor.getValue("param2"), "world");
+        assertEquals(s.routeCache.getMisses(), 1);
+
+        ServletDispatcher.ResolvedRoute second = s.resolveRoute(HttpMethodType.GET, "/test/hello%20there/world", ServletDispatcher.DEFAULT);
+        assertSame(first, second);
+        assertEquals(s.routeCache.getHits(), 1);
+
+        assertNull(s.resolveRoute(HttpMethodType.POST, "/test/b/", ServletDispatcher.DEFAULT));
+        assertNull(s.resolveRoute(HttpMethodType.GET, "/unknown/url/", ServletDispatcher.DEFAULT));
+        assertEquals(s.routeCache.size(), 1);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testRouteCache] <---");
+    }
+
     @UrlPathController(path = "/test/b/")
     static class ControllerB extends WebController {
 
@@ -172,6 +338,224 @@ public class ServletDispatcherTest {
 
     }
 
+    @Test
+    public void testControllerInvokers() throws Throwable {
+        System.out.println("---> [START] [ServletDispatcherTest] [testControllerInvokers] <---");
+        Method method = FalseAssertController.class.getDeclaredMethod("assertError");
+
+        ControllerInvoker[] invokers = {
+                ControllerInvoker.forMethod(method, true),
+                new ControllerInvoker.MethodHandleInvoker(method),
+                ControllerInvoker.forMethod(method, false)
+        };
+
+        assertTrue(invokers[0] instanceof ControllerInvoker.LambdaInvoker);
+        assertTrue(invokers[2] instanceof ControllerInvoker.ReflectionInvoker);
+
+        for ( ControllerInvoker invoker : invokers ) {
+            try {
+                invoker.invoke(new FalseAssertController(), new Object[0]);
+                fail("Controller exception should be propagated");
+            } catch ( InvocationTargetException ex ) {
+                assertTrue(ex.getCause() instanceof RuntimeException);
+                assertEquals(ex.getCause().getMessage(), "From assertError()");
+            }
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testControllerInvokers] <---");
+    }
+
+    @Test
+    public void testControllerLifecycles() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testControllerLifecycles] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        s.initializeWebControllers(new Class[] { SingletonController.class, PooledController.class });
+
+        for ( int i = 0; i < 3; i++ ) {
+            for ( String uri : new String[] { "/test/singleton/", "/test/pooled/" } ) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setMethod(HttpMethodType.GET);
+                request.setRequestURI(uri);
+                MockHttpServletResponse response = new MockHttpServletResponse();
+
+                s.doGet(request, response);
+                assertNotNull(request.getAttribute("controller"));
+            }
+        }
+
+        assertEquals(SingletonController.instances.get(), 1);
+        assertEquals(PooledController.instances.get(), 1);
+        assertNull(RequestContext.current().getRequest());
+        System.out.println("---> [  END] [ServletDispatcherTest] [testControllerLifecycles] <---");
+    }
+
+    @UrlPathController(path = "/test/singleton/", lifecycle = ControllerLifecycle.SINGLETON)
+    static class SingletonController extends WebController {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public SingletonController() {
+            instances.incrementAndGet();
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void index() {
+            assertNull(request);
+            assertNotNull(getRequest());
+            setModel("controller", this);
+        }
+
+    }
+
+    @UrlPathController(path = "/test/pooled/", lifecycle = ControllerLifecycle.POOLED, poolSize = 2)
+    static class PooledController extends WebController {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public PooledController() {
+            instances.incrementAndGet();
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void index() {
+            assertNotNull(request);
+            setModel("controller", this);
+        }
+
+    }
+
+    @Test
+    public void testAsyncController() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testAsyncController] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        s.initializeWebControllers(new Class[] { AsyncController.class });
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/async/");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        s.doGet(request, response);
+        assertNotNull(request.getAsyncContext());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( request.getAttribute("async") == null && System.currentTimeMillis() < deadline ) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(request.getAttribute("async"), "done");
+        assertNotEquals(request.getAttribute("thread"), Thread.currentThread().getName());
+        System.out.println("---> [  END] [ServletDispatcherTest] [testAsyncController] <---");
+    }
+
+    @Test
+    public void testAsyncControllerTimeoutWithoutAsyncSupport() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testAsyncControllerTimeoutWithoutAsyncSupport] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.asyncTimeout = 50;
+
+        s.initializeWebControllers(new Class[] { AsyncController.class });
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/async/");
+        request.setParameter(ServletDispatcher.ACTION, "never");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        try {
+            s.doGet(request, response);
+            fail("Timeout should be reported");
+        } catch ( ServletException ex ) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testAsyncControllerTimeoutWithoutAsyncSupport] <---");
+    }
+
+    @UrlPathController(path = "/test/async/")
+    static class AsyncController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public CompletableFuture<Void> index() {
+            setModel("thread", Thread.currentThread().getName());
+            return CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    setModel("async", "done");
+                }
+            });
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "never")
+        public CompletableFuture<Void> never() {
+            return new CompletableFuture<>();
+        }
+
+    }
+
+    @Test
+    public void testAsyncSingletonController() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testAsyncSingletonController] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        s.initializeWebControllers(new Class[] { AsyncSingletonController.class });
+
+        // Continuations on the async executor see the request of their handler, on another thread
+        for ( int i = 0; i < 2; i++ ) {
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.setMethod(HttpMethodType.GET);
+            request.setRequestURI("/test/asyncsingleton/");
+            request.setParameter("name", "request" + i);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+
+            s.doGet(request, response);
+            assertEquals(request.getAttribute("async"), "request" + i);
+            assertNotEquals(request.getAttribute("thread"), Thread.currentThread().getName());
+            assertEquals(response.getContentAsString(), "request" + i);
+        }
+
+        // And only in asynchronous handlers
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/asyncsingleton/");
+        request.setParameter(ServletDispatcher.ACTION, "sync");
+        try {
+            s.doGet(request, new MockHttpServletResponse());
+            fail("Synchronous handlers have no async executor");
+        } catch ( ServletException ex ) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        assertNull(RequestContext.current().getRequest());
+        System.out.println("---> [  END] [ServletDispatcherTest] [testAsyncSingletonController] <---");
+    }
+
+    @UrlPathController(path = "/test/asyncsingleton/", lifecycle = ControllerLifecycle.SINGLETON)
+    static class AsyncSingletonController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public CompletableFuture<Void> index(@HttpRequestParameter(name = "name") final String name) {
+            return CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    setModel("thread", Thread.currentThread().getName());
+                    setModel("async", name);
+                    try {
+                        getResponse().getWriter().write(name);
+                    } catch ( IOException ex ) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            }, asyncExecutor());
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "sync")
+        public void sync() {
+            asyncExecutor();
+        }
+
+    }
+
     @Test
     public void testExceptionHandling() throws Exception {
         System.out.println("---> [START] [ServletDispatcherTest] [testExceptionHandling] <---");
@@ -210,6 +594,68 @@ public class ServletDispatcherTest {
         System.out.println("---> [  END] [ServletDispatcherTest] [testUnknownUrlHandling] <---");
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testMetrics] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        s.initializeMetrics("/_metrics");
+        s.initializeWebControllers(new Class[]{FalseAssertController.class, ControllerB.class});
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/b/");
+        request.setParameter("testbean.strValue", "hello");
+        request.setParameter("testbean.intValue", "33");
+        s.doGet(request, new MockHttpServletResponse());
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/assertError/");
+        try {
+            s.doGet(request, new MockHttpServletResponse());
+            fail("Controller exception should be propagated without an error handler");
+        } catch ( ServletException ex ) {
+            System.out.println("Exception caught!");
+        }
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/unknown/url/");
+        s.doGet(request, new MockHttpServletResponse());
+
+        MetricsRegistry.RouteMetrics ok = s.metricsRegistry.get(ControllerB.class.getName(), HttpMethodType.GET, ServletDispatcher.DEFAULT);
+        assertEquals(ok.getCount(), 1);
+        assertEquals(ok.getErrors(ServletDispatcher.WebControllerError.InternalServerError), 0);
+        assertTrue(ok.latency.getMax() > 0);
+
+        MetricsRegistry.RouteMetrics failed = s.metricsRegistry.get(FalseAssertController.class.getName(), HttpMethodType.GET, ServletDispatcher.DEFAULT);
+        assertEquals(failed.getCount(), 1);
+        assertEquals(failed.getErrors(ServletDispatcher.WebControllerError.InternalServerError), 1);
+        assertEquals(s.metricsRegistry.getUnmatched(), 1);
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/_metrics");
+        request.setParameter("format", "json");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+
+        String json = response.getContentAsString();
+        System.out.println(json);
+        assertTrue(response.getContentType().startsWith("application/json"));
+        assertTrue(json.contains("\"controller\":\"" + FalseAssertController.class.getName() + "\""));
+        assertTrue(json.contains("\"InternalServerError\":1"));
+        assertTrue(json.endsWith("\"unmatched\":1}"));
+
+        request.removeParameter("format");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        System.out.println(response.getContentAsString());
+        assertTrue(response.getContentAsString().contains("route [" + ControllerB.class.getName() + "] method [GET] action [_DEFAULT_]"));
+        System.out.println("---> [  END] [ServletDispatcherTest] [testMetrics] <---");
+    }
+
     @UrlPathController(path = "/test/assertError/")
     static class FalseAssertController extends WebController {
 
@@ -222,30 +668,1470 @@ public class ServletDispatcherTest {
     }
 
     @Test
-    public void testPrimitiveArgument() throws Exception {
-        System.out.println("---> [START] [ServletDispatcherTest] [testPrimitiveArgument] <---");
-
+    public void testErrorDispatch() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testErrorDispatch] <---");
         MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeWebControllers(new Class[]{FalseAssertController.class, RequiredParameterController.class, InvalidParameterController.class});
+        s.initializeErrorHandler(new Class[]{ErrorController.class});
+        // Errors are redirected unless error.dispatch is request
+        assertTrue(s.redirectErrors);
+        s.redirectErrors = false;
 
-        try {
-            s.generateDescriptor(PrimitiveArgumentController.class);
-        } catch ( WebControllerDefinitionException ex ) {
-            System.out.println("Exception caught!");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/unknownurl/");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 404);
+        assertEquals(response.getContentAsString(), "NotFound null");
+        assertNull(response.getRedirectedUrl());
+        assertNull(request.getSession(false));
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/required/");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 400);
+        assertEquals(response.getContentAsString(), "BadRequest Required HTTP Request Parameter [name]");
+        assertNull(request.getSession(false));
+        Throwable exception = (Throwable) request.getAttribute(ServletDispatcher.WebControllerExceptionAttr);
+        assertEquals(exception.getStackTrace().length, 0);
+
+        // Values that cannot be converted are client errors too
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/invalid/");
+        request.setParameter("flag", "maybe");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 400);
+        assertEquals(response.getContentAsString(), "BadRequest Invalid HTTP Request Parameter [flag]: Invalid boolean [maybe]");
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/invalid/");
+        request.setParameter("count", "many");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 400);
+
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/assertError/");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 500);
+        assertEquals(response.getContentAsString(), "InternalServerError From assertError()");
+
+        s.redirectErrors = true;
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/unknownurl/");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getRedirectedUrl(), "/test/error/");
+        assertEquals(request.getSession().getAttribute(ServletDispatcher.WebControllerErrorTypeAttr), ServletDispatcher.WebControllerError.NotFound);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testErrorDispatch] <---");
+    }
+
+    @UrlPathController(path = "/test/required/")
+    static class RequiredParameterController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show(@HttpRequestParameter(name = "name", required = true) String name) {
+            fail("Handler should not run without its required parameter");
         }
 
-        System.out.println("---> [  END] [ServletDispatcherTest] [testPrimitiveArgument] <---");
     }
 
-    @UrlPathController(path = "/test/PrimitiveArgumentController/")
-    static class PrimitiveArgumentController extends WebController {
+    @UrlPathController(path = "/test/invalid/")
+    static class InvalidParameterController extends WebController {
 
         @HttpMethod(type = HttpMethodType.GET)
-        public void methodWithPrimitiveArguments(@HttpRequestParameter(name="floatVal") Float floatVal, @HttpRequestParameter(name="intVal") int intVal) {
-            System.out.println("PrimitiveArgumentController::methodWithPrimitiveArguments");
-            assertEquals(intVal, 33);
-            assertEquals(floatVal, new Float(3.14));
+        public void show(@HttpRequestParameter(name = "flag") Boolean flag, @HttpRequestParameter(name = "count") Integer count) {
+            fail("Handler should not run with an invalid parameter");
+        }
+
+    }
+
+    @UrlPathController(path = "/test/error/")
+    static class ErrorController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void handleError() throws IOException {
+            Throwable exception = (Throwable) getRequest().getAttribute(ServletDispatcher.WebControllerExceptionAttr);
+            getResponse().getWriter().write(getRequest().getAttribute(ServletDispatcher.WebControllerErrorTypeAttr)
+                    + " " + (exception != null ? exception.getMessage() : null));
+        }
+
+    }
+
+    @Test
+    public void testResponseCache() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testResponseCache] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeMetrics(null);
+        s.initializeResponseCache("16");
+        s.initializeWebControllers(new Class[]{CachedController.class});
+        CachedController.renders.set(0);
+
+        MockHttpServletResponse response = get(s, "/test/cached/", "1");
+        assertEquals(response.getContentAsString(), "page 1 render 1");
+        response = get(s, "/test/cached/", "1");
+        assertEquals(response.getContentAsString(), "page 1 render 1");
+        assertEquals(response.getHeader("X-Page"), "1");
+        assertTrue(response.getContentType().startsWith("text/plain"));
+        assertEquals(response.getCharacterEncoding(), "UTF-8");
+        assertEquals(CachedController.renders.get(), 1);
+
+        // Selected parameters are part of the key
+        assertEquals(get(s, "/test/cached/", "2").getContentAsString(), "page 2 render 2");
+        assertEquals(s.responseCache.getHits(), 1);
+        assertEquals(s.responseCache.getMisses(), 2);
+
+        assertEquals(s.responseCache.invalidate(CachedController.class), 2);
+        assertEquals(get(s, "/test/cached/", "1").getContentAsString(), "page 1 render 3");
+
+        // Responses setting cookies are never shared
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/cached/");
+        request.setParameter(ServletDispatcher.ACTION, "cookie");
+        s.doGet(request, new MockHttpServletResponse());
+        s.doGet(request, new MockHttpServletResponse());
+        assertEquals(CachedController.renders.get(), 5);
+        assertEquals(s.responseCache.size(), 1);
+
+        assertTrue(s.metricsRegistry.toJson().contains("\"responseCache\":{\"size\":1,\"maxSize\":16,\"hits\":1,"));
+        System.out.println("---> [  END] [ServletDispatcherTest] [testResponseCache] <---");
+    }
+
+    private static MockHttpServletResponse get(ServletDispatcher s, String uri, String page) throws ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI(uri);
+        request.setParameter("page", page);
+        request.setParameter("ignored", String.valueOf(System.nanoTime()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        return response;
+    }
+
+    @UrlPathController(path = "/test/cached/")
+    static class CachedController extends WebController {
+
+        static final AtomicInteger renders = new AtomicInteger();
+
+        @HttpMethod(type = HttpMethodType.GET)
+        @CacheResponse(parameters = "page")
+        public void show(@HttpRequestParameter(name = "page") String page) throws IOException {
+            getResponse().setContentType("text/plain");
+            getResponse().setCharacterEncoding("UTF-8");
+            getResponse().setHeader("X-Page", page);
+            getResponse().getWriter().write("page " + page + " render " + renders.incrementAndGet());
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "cookie")
+        @CacheResponse
+        public void cookie() throws IOException {
+            getResponse().addCookie(new javax.servlet.http.Cookie("visited", "true"));
+            getResponse().getWriter().write("render " + renders.incrementAndGet());
+        }
+
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testConditionalGet] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeResponseCache("16");
+        s.initializeWebControllers(new Class[]{VersionedController.class, CachedController.class});
+
+        MockHttpServletResponse response = conditionalGet(s, "/test/versioned/", null, null);
+        assertEquals(response.getStatus(), 200);
+        assertEquals(response.getHeader("ETag"), "\"v1\"");
+        assertEquals(response.getForwardedUrl(), "/WEB-INF/jsp/versioned.jsp");
+
+        // The view is not rendered for a client that already has the version
+        response = conditionalGet(s, "/test/versioned/", "If-None-Match", "\"v0\", W/\"v1\"");
+        assertEquals(response.getStatus(), 304);
+        assertNull(response.getForwardedUrl());
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/versioned/");
+        request.setParameter(ServletDispatcher.ACTION, "dated");
+        request.addHeader("If-Modified-Since", VersionedController.LAST_MODIFIED + 500);
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 304);
+
+        // Hashed from the rendered body
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/versioned/");
+        request.setParameter(ServletDispatcher.ACTION, "hashed");
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        String etag = response.getHeader("ETag");
+        assertEquals(response.getContentAsString(), "hashed body");
+        assertEquals(etag, "\"" + String.format("%032x", new java.math.BigInteger(1,
+                java.security.MessageDigest.getInstance("MD5").digest("hashed body".getBytes("UTF-8")))) + "\"");
+        request.addHeader("If-None-Match", etag);
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 304);
+        assertEquals(response.getContentAsString(), "");
+
+        // Cached responses are revalidated without running the handler
+        CachedController.renders.set(0);
+        response = get(s, "/test/cached/", "1");
+        request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/cached/");
+        request.setParameter("page", "1");
+        request.addHeader("If-None-Match", response.getHeader("ETag"));
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 304);
+        assertEquals(response.getContentAsString(), "");
+        assertEquals(response.getHeader("X-Page"), "1");
+        assertEquals(CachedController.renders.get(), 1);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testConditionalGet] <---");
+    }
+
+    private static MockHttpServletResponse conditionalGet(ServletDispatcher s, String uri, String header, String value) throws ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI(uri);
+        if ( header != null ) {
+            request.addHeader(header, value);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        return response;
+    }
+
+    @UrlPathController(path = "/test/versioned/")
+    static class VersionedController extends WebController {
+
+        static final long LAST_MODIFIED = 1500000000000L;
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show() throws Exception {
+            checkNotModified("v1");
+            view("versioned");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "dated")
+        public void dated() throws Exception {
+            if ( checkNotModified(LAST_MODIFIED) ) {
+                return;
+            }
+            fail("Client already has this version");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "hashed")
+        @ShallowETag
+        public void hashed() throws IOException {
+            getResponse().getWriter().write("hashed body");
+        }
+
+    }
+
+    @Test
+    public void testStaticResources() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testStaticResources] <---");
+        Path directory = Files.createTempDirectory("static");
+        byte[] css = "body { color: red; }".getBytes("UTF-8");
+        byte[] big = new byte[200 * 1024];
+        new Random(7).nextBytes(big);
+        Files.write(directory.resolve("app.css"), css);
+        Files.write(directory.resolve("big.bin"), big);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try ( GZIPOutputStream out = new GZIPOutputStream(gzipped) ) {
+            out.write(css);
+        }
+        Files.write(directory.resolve("app.css.gz"), gzipped.toByteArray());
+        Files.write(directory.getParent().resolve(directory.getFileName() + "-secret"), css);
+
+        // The mock resolves MIME types with the activation framework, which recent JDKs do not ship
+        final MockServletContext servletContext = new MockServletContext() {
+            @Override
+            public String getMimeType(String file) {
+                return file.endsWith(".css") ? "text/css" : null;
+            }
+        };
+        MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.initializeStaticResources("/assets/=" + directory, "3600");
+        s.initializeWebControllers(new Class[]{ControllerB.class});
+
+        MockHttpServletResponse response = staticGet(s, HttpMethodType.GET, "/assets/app.css", null, null);
+        assertEquals(response.getStatus(), 200);
+        assertEquals(response.getContentType(), "text/css");
+        assertArrayEquals(response.getContentAsByteArray(), css);
+        assertEquals(response.getHeader("Cache-Control"), "public, max-age=3600");
+        assertEquals(response.getHeader("Vary"), "Accept-Encoding");
+        assertNull(response.getHeader("Content-Encoding"));
+        String etag = response.getHeader("ETag");
+
+        response = staticGet(s, HttpMethodType.GET, "/assets/app.css", "Accept-Encoding", "deflate, gzip");
+        assertEquals(response.getHeader("Content-Encoding"), "gzip");
+        assertArrayEquals(response.getContentAsByteArray(), gzipped.toByteArray());
+        assertNotEquals(response.getHeader("ETag"), etag);
+        assertNull(staticGet(s, HttpMethodType.GET, "/assets/app.css", "Accept-Encoding", "gzip;q=0").getHeader("Content-Encoding"));
+
+        response = staticGet(s, HttpMethodType.GET, "/assets/app.css", "If-None-Match", etag);
+        assertEquals(response.getStatus(), 304);
+        assertEquals(response.getContentAsByteArray().length, 0);
+
+        // Bigger files are not kept in memory
+        response = staticGet(s, HttpMethodType.GET, "/assets/big.bin", null, null);
+        assertEquals(response.getContentType(), "application/octet-stream");
+        assertArrayEquals(response.getContentAsByteArray(), big);
+        response = staticGet(s, HttpMethodType.HEAD, "/assets/big.bin", null, null);
+        assertEquals(response.getContentLength(), big.length);
+        assertEquals(response.getContentAsByteArray().length, 0);
+
+        // Or handed to the sendfile of the container
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/assets/big.bin");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        response = new MockHttpServletResponse();
+        s.processRequest(HttpMethodType.GET, request, response);
+        assertEquals(response.getContentLength(), big.length);
+        assertEquals(response.getContentAsByteArray().length, 0);
+        assertEquals(request.getAttribute("org.apache.tomcat.sendfile.filename"), directory.resolve("big.bin").toFile().getCanonicalPath());
+        assertEquals(request.getAttribute("org.apache.tomcat.sendfile.start"), 0L);
+        assertEquals(request.getAttribute("org.apache.tomcat.sendfile.end"), (long) big.length);
+
+        assertEquals(staticGet(s, HttpMethodType.GET, "/assets/missing.css", null, null).getStatus(), 404);
+        assertEquals(staticGet(s, HttpMethodType.GET, "/assets/../" + directory.getFileName() + "-secret", null, null).getStatus(), 404);
+        assertEquals(staticGet(s, HttpMethodType.POST, "/assets/app.css", null, null).getStatus(), 405);
+
+        Files.delete(directory.getParent().resolve(directory.getFileName() + "-secret"));
+        for ( String file : new String[] { "app.css", "app.css.gz", "big.bin" } ) {
+            Files.delete(directory.resolve(file));
+        }
+        Files.delete(directory);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testStaticResources] <---");
+    }
+
+    private static MockHttpServletResponse staticGet(ServletDispatcher s, String method, String uri, String header, String value) throws ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(method);
+        request.setRequestURI(uri);
+        if ( header != null ) {
+            request.addHeader(header, value);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.processRequest(method, request, response);
+        return response;
+    }
+
+    @Test
+    public void testResponseCompression() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testResponseCompression] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeResponseCache("16");
+        s.initializeCompression(null, "1024");
+        s.initializeWebControllers(new Class[]{CompressedController.class});
+
+        MockHttpServletResponse response = compressedGet(s, ServletDispatcher.DEFAULT, "deflate;q=0.5, gzip");
+        assertEquals(response.getHeader("Content-Encoding"), "gzip");
+        assertEquals(response.getHeader("Vary"), "Accept-Encoding");
+        assertNull(response.getHeader("Content-Length"));
+        assertEquals(new String(inflate(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))), "UTF-8"), CompressedController.PAGE);
+        assertTrue(response.getContentAsByteArray().length < CompressedController.PAGE.length() / 4);
+
+        response = compressedGet(s, ServletDispatcher.DEFAULT, "gzip;q=0.5, deflate");
+        assertEquals(response.getHeader("Content-Encoding"), "deflate");
+        assertEquals(new String(inflate(new InflaterInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))), "UTF-8"), CompressedController.PAGE);
+
+        // Pooled deflaters start over for the next response
+        response = compressedGet(s, "stream", "gzip");
+        assertEquals(response.getHeader("Content-Encoding"), "gzip");
+        assertEquals(new String(inflate(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))), "UTF-8"), CompressedController.PAGE);
+
+        response = compressedGet(s, ServletDispatcher.DEFAULT, null);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(response.getContentAsString(), CompressedController.PAGE);
+
+        // Below the threshold, compressed already, or opted out
+        response = compressedGet(s, "small", "gzip");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(response.getContentAsString(), "small");
+        assertEquals(response.getContentLength(), 5);
+        assertNull(compressedGet(s, "image", "gzip").getHeader("Content-Encoding"));
+        assertNull(compressedGet(s, "plain", "gzip").getHeader("Content-Encoding"));
+        assertEquals(compressedGet(s, "plain", "gzip").getContentAsString(), CompressedController.PAGE);
+
+        // Cached responses are compressed on the way out, and their entity tag becomes weak
+        response = compressedGet(s, "cached", "gzip");
+        String etag = response.getHeader("ETag");
+        assertTrue(etag.startsWith("W/\""));
+        response = compressedGet(s, "cached", "gzip");
+        assertEquals(response.getHeader("ETag"), etag);
+        assertEquals(new String(inflate(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))), "UTF-8"), CompressedController.PAGE);
+        assertEquals(s.responseCache.getHits(), 1);
+        assertTrue(compressedGet(s, "cached", null).getHeader("ETag").startsWith("\""));
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/compressed/");
+        request.setParameter(ServletDispatcher.ACTION, "cached");
+        request.addHeader("Accept-Encoding", "gzip");
+        request.addHeader("If-None-Match", etag);
+        response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 304);
+        assertEquals(response.getContentAsByteArray().length, 0);
+        assertNull(response.getHeader("Content-Encoding"));
+        System.out.println("---> [  END] [ServletDispatcherTest] [testResponseCompression] <---");
+    }
+
+    private static MockHttpServletResponse compressedGet(ServletDispatcher s, String action, String acceptEncoding) throws ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/compressed/");
+        request.setParameter(ServletDispatcher.ACTION, action);
+        if ( acceptEncoding != null ) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        return response;
+    }
+
+    private static byte[] inflate(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for ( int read = in.read(buffer); read >= 0; read = in.read(buffer) ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @UrlPathController(path = "/test/compressed/")
+    static class CompressedController extends WebController {
+
+        static final String PAGE;
+
+        static {
+            StringBuilder page = new StringBuilder();
+            for ( int i = 0; i < 500; i++ ) {
+                page.append("<li class=\"item\">Item ").append(i).append("</li>\n");
+            }
+            PAGE = page.toString();
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show() throws IOException {
+            getResponse().setContentType("text/html");
+            getResponse().getWriter().write(PAGE);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "stream")
+        public void stream() throws IOException {
+            byte[] page = PAGE.getBytes("UTF-8");
+            getResponse().setContentType("text/html");
+            getResponse().setContentLength(page.length);
+            for ( int i = 0; i < page.length; i += 100 ) {
+                getResponse().getOutputStream().write(page, i, Math.min(100, page.length - i));
+            }
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "small")
+        public void small() throws IOException {
+            getResponse().getWriter().write("small");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "image")
+        public void image() throws IOException {
+            getResponse().setContentType("image/png");
+            getResponse().getOutputStream().write(PAGE.getBytes("UTF-8"));
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "plain")
+        @NoCompression
+        public void plain() throws IOException {
+            getResponse().getWriter().write(PAGE);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "cached")
+        @CacheResponse
+        public void cached() throws IOException {
+            getResponse().setContentType("text/html");
+            getResponse().getWriter().write(PAGE);
+        }
+
+    }
+
+    @Test
+    public void testAsyncWritesThroughCaptureAndCompression() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testAsyncWritesThroughCaptureAndCompression] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeResponseCache("16");
+        s.initializeCompression(null, "1024");
+        s.initializeWebControllers(new Class[]{AsyncWritingController.class});
+        AsyncWritingController.renders.set(0);
+
+        // Neither hashed, cached nor compressed, the dispatcher is done with the wrappers before the handler is
+        for ( String action : new String[] { ServletDispatcher.DEFAULT, "listener" } ) {
+            for ( int i = 1; i <= 2; i++ ) {
+                MockHttpServletRequest request = new MockHttpServletRequest();
+                request.setMethod(HttpMethodType.GET);
+                request.setRequestURI("/test/asyncwriting/");
+                request.setParameter(ServletDispatcher.ACTION, action);
+                request.addHeader("Accept-Encoding", "gzip");
+                request.setAsyncSupported(true);
+                final MockHttpServletResponse response = new MockHttpServletResponse();
+                s.doGet(request, new NonBlockingResponse(response));
+                assertEquals(response.getContentAsString(), CompressedController.PAGE);
+                assertNull(response.getHeader("Content-Encoding"));
+                assertNull(response.getHeader("ETag"));
+            }
+        }
+        assertEquals(AsyncWritingController.renders.get(), 4);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testAsyncWritesThroughCaptureAndCompression] <---");
+    }
+
+    @UrlPathController(path = "/test/asyncwriting/")
+    static class AsyncWritingController extends WebController {
+
+        static final AtomicInteger renders = new AtomicInteger();
+
+        @HttpMethod(type = HttpMethodType.GET)
+        @CacheResponse
+        public void show() throws IOException {
+            renders.incrementAndGet();
+            getRequest().startAsync();
+            getResponse().setContentType("text/html");
+            getResponse().getWriter().write(CompressedController.PAGE);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "listener")
+        @CacheResponse
+        public void listener() throws IOException {
+            renders.incrementAndGet();
+            getRequest().startAsync();
+            getResponse().setContentType("text/html");
+            final ServletOutputStream out = getResponse().getOutputStream();
+            out.setWriteListener(new WriteListener() {
+                @Override
+                public void onWritePossible() throws IOException {
+                    if ( out.isReady() ) {
+                        out.write(CompressedController.PAGE.getBytes("UTF-8"));
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+            });
+        }
+
+    }
+
+    // The mock's stream predates non-blocking writes, this one is always ready and calls the listener at once
+    static class NonBlockingResponse extends HttpServletResponseWrapper {
+
+        private ServletOutputStream outputStream;
+
+        NonBlockingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if ( outputStream == null ) {
+                final ServletOutputStream out = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        out.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        try {
+                            writeListener.onWritePossible();
+                        } catch ( IOException ex ) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+    }
+
+    @Test
+    public void testJsonResponse() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testJsonResponse] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeWebControllers(new Class[]{JsonController.class});
+
+        MockHttpServletResponse response = jsonGet(s, ServletDispatcher.DEFAULT);
+        assertEquals(response.getContentType(), "application/json;charset=UTF-8");
+        assertEquals(new String(response.getContentAsByteArray(), "UTF-8"),
+                "{\"id\":7,\"description\":\"Say \\\"hi\\\"\\n\\u0001 \u00e0 \u20ac \ud83d\ude00\",\"completed\":true,\"ratio\":0.25," +
+                "\"tags\":[\"a\",null],\"counts\":{\"x\":1},\"scores\":[1,2],\"lifecycle\":\"SINGLETON\",\"parent\":null," +
+                "\"missing\":null,\"child\":{\"id\":8,\"description\":null,\"completed\":false,\"ratio\":-1.5E20,\"tags\":[]," +
+                "\"counts\":{},\"scores\":[],\"lifecycle\":null,\"parent\":null,\"missing\":null,\"child\":null}}");
+
+        // Longer than the encode buffer, written as the iterator goes
+        response = jsonGet(s, "stream");
+        String json = new String(response.getContentAsByteArray(), "UTF-8");
+        assertTrue(json.startsWith("[{\"id\":0,\"description\":\"item 0\","));
+        assertTrue(json.endsWith(",\"child\":null}]"));
+        assertEquals(json.split("\\{\"id\"").length - 1, 1000);
+
+        try {
+            jsonGet(s, "cycle");
+            fail("Beans referring to each other cannot be written");
+        } catch ( ServletException ex ) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testJsonResponse] <---");
+    }
+
+    private static MockHttpServletResponse jsonGet(ServletDispatcher s, String action) throws ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/json/");
+        request.setParameter(ServletDispatcher.ACTION, action);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        return response;
+    }
+
+    public static class JsonBean {
+
+        private static final int IGNORED = 1;
+
+        private Integer id;
+        private String description;
+        private boolean completed;
+        private Double ratio;
+        private List<String> tags = new ArrayList<>();
+        private Map<String, Integer> counts = new java.util.LinkedHashMap<>();
+        private int[] scores = new int[0];
+        private ControllerLifecycle lifecycle;
+        private JsonBean parent;
+        private transient String hidden = "hidden";
+        private String noGetter = "none";
+        private String missing;
+        private JsonBean child;
+
+        public Integer getId() { return id; }
+        public String getDescription() { return description; }
+        public boolean isCompleted() { return completed; }
+        public Double getRatio() { return ratio; }
+        public List<String> getTags() { return tags; }
+        public Map<String, Integer> getCounts() { return counts; }
+        public int[] getScores() { return scores; }
+        public ControllerLifecycle getLifecycle() { return lifecycle; }
+        public JsonBean getParent() { return parent; }
+        public String getHidden() { return hidden; }
+        public String getMissing() { return missing; }
+        public JsonBean getChild() { return child; }
+
+    }
+
+    @UrlPathController(path = "/test/json/")
+    static class JsonController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show() throws IOException {
+            JsonBean bean = new JsonBean();
+            bean.id = 7;
+            bean.description = "Say \"hi\"\n\u0001 \u00e0 \u20ac \ud83d\ude00";
+            bean.completed = true;
+            bean.ratio = 0.25;
+            bean.tags = java.util.Arrays.asList("a", null);
+            bean.counts.put("x", 1);
+            bean.scores = new int[] { 1, 2 };
+            bean.lifecycle = ControllerLifecycle.SINGLETON;
+            bean.child = new JsonBean();
+            bean.child.id = 8;
+            bean.child.ratio = -1.5e20;
+            bean.child.tags = Collections.emptyList();
+            json(bean);
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "stream")
+        public void stream() throws IOException {
+            json(new java.util.Iterator<JsonBean>() {
+                int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < 1000;
+                }
+
+                @Override
+                public JsonBean next() {
+                    JsonBean bean = new JsonBean();
+                    bean.id = next;
+                    bean.description = "item " + next++;
+                    return bean;
+                }
+            });
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "cycle")
+        public void cycle() throws IOException {
+            JsonBean bean = new JsonBean();
+            bean.parent = bean;
+            json(bean);
+        }
+
+    }
+
+    @Test
+    public void testJsonBody() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testJsonBody] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.maxJsonBodySize = 256;
+        s.redirectErrors = false;
+        s.initializeWebControllers(new Class[]{JsonBodyController.class});
+        s.initializeErrorHandler(new Class[]{ErrorController.class});
+
+        MockHttpServletResponse response = jsonPost(s, ServletDispatcher.DEFAULT,
+                " { \"id\" : 3, \"unknown\": {\"a\": [1, {\"b\": null}, \"}\"]}, \"description\": \"Say \\\"hi\\\" \\u00e0 \u20ac\",\n" +
+                "\"completed\": true, \"tags\": [\"a\", \"b\"], \"child\": {\"id\": 4, \"description\": null},\n" +
+                "\"children\": [{\"id\": 5}, {\"id\": 6, \"children\": []}] } ");
+        assertEquals(response.getStatus(), 200);
+        assertEquals(response.getContentAsString(), "3 Say \"hi\" \u00e0 \u20ac true [a, b] 4 null [5, 6]");
+
+        response = jsonPost(s, "list", "[1, 2, -3]");
+        assertEquals(response.getContentAsString(), "[1, 2, -3]");
+
+        response = jsonPost(s, "list", "[1, \"two\"]");
+        assertEquals(response.getStatus(), 400);
+        assertTrue(response.getContentAsString().startsWith("BadRequest Invalid JSON body for [numbers]: Cannot convert [two]"));
+
+        response = jsonPost(s, ServletDispatcher.DEFAULT, "{\"id\": 3,}");
+        assertEquals(response.getStatus(), 400);
+
+        response = jsonPost(s, ServletDispatcher.DEFAULT, "{\"id\": 3} {}");
+        assertEquals(response.getStatus(), 400);
+
+        // Required and empty
+        response = jsonPost(s, ServletDispatcher.DEFAULT, "");
+        assertEquals(response.getStatus(), 400);
+        assertEquals(response.getContentAsString(), "BadRequest Required HTTP Request Parameter [bean]");
+
+        // Refused from its announced length, and from what is read when the length is not known
+        StringBuilder large = new StringBuilder("[0");
+        while ( large.length() < 300 ) {
+            large.append(", 0");
+        }
+        response = jsonPost(s, "list", large.append(']').toString());
+        assertEquals(response.getStatus(), 413);
+
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public long getContentLengthLong() {
+                return -1;
+            }
+        };
+        request.setMethod(HttpMethodType.POST);
+        request.setRequestURI("/test/jsonbody/");
+        request.setParameter(ServletDispatcher.ACTION, "list");
+        request.setContent(large.toString().getBytes("UTF-8"));
+        response = new MockHttpServletResponse();
+        s.doPost(request, response);
+        assertEquals(response.getStatus(), 413);
+
+        try {
+            s.generateDescriptor(TwoBodiesController.class);
+            fail("The body can only be bound to one argument");
+        } catch ( WebControllerDefinitionException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testJsonBody] <---");
+    }
+
+    private static MockHttpServletResponse jsonPost(ServletDispatcher s, String action, String body) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.POST);
+        request.setRequestURI("/test/jsonbody/");
+        request.setParameter(ServletDispatcher.ACTION, action);
+        request.setContentType("application/json");
+        request.setContent(body.getBytes("UTF-8"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doPost(request, response);
+        return response;
+    }
+
+    public static class JsonBodyBean {
+
+        private Integer id;
+        private String description;
+        private Boolean completed;
+        private List<String> tags;
+        private JsonBodyBean child;
+        private List<JsonBodyBean> children;
+
+        public void setId(Integer id) { this.id = id; }
+        public void setDescription(String description) { this.description = description; }
+        public void setCompleted(Boolean completed) { this.completed = completed; }
+        public void setTags(List<String> tags) { this.tags = tags; }
+        public void setChild(JsonBodyBean child) { this.child = child; }
+        public void setChildren(List<JsonBodyBean> children) { this.children = children; }
+
+    }
+
+    @UrlPathController(path = "/test/jsonbody/")
+    static class JsonBodyController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void create(@HttpRequestParameter(name = "bean", required = true, fromBody = true) JsonBodyBean bean) throws IOException {
+            getResponse().setCharacterEncoding("UTF-8");
+            List<Integer> children = new ArrayList<>();
+            for ( JsonBodyBean child : bean.children ) {
+                children.add(child.id);
+            }
+            getResponse().getWriter().write(bean.id + " " + bean.description + " " + bean.completed + " " + bean.tags + " "
+                    + bean.child.id + " " + bean.child.description + " " + children);
+        }
+
+        @HttpMethod(type = HttpMethodType.POST, action = "list")
+        public void list(@HttpRequestParameter(name = "numbers", fromBody = true) List<Integer> numbers) throws IOException {
+            getResponse().getWriter().write(String.valueOf(numbers));
+        }
+
+    }
+
+    @UrlPathController(path = "/test/twobodies/")
+    static class TwoBodiesController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void create(@HttpRequestParameter(name = "first", fromBody = true) JsonBodyBean first,
+                           @HttpRequestParameter(name = "second", fromBody = true) JsonBodyBean second) {
+            fail("Handler should not be registered");
+        }
+
+    }
+
+    @Test
+    public void testServiceGraph() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testServiceGraph] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.serviceThreads = 4;
+
+        // The dependent service goes first, it still has to wait for the slow one
+        s.initializeServices(new Class[] { DependentService.class, SlowService.class, OtherSlowService.class, CycleService.class, OtherCycleService.class });
+
+        SlowService slow = (SlowService) s.servletServiceProviders.get(SlowService.class);
+        OtherSlowService otherSlow = (OtherSlowService) s.servletServiceProviders.get(OtherSlowService.class);
+        DependentService dependent = (DependentService) s.servletServiceProviders.get(DependentService.class);
+
+        assertTrue(slow.concurrent);
+        assertTrue(otherSlow.concurrent);
+        assertTrue(dependent.dependencyInitialized);
+        assertTrue(((CycleService) s.servletServiceProviders.get(CycleService.class)).initialized);
+        assertTrue(((OtherCycleService) s.servletServiceProviders.get(OtherCycleService.class)).initialized);
+        assertEquals(s.serviceInitTimes.size(), 5);
+
+        List<Class<?>> order = s.serviceGraph.getOrder();
+        assertTrue(order.indexOf(SlowService.class) < order.indexOf(DependentService.class));
+        assertEquals(s.serviceGraph.findCycle(s.serviceGraph.getUnordered(order)).size(), 3);
+
+        s.destroy();
+        assertTrue(serviceShutdowns.indexOf(DependentService.class) < serviceShutdowns.indexOf(SlowService.class));
+        System.out.println("---> [  END] [ServletDispatcherTest] [testServiceGraph] <---");
+    }
+
+    static final CountDownLatch slowServicesStarted = new CountDownLatch(2);
+    static final List<Class<?>> serviceShutdowns = Collections.synchronizedList(new ArrayList<Class<?>>());
+
+    // Only returns true when the other slow service is initializing at the same time
+    static boolean awaitSlowServices() {
+        slowServicesStarted.countDown();
+        try {
+            return slowServicesStarted.await(5, TimeUnit.SECONDS);
+        } catch ( InterruptedException ex ) {
+            return false;
+        }
+    }
+
+    @Service
+    static class SlowService extends ServiceController {
+
+        volatile boolean concurrent;
+        volatile boolean initialized;
+
+        @Override
+        public void initialize() {
+            concurrent = awaitSlowServices();
+            initialized = true;
+        }
+
+        @Override
+        public void shutdown() {
+            serviceShutdowns.add(SlowService.class);
+        }
+
+    }
+
+    @Service
+    static class OtherSlowService extends ServiceController {
+
+        volatile boolean concurrent;
+
+        @Override
+        public void initialize() {
+            concurrent = awaitSlowServices();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @Service
+    static class DependentService extends ServiceController {
+
+        @RequireService
+        SlowService slowService;
+
+        volatile boolean dependencyInitialized;
+
+        @Override
+        public void initialize() {
+            dependencyInitialized = slowService.initialized;
+        }
+
+        @Override
+        public void shutdown() {
+            serviceShutdowns.add(DependentService.class);
+        }
+
+    }
+
+    @Service
+    static class CycleService extends ServiceController {
+
+        @RequireService
+        OtherCycleService otherCycleService;
+
+        volatile boolean initialized;
+
+        @Override
+        public void initialize() {
+            initialized = true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @Service
+    static class OtherCycleService extends ServiceController {
+
+        @RequireService
+        CycleService cycleService;
+
+        volatile boolean initialized;
+
+        @Override
+        public void initialize() {
+            initialized = true;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @Test
+    public void testLazyActivation() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testLazyActivation] <---");
+        final MockServletContext servletContext = new MockServletContext();
+        servletContext.addInitParameter(ServletDispatcher.ACTIVATION, ServletDispatcher.LAZY_ACTIVATION);
+        servletContext.addInitParameter(ServletDispatcher.READINESS_PATH, "/_ready");
+        servletContext.addInitParameter("webcontrollers", LazyController.class.getName());
+        servletContext.addInitParameter("services", LazyService.class.getName());
+
+        final MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.init();
+
+        LazyService service = (LazyService) s.servletServiceProviders.get(LazyService.class);
+        assertEquals(service.initializations.get(), 0);
+        assertEquals(LazyController.instances.get(), 0);
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/_ready");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getStatus(), 200);
+        assertEquals(response.getContentAsString(), "ready");
+
+        // Concurrent first requests activate the controller and its service only once
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Object>> results = new ArrayList<>();
+        for ( int i = 0; i < 8; i++ ) {
+            results.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    MockHttpServletRequest request = new MockHttpServletRequest();
+                    request.setMethod(HttpMethodType.GET);
+                    request.setRequestURI("/test/lazy/");
+                    s.doGet(request, new MockHttpServletResponse());
+                    return request.getAttribute("initialized");
+                }
+            }));
+        }
+        for ( Future<Object> result : results ) {
+            assertEquals(result.get(5, TimeUnit.SECONDS), Boolean.TRUE);
+        }
+        executor.shutdown();
+
+        assertEquals(service.initializations.get(), 1);
+        assertEquals(LazyController.instances.get(), 1);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testLazyActivation] <---");
+    }
+
+    @Service
+    static class LazyService extends ServiceController {
+
+        final AtomicInteger initializations = new AtomicInteger();
+
+        @Override
+        public void initialize() {
+            initializations.incrementAndGet();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+    }
+
+    @UrlPathController(path = "/test/lazy/", lifecycle = ControllerLifecycle.SINGLETON)
+    static class LazyController extends WebController {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        @RequireService
+        LazyService lazyService;
+
+        LazyController() {
+            instances.incrementAndGet();
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void index() {
+            getRequest().setAttribute("initialized", lazyService.initializations.get() > 0);
+        }
+
+    }
+
+    @Test
+    public void testPrimitiveArgument() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testPrimitiveArgument] <---");
+
+        MockServletDispatcher s = new MockServletDispatcher();
+
+        try {
+            s.generateDescriptor(PrimitiveArgumentController.class);
+        } catch ( WebControllerDefinitionException ex ) {
+            System.out.println("Exception caught!");
+        }
+
+        System.out.println("---> [  END] [ServletDispatcherTest] [testPrimitiveArgument] <---");
+    }
+
+    @UrlPathController(path = "/test/PrimitiveArgumentController/")
+    static class PrimitiveArgumentController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void methodWithPrimitiveArguments(@HttpRequestParameter(name="floatVal") Float floatVal, @HttpRequestParameter(name="intVal") int intVal) {
+            System.out.println("PrimitiveArgumentController::methodWithPrimitiveArguments");
+            assertEquals(intVal, 33);
+            assertEquals(floatVal, new Float(3.14));
+        }
+
+    }
+
+    @Test
+    public void testHttpMethods() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testHttpMethods] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeResponseCache("16");
+        s.initializeWebControllers(new Class[]{ MethodsController.class, CachedController.class });
+        CachedController.renders.set(0);
+
+        assertEquals(request(s, HttpMethodType.PUT, "/test/methods/", null).getContentAsString(), "put");
+        assertEquals(request(s, HttpMethodType.DELETE, "/test/methods/", null).getContentAsString(), "delete");
+
+        // HEAD runs the GET handler, with its headers but no body, nor a length that would take rendering it
+        MockHttpServletResponse get = request(s, HttpMethodType.GET, "/test/methods/", null);
+        assertEquals(get.getContentAsString(), "caf\u00e9 \u20ac");
+        MockHttpServletResponse head = request(s, HttpMethodType.HEAD, "/test/methods/", null);
+        assertEquals(head.getStatus(), 200);
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertEquals(head.getHeader("X-Method"), "GET");
+        assertEquals(head.getContentType(), "text/plain;charset=UTF-8");
+        assertNull(head.getHeader("Content-Length"));
+        // Committed without a length, so the container cannot send the 0 of the empty body
+        assertTrue(head.isCommitted());
+        assertSameHeaders(head, get);
+
+        // JSON is not even started, but has the content type of the GET
+        get = request(s, HttpMethodType.GET, "/test/methods/", "json");
+        head = request(s, HttpMethodType.HEAD, "/test/methods/", "json");
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertEquals(head.getContentType(), "application/json;charset=UTF-8");
+        assertNull(head.getHeader("Content-Length"));
+        assertTrue(head.isCommitted());
+        assertSameHeaders(head, get);
+
+        // The length the handler sets goes through
+        head = request(s, HttpMethodType.HEAD, "/test/methods/", "sized");
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertEquals(head.getContentLength(), 5);
+
+        // A skipped view leaves nothing to cache, the next GET renders it
+        head = request(s, HttpMethodType.HEAD, "/test/methods/", "cachedjson");
+        assertNull(head.getHeader("Content-Length"));
+        assertNull(head.getHeader("ETag"));
+        assertEquals(request(s, HttpMethodType.GET, "/test/methods/", "cachedjson").getContentAsString(), "{\"cached\":true}");
+
+        // Unless the controller handles HEAD itself
+        head = request(s, HttpMethodType.HEAD, "/test/methods/", "own");
+        assertEquals(head.getHeader("X-Method"), "HEAD");
+        assertEquals(head.getContentLength(), 0);
+        assertNull(head.getHeader("Content-Length"));
+
+        head = request(s, HttpMethodType.HEAD, "/test/methods/", "missing");
+        assertEquals(head.getStatus(), 404);
+
+        // Cached responses are answered to HEAD as well
+        assertEquals(get(s, "/test/cached/", "1").getContentAsString(), "page 1 render 1");
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.HEAD);
+        request.setRequestURI("/test/cached/");
+        request.setParameter("page", "1");
+        head = new MockHttpServletResponse();
+        s.doHead(request, head);
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertEquals(head.getContentLength(), "page 1 render 1".length());
+        assertEquals(head.getHeader("X-Page"), "1");
+        assertEquals(CachedController.renders.get(), 1);
+
+        // A body the handler wrote itself is captured, measured and kept
+        request.setParameter("page", "2");
+        head = new MockHttpServletResponse();
+        s.doHead(request, head);
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertEquals(head.getContentLength(), "page 2 render 2".length());
+        assertEquals(get(s, "/test/cached/", "2").getContentAsString(), "page 2 render 2");
+        assertEquals(CachedController.renders.get(), 2);
+
+        try {
+            s.generateDescriptor(UnknownMethodController.class);
+            fail("PATCH is not a method handlers can be declared for");
+        } catch ( WebControllerDefinitionException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testHttpMethods] <---");
+    }
+
+    // The headers of a HEAD are the ones of the GET, but for the length of a body it did not render
+    private static void assertSameHeaders(MockHttpServletResponse head, MockHttpServletResponse get) {
+        for ( String name : get.getHeaderNames() ) {
+            if ( !"Content-Length".equalsIgnoreCase(name) ) {
+                assertEquals(head.getHeaders(name), get.getHeaders(name));
+            }
+        }
+        assertEquals(head.getHeaderNames().size(), get.getHeaderNames().size() - (get.containsHeader("Content-Length") ? 1 : 0));
+    }
+
+    private static MockHttpServletResponse request(ServletDispatcher s, String method, String uri, String action) throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(method);
+        request.setRequestURI(uri);
+        if ( action != null ) {
+            request.setParameter(ServletDispatcher.ACTION, action);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.service(request, response);
+        return response;
+    }
+
+    @UrlPathController(path = "/test/methods/")
+    static class MethodsController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show() throws IOException {
+            getResponse().setContentType("text/plain;charset=UTF-8");
+            getResponse().setHeader("X-Method", getRequest().getMethod().equals(HttpMethodType.HEAD) ? "GET" : getRequest().getMethod());
+            getResponse().getWriter().write("caf\u00e9 \u20ac");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "json")
+        public void json() throws IOException {
+            json(Collections.singletonMap("method", "\u20ac"));
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "sized")
+        public void sized() throws IOException {
+            getResponse().setContentLength(5);
+            getResponse().getWriter().write("sized");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "cachedjson")
+        @CacheResponse
+        public void cachedJson() throws IOException {
+            json(Collections.singletonMap("cached", true));
+        }
+
+        @HttpMethod(type = HttpMethodType.HEAD, action = "own")
+        public void own() {
+            getResponse().setHeader("X-Method", "HEAD");
+        }
+
+        @HttpMethod(type = HttpMethodType.PUT)
+        public void put() throws IOException {
+            getResponse().getWriter().write("put");
+        }
+
+        @HttpMethod(type = HttpMethodType.DELETE)
+        public void delete() throws IOException {
+            getResponse().getWriter().write("delete");
+        }
+
+    }
+
+    @UrlPathController(path = "/test/unknownmethod/")
+    static class UnknownMethodController extends WebController {
+
+        @HttpMethod(type = "PATCH")
+        public void patch() {
+        }
+
+    }
+
+    @Test
+    public void testConcurrencyLimits() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testConcurrencyLimits] <---");
+        final MockServletDispatcher s = new MockServletDispatcher();
+        // Normal requests fill 3 of the 4 places, bulk ones 2
+        s.initializeConcurrencyLimits(ServletDispatcher.ADAPTIVE_CONCURRENCY, "4", "8", "3");
+        s.initializeWebControllers(new Class[]{ LimitedController.class });
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        List<Future<MockHttpServletResponse>> slow = new ArrayList<>();
+        try {
+            for ( int i = 0; i < 2; i++ ) {
+                slow.add(executor.submit(limitedRequest(s, HttpMethodType.GET, "slow")));
+            }
+            assertTrue(LimitedController.started.tryAcquire(2, 5, TimeUnit.SECONDS));
+            assertEquals(s.concurrencyLimits.getInFlight(), 2);
+
+            // Bulk handlers are shed first, critical ones never
+            MockHttpServletResponse response = limitedRequest(s, HttpMethodType.POST, ServletDispatcher.DEFAULT).call();
+            assertEquals(response.getStatus(), 503);
+            assertEquals(response.getHeader("Retry-After"), "3");
+            assertEquals(response.getContentAsString(), "");
+            assertEquals(limitedRequest(s, HttpMethodType.GET, "critical").call().getStatus(), 200);
+            assertEquals(limitedRequest(s, HttpMethodType.GET, ServletDispatcher.DEFAULT).call().getContentAsString(), "fast");
+
+            slow.add(executor.submit(limitedRequest(s, HttpMethodType.GET, "slow")));
+            assertTrue(LimitedController.started.tryAcquire(1, 5, TimeUnit.SECONDS));
+            assertEquals(limitedRequest(s, HttpMethodType.GET, ServletDispatcher.DEFAULT).call().getStatus(), 503);
+            assertEquals(limitedRequest(s, HttpMethodType.GET, "critical").call().getStatus(), 200);
+        } finally {
+            LimitedController.release.countDown();
+            executor.shutdown();
+        }
+        for ( Future<MockHttpServletResponse> response : slow ) {
+            assertEquals(response.get(5, TimeUnit.SECONDS).getContentAsString(), "slow");
+        }
+
+        assertEquals(s.concurrencyLimits.getInFlight(), 0);
+        assertEquals(s.concurrencyLimits.getRejected(), 2);
+        assertEquals(s.concurrencyLimits.getRejected(Priority.BULK), 1);
+        assertEquals(s.concurrencyLimits.getRejected(Priority.NORMAL), 1);
+        assertEquals(s.concurrencyLimits.getRejected(Priority.CRITICAL), 0);
+        assertEquals(s.concurrencyLimits.getGloballyRejected(), 2);
+        MetricsRegistry.RouteMetrics metrics = s.metricsRegistry.get(LimitedController.class.getName(), HttpMethodType.POST, ServletDispatcher.DEFAULT);
+        assertEquals(metrics.getErrors(ServletDispatcher.WebControllerError.ServiceUnavailable), 1);
+        assertEquals(metrics.getCount(), 0);
+        assertEquals(metrics.concurrencyLimit.getRejected(), 1);
+        assertTrue(s.metricsRegistry.toJson().contains("\"maxLimit\":8,\"inFlight\":0,\"globallyRejected\":2,"
+                + "\"rejected\":{\"critical\":0,\"normal\":1,\"bulk\":1}}"));
+
+        try {
+            s.generateDescriptor(UnknownPriorityController.class);
+            fail("urgent is not a priority class");
+        } catch ( WebControllerDefinitionException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [ServletDispatcherTest] [testConcurrencyLimits] <---");
+    }
+
+    @Test
+    public void testConcurrencyReleasedWhenAsyncFailsToStart() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testConcurrencyReleasedWhenAsyncFailsToStart] <---");
+        MockServletDispatcher s = new MockServletDispatcher();
+        s.initializeConcurrencyLimits(ServletDispatcher.ADAPTIVE_CONCURRENCY, null, null, null);
+        s.initializeWebControllers(new Class[] { AsyncController.class });
+        // Until samples adapt it, the limit admits as many requests as the container has threads
+        assertEquals(s.concurrencyLimits.getLimit(), ServletDispatcher.DEFAULT_CONCURRENCY_INITIAL);
+        assertEquals(s.concurrencyLimits.getMaxLimit(), ServletDispatcher.DEFAULT_CONCURRENCY_MAX);
+
+        MockHttpServletRequest request = new MockHttpServletRequest() {
+            @Override
+            public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+                throw new IllegalStateException("Not started");
+            }
+        };
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/async/");
+        request.setAsyncSupported(true);
+        try {
+            s.doGet(request, new MockHttpServletResponse());
+            fail("The failure to start should be reported");
+        } catch ( ServletException ex ) {
+            assertTrue(ex.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(s.concurrencyLimits.getInFlight(), 0);
+        MetricsRegistry.RouteMetrics metrics = s.metricsRegistry.get(AsyncController.class.getName(), HttpMethodType.GET, ServletDispatcher.DEFAULT);
+        assertEquals(metrics.concurrencyLimit.getInFlight(), 0);
+        assertEquals(metrics.getErrors(ServletDispatcher.WebControllerError.InternalServerError), 1);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testConcurrencyReleasedWhenAsyncFailsToStart] <---");
+    }
+
+    @Test
+    public void testConcurrencyLimitAdaptation() throws Exception {
+        System.out.println("---> [START] [ServletDispatcherTest] [testConcurrencyLimitAdaptation] <---");
+        long millisecond = TimeUnit.MILLISECONDS.toNanos(1);
+
+        // Requests far under the limit do not make it grow
+        ConcurrencyLimits.Limit limit = new ConcurrencyLimits.Limit(10, 100);
+        for ( int i = 0; i < 50; i++ ) {
+            assertTrue(limit.tryAcquire(limit.getLimit()));
+            limit.release(millisecond, false);
+        }
+        assertEquals(limit.getLimit(), 10);
+
+        // Kept full at a steady latency, it grows, up to its maximum
+        fill(limit);
+        assertEquals(limit.getInFlight(), 10);
+        for ( int i = 0; i < 50; i++ ) {
+            limit.release(millisecond, false);
+            fill(limit);
+        }
+        assertTrue(limit.getLimit() > 20);
+        for ( int i = 0; i < 1000; i++ ) {
+            limit.release(millisecond, false);
+            fill(limit);
+        }
+        assertEquals(limit.getLimit(), 100);
+        assertEquals(limit.getInFlight(), 100);
+
+        // Requests queueing make it shrink, and timeouts more
+        for ( int i = 0; i < 20; i++ ) {
+            limit.release(10 * millisecond, false);
+        }
+        int shrunk = limit.getLimit();
+        assertTrue(shrunk < 50);
+        for ( int i = 0; i < 10; i++ ) {
+            limit.release(10 * millisecond, true);
+        }
+        assertTrue(limit.getLimit() < shrunk);
+        assertTrue(limit.getLimit() >= 1);
+        assertEquals(limit.getInFlight(), 70);
+        System.out.println("---> [  END] [ServletDispatcherTest] [testConcurrencyLimitAdaptation] <---");
+    }
+
+    private static void fill(ConcurrencyLimits.Limit limit) {
+        while ( limit.tryAcquire(limit.getLimit()) ) {
+        }
+    }
+
+    private static Callable<MockHttpServletResponse> limitedRequest(final ServletDispatcher s, final String method, final String action) {
+        return new Callable<MockHttpServletResponse>() {
+            @Override
+            public MockHttpServletResponse call() throws Exception {
+                return request(s, method, "/test/limited/", action);
+            }
+        };
+    }
+
+    @UrlPathController(path = "/test/limited/")
+    static class LimitedController extends WebController {
+
+        static final Semaphore started = new Semaphore(0);
+        static final CountDownLatch release = new CountDownLatch(1);
+
+        @HttpMethod(type = HttpMethodType.GET, action = "slow")
+        public void slow() throws Exception {
+            started.release();
+            release.await(5, TimeUnit.SECONDS);
+            getResponse().getWriter().write("slow");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void fast() throws IOException {
+            getResponse().getWriter().write("fast");
+        }
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void heavy() throws IOException {
+            getResponse().getWriter().write("heavy");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET, action = "critical")
+        @Priority(Priority.CRITICAL)
+        public void critical() throws IOException {
+            getResponse().getWriter().write("critical");
+        }
+
+    }
+
+    @UrlPathController(path = "/test/unknownpriority/")
+    @Priority("urgent")
+    static class UnknownPriorityController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show() {
         }
 
     }
 
-}
\ No newline at end of file
+}
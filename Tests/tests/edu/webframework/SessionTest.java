@@ -0,0 +1,394 @@
+package edu.webframework;
+
+import static org.junit.Assert.*;
+
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.UrlPathController;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SessionTest {
+
+    @Test
+    public void testSerializer() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testSerializer] <---");
+        SessionSerializer serializer = new SessionSerializer(getClass().getClassLoader());
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("user", "caf\u00e9 \u20ac");
+        attributes.put("id", 42);
+        attributes.put("negative", -7);
+        attributes.put("big", Long.MIN_VALUE);
+        attributes.put("admin", true);
+        attributes.put("guest", false);
+        attributes.put("ratio", 0.25);
+        attributes.put("token", new byte[] { 1, 2, 3 });
+        attributes.put("cart", new ArrayList<>(Arrays.asList("a", "b")));
+
+        byte[] session = serializer.write(1000, 2000, 1800, attributes);
+        assertEquals(SessionSerializer.getCreationTime(session), 1000);
+        assertEquals(SessionSerializer.getLastAccessedTime(session), 2000);
+        assertEquals(SessionSerializer.getMaxInactiveInterval(session), 1800);
+
+        Map<String, Object> read = serializer.readAttributes(session);
+        assertEquals(new ArrayList<>(read.keySet()), new ArrayList<>(attributes.keySet()));
+        for ( String name : attributes.keySet() ) {
+            if ( !name.equals("token") ) {
+                assertEquals(read.get(name), attributes.get(name));
+            }
+        }
+        assertArrayEquals((byte[]) read.get("token"), new byte[] { 1, 2, 3 });
+
+        // A login is a few bytes over the header
+        Map<String, Object> login = new LinkedHashMap<>();
+        login.put("user", "alice");
+        login.put("userId", 12345);
+        assertEquals(serializer.write(0, 0, 1800, login).length, 45);
+
+        byte[] touched = SessionSerializer.touch(session, 3000);
+        assertEquals(SessionSerializer.getLastAccessedTime(touched), 3000);
+        assertEquals(SessionSerializer.getLastAccessedTime(session), 2000);
+        assertEquals(serializer.readAttributes(touched).get("user"), "caf\u00e9 \u20ac");
+
+        try {
+            serializer.readAttributes(Arrays.copyOf(session, session.length - 3));
+            fail("The session is truncated");
+        } catch ( StreamCorruptedException ex ) {
+            System.out.println("Exception caught!");
+        }
+        try {
+            serializer.write(0, 0, 0, java.util.Collections.<String, Object>singletonMap("thread", new Object()));
+            fail("Objects are not Serializable");
+        } catch ( IOException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [SessionTest] [testSerializer] <---");
+    }
+
+    @Test
+    public void testLazyContainerSessions() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testLazyContainerSessions] <---");
+        MockServletDispatcher s = dispatcher(new MockServletContext());
+        s.initializeSessions(null, null);
+        assertNull(s.frameworkSessions);
+
+        MockHttpServletRequest request = get(null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getContentAsString(), "null");
+        assertNull(request.getSession(false));
+
+        // Removing an attribute does not create a session either
+        request = post(null, null);
+        s.doPost(request, new MockHttpServletResponse());
+        assertNull(request.getSession(false));
+
+        request = post(null, "alice");
+        s.doPost(request, new MockHttpServletResponse());
+        assertEquals(request.getSession(false).getAttribute("user"), "alice");
+        System.out.println("---> [  END] [SessionTest] [testLazyContainerSessions] <---");
+    }
+
+    @Test
+    public void testFrameworkSessions() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testFrameworkSessions] <---");
+        MockServletContext servletContext = new MockServletContext();
+        MockServletDispatcher s = dispatcher(servletContext);
+        s.initializeMetrics(null);
+        s.initializeSessions(ServletDispatcher.MEMORY_SESSIONS, "60");
+        FrameworkSessions sessions = s.frameworkSessions;
+        assertTrue(sessions.getStore() instanceof MemorySessionStore);
+        assertSame(s.servletServiceProviders.get(FrameworkSessions.class), sessions);
+
+        // Reads never create a session
+        MockHttpServletRequest request = get(null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doGet(request, response);
+        assertEquals(response.getContentAsString(), "null");
+        assertNull(response.getCookie(FrameworkSessions.SESSION_COOKIE));
+        assertEquals(sessions.size(), 0);
+
+        request = post(null, "alice");
+        response = new MockHttpServletResponse();
+        s.doPost(request, response);
+        Cookie cookie = response.getCookie(FrameworkSessions.SESSION_COOKIE);
+        assertNotNull(cookie);
+        assertTrue(cookie.isHttpOnly());
+        assertEquals(cookie.getPath(), "/");
+        // The container's session is left alone
+        assertNull(request.getSession(false));
+        assertEquals(sessions.size(), 1);
+        assertEquals(sessions.getCreated(), 1);
+        String id = cookie.getValue();
+
+        response = new MockHttpServletResponse();
+        s.doGet(get(id), response);
+        assertEquals(response.getContentAsString(), "alice");
+        assertNull(response.getCookie(FrameworkSessions.SESSION_COOKIE));
+        assertEquals(sessions.getLoaded(), 1);
+        // Only read, and saved a moment ago
+        assertEquals(sessions.getSaved(), 1);
+
+        // Asynchronous handlers save the session once they complete, here the request thread waits for them
+        request = get(id);
+        request.setMethod(HttpMethodType.POST);
+        request.setParameter(ServletDispatcher.ACTION, "later");
+        request.setParameter("user", "carol");
+        s.doPost(request, new MockHttpServletResponse());
+        assertEquals(sessions.getSaved(), 2);
+        response = new MockHttpServletResponse();
+        s.doGet(get(id), response);
+        assertEquals(response.getContentAsString(), "carol");
+
+        // Unknown and malformed ids read nothing
+        response = new MockHttpServletResponse();
+        s.doGet(get("0123456789ABCDEF0123456789ABCDEF"), response);
+        assertEquals(response.getContentAsString(), "null");
+        response = new MockHttpServletResponse();
+        s.doGet(get("../../etc/passwd"), response);
+        assertEquals(response.getContentAsString(), "null");
+
+        // Two requests of the same session, each setting its own attribute, keep both
+        FrameworkSessions.SessionRequest first = sessions.wrap(get(id), new MockHttpServletResponse());
+        FrameworkSessions.SessionRequest second = sessions.wrap(get(id), new MockHttpServletResponse());
+        first.getSession(false).setAttribute("theme", "dark");
+        second.getSession(false).setAttribute("locale", "ca");
+        second.getSession(false).removeAttribute("user");
+        first.finish();
+        second.finish();
+        HttpSession merged = sessions.wrap(get(id), new MockHttpServletResponse()).getSession(false);
+        assertEquals(merged.getAttribute("theme"), "dark");
+        assertEquals(merged.getAttribute("locale"), "ca");
+        assertNull(merged.getAttribute("user"));
+        assertFalse(merged.isNew());
+
+        try {
+            merged.setAttribute("thread", new Object());
+            fail("Session attributes have to be Serializable");
+        } catch ( IllegalArgumentException ex ) {
+            System.out.println("Exception caught!");
+        }
+
+        // A new id for the same session, the old one is gone
+        FrameworkSessions.SessionRequest changing = sessions.wrap(get(id), response = new MockHttpServletResponse());
+        String changed = changing.changeSessionId();
+        changing.finish();
+        assertFalse(changed.equals(id));
+        assertEquals(response.getCookie(FrameworkSessions.SESSION_COOKIE).getValue(), changed);
+        assertNull(sessions.wrap(get(id), new MockHttpServletResponse()).getSession(false));
+        assertEquals(sessions.wrap(get(changed), new MockHttpServletResponse()).getSession(false).getAttribute("theme"), "dark");
+
+        // Invalidated sessions are removed, a new one can be created by the same request
+        FrameworkSessions.SessionRequest invalidating = sessions.wrap(get(changed), new MockHttpServletResponse());
+        invalidating.getSession(false).invalidate();
+        assertNull(invalidating.getSession(false));
+        HttpSession created = invalidating.getSession();
+        assertTrue(created.isNew());
+        assertNull(created.getAttribute("theme"));
+        invalidating.finish();
+        assertNull(sessions.wrap(get(changed), new MockHttpServletResponse()).getSession(false));
+        assertEquals(sessions.size(), 1);
+
+        assertTrue(s.metricsRegistry.toText().contains("sessions store [MemorySessionStore sessions [1]"));
+        assertTrue(s.metricsRegistry.toJson().contains("\"sessions\":{\"size\":1,"));
+        System.out.println("---> [  END] [SessionTest] [testFrameworkSessions] <---");
+    }
+
+    @Test
+    public void testConcurrentSaves() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testConcurrentSaves] <---");
+        // A store slow to load leaves every save a window for another one of the same session
+        MemorySessionStore store = new MemorySessionStore() {
+            @Override
+            public byte[] load(String id) {
+                byte[] session = super.load(id);
+                try {
+                    Thread.sleep(20);
+                } catch ( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                }
+                return session;
+            }
+        };
+        final FrameworkSessions sessions = new FrameworkSessions(store, new SessionSerializer(getClass().getClassLoader()), 60);
+        FrameworkSessions.Session session = sessions.create();
+        session.setAttribute("user", "alice");
+        sessions.save(session);
+        final String id = session.getId();
+
+        final int count = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+        for ( int i = 0; i < count; i++ ) {
+            final FrameworkSessions.SessionRequest request = sessions.wrap(get(id), new MockHttpServletResponse());
+            request.getSession(false).setAttribute("attribute" + i, i);
+            saves.add(CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch ( InterruptedException ex ) {
+                        throw new IllegalStateException(ex);
+                    }
+                    request.finish();
+                }
+            }));
+        }
+        start.countDown();
+        for ( CompletableFuture<Void> save : saves ) {
+            save.get(10, TimeUnit.SECONDS);
+        }
+
+        // Every request kept the attribute it set
+        HttpSession merged = sessions.wrap(get(id), new MockHttpServletResponse()).getSession(false);
+        assertEquals(merged.getAttribute("user"), "alice");
+        for ( int i = 0; i < count; i++ ) {
+            assertEquals(merged.getAttribute("attribute" + i), i);
+        }
+        System.out.println("---> [  END] [SessionTest] [testConcurrentSaves] <---");
+    }
+
+    @Test
+    public void testMemorySessionStore() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testMemorySessionStore] <---");
+        MemorySessionStore store = new MemorySessionStore();
+        store.setMaxSize(15);
+        long later = System.currentTimeMillis() + 60000;
+        store.save("A", new byte[6], later);
+        store.save("B", new byte[6], later);
+        assertNotNull(store.load("A"));
+        // B is the least recently used once C does not fit
+        store.save("C", new byte[6], later);
+        assertNull(store.load("B"));
+        assertNotNull(store.load("A"));
+        assertEquals(store.getWeight(), 12);
+        assertEquals(store.getEvictions(), 1);
+
+        store.save("D", new byte[1], System.currentTimeMillis() - 1);
+        assertNull(store.load("D"));
+        store.save("D", new byte[1], System.currentTimeMillis() - 1);
+        assertEquals(store.evictExpired(), 1);
+        assertEquals(store.size(), 2);
+        System.out.println("---> [  END] [SessionTest] [testMemorySessionStore] <---");
+    }
+
+    @Test
+    public void testFileSessionStore() throws Exception {
+        System.out.println("---> [START] [SessionTest] [testFileSessionStore] <---");
+        Path directory = Files.createTempDirectory("sessions");
+        MockServletContext servletContext = new MockServletContext();
+        servletContext.addInitParameter(ServletDispatcher.SESSION_STORE, ServletDispatcher.FILE_SESSIONS);
+        servletContext.addInitParameter(FileSessionStore.SESSION_DIRECTORY, directory.toString());
+
+        MockServletDispatcher s = dispatcher(servletContext);
+        s.initializeSessions(ServletDispatcher.FILE_SESSIONS, null);
+        assertTrue(s.frameworkSessions.getStore() instanceof FileSessionStore);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.doPost(post(null, "bob"), response);
+        String id = response.getCookie(FrameworkSessions.SESSION_COOKIE).getValue();
+        assertTrue(Files.exists(directory.resolve(id + ".session")));
+
+        // A restarted application still has the session
+        MockServletDispatcher restarted = dispatcher(servletContext);
+        restarted.initializeSessions(ServletDispatcher.FILE_SESSIONS, null);
+        response = new MockHttpServletResponse();
+        restarted.doGet(get(id), response);
+        assertEquals(response.getContentAsString(), "bob");
+
+        FileSessionStore store = new FileSessionStore(directory);
+        store.save("EXPIRED", "gone".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis() - 1);
+        assertEquals(store.size(), 2);
+        assertEquals(store.evictExpired(), 1);
+        store.save("EXPIRED", "gone".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis() - 1);
+        assertNull(store.load("EXPIRED"));
+        assertEquals(store.size(), 1);
+        try {
+            store.load("../" + id);
+            fail("Ids never name files outside of the directory");
+        } catch ( IOException ex ) {
+            System.out.println("Exception caught!");
+        }
+
+        store.remove(id);
+        Files.delete(directory);
+        System.out.println("---> [  END] [SessionTest] [testFileSessionStore] <---");
+    }
+
+    private static MockServletDispatcher dispatcher(final ServletContext servletContext) {
+        MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.initializeWebControllers(new Class[] { SessionController.class });
+        return s;
+    }
+
+    private static MockHttpServletRequest get(String sessionId) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(HttpMethodType.GET);
+        request.setRequestURI("/test/session/");
+        if ( sessionId != null ) {
+            request.setCookies(new Cookie(FrameworkSessions.SESSION_COOKIE, sessionId));
+        }
+        return request;
+    }
+
+    private static MockHttpServletRequest post(String sessionId, String user) {
+        MockHttpServletRequest request = get(sessionId);
+        request.setMethod(HttpMethodType.POST);
+        if ( user != null ) {
+            request.setParameter("user", user);
+        }
+        return request;
+    }
+
+    @UrlPathController(path = "/test/session/")
+    static class SessionController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void load() throws IOException {
+            getResponse().getWriter().write(String.valueOf(getSessionAttribute("user")));
+        }
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void store(@HttpRequestParameter(name = "user", required = false) String user) throws IOException {
+            setSessionAttribute("user", user);
+            getResponse().getWriter().write("stored");
+        }
+
+        @HttpMethod(type = HttpMethodType.POST, action = "later")
+        public CompletionStage<Void> storeLater(@HttpRequestParameter(name = "user") final String user) {
+            return CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    setSessionAttribute("user", user);
+                }
+            });
+        }
+
+    }
+
+}
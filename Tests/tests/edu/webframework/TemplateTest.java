@@ -0,0 +1,385 @@
+package edu.webframework;
+
+import static org.junit.Assert.*;
+
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.RequireService;
+import edu.webframework.annotations.Service;
+import edu.webframework.annotations.UrlPathController;
+import org.junit.Test;
+import org.springframework.mock.web.MockBodyContent;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockPageContext;
+import org.springframework.mock.web.MockServletContext;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.jsp.tagext.BodyTag;
+import javax.servlet.jsp.tagext.Tag;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TemplateTest {
+
+    public static class Item {
+
+        private final String name;
+        private final boolean done;
+        private final List<String> tags;
+
+        Item(String name, boolean done, String... tags) {
+            this.name = name;
+            this.done = done;
+            this.tags = Arrays.asList(tags);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+    }
+
+    public static class Task {
+
+        private final Boolean completed;
+
+        Task(Boolean completed) {
+            this.completed = completed;
+        }
+
+        public Boolean getCompleted() {
+            return completed;
+        }
+
+    }
+
+    public static class BoxedTask {
+
+        public Boolean isCompleted() {
+            return Boolean.TRUE;
+        }
+
+    }
+
+    private static final String PAGE =
+            "<%@ page contentType=\"text/html;charset=UTF-8\" language=\"java\" %>\n" +
+            "<%@ taglib uri=\"http://java.sun.com/jsp/jstl/core\" prefix=\"c\" %>\n" +
+            "<%-- Not written --%>" +
+            "<h1>${title} \u00e0 \u20ac \\${title}</h1>\n" +
+            "<c:forEach items=\"${items}\" var=\"item\" varStatus=\"status\">" +
+            "<li${item.done ? ' class=\"done\"' : ''}>${status.count}/${status.index}${status.first ? 'F' : ''}${status.last ? 'L' : ''} " +
+            "<c:out value=\"${item.name}\"/> <c:out value=\"${item.name}\" escapeXml=\"false\"/>" +
+            "<c:forEach items=\"${item.tags}\" var=\"item\"> [${item}]</c:forEach> ${item.tags[1]}</li>\n" +
+            "</c:forEach>" +
+            "${item}|<c:out value=\"${missing}\" default=\"none & more\"/>|" +
+            "<c:if test=\"${not empty items and items[0].done}\">first done</c:if><c:if test=\"${empty missing}\"> empty</c:if>\n" +
+            "<c:choose>\n" +
+            "  <c:when test=\"${count gt 5}\">many</c:when>\n" +
+            "  <c:when test=\"${count == 2}\">two</c:when>\n" +
+            "  <c:otherwise>other</c:otherwise>\n" +
+            "</c:choose>\n" +
+            "<c:forEach begin=\"1\" end=\"9\" step=\"3\" var=\"i\">${i}</c:forEach> " +
+            "<c:forEach items=\"${counts}\" var=\"entry\">${entry.key}=${entry.value};</c:forEach> ${counts.b} ${counts['a']} " +
+            "${param.q} ${param['q'] == 'search' && 1.5 < 2} ${pageContext.request.contextPath} ${lifecycle eq 'SINGLETON'}";
+
+    @Test
+    public void testRender() throws Exception {
+        System.out.println("---> [START] [TemplateTest] [testRender] <---");
+        Template template = Template.compile("/page.jsp", PAGE.getBytes(StandardCharsets.UTF_8));
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setContextPath("/app");
+        request.setParameter("q", "search");
+        request.setAttribute("title", "<Things>");
+        request.setAttribute("items", Arrays.asList(new Item("Buy <milk> & \"eggs\"", true, "a", "b"), new Item("Sleep", false, "c")));
+        request.setAttribute("count", 2);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("a", 1);
+        counts.put("b", 2);
+        request.setAttribute("counts", counts);
+        request.setAttribute("lifecycle", edu.webframework.annotations.ControllerLifecycle.SINGLETON);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        template.render(request, response);
+
+        assertEquals(response.getContentType(), "text/html;charset=UTF-8");
+        assertEquals(new String(response.getContentAsByteArray(), StandardCharsets.UTF_8),
+                "\n\n<h1><Things> \u00e0 \u20ac ${title}</h1>\n" +
+                "<li class=\"done\">1/0F Buy &lt;milk&gt; &amp; &#034;eggs&#034; Buy <milk> & \"eggs\" [a] [b] b</li>\n" +
+                "<li>2/1L Sleep Sleep [c] </li>\n" +
+                "|none &amp; more|first done empty\n" +
+                "\n  \n  two\n  \n" +
+                "\n147 a=1;b=2; 2 1 search true /app true");
+
+        // Loop variables only live in their loop, and the same template renders the next model as well
+        request = new MockHttpServletRequest();
+        request.setAttribute("item", "outside");
+        request.setAttribute("items", Collections.emptyList());
+        request.setAttribute("count", 7L);
+        response = new MockHttpServletResponse();
+        template.render(request, response);
+        assertTrue(new String(response.getContentAsByteArray(), StandardCharsets.UTF_8).contains("\noutside|none &amp; more| empty\n\n  many\n"));
+
+        request.setAttribute("count", new Object());
+        try {
+            template.render(request, new MockHttpServletResponse());
+            fail("Objects cannot be compared with numbers");
+        } catch ( IllegalArgumentException ex ) {
+            System.out.println("Exception caught!");
+        }
+
+        // Like JSP EL, isX() is not read for Boolean properties, getX() is
+        template = Template.compile("/task.jsp", "<%@ page contentType=\"text/html;charset=UTF-8\" %>${task.completed ? 'done' : 'todo'}".getBytes(StandardCharsets.UTF_8));
+        request = new MockHttpServletRequest();
+        request.setAttribute("task", new Task(Boolean.TRUE));
+        response = new MockHttpServletResponse();
+        template.render(request, response);
+        assertEquals(new String(response.getContentAsByteArray(), StandardCharsets.UTF_8), "done");
+        request.setAttribute("task", new BoxedTask());
+        try {
+            template.render(request, new MockHttpServletResponse());
+            fail("isX() returning a Boolean is not a getter");
+        } catch ( IllegalArgumentException ex ) {
+            System.out.println("Exception caught!");
+        }
+        System.out.println("---> [  END] [TemplateTest] [testRender] <---");
+    }
+
+    @Test
+    public void testNotCompiled() throws Exception {
+        System.out.println("---> [START] [TemplateTest] [testNotCompiled] <---");
+        String directive = "<%@ page contentType=\"text/html;charset=UTF-8\" %><%@ taglib uri=\"http://java.sun.com/jsp/jstl/core\" prefix=\"c\" %>";
+        String[] pages = {
+                directive + "Counter <%= request.getAttribute(\"counter\") %>",
+                directive + "<jsp:include page=\"header.jsp\"/>",
+                directive + "<%@ include file=\"header.jsp\" %>",
+                directive + "<%@ taglib uri=\"http://java.sun.com/jsp/jstl/fmt\" prefix=\"fmt\" %>",
+                directive + "<c:set var=\"a\" value=\"1\"/>",
+                directive + "<c:forEach items=\"${items}\" var=\"item\">${item}",
+                directive + "<c:if test=\"${a}\">a</c:forEach>",
+                directive + "<c:when test=\"${a}\">a</c:when>",
+                directive + "<c:choose><c:otherwise>a</c:otherwise><c:when test=\"${a}\">b</c:when></c:choose>",
+                directive + "<c:choose>text<c:otherwise>a</c:otherwise></c:choose>",
+                directive + "${requestScope.a}",
+                directive + "${a +}",
+                directive + "${a",
+                "<html>ISO-8859-1 by default</html>",
+        };
+        for ( String page : pages ) {
+            try {
+                Template.compile("/page.jsp", page.getBytes(StandardCharsets.UTF_8));
+                fail(String.format("Page [%s] should not compile", page));
+            } catch ( Template.CompileException ex ) {
+                System.out.println(ex.getMessage());
+            }
+        }
+
+        // Tags of undeclared prefixes are template text
+        Template template = Template.compile("/page.jsp", "<%@ page pageEncoding=\"UTF-8\" %><c:out value=\"a\"/>".getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        template.render(new MockHttpServletRequest(), response);
+        assertEquals(response.getContentType(), "text/html;charset=UTF-8");
+        assertEquals(response.getContentAsString(), "<c:out value=\"a\"/>");
+        System.out.println("---> [  END] [TemplateTest] [testNotCompiled] <---");
+    }
+
+    @Test
+    public void testCompiledViews() throws Exception {
+        System.out.println("---> [START] [TemplateTest] [testCompiledViews] <---");
+        Path root = Files.createTempDirectory("views");
+        Path views = Files.createDirectories(root.resolve("WEB-INF/jsp"));
+        Files.write(views.resolve("list.jsp"), ("<%@ page contentType=\"text/html;charset=UTF-8\" %>" +
+                "<%@ taglib uri=\"http://java.sun.com/jsp/jstl/core\" prefix=\"c\" %>" +
+                "<c:forEach items=\"${names}\" var=\"name\"><c:out value=\"${name}\"/>,</c:forEach>").getBytes(StandardCharsets.UTF_8));
+        Files.write(views.resolve("scriptlet.jsp"), "<%@ page contentType=\"text/html;charset=UTF-8\" %><%= 1 %>".getBytes(StandardCharsets.UTF_8));
+
+        final MockServletContext servletContext = new MockServletContext("file:" + root);
+        MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.initializeViews(ServletDispatcher.COMPILED_VIEWS);
+        s.initializeWebControllers(new Class[]{ViewController.class});
+
+        MockHttpServletResponse response = viewGet(s, "list");
+        assertEquals(response.getContentAsString(), "a,&lt;b&gt;,");
+        assertNull(response.getForwardedUrl());
+
+        // A HEAD gets the content type of the view without rendering it, and no length
+        MockHttpServletResponse head = viewRequest(s, HttpMethodType.HEAD, "list");
+        assertEquals(head.getContentType(), response.getContentType());
+        assertEquals(head.getContentAsByteArray().length, 0);
+        assertNull(head.getHeader("Content-Length"));
+        assertTrue(head.isCommitted());
+
+        // Views the engine cannot compile are still shown by the JSP container, for a HEAD as well
+        response = viewGet(s, "scriptlet");
+        assertEquals(response.getForwardedUrl(), "/WEB-INF/jsp/scriptlet.jsp");
+        response = viewRequest(s, HttpMethodType.HEAD, "scriptlet");
+        assertEquals(response.getForwardedUrl(), "/WEB-INF/jsp/scriptlet.jsp");
+        response = viewGet(s, "missing");
+        assertEquals(response.getForwardedUrl(), "/WEB-INF/jsp/missing.jsp");
+
+        for ( String file : new String[] { "WEB-INF/jsp/list.jsp", "WEB-INF/jsp/scriptlet.jsp", "WEB-INF/jsp", "WEB-INF" } ) {
+            Files.delete(root.resolve(file));
+        }
+        Files.delete(root);
+        System.out.println("---> [  END] [TemplateTest] [testCompiledViews] <---");
+    }
+
+    private static final String CACHED_PAGE =
+            "<%@ page contentType=\"text/html;charset=UTF-8\" %>" +
+            "<%@ taglib uri=\"http://java.sun.com/jsp/jstl/core\" prefix=\"c\" %>" +
+            "<%@ taglib uri=\"http://edu.webframework/tags\" prefix=\"wf\" %>" +
+            "<wf:cache name=\"list\" key=\"${page}\" tags=\"items, pages\"><c:forEach items=\"${items}\" var=\"item\">${item},</c:forEach></wf:cache>|${user}";
+
+    @Test
+    public void testFragmentCache() throws Exception {
+        System.out.println("---> [START] [TemplateTest] [testFragmentCache] <---");
+        final MockServletContext servletContext = new MockServletContext();
+        MockServletDispatcher s = new MockServletDispatcher() {
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+        };
+        s.initializeMetrics(null);
+        s.initializeFragmentCache("15");
+        s.initializeServices(new Class[] { ItemService.class });
+        ItemService service = (ItemService) s.servletServiceProviders.get(ItemService.class);
+        Template template = Template.compile("/cached.jsp", CACHED_PAGE.getBytes(StandardCharsets.UTF_8));
+
+        // Only the fragment is cached, what is around it is rendered for every request
+        assertEquals(renderCached(template, servletContext, 1, "x", "a", "b"), "a,b,|x");
+        assertEquals(renderCached(template, servletContext, 1, "y", "c"), "a,b,|y");
+        assertEquals(renderCached(template, servletContext, 2, "y", "c"), "c,|y");
+
+        service.changeItems();
+        assertEquals(s.fragmentCache.size(), 0);
+        assertEquals(renderCached(template, servletContext, 1, "y", "c"), "c,|y");
+
+        // Least recently used fragments are evicted once they are 15 bytes, and bigger fragments are never kept
+        assertEquals(renderCached(template, servletContext, 3, "y", "0123456789"), "0123456789,|y");
+        assertEquals(s.fragmentCache.getWeight(), 13);
+        assertEquals(renderCached(template, servletContext, 4, "y", "abcd"), "abcd,|y");
+        assertEquals(s.fragmentCache.size(), 1);
+        assertEquals(s.fragmentCache.getWeight(), 5);
+        assertEquals(renderCached(template, servletContext, 5, "y", "0123456789abcdef"), "0123456789abcdef,|y");
+        assertEquals(s.fragmentCache.size(), 1);
+        assertEquals(s.fragmentCache.getEvictions(), 3);
+
+        // A fragment rendered while its tag is invalidated is not stored
+        FragmentCache.Key key = new FragmentCache.Key("list", 6);
+        String[] tags = FragmentCache.parseTags("pages");
+        long[] versions = s.fragmentCache.versions(tags);
+        assertEquals(s.fragmentCache.invalidate("pages"), 1);
+        s.fragmentCache.store(key, tags, versions, 0, new byte[1]);
+        assertNull(s.fragmentCache.get(key));
+
+        assertEquals(s.fragmentCache.getHits(), 1);
+        assertEquals(s.fragmentCache.getMisses(), 7);
+        assertTrue(s.metricsRegistry.toText().contains("fragment [list] hits [1] misses [7] hit ratio [0.125]"));
+        assertTrue(s.metricsRegistry.toJson().contains("\"fragments\":{\"list\":{\"hits\":1,\"misses\":7,\"hitRatio\":0.125}}"));
+
+        // The tag of the views left to the JSP container shares the cache
+        MockPageContext pageContext = new MockPageContext(servletContext);
+        assertEquals(renderCachedTag(pageContext, "a,"), BodyTag.EVAL_BODY_BUFFERED);
+        assertEquals(renderCachedTag(pageContext, "b,"), Tag.SKIP_BODY);
+        assertEquals(((MockHttpServletResponse) pageContext.getResponse()).getContentAsString(), "a,a,");
+        service.changeItems();
+        assertEquals(renderCachedTag(pageContext, "b,"), BodyTag.EVAL_BODY_BUFFERED);
+        assertEquals(((MockHttpServletResponse) pageContext.getResponse()).getContentAsString(), "a,a,b,");
+        System.out.println("---> [  END] [TemplateTest] [testFragmentCache] <---");
+    }
+
+    private static String renderCached(Template template, ServletContext servletContext, int page, String user, String... items) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(servletContext);
+        request.setAttribute("page", page);
+        request.setAttribute("user", user);
+        request.setAttribute("items", Arrays.asList(items));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        template.render(request, response);
+        return new String(response.getContentAsByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // What the JSP container does with a tag, the body is only given when the tag asks for it
+    private static int renderCachedTag(MockPageContext pageContext, String body) throws Exception {
+        FragmentCacheTag tag = new FragmentCacheTag();
+        tag.setPageContext(pageContext);
+        tag.setName("jsp-list");
+        tag.setKey("all");
+        tag.setTags("items");
+        int start = tag.doStartTag();
+        if ( start == BodyTag.EVAL_BODY_BUFFERED ) {
+            tag.setBodyContent(new MockBodyContent(body, (HttpServletResponse) pageContext.getResponse()));
+        }
+        assertEquals(tag.doEndTag(), Tag.EVAL_PAGE);
+        return start;
+    }
+
+    @Service
+    static class ItemService extends ServiceController {
+
+        @RequireService
+        FragmentCache fragmentCache;
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        void changeItems() {
+            fragmentCache.invalidate("items");
+        }
+
+    }
+
+    private static MockHttpServletResponse viewGet(ServletDispatcher s, String view) throws Exception {
+        return viewRequest(s, HttpMethodType.GET, view);
+    }
+
+    private static MockHttpServletResponse viewRequest(ServletDispatcher s, String method, String view) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod(method);
+        request.setRequestURI("/test/views/");
+        request.setParameter("view", view);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        s.service(request, response);
+        return response;
+    }
+
+    @UrlPathController(path = "/test/views/")
+    static class ViewController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void show(@HttpRequestParameter(name = "view") String view) throws Exception {
+            List<String> names = new ArrayList<>(Arrays.asList("a", "<b>"));
+            setModel("names", names);
+            view(view);
+        }
+
+    }
+
+}
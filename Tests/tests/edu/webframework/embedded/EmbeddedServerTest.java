@@ -0,0 +1,342 @@
+package edu.webframework.embedded;
+
+import static org.junit.Assert.*;
+
+import edu.webframework.FrameworkSessions;
+import edu.webframework.ServletDispatcher;
+import edu.webframework.WebController;
+import edu.webframework.annotations.HttpMethod;
+import edu.webframework.annotations.HttpMethodType;
+import edu.webframework.annotations.HttpRequestParameter;
+import edu.webframework.annotations.UrlPathController;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class EmbeddedServerTest {
+
+    @UrlPathController(path = "/echo/{name}/")
+    public static class EchoController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void echo(@HttpRequestParameter(name = "name", fromUrl = true) String name,
+                         @HttpRequestParameter(name = "greeting") String greeting) throws IOException {
+            getResponse().setContentType("text/plain");
+            getResponse().getWriter().write(String.format("%s %s", greeting != null ? greeting : "hello", name));
+        }
+
+    }
+
+    @UrlPathController(path = "/things/")
+    public static class ThingsController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void things() throws IOException {
+            json(java.util.Arrays.asList("a", "b"));
+        }
+
+    }
+
+    @UrlPathController(path = "/session/")
+    public static class SessionController extends WebController {
+
+        @HttpMethod(type = HttpMethodType.POST)
+        public void store(@HttpRequestParameter(name = "value") String value) throws IOException {
+            setSessionAttribute("value", value);
+            getResponse().getWriter().write("stored");
+        }
+
+        @HttpMethod(type = HttpMethodType.GET)
+        public void load() throws IOException {
+            getResponse().setCharacterEncoding("UTF-8");
+            getResponse().getWriter().write(String.valueOf(getSessionAttribute("value")));
+        }
+
+    }
+
+    static class Response {
+
+        int status;
+        Map<String, String> headers = new LinkedHashMap<>();
+        String body;
+
+    }
+
+    EmbeddedServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new EmbeddedServer(0);
+        server.setHost("127.0.0.1");
+        server.setInitParameter("webcontrollers", String.format("%s, %s, %s", EchoController.class.getName(), SessionController.class.getName(),
+                ThingsController.class.getName()));
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testKeepAliveAndPipelining() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testKeepAliveAndPipelining] <---");
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            output.write(request("GET /echo/world/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            Response first = readResponse(input);
+            assertEquals(first.status, 200);
+            assertEquals(first.body, "hello world");
+            assertTrue(first.headers.get("content-type").startsWith("text/plain"));
+
+            // Both requests are sent before reading anything, the responses have to come back in order
+            output.write(request("GET /echo/first/?greeting=hi HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /echo/second%20one/?greeting=bye HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            assertEquals(readResponse(input).body, "hi first");
+            assertEquals(readResponse(input).body, "bye second one");
+
+            output.write(request("GET /echo/last/ HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+            Response last = readResponse(input);
+            assertEquals(last.body, "hello last");
+            assertEquals(last.headers.get("connection"), "close");
+            assertEquals(input.read(), -1);
+        }
+        System.out.println("---> [  END] [EmbeddedServerTest] [testKeepAliveAndPipelining] <---");
+    }
+
+    @Test
+    public void testHeadHeaders() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testHeadHeaders] <---");
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            output.write(request("GET /things/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            Response get = readResponse(input);
+            assertEquals(get.body, "[\"a\",\"b\"]");
+            assertEquals(get.headers.get("content-type"), "application/json;charset=UTF-8");
+
+            // The headers of the GET, but no length of a body that was not rendered, rather than a length of 0
+            output.write(request("HEAD /things/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            Response head = readResponse(input, true);
+            assertEquals(head.status, 200);
+            assertNull(head.headers.get("content-length"));
+            get.headers.remove("content-length");
+            get.headers.remove("date");
+            head.headers.remove("date");
+            assertEquals(head.headers, get.headers);
+
+            // Nothing follows the head, the next response is read from where it ends
+            output.write(request("GET /echo/after/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            assertEquals(readResponse(input).body, "hello after");
+        }
+        System.out.println("---> [  END] [EmbeddedServerTest] [testHeadHeaders] <---");
+    }
+
+    @Test
+    public void testFormPostAndSession() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testFormPostAndSession] <---");
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            String form = "value=caf%C3%A9+au+lait";
+            output.write(request(String.format("POST /session/ HTTP/1.1\r\nHost: localhost\r\n"
+                    + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: %s\r\n\r\n%s", form.length(), form)));
+            Response stored = readResponse(input);
+            assertEquals(stored.body, "stored");
+
+            String cookie = stored.headers.get("set-cookie");
+            assertNotNull(cookie);
+            assertTrue(cookie.startsWith(FrameworkSessions.SESSION_COOKIE + "="));
+            assertEquals(server.getServletContext().getInitParameter(ServletDispatcher.SESSION_STORE), ServletDispatcher.MEMORY_SESSIONS);
+
+            output.write(request(String.format("GET /session/ HTTP/1.1\r\nHost: localhost\r\nCookie: %s\r\n\r\n", cookie.split(";")[0])));
+            Response loaded = readResponse(input);
+            assertEquals(loaded.body, "caf\u00e9 au lait");
+            assertNull(loaded.headers.get("set-cookie"));
+
+            // Chunked bodies are decoded before they reach the dispatcher
+            output.write(request("POST /session/ HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n"
+                    + "Content-Type: application/x-www-form-urlencoded\r\n\r\n6\r\nvalue=\r\n5\r\nplain\r\n0\r\n\r\n"));
+            assertEquals(readResponse(input).body, "stored");
+        }
+        System.out.println("---> [  END] [EmbeddedServerTest] [testFormPostAndSession] <---");
+    }
+
+    @Test
+    public void testRequestSplitAcrossReads() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testRequestSplitAcrossReads] <---");
+        StringBuilder value = new StringBuilder();
+        for ( int i = 0; i < 20000; i++ ) {
+            value.append((char) ('a' + i % 26));
+        }
+        StringBuilder chunked = new StringBuilder("POST /session/ HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\n\r\n6\r\nvalue=\r\n");
+        for ( int i = 0; i < value.length(); i += 100 ) {
+            chunked.append(String.format("%x\r\n%s\r\n", 100, value.substring(i, i + 100)));
+        }
+        chunked.append("0\r\nTrailer: ignored\r\n\r\n");
+
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            socket.setTcpNoDelay(true);
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            // Pieces of an odd size cut the head, the chunk sizes and the chunks anywhere, and the buffer has to grow
+            byte[] bytes = request(chunked.toString());
+            for ( int offset = 0; offset < bytes.length; offset += 997 ) {
+                output.write(bytes, offset, Math.min(997, bytes.length - offset));
+                output.flush();
+                Thread.sleep(1);
+            }
+            Response stored = readResponse(input);
+            assertEquals(stored.body, "stored");
+
+            output.write(request(String.format("GET /session/ HTTP/1.1\r\nHost: localhost\r\nCookie: %s\r\n\r\n",
+                    stored.headers.get("set-cookie").split(";")[0])));
+            assertEquals(readResponse(input).body, value.toString());
+        }
+        System.out.println("---> [  END] [EmbeddedServerTest] [testRequestSplitAcrossReads] <---");
+    }
+
+    @Test
+    public void testMalformedRequest() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testMalformedRequest] <---");
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            socket.getOutputStream().write(request("GET /echo/world/ HTTP/2.0\r\nHost: localhost\r\n\r\n"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            assertEquals(readResponse(input).status, 505);
+            assertEquals(input.read(), -1);
+        }
+
+        // The body cannot be delimited with several lengths
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            socket.getOutputStream().write(request("POST /session/ HTTP/1.1\r\nHost: localhost\r\nContent-Length: 5\r\n"
+                    + "Content-Length: 11\r\n\r\nvalue=plain"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            assertEquals(readResponse(input).status, 400);
+            assertEquals(input.read(), -1);
+        }
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            socket.getOutputStream().write(request("POST /session/ HTTP/1.1\r\nHost: localhost\r\nContent-Length: 11, 11\r\n\r\nvalue=plain"));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            assertEquals(readResponse(input).status, 400);
+            assertEquals(input.read(), -1);
+        }
+
+        // Chunk size lines and trailers are bounded even when their end never comes, and chunks end with CRLF
+        StringBuilder extension = new StringBuilder("1;");
+        StringBuilder trailers = new StringBuilder("0\r\n");
+        while ( extension.length() <= HttpConnection.MAX_CHUNK_LINE ) {
+            extension.append("extension");
+        }
+        while ( trailers.length() <= 2 * EmbeddedServer.DEFAULT_MAX_HEADER_SIZE ) {
+            trailers.append("Trailer: value\r\n");
+        }
+        assertMalformedChunks(extension.toString(), 400);
+        assertMalformedChunks(trailers.toString(), 431);
+        assertMalformedChunks("3\r\nabcX\r\n0\r\n\r\n", 400);
+        System.out.println("---> [  END] [EmbeddedServerTest] [testMalformedRequest] <---");
+    }
+
+    private void assertMalformedChunks(String chunks, int status) throws IOException {
+        try ( Socket socket = new Socket("127.0.0.1", server.getPort()) ) {
+            socket.getOutputStream().write(request("POST /session/ HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n" + chunks));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            assertEquals(readResponse(input).status, status);
+            assertEquals(input.read(), -1);
+        }
+    }
+
+    @Test
+    public void testLoadWebXml() throws Exception {
+        System.out.println("---> [START] [EmbeddedServerTest] [testLoadWebXml] <---");
+        File webInf = Files.createTempDirectory("webapp").resolve("WEB-INF").toFile();
+        assertTrue(webInf.mkdirs());
+        File webXml = new File(webInf, "web.xml");
+        Files.write(webXml.toPath(), ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<web-app xmlns=\"http://xmlns.jcp.org/xml/ns/javaee\" version=\"3.1\">\n"
+                + "    <context-param>\n"
+                + "        <param-name>webcontrollers</param-name>\n"
+                + "        <param-value>\n"
+                + "            " + EchoController.class.getName() + "\n"
+                + "        </param-value>\n"
+                + "    </context-param>\n"
+                + "    <session-config><session-timeout>5</session-timeout></session-config>\n"
+                + "</web-app>\n").getBytes(StandardCharsets.UTF_8));
+
+        EmbeddedServer configured = new EmbeddedServer(0);
+        configured.loadWebXml(webXml);
+        assertEquals(configured.getInitParameter("webcontrollers"), EchoController.class.getName());
+
+        configured.setContextPath("/app");
+        configured.start();
+        try ( Socket socket = new Socket("127.0.0.1", configured.getPort()) ) {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+
+            output.write(request("GET /app/echo/xml/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            assertEquals(readResponse(input).body, "hello xml");
+
+            output.write(request("GET /other/echo/xml/ HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+            assertEquals(readResponse(input).status, 404);
+        } finally {
+            configured.stop();
+        }
+        System.out.println("---> [  END] [EmbeddedServerTest] [testLoadWebXml] <---");
+    }
+
+    private static byte[] request(String request) {
+        return request.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Response readResponse(InputStream input) throws IOException {
+        return readResponse(input, false);
+    }
+
+    private static Response readResponse(InputStream input, boolean head) throws IOException {
+        Response response = new Response();
+        String statusLine = readLine(input);
+        response.status = Integer.parseInt(statusLine.split(" ")[1]);
+
+        String line;
+        while ( !(line = readLine(input)).isEmpty() ) {
+            int colon = line.indexOf(':');
+            response.headers.put(line.substring(0, colon).toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+
+        byte[] body = new byte[head ? 0 : Integer.parseInt(response.headers.get("content-length"))];
+        int read = 0;
+        while ( read < body.length ) {
+            int n = input.read(body, read, body.length - read);
+            assertTrue(n > 0);
+            read += n;
+        }
+        response.body = new String(body, StandardCharsets.UTF_8);
+        return response;
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ( (c = input.read()) != '\n' ) {
+            assertTrue(c >= 0);
+            if ( c != '\r' ) {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,335 @@
+package edu.webframework;
+
+import edu.webframework.exceptions.InvalidRequestBodyException;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binds one controller method argument from the request. The binder for each argument is chosen once, when the
+// controller descriptor is generated, so the request path is a plain loop over already specialized binders.
+abstract class ArgumentBinder {
+
+    final String name;
+    boolean required;
+
+    ArgumentBinder(String name) {
+        this.name = name;
+    }
+
+    abstract Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) throws InvalidRequestBodyException;
+
+    static ArgumentBinder forArgument(ServletDispatcher dispatcher, String name, boolean fromUrl, Class<?> type, Class<?>[] genericTypes) {
+        ValueConverter converter = ValueConverter.forClass(type);
+
+        if ( fromUrl ) {
+            return new PathVariableBinder(name, converter);
+        } else if ( List.class.equals(type) ) {
+            ValueConverter elementConverter = genericTypes.length > 0 ? ValueConverter.forClass(genericTypes[0]) : ValueConverter.STRING;
+            return new ListBinder(name, elementConverter);
+        } else if ( converter == ValueConverter.STRING ) {
+            return new StringBinder(name);
+        } else if ( converter != null ) {
+            return new ScalarBinder(name, converter);
+        } else {
+            return new BeanBinder(dispatcher, name, type);
+        }
+    }
+
+    static ArgumentBinder forBody(ServletDispatcher dispatcher, String name, Class<?> type, Class<?>[] genericTypes) throws ReflectiveOperationException {
+        if ( List.class.equals(type) ) {
+            Class<?> elementClass = genericTypes.length > 0 ? genericTypes[0] : String.class;
+            ValueConverter elementConverter = ValueConverter.forClass(elementClass);
+            return new JsonBodyBinder(dispatcher, name, null, elementConverter,
+                    elementConverter == null ? dispatcher.getBeanBindingPlan(elementClass) : null, true);
+        }
+        ValueConverter converter = ValueConverter.forClass(type);
+        return new JsonBodyBinder(dispatcher, name, converter, null, converter == null ? dispatcher.getBeanBindingPlan(type) : null, false);
+    }
+
+    // Conversions from the raw request value to the supported argument types
+    enum ValueConverter {
+
+        STRING {
+            @Override
+            Object convert(String value) {
+                return value;
+            }
+        },
+        INTEGER {
+            @Override
+            Object convert(String value) {
+                return Integer.valueOf(Integer.parseInt(value));
+            }
+        },
+        LONG {
+            @Override
+            Object convert(String value) {
+                return Long.valueOf(Long.parseLong(value));
+            }
+        },
+        FLOAT {
+            @Override
+            Object convert(String value) {
+                return Float.valueOf(Float.parseFloat(value));
+            }
+        },
+        DOUBLE {
+            @Override
+            Object convert(String value) {
+                return Double.valueOf(Double.parseDouble(value));
+            }
+        },
+        BOOLEAN {
+            @Override
+            Object convert(String value) {
+                // Checked HTML checkboxes are sent as "on", anything else but true or false is as invalid as a bad number
+                if ( "true".equalsIgnoreCase(value) || "on".equals(value) ) {
+                    return Boolean.TRUE;
+                } else if ( "false".equalsIgnoreCase(value) ) {
+                    return Boolean.FALSE;
+                }
+                throw new IllegalArgumentException(String.format("Invalid boolean [%s]", value));
+            }
+        };
+
+        abstract Object convert(String value);
+
+        static ValueConverter forClass(Class<?> clazz) {
+            if ( String.class.equals(clazz) ) {
+                return STRING;
+            } else if ( Integer.class.equals(clazz) ) {
+                return INTEGER;
+            } else if ( Long.class.equals(clazz) ) {
+                return LONG;
+            } else if ( Float.class.equals(clazz) ) {
+                return FLOAT;
+            } else if ( Double.class.equals(clazz) ) {
+                return DOUBLE;
+            } else if ( Boolean.class.equals(clazz) ) {
+                return BOOLEAN;
+            }
+            return null;
+        }
+
+    }
+
+    static class StringBinder extends ArgumentBinder {
+
+        StringBinder(String name) {
+            super(name);
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) {
+            return request.getParameter(name);
+        }
+
+    }
+
+    static class ScalarBinder extends ArgumentBinder {
+
+        private final ValueConverter converter;
+
+        ScalarBinder(String name, ValueConverter converter) {
+            super(name);
+            this.converter = converter;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) {
+            String value = request.getParameter(name);
+            return value != null ? converter.convert(value) : null;
+        }
+
+    }
+
+    static class ListBinder extends ArgumentBinder {
+
+        private final ValueConverter elementConverter;
+
+        ListBinder(String name, ValueConverter elementConverter) {
+            super(name);
+            this.elementConverter = elementConverter;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) {
+            String[] values = request.getParameterValues(name);
+            if ( values == null ) {
+                return new ArrayList<>();
+            }
+
+            List<Object> list = new ArrayList<>(values.length);
+            for ( String value : values ) {
+                list.add(elementConverter != null ? elementConverter.convert(value) : null);
+            }
+            return list;
+        }
+
+    }
+
+    static class BeanBinder extends ArgumentBinder {
+
+        private final ServletDispatcher dispatcher;
+        private final Class<?> type;
+        private final BeanBindingPlan.Binding binding;
+
+        BeanBinder(ServletDispatcher dispatcher, String name, Class<?> type) {
+            super(name);
+            this.dispatcher = dispatcher;
+            this.type = type;
+
+            BeanBindingPlan.Binding planBinding = null;
+            try {
+                planBinding = dispatcher.getBeanBindingPlan(type).new Binding(name, 0);
+            } catch ( ReflectiveOperationException ex ) {
+                dispatcher.log(String.format("   Argument [%s] of type [%s] cannot be bound as a bean", name, type.getCanonicalName()));
+            }
+            binding = planBinding;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) {
+            if ( binding == null ) {
+                return dispatcher.castObject(request, type, name);
+            }
+
+            try {
+                return binding.bind(request);
+            } catch ( RuntimeException ex ) {
+                dispatcher.log(ex.getMessage(), ex);
+                return null;
+            }
+        }
+
+    }
+
+    // Path variables are already URL decoded when the route is resolved
+    static class PathVariableBinder extends ArgumentBinder {
+
+        private final ValueConverter converter;
+
+        PathVariableBinder(String name, ValueConverter converter) {
+            super(name);
+            this.converter = converter;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) {
+            String value = urlParameters != null ? urlParameters.getValue(name) : null;
+            return value != null && converter != null ? converter.convert(value) : null;
+        }
+
+    }
+
+    // The whole JSON request body as a bean, a list or a scalar. A body announcing more than the dispatcher limit is
+    // refused before anything is read, and one that turns out to be bigger is refused once the limit is crossed.
+    static class JsonBodyBinder extends ArgumentBinder {
+
+        private final ServletDispatcher dispatcher;
+        private final ValueConverter converter;
+        private final ValueConverter elementConverter;
+        private final BeanBindingPlan plan;
+        private final boolean list;
+
+        JsonBodyBinder(ServletDispatcher dispatcher, String name, ValueConverter converter, ValueConverter elementConverter,
+                       BeanBindingPlan plan, boolean list) {
+            super(name);
+            this.dispatcher = dispatcher;
+            this.converter = converter;
+            this.elementConverter = elementConverter;
+            this.plan = plan;
+            this.list = list;
+        }
+
+        @Override
+        Object bind(HttpServletRequest request, ServletDispatcher.UrlRequestParameterDescriptor urlParameters) throws InvalidRequestBodyException {
+            long maxSize = dispatcher.maxJsonBodySize;
+            long contentLength = request.getContentLengthLong();
+            if ( contentLength > maxSize ) {
+                throw new InvalidRequestBodyException(String.format("Request body of [%s] bytes is over the limit of [%s]", contentLength, maxSize), true);
+            }
+
+            try {
+                String encoding = request.getCharacterEncoding();
+                Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+                JsonReader reader = new JsonReader(new InputStreamReader(new LimitedInputStream(request.getInputStream(), maxSize), charset),
+                        contentLength > 0 ? (int) Math.min(contentLength, JsonReader.BUFFER_SIZE) : JsonReader.BUFFER_SIZE);
+                if ( reader.isEmpty() ) {
+                    return null;
+                }
+
+                Object value;
+                if ( list ) {
+                    value = reader.readList(elementConverter, plan);
+                } else if ( plan != null ) {
+                    value = reader.readBean(plan);
+                } else {
+                    value = reader.readScalar(converter);
+                }
+                reader.end();
+                return value;
+            } catch ( LimitExceededException ex ) {
+                throw new InvalidRequestBodyException(ex.getMessage(), true);
+            } catch ( IOException | IllegalArgumentException ex ) {
+                throw new InvalidRequestBodyException(String.format("Invalid JSON body for [%s]: %s", name, ex.getMessage()), false);
+            }
+        }
+
+    }
+
+    static class LimitExceededException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        LimitExceededException(String message) {
+            super(message);
+        }
+
+    }
+
+    static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count = 0;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if ( b >= 0 ) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if ( read > 0 ) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws LimitExceededException {
+            count += read;
+            if ( count > limit ) {
+                throw new LimitExceededException(String.format("Request body is over the limit of [%s] bytes", limit));
+            }
+        }
+
+    }
+
+}
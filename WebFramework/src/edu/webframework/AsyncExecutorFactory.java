@@ -0,0 +1,11 @@
+package edu.webframework;
+
+import java.util.concurrent.ExecutorService;
+
+// Creates the executor that runs the asynchronous handlers of a controller. The dispatcher creates one executor per
+// factory class, shares it between all the controllers that name that factory and shuts it down on destroy.
+public interface AsyncExecutorFactory {
+
+    ExecutorService createExecutor();
+
+}
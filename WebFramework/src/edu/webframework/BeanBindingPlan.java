@@ -0,0 +1,219 @@
+package edu.webframework;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+// Everything castObject needs to know about a bean class, looked up once: how to create it and, for every field with
+// a setter, how to convert and set its value. Plans for nested beans point to each other, so a class that refers to
+// itself (directly or through other beans) produces a graph of plans instead of an endless one.
+class BeanBindingPlan {
+
+    // Nested beans are only created when the request has parameters for them, but the prefix can still grow on
+    // self referencing beans, so there is a hard limit on how deep a request may go
+    static final int MAX_NESTING_DEPTH = 8;
+
+    enum PropertyKind { SCALAR, LIST, BEAN }
+
+    static class Property {
+
+        final String name;
+        final PropertyKind kind;
+        final ArgumentBinder.ValueConverter converter;
+        final BiConsumer<Object, Object> setter;
+        BeanBindingPlan nested;
+
+        Property(String name, PropertyKind kind, ArgumentBinder.ValueConverter converter, BiConsumer<Object, Object> setter) {
+            this.name = name;
+            this.kind = kind;
+            this.converter = converter;
+            this.setter = setter;
+        }
+
+    }
+
+    final Class<?> type;
+    final Supplier<Object> constructor;
+    Property[] properties;
+    private Map<String, Property> propertiesByName;
+
+    private BeanBindingPlan(Class<?> type, Supplier<Object> constructor) {
+        this.type = type;
+        this.constructor = constructor;
+    }
+
+    // Builds the plan for the class, and for every bean class reachable from it, reusing the plans in the cache
+    static BeanBindingPlan build(Class<?> type, Map<Class<?>, BeanBindingPlan> cache) throws ReflectiveOperationException {
+        BeanBindingPlan plan = cache.get(type);
+        if ( plan != null ) {
+            return plan;
+        }
+
+        Map<Class<?>, BeanBindingPlan> building = new HashMap<>();
+        plan = build(type, cache, building);
+        cache.putAll(building);
+        return plan;
+    }
+
+    private static BeanBindingPlan build(Class<?> type, Map<Class<?>, BeanBindingPlan> cache,
+                                         Map<Class<?>, BeanBindingPlan> building) throws ReflectiveOperationException {
+        BeanBindingPlan plan = cache.get(type);
+        if ( plan == null ) {
+            plan = building.get(type);
+        }
+        if ( plan != null ) {
+            return plan;
+        }
+
+        plan = new BeanBindingPlan(type, LambdaAccessors.constructor(type));
+        building.put(type, plan);
+
+        List<Property> properties = new ArrayList<>();
+        for ( Field field : type.getDeclaredFields() ) {
+            int modifiers = field.getModifiers();
+            if ( Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ) {
+                continue;
+            }
+
+            Class<?> fieldClass = field.getType();
+            Method setterMethod;
+            try {
+                setterMethod = type.getMethod(getSetterMethodName(field.getName()), fieldClass);
+            } catch ( NoSuchMethodException ex ) {
+                continue;
+            }
+
+            Property property;
+            if ( List.class.equals(fieldClass) ) {
+                Type genericType = field.getGenericType();
+                Class<?> elementClass = String.class;
+                if ( genericType instanceof ParameterizedType ) {
+                    Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+                    elementClass = elementType instanceof Class ? (Class<?>) elementType : null;
+                }
+                property = new Property(field.getName(), PropertyKind.LIST, ArgumentBinder.ValueConverter.forClass(elementClass), LambdaAccessors.setter(setterMethod));
+                // Only JSON bodies can carry lists of beans, request parameters cannot
+                if ( property.converter == null && elementClass != null && isBeanClass(elementClass) ) {
+                    property.nested = build(elementClass, cache, building);
+                }
+            } else if ( ArgumentBinder.ValueConverter.forClass(fieldClass) != null ) {
+                property = new Property(field.getName(), PropertyKind.SCALAR, ArgumentBinder.ValueConverter.forClass(fieldClass), LambdaAccessors.setter(setterMethod));
+            } else if ( isBeanClass(fieldClass) ) {
+                property = new Property(field.getName(), PropertyKind.BEAN, null, LambdaAccessors.setter(setterMethod));
+                property.nested = build(fieldClass, cache, building);
+            } else {
+                continue;
+            }
+
+            properties.add(property);
+        }
+
+        plan.properties = properties.toArray(new Property[properties.size()]);
+        plan.propertiesByName = new HashMap<>();
+        for ( Property property : properties ) {
+            plan.propertiesByName.put(property.name, property);
+        }
+        return plan;
+    }
+
+    Property getProperty(String name) {
+        return propertiesByName.get(name);
+    }
+
+    static boolean isBeanClass(Class<?> clazz) {
+        if ( clazz.isPrimitive() || clazz.isArray() || clazz.isEnum() || clazz.isInterface()
+                || Modifier.isAbstract(clazz.getModifiers()) || clazz.getName().startsWith("java.") ) {
+            return false;
+        }
+        try {
+            clazz.getDeclaredConstructor();
+            return true;
+        } catch ( NoSuchMethodException ex ) {
+            return false;
+        }
+    }
+
+    static String getSetterMethodName(String fieldName) {
+        return "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+    }
+
+    // A plan applied to one parameter prefix, with every request parameter name computed up front
+    class Binding {
+
+        final String prefix;
+        final String[] parameterNames;
+        final int depth;
+        private final Binding[] nested;
+
+        Binding(String prefix, int depth) {
+            this.prefix = prefix;
+            this.depth = depth;
+            parameterNames = new String[properties.length];
+            nested = new Binding[properties.length];
+            for ( int i = 0; i < properties.length; i++ ) {
+                parameterNames[i] = prefix + "." + properties[i].name;
+            }
+        }
+
+        Object bind(HttpServletRequest request) {
+            Object instance = constructor.get();
+
+            for ( int i = 0; i < properties.length; i++ ) {
+                Property property = properties[i];
+                switch ( property.kind ) {
+                    case SCALAR: {
+                        String value = request.getParameter(parameterNames[i]);
+                        if ( value != null ) {
+                            property.setter.accept(instance, property.converter.convert(value));
+                        }
+                        break;
+                    }
+                    case LIST: {
+                        String[] values = request.getParameterValues(parameterNames[i]);
+                        List<Object> list = new ArrayList<>(values != null ? values.length : 0);
+                        if ( values != null ) {
+                            for ( String value : values ) {
+                                list.add(property.converter != null ? property.converter.convert(value) : null);
+                            }
+                        }
+                        property.setter.accept(instance, list);
+                        break;
+                    }
+                    case BEAN: {
+                        if ( depth < MAX_NESTING_DEPTH && hasParametersWithPrefix(request, parameterNames[i] + ".") ) {
+                            property.setter.accept(instance, nestedBinding(i).bind(request));
+                        }
+                        break;
+                    }
+                }
+            }
+
+            return instance;
+        }
+
+        private Binding nestedBinding(int i) {
+            Binding binding = nested[i];
+            if ( binding == null ) {
+                binding = properties[i].nested.new Binding(parameterNames[i], depth + 1);
+                nested[i] = binding;
+            }
+            return binding;
+        }
+
+    }
+
+    private static boolean hasParametersWithPrefix(HttpServletRequest request, String prefix) {
+        for ( String parameterName : request.getParameterMap().keySet() ) {
+            if ( parameterName.startsWith(prefix) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,241 @@
+package edu.webframework;
+
+import edu.webframework.annotations.Priority;
+import edu.webframework.annotations.Service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Admission control of the dispatcher. Every handler has its own limit of requests in flight, and all of them share a
+// global one. Requests over a limit are rejected at once with a 503 instead of queueing behind the slow ones. The
+// limits adapt to the latency they see: they grow while it stays close to its long term average and shrink, down to
+// one request, as soon as requests queue and it rises. Each priority class may only fill its share of the global
+// limit, so when it is reached bulk handlers are rejected first and the normal ones keep the remaining room.
+@Service
+public class ConcurrencyLimits extends ServiceController {
+
+    // Indexed by the priority classes of the handlers, in the order of PRIORITIES
+    static final String[] PRIORITIES = { Priority.CRITICAL, Priority.NORMAL, Priority.BULK };
+    static final double[] SHARES = { 1.0, 0.9, 0.6 };
+    static final int CRITICAL = 0;
+
+    private volatile Limit global = new Limit(ServletDispatcher.DEFAULT_CONCURRENCY_INITIAL, ServletDispatcher.DEFAULT_CONCURRENCY_MAX);
+    private volatile int initialLimit = ServletDispatcher.DEFAULT_CONCURRENCY_INITIAL;
+    private volatile int maxLimit = ServletDispatcher.DEFAULT_CONCURRENCY_MAX;
+    private volatile long retryAfter = ServletDispatcher.DEFAULT_CONCURRENCY_RETRY_AFTER;
+
+    private final LongAdder[] rejected = new LongAdder[PRIORITIES.length];
+
+    public ConcurrencyLimits() {
+        for ( int i = 0; i < rejected.length; i++ ) {
+            rejected[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    // Both the global limit and the handlers registered afterwards start at the initial limit
+    void setLimits(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.initialLimit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        global = new Limit(this.initialLimit, this.maxLimit);
+    }
+
+    void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    Limit newLimit() {
+        return new Limit(initialLimit, maxLimit);
+    }
+
+    // The index of the priority class, or -1 when unknown
+    static int priorityClass(String priority) {
+        for ( int i = 0; i < PRIORITIES.length; i++ ) {
+            if ( PRIORITIES[i].equals(priority) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Takes a place in the limit of the handler and in the global one. Critical requests are counted, never rejected.
+    boolean acquire(Limit route, int priorityClass) {
+        Limit global = this.global;
+        if ( priorityClass == CRITICAL ) {
+            route.inFlight.incrementAndGet();
+            global.inFlight.incrementAndGet();
+            return true;
+        }
+
+        if ( !route.tryAcquire(route.limit) ) {
+            route.rejected.increment();
+            rejected[priorityClass].increment();
+            return false;
+        }
+        if ( !global.tryAcquire(Math.max(1, (int) (global.limit * SHARES[priorityClass]))) ) {
+            route.inFlight.decrementAndGet();
+            route.rejected.increment();
+            global.rejected.increment();
+            rejected[priorityClass].increment();
+            return false;
+        }
+        return true;
+    }
+
+    // Gives the places back once the request is done, its latency adapting both limits. A dropped request, one that
+    // timed out, always shrinks them.
+    void release(Limit route, long nanos, boolean dropped) {
+        route.release(nanos, dropped);
+        global.release(nanos, dropped);
+    }
+
+    public int getLimit() {
+        return global.getLimit();
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        return global.getInFlight();
+    }
+
+    // Seconds clients are told to wait before retrying a rejected request
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public long getRejected() {
+        long sum = 0;
+        for ( LongAdder adder : rejected ) {
+            sum += adder.sum();
+        }
+        return sum;
+    }
+
+    public long getRejected(String priority) {
+        int priorityClass = priorityClass(priority);
+        return priorityClass >= 0 ? rejected[priorityClass].sum() : 0;
+    }
+
+    // Rejected because the global limit was reached rather than the one of their handler
+    public long getGloballyRejected() {
+        return global.getRejected();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("limit [%s/%s] in flight [%s] rejected [%s] globally [%s]",
+                getLimit(), getMaxLimit(), getInFlight(), getRejected(), getGloballyRejected()));
+        for ( String priority : PRIORITIES ) {
+            builder.append(String.format(" %s [%s]", priority, getRejected(priority)));
+        }
+        return builder.toString();
+    }
+
+    // A limit of requests in flight, adapted with a gradient: the ratio of the long term average latency to the recent
+    // one. While the recent latency stays within the tolerance, the limit grows by about its square root, the requests
+    // it lets queue. When it rises, the limit shrinks in proportion, by half at most. Every change is smoothed.
+    static class Limit {
+
+        static final int SHORT_WINDOW = 10;
+        static final int LONG_WINDOW = 600;
+        static final double TOLERANCE = 1.5;
+        static final double SMOOTHING = 0.2;
+        static final double BACKOFF = 0.9;
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder rejected = new LongAdder();
+        volatile int limit;
+
+        private final int maxLimit;
+        private final AtomicBoolean updating = new AtomicBoolean();
+        // Only used by the thread applying a sample
+        private double estimate;
+        private double shortLatency;
+        private double longLatency;
+        private long samples;
+
+        Limit(int initialLimit, int maxLimit) {
+            this.maxLimit = maxLimit;
+            this.estimate = initialLimit;
+            this.limit = initialLimit;
+        }
+
+        boolean tryAcquire(int ceiling) {
+            while ( true ) {
+                int current = inFlight.get();
+                if ( current >= ceiling ) {
+                    return false;
+                }
+                if ( inFlight.compareAndSet(current, current + 1) ) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long nanos, boolean dropped) {
+            int count = inFlight.getAndDecrement();
+            // A sample arriving while another one is applied is skipped rather than waited for
+            if ( updating.compareAndSet(false, true) ) {
+                try {
+                    update(Math.max(1, nanos), count, dropped);
+                } finally {
+                    updating.set(false);
+                }
+            }
+        }
+
+        private void update(long nanos, int count, boolean dropped) {
+            samples++;
+            if ( samples == 1 ) {
+                shortLatency = nanos;
+                longLatency = nanos;
+            } else {
+                shortLatency += (nanos - shortLatency) / SHORT_WINDOW;
+                longLatency += (nanos - longLatency) / Math.min(samples, LONG_WINDOW);
+            }
+            // Once the load is gone, the long term average comes down faster than its window would let it
+            if ( longLatency > 2 * shortLatency ) {
+                longLatency *= 0.95;
+            }
+
+            double target;
+            if ( dropped ) {
+                target = estimate * BACKOFF;
+            } else {
+                double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+                // Requests well under the limit say nothing about how far it could grow
+                if ( gradient == 1.0 && count < estimate / 2 ) {
+                    return;
+                }
+                target = gradient < 1.0 ? estimate * gradient : estimate + Math.sqrt(estimate);
+            }
+            estimate = Math.max(1, Math.min(maxLimit, estimate * (1 - SMOOTHING) + target * SMOOTHING));
+            limit = (int) estimate;
+        }
+
+        int getLimit() {
+            return limit;
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+
+        long getRejected() {
+            return rejected.sum();
+        }
+
+    }
+
+}
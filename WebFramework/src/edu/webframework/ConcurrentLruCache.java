@@ -0,0 +1,234 @@
+package edu.webframework;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// Size bounded cache with least recently used eviction. The size is the number of entries, or the sum of their weights
+// when the cache has a weigher. Entries are spread over independently locked segments, so concurrent requests only
+// contend when their keys land on the same segment.
+class ConcurrentLruCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+    private final long maxWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    ConcurrentLruCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    // Each segment holds its share of the weight, a value heavier than that share is never kept
+    @SuppressWarnings("unchecked")
+    ConcurrentLruCache(long maxWeight, ToIntFunction<? super V> weigher) {
+        this.maxWeight = maxWeight;
+
+        int segmentCount = 1;
+        while ( segmentCount < MAX_SEGMENTS && segmentCount * 2 <= maxWeight / 8 ) {
+            segmentCount *= 2;
+        }
+
+        segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        long segmentWeight = Math.max(1, (maxWeight + segmentCount - 1) / segmentCount);
+        for ( int i = 0; i < segmentCount; i++ ) {
+            segments[i] = new Segment<>(segmentWeight, weigher, evictions);
+        }
+        segmentMask = segmentCount - 1;
+    }
+
+    V get(K key) {
+        V value = segmentFor(key).get(key);
+        if ( value != null ) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    void put(K key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    void clear() {
+        for ( Segment<K, V> segment : segments ) {
+            segment.clear();
+        }
+    }
+
+    // Removes every entry whose key matches, one segment at a time. Returns how many were removed.
+    int removeIf(Predicate<? super K> predicate) {
+        int removed = 0;
+        for ( Segment<K, V> segment : segments ) {
+            removed += segment.removeKeys(predicate);
+        }
+        return removed;
+    }
+
+    // Same as removeIf, for the entries whose value matches
+    int removeValues(Predicate<? super V> predicate) {
+        int removed = 0;
+        for ( Segment<K, V> segment : segments ) {
+            removed += segment.removeValues(predicate);
+        }
+        return removed;
+    }
+
+    int size() {
+        int size = 0;
+        for ( Segment<K, V> segment : segments ) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    int getMaxSize() {
+        return (int) Math.min(maxWeight, Integer.MAX_VALUE);
+    }
+
+    long getWeight() {
+        long weight = 0;
+        for ( Segment<K, V> segment : segments ) {
+            weight += segment.getWeight();
+        }
+        return weight;
+    }
+
+    long getMaxWeight() {
+        return maxWeight;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size [%s/%s] hits [%s] misses [%s] evictions [%s]", size(), maxWeight, getHits(), getMisses(), getEvictions());
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & segmentMask];
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long capacity;
+        private final ToIntFunction<? super V> weigher;
+        private final AtomicLong evictions;
+        private long weight;
+
+        Segment(long capacity, ToIntFunction<? super V> weigher, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.weigher = weigher;
+            this.evictions = evictions;
+        }
+
+        @Override
+        public synchronized V get(Object key) {
+            return super.get(key);
+        }
+
+        // A value heavier than the whole segment is not kept, and neither is the value it replaces
+        @Override
+        public synchronized V put(K key, V value) {
+            if ( weigh(value) > capacity ) {
+                evictions.incrementAndGet();
+                return remove(key);
+            }
+
+            V previous = super.put(key, value);
+            weight += weigh(value) - (previous != null ? weigh(previous) : 0);
+
+            // Least recently used first, which the new value is the last of
+            Iterator<V> eldest = values().iterator();
+            while ( weight > capacity && eldest.hasNext() ) {
+                weight -= weigh(eldest.next());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+            return previous;
+        }
+
+        @Override
+        public synchronized V remove(Object key) {
+            V removed = super.remove(key);
+            if ( removed != null ) {
+                weight -= weigh(removed);
+            }
+            return removed;
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            weight = 0;
+        }
+
+        synchronized int removeKeys(Predicate<? super K> predicate) {
+            int removed = 0;
+            for ( Iterator<Map.Entry<K, V>> entries = entrySet().iterator(); entries.hasNext(); ) {
+                Map.Entry<K, V> entry = entries.next();
+                if ( predicate.test(entry.getKey()) ) {
+                    weight -= weigh(entry.getValue());
+                    entries.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        synchronized int removeValues(Predicate<? super V> predicate) {
+            int removed = 0;
+            for ( Iterator<V> values = values().iterator(); values.hasNext(); ) {
+                V value = values.next();
+                if ( predicate.test(value) ) {
+                    weight -= weigh(value);
+                    values.remove();
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        @Override
+        public synchronized int size() {
+            return super.size();
+        }
+
+        synchronized long getWeight() {
+            return weight;
+        }
+
+        private int weigh(V value) {
+            return weigher != null ? weigher.applyAsInt(value) : 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,93 @@
+package edu.webframework;
+
+import edu.webframework.annotations.HttpMethodType;
+
+import javax.servlet.http.HttpServletRequest;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Conditional GET: the validators of a response and whether the client already has the representation they stand
+// for. If-None-Match wins over If-Modified-Since, and entity tags are compared weakly, as RFC 7232 asks for GET.
+final class ConditionalRequests {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ConditionalRequests() {
+    }
+
+    static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String method = request.getMethod();
+        if ( !HttpMethodType.GET.equals(method) && !HttpMethodType.HEAD.equals(method) ) {
+            return false;
+        }
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if ( ifNoneMatch != null ) {
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+
+        if ( lastModified >= 0 ) {
+            long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+            // HTTP dates have no milliseconds
+            return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+        }
+        return false;
+    }
+
+    static boolean matches(String ifNoneMatch, String etag) {
+        String opaque = opaque(etag);
+        for ( String candidate : ifNoneMatch.split(",") ) {
+            candidate = candidate.trim();
+            if ( "*".equals(candidate) || opaque(candidate).equals(opaque) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Versions given by controllers become strong entity tags, unless they already are entity tags
+    static String quote(String version) {
+        if ( version.startsWith("\"") || version.startsWith("W/\"") ) {
+            return version;
+        }
+        return "\"" + version.replace("\"", "") + "\"";
+    }
+
+    static String hash(byte[] body) {
+        MessageDigest digest = newDigest();
+        digest.update(body);
+        return toETag(digest);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch ( NoSuchAlgorithmException ex ) {
+            // Every JVM has MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String toETag(MessageDigest digest) {
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for ( int i = 0; i < hash.length; i++ ) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return quote(new String(hex));
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch ( IllegalArgumentException ex ) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package edu.webframework;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+// Calls a controller method. Follows the contract of Method.invoke, so exceptions thrown by the controller itself
+// are always wrapped in an InvocationTargetException.
+abstract class ControllerInvoker {
+
+    static final int MAX_LAMBDA_ARGUMENTS = 8;
+
+    abstract Object invoke(Object controller, Object[] arguments) throws InvocationTargetException, IllegalAccessException;
+
+    // Picks the fastest invoker available for the method: a generated lambda class for void handlers with up to
+    // eight arguments, a method handle for everything else, and core reflection when neither can be linked
+    static ControllerInvoker forMethod(Method method, boolean useMethodHandles) {
+        if ( useMethodHandles ) {
+            if ( LambdaInvoker.supports(method) ) {
+                try {
+                    return new LambdaInvoker(method);
+                } catch ( Throwable t ) {
+                    // Fall through to the method handle
+                }
+            }
+
+            try {
+                return new MethodHandleInvoker(method);
+            } catch ( Exception ex ) {
+                // Security restrictions or unusual signatures, reflection still works for those
+            }
+        }
+        return new ReflectionInvoker(method);
+    }
+
+    interface Call0 { void call(Object c); }
+    interface Call1 { void call(Object c, Object a1); }
+    interface Call2 { void call(Object c, Object a1, Object a2); }
+    interface Call3 { void call(Object c, Object a1, Object a2, Object a3); }
+    interface Call4 { void call(Object c, Object a1, Object a2, Object a3, Object a4); }
+    interface Call5 { void call(Object c, Object a1, Object a2, Object a3, Object a4, Object a5); }
+    interface Call6 { void call(Object c, Object a1, Object a2, Object a3, Object a4, Object a5, Object a6); }
+    interface Call7 { void call(Object c, Object a1, Object a2, Object a3, Object a4, Object a5, Object a6, Object a7); }
+    interface Call8 { void call(Object c, Object a1, Object a2, Object a3, Object a4, Object a5, Object a6, Object a7, Object a8); }
+
+    // Implements one of the CallN interfaces with LambdaMetafactory, which spins a class that calls the controller
+    // method directly with plain casts, the same code javac emits for a method reference
+    static class LambdaInvoker extends ControllerInvoker {
+
+        private static final Class<?>[] INTERFACES = {
+                Call0.class, Call1.class, Call2.class, Call3.class, Call4.class,
+                Call5.class, Call6.class, Call7.class, Call8.class
+        };
+
+        private final int arity;
+        private final Object function;
+
+        static boolean supports(Method method) {
+            Class<?> clazz = method.getDeclaringClass();
+            return method.getReturnType() == void.class
+                    && method.getParameterTypes().length <= MAX_LAMBDA_ARGUMENTS
+                    && !Modifier.isStatic(method.getModifiers())
+                    && LambdaAccessors.isLinkable(clazz);
+        }
+
+        LambdaInvoker(Method method) throws Throwable {
+            arity = method.getParameterTypes().length;
+
+            method.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle target = lookup.unreflect(method);
+            Class<?> callInterface = INTERFACES[arity];
+
+            CallSite site = LambdaMetafactory.metafactory(lookup, "call", MethodType.methodType(callInterface),
+                    target.type().generic().changeReturnType(void.class), target, target.type());
+            function = site.getTarget().invoke();
+        }
+
+        @Override
+        Object invoke(Object c, Object[] a) throws InvocationTargetException {
+            try {
+                switch ( arity ) {
+                    case 0: ((Call0) function).call(c); break;
+                    case 1: ((Call1) function).call(c, a[0]); break;
+                    case 2: ((Call2) function).call(c, a[0], a[1]); break;
+                    case 3: ((Call3) function).call(c, a[0], a[1], a[2]); break;
+                    case 4: ((Call4) function).call(c, a[0], a[1], a[2], a[3]); break;
+                    case 5: ((Call5) function).call(c, a[0], a[1], a[2], a[3], a[4]); break;
+                    case 6: ((Call6) function).call(c, a[0], a[1], a[2], a[3], a[4], a[5]); break;
+                    case 7: ((Call7) function).call(c, a[0], a[1], a[2], a[3], a[4], a[5], a[6]); break;
+                    default: ((Call8) function).call(c, a[0], a[1], a[2], a[3], a[4], a[5], a[6], a[7]); break;
+                }
+            } catch ( Throwable t ) {
+                throw new InvocationTargetException(t);
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "Lambda";
+        }
+
+    }
+
+    // Method handle bound once per method, spread to the exact arity of the method and erased to
+    // (Object, Object[])Object, so it can be called with invokeExact
+    static class MethodHandleInvoker extends ControllerInvoker {
+
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Method method) throws IllegalAccessException {
+            method.setAccessible(true);
+            MethodHandle target = MethodHandles.lookup().unreflect(method);
+            handle = target.asType(target.type().generic())
+                    .asSpreader(Object[].class, method.getParameterTypes().length);
+        }
+
+        @Override
+        Object invoke(Object controller, Object[] arguments) throws InvocationTargetException {
+            try {
+                return (Object) handle.invokeExact(controller, arguments);
+            } catch ( Throwable t ) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MethodHandle";
+        }
+
+    }
+
+    // Calls the handler through the accessor of a generated registry, plain compiled code without any linking
+    static class GeneratedInvoker extends ControllerInvoker {
+
+        private final ControllerRegistry.Accessor accessor;
+        private final int handler;
+
+        GeneratedInvoker(ControllerRegistry.Accessor accessor, int handler) {
+            this.accessor = accessor;
+            this.handler = handler;
+        }
+
+        @Override
+        Object invoke(Object controller, Object[] arguments) throws InvocationTargetException {
+            try {
+                return accessor.invoke(handler, controller, arguments);
+            } catch ( Throwable t ) {
+                throw new InvocationTargetException(t);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Generated";
+        }
+
+    }
+
+    static class ReflectionInvoker extends ControllerInvoker {
+
+        private final Method method;
+
+        ReflectionInvoker(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        Object invoke(Object controller, Object[] arguments) throws InvocationTargetException, IllegalAccessException {
+            return method.invoke(controller, arguments);
+        }
+
+        @Override
+        public String toString() {
+            return "Reflection";
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package edu.webframework;
+
+import edu.webframework.annotations.ControllerLifecycle;
+
+// Implemented by the classes ControllerRegistryProcessor generates at compile time for every package with controllers
+// or services, and listed in META-INF/services/edu.webframework.ControllerRegistry. The dispatcher loads them at init
+// and builds its descriptors from what they register, so neither the web.xml lists nor scanning the classes with
+// reflection are needed.
+public interface ControllerRegistry {
+
+    void register(Registrar registrar);
+
+    interface Registrar {
+
+        Registration service(Class<? extends ServiceController> type, Accessor accessor);
+
+        Registration controller(Class<? extends WebController> type, String path, ControllerLifecycle lifecycle, int poolSize,
+                                Class<? extends AsyncExecutorFactory> executor, Accessor accessor);
+
+        // Classes the generated code cannot reach, they are registered with reflection as if listed in the web.xml
+        void reflectiveService(Class<?> type);
+
+        void reflectiveController(Class<?> type);
+
+    }
+
+    interface Registration {
+
+        Registration require(int field, Class<?> serviceType);
+
+        Registration handler(int handler, String httpMethod, String action, String name, boolean async);
+
+        // Adds an argument to the last registered handler
+        Registration argument(String name, boolean required, boolean fromUrl, Class<?> type, Class<?>... genericTypes);
+
+        // Binds the last registered argument from the JSON request body, as with @HttpRequestParameter(fromBody = true)
+        Registration fromBody();
+
+        // Caches the responses of the last registered handler, as with @CacheResponse
+        Registration cache(long ttl, String[] parameters, String[] sessionAttributes);
+
+        // Hashes the body of the last registered handler into its ETag, as with @ShallowETag
+        Registration shallowETag();
+
+        // Never compresses the responses of the last registered handler, as with @NoCompression
+        Registration noCompression();
+
+        // Admits the last registered handler with the priority class, as with @Priority
+        Registration priority(String priority);
+
+    }
+
+    // Direct calls to the constructor, the service fields and the handlers of one class, selected by the indexes
+    // given on registration
+    abstract class Accessor {
+
+        public abstract Object newInstance();
+
+        public void inject(int field, Object target, Object service) {
+            throw new IllegalArgumentException(String.format("Unknown field [%s]", field));
+        }
+
+        public Object invoke(int handler, Object target, Object[] arguments) throws Throwable {
+            throw new IllegalArgumentException(String.format("Unknown handler [%s]", handler));
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package edu.webframework;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Uses a virtual thread per task when the JVM supports them, and a cached pool of daemon threads otherwise
+public class DefaultAsyncExecutorFactory implements AsyncExecutorFactory {
+
+    @Override
+    public ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch ( Exception ex ) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "webframework-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+
+            });
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+// Sessions kept in files, one per session, so they survive restarts of the application. They are written in the
+// session.directory context parameter, or the sessions directory of the container's temporary directory for the
+// application. A file holds when its session expires followed by the session, and is replaced as a whole by moving a
+// new file over it, so readers never see half a session.
+public class FileSessionStore implements SessionStore {
+
+    public static final String SESSION_DIRECTORY = "session.directory";
+
+    static final String SUFFIX = ".session";
+    static final Pattern ID = Pattern.compile("[0-9A-Za-z_-]{1,128}");
+
+    private Path directory;
+
+    public FileSessionStore() {
+    }
+
+    public FileSessionStore(Path directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void initialize(ServletContext servletContext) throws IOException {
+        String location = servletContext.getInitParameter(SESSION_DIRECTORY);
+        if ( location != null && !location.trim().isEmpty() ) {
+            directory = new File(location.trim()).toPath();
+        } else if ( directory == null ) {
+            Object tempDir = servletContext.getAttribute(ServletContext.TEMPDIR);
+            File parent = tempDir instanceof File ? (File) tempDir : new File(System.getProperty("java.io.tmpdir"));
+            directory = new File(parent, "sessions").toPath();
+        }
+        Files.createDirectories(directory);
+        servletContext.log(String.format("Storing sessions in [%s]", directory.toAbsolutePath()));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public byte[] load(String id) throws IOException {
+        Path file = file(id);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch ( NoSuchFileException ex ) {
+            return null;
+        }
+
+        if ( bytes.length < 8 || ByteBuffer.wrap(bytes).getLong() <= System.currentTimeMillis() ) {
+            Files.deleteIfExists(file);
+            return null;
+        }
+        byte[] session = new byte[bytes.length - 8];
+        System.arraycopy(bytes, 8, session, 0, session.length);
+        return session;
+    }
+
+    @Override
+    public void save(String id, byte[] session, long expires) throws IOException {
+        Path file = file(id);
+        Path temp = Files.createTempFile(directory, id, ".tmp");
+        try {
+            Files.write(temp, ByteBuffer.allocate(8 + session.length).putLong(expires).put(session).array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void remove(String id) throws IOException {
+        Files.deleteIfExists(file(id));
+    }
+
+    @Override
+    public int evictExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        try ( DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX) ) {
+            for ( Path file : files ) {
+                if ( readExpires(file) <= now && Files.deleteIfExists(file) ) {
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private long readExpires(Path file) throws IOException {
+        try ( InputStream in = Files.newInputStream(file) ) {
+            return new DataInputStream(in).readLong();
+        } catch ( NoSuchFileException ex ) {
+            return Long.MAX_VALUE;
+        } catch ( IOException ex ) {
+            // Truncated, never written by this store
+            return 0;
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        try ( DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX) ) {
+            for ( Path ignored : files ) {
+                size++;
+            }
+        } catch ( IOException ex ) {
+            return -1;
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Ids come from a cookie, they never get to name a file outside of the directory
+    private Path file(String id) throws IOException {
+        if ( id == null || !ID.matcher(id).matches() ) {
+            throw new IOException(String.format("Invalid session id [%s]", id));
+        }
+        return directory.resolve(id + SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[FileSessionStore directory [%s]]", directory);
+    }
+
+}
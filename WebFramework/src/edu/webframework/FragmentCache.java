@@ -0,0 +1,270 @@
+package edu.webframework;
+
+import edu.webframework.annotations.Service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// Rendered parts of views, kept by the cache tag of the framework's tag library as UTF-8 bytes, by fragment name and
+// key. Unlike the response cache, a page can mix cached fragments with content rendered for every request. Fragments
+// are tagged with the data they show, and services changing that data ask for the cache with @RequireService and
+// invalidate the tag. Once the cache holds as many bytes as its size, the least recently used fragments are evicted.
+@Service
+public class FragmentCache extends ServiceController {
+
+    private volatile ConcurrentLruCache<Key, Fragment> fragments = newCache(ServletDispatcher.DEFAULT_FRAGMENT_CACHE_SIZE);
+
+    // Invalidating a tag moves its version on, fragments rendered before that are never served again. Tags are the
+    // few names views declare, they are never removed.
+    private final ConcurrentMap<String, AtomicLong> tagVersions = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, FragmentMetrics> metrics = new ConcurrentSkipListMap<>();
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+        invalidateAll();
+    }
+
+    void setMaxSize(long maxBytes) {
+        fragments = newCache(maxBytes);
+    }
+
+    private static ConcurrentLruCache<Key, Fragment> newCache(long maxBytes) {
+        return new ConcurrentLruCache<>(maxBytes, new ToIntFunction<Fragment>() {
+            @Override
+            public int applyAsInt(Fragment fragment) {
+                return fragment.bytes.length;
+            }
+        });
+    }
+
+    // Every fragment tagged with the tag, including the ones still being rendered
+    public int invalidate(final String tag) {
+        getTagVersion(tag).incrementAndGet();
+        return fragments.removeValues(new Predicate<Fragment>() {
+            @Override
+            public boolean test(Fragment fragment) {
+                return Arrays.asList(fragment.tags).contains(tag);
+            }
+        });
+    }
+
+    public void invalidateAll() {
+        for ( AtomicLong version : tagVersions.values() ) {
+            version.incrementAndGet();
+        }
+        fragments.clear();
+    }
+
+    // Stale fragments found in the cache count as misses
+    public long getHits() {
+        long hits = 0;
+        for ( FragmentMetrics fragmentMetrics : metrics.values() ) {
+            hits += fragmentMetrics.getHits();
+        }
+        return hits;
+    }
+
+    public long getMisses() {
+        long misses = 0;
+        for ( FragmentMetrics fragmentMetrics : metrics.values() ) {
+            misses += fragmentMetrics.getMisses();
+        }
+        return misses;
+    }
+
+    public long getEvictions() {
+        return fragments.getEvictions();
+    }
+
+    public int size() {
+        return fragments.size();
+    }
+
+    // In bytes
+    public long getWeight() {
+        return fragments.getWeight();
+    }
+
+    public long getMaxWeight() {
+        return fragments.getMaxWeight();
+    }
+
+    public Map<String, FragmentMetrics> getFragmentMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size [%s] bytes [%s/%s] hits [%s] misses [%s] evictions [%s]",
+                size(), getWeight(), getMaxWeight(), getHits(), getMisses(), getEvictions());
+    }
+
+    // The fragment to write, or null when it has to be rendered and stored
+    byte[] get(Key key) {
+        FragmentMetrics fragmentMetrics = getMetrics(key.name);
+        Fragment fragment = fragments.get(key);
+        if ( fragment != null && !fragment.isCurrent() ) {
+            fragments.remove(key);
+            fragment = null;
+        }
+
+        if ( fragment == null ) {
+            fragmentMetrics.misses.increment();
+            return null;
+        }
+        fragmentMetrics.hits.increment();
+        return fragment.bytes;
+    }
+
+    // Taken before the fragment is rendered, so an invalidation while it renders keeps it from being stored
+    long[] versions(String[] tags) {
+        long[] versions = new long[tags.length];
+        for ( int i = 0; i < tags.length; i++ ) {
+            versions[i] = getTagVersion(tags[i]).get();
+        }
+        return versions;
+    }
+
+    void store(Key key, String[] tags, long[] versions, long ttlSeconds, byte[] bytes) {
+        AtomicLong[] tagVersions = new AtomicLong[tags.length];
+        for ( int i = 0; i < tags.length; i++ ) {
+            tagVersions[i] = getTagVersion(tags[i]);
+        }
+        long expires = ttlSeconds > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds) : 0;
+        Fragment fragment = new Fragment(bytes, tags, tagVersions, versions, expires);
+        if ( fragment.isCurrent() ) {
+            fragments.put(key, fragment);
+        }
+    }
+
+    private AtomicLong getTagVersion(String tag) {
+        AtomicLong version = tagVersions.get(tag);
+        if ( version == null ) {
+            version = new AtomicLong();
+            AtomicLong previous = tagVersions.putIfAbsent(tag, version);
+            if ( previous != null ) {
+                version = previous;
+            }
+        }
+        return version;
+    }
+
+    private FragmentMetrics getMetrics(String name) {
+        FragmentMetrics fragmentMetrics = metrics.get(name);
+        if ( fragmentMetrics == null ) {
+            fragmentMetrics = new FragmentMetrics();
+            FragmentMetrics previous = metrics.putIfAbsent(name, fragmentMetrics);
+            if ( previous != null ) {
+                fragmentMetrics = previous;
+            }
+        }
+        return fragmentMetrics;
+    }
+
+    // The tags of a view give the tag list as a comma separated string
+    static String[] parseTags(String tags) {
+        if ( tags == null || tags.trim().isEmpty() ) {
+            return new String[0];
+        }
+        return tags.trim().split("\\s*,\\s*");
+    }
+
+    // Hits and misses of the fragments of one name, whatever their key
+    public static class FragmentMetrics {
+
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public double getHitRatio() {
+            long hits = getHits();
+            long total = hits + getMisses();
+            return total > 0 ? (double) hits / total : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "hits [%s] misses [%s] hit ratio [%.3f]", getHits(), getMisses(), getHitRatio());
+        }
+
+    }
+
+    static class Key {
+
+        final String name;
+        final Object key;
+        private final int hash;
+
+        Key(String name, Object key) {
+            this.name = name;
+            this.key = key;
+            this.hash = 31 * name.hashCode() + (key != null ? key.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !(o instanceof Key) ) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && name.equals(other.name) && (key != null ? key.equals(other.key) : other.key == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    static class Fragment {
+
+        final byte[] bytes;
+        final String[] tags;
+        final AtomicLong[] tagVersions;
+        final long[] versions;
+        final long expires;
+
+        Fragment(byte[] bytes, String[] tags, AtomicLong[] tagVersions, long[] versions, long expires) {
+            this.bytes = bytes;
+            this.tags = tags;
+            this.tagVersions = tagVersions;
+            this.versions = versions;
+            this.expires = expires;
+        }
+
+        // None of its tags has been invalidated since it was rendered, and it has not expired
+        boolean isCurrent() {
+            for ( int i = 0; i < versions.length; i++ ) {
+                if ( tagVersions[i].get() != versions[i] ) {
+                    return false;
+                }
+            }
+            return expires == 0 || expires - System.nanoTime() > 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,94 @@
+package edu.webframework;
+
+import javax.servlet.jsp.JspException;
+import javax.servlet.jsp.tagext.BodyTagSupport;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// The cache tag of the framework's tag library for the views left to the JSP container, compiled views have their own
+// Template.Cached. Its body is rendered once and written from the fragment cache afterwards:
+//
+//   <%@ taglib uri="http://edu.webframework/tags" prefix="wf" %>
+//   <wf:cache name="todo-list" key="${filter}" tags="todo-list">...</wf:cache>
+//
+// Without the dispatcher's cache in the servlet context, the body is rendered every time.
+public class FragmentCacheTag extends BodyTagSupport {
+
+    private static final long serialVersionUID = 1L;
+
+    private String name;
+    private Object key;
+    private String tags;
+    private int ttl;
+
+    private FragmentCache cache;
+    private String[] tagNames;
+    private long[] versions;
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setKey(Object key) {
+        this.key = key;
+    }
+
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    public void setTtl(int ttl) {
+        this.ttl = ttl;
+    }
+
+    @Override
+    public int doStartTag() throws JspException {
+        cache = (FragmentCache) pageContext.getServletContext().getAttribute(ServletDispatcher.FragmentCacheAttr);
+        if ( cache == null ) {
+            return EVAL_BODY_INCLUDE;
+        }
+
+        byte[] fragment = cache.get(new FragmentCache.Key(name, key));
+        if ( fragment != null ) {
+            cache = null;
+            try {
+                pageContext.getOut().write(new String(fragment, StandardCharsets.UTF_8));
+            } catch ( IOException ex ) {
+                throw new JspException(ex);
+            }
+            return SKIP_BODY;
+        }
+
+        tagNames = FragmentCache.parseTags(tags);
+        versions = cache.versions(tagNames);
+        return EVAL_BODY_BUFFERED;
+    }
+
+    @Override
+    public int doEndTag() throws JspException {
+        try {
+            if ( cache != null ) {
+                String text = bodyContent != null ? bodyContent.getString() : "";
+                cache.store(new FragmentCache.Key(name, key), tagNames, versions, ttl, text.getBytes(StandardCharsets.UTF_8));
+                pageContext.getOut().write(text);
+            }
+        } catch ( IOException ex ) {
+            throw new JspException(ex);
+        } finally {
+            cache = null;
+            tagNames = null;
+            versions = null;
+        }
+        return EVAL_PAGE;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        name = null;
+        key = null;
+        tags = null;
+        ttl = 0;
+    }
+
+}
@@ -0,0 +1,584 @@
+package edu.webframework;
+
+import edu.webframework.annotations.Service;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+// Sessions of the framework instead of the container's, with the session.store context parameter. The dispatcher
+// wraps its requests so that getSession, in controllers, views and the response cache alike, returns a session read
+// from the store and tracked with the WFSESSIONID cookie. A request works on its own copy of the session, which is
+// saved back once the response is done, with the attributes the request set or removed applied over the stored
+// session, in case another request of the session saved it in between. Saves of the same session are serialized
+// within the application, not across the nodes sharing a store, where the last one still wins. Attributes changed in
+// place have to be set again to be saved, and have to be Serializable.
+@Service
+public class FrameworkSessions extends ServiceController {
+
+    public static final String SESSION_COOKIE = "WFSESSIONID";
+
+    static final Pattern ID = Pattern.compile("[0-9A-F]{32}");
+    static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    // Sessions only read by a request are saved again to move their expiry on at most this often
+    static final long ACCESS_RESOLUTION = TimeUnit.MINUTES.toMillis(1);
+
+    final SessionStore store;
+    final SessionSerializer serializer;
+    int maxInactiveInterval;
+
+    // Striped by session id, the load, merge and save of a session is never interleaved with another one
+    private final Object[] saveLocks = new Object[64];
+
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder saved = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    FrameworkSessions(SessionStore store, SessionSerializer serializer, int maxInactiveInterval) {
+        this.store = store;
+        this.serializer = serializer;
+        this.maxInactiveInterval = maxInactiveInterval;
+        nextSweep.set(System.currentTimeMillis() + SWEEP_INTERVAL);
+        for ( int i = 0; i < saveLocks.length; i++ ) {
+            saveLocks[i] = new Object();
+        }
+    }
+
+    Object saveLock(String id) {
+        return saveLocks[(id.hashCode() & Integer.MAX_VALUE) % saveLocks.length];
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            store.close();
+        } catch ( IOException ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
+    public SessionStore getStore() {
+        return store;
+    }
+
+    public int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    // Ends the session with the id, like a logout everywhere would
+    public void invalidate(String id) throws IOException {
+        if ( id != null && ID.matcher(id).matches() ) {
+            synchronized ( saveLock(id) ) {
+                store.remove(id);
+            }
+        }
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public long getLoaded() {
+        return loaded.sum();
+    }
+
+    public long getSaved() {
+        return saved.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    // Sessions that could not be read or saved, they are logged
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("store %s sessions [%s] created [%s] loaded [%s] saved [%s] expired [%s] failures [%s]",
+                store, size(), getCreated(), getLoaded(), getSaved(), getExpired(), getFailures());
+    }
+
+    SessionRequest wrap(HttpServletRequest request, HttpServletResponse response) {
+        return new SessionRequest(request, response);
+    }
+
+    // Once a minute, by the request that finds the minute is over
+    void sweepIfDue() {
+        long now = System.currentTimeMillis();
+        long due = nextSweep.get();
+        if ( now < due || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL) ) {
+            return;
+        }
+        try {
+            expired.add(store.evictExpired());
+        } catch ( IOException ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
+    Session load(String id) {
+        if ( id == null || !ID.matcher(id).matches() ) {
+            return null;
+        }
+        try {
+            byte[] bytes = store.load(id);
+            if ( bytes == null ) {
+                return null;
+            }
+            Session session = new Session(id, bytes, serializer.readAttributes(bytes));
+            loaded.increment();
+            return session;
+        } catch ( IOException ex ) {
+            // A session the application cannot read any more, like one with a class that changed, is lost
+            failures.increment();
+            log(String.format("Cannot read session [%s], dropping it", id), ex);
+            try {
+                store.remove(id);
+            } catch ( IOException e ) {
+                log(e.getMessage(), e);
+            }
+            return null;
+        }
+    }
+
+    Session create() {
+        created.increment();
+        return new Session(newId(), null, new LinkedHashMap<String, Object>());
+    }
+
+    void save(Session session) {
+        try {
+            byte[] bytes = session.commit(System.currentTimeMillis());
+            if ( bytes != null ) {
+                saved.increment();
+            }
+        } catch ( IOException ex ) {
+            failures.increment();
+            log(String.format("Cannot save session [%s]", session.id), ex);
+        }
+    }
+
+    private String newId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder builder = new StringBuilder(32);
+        for ( byte b : bytes ) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString().toUpperCase();
+    }
+
+    // The request as controllers and views see it, with the framework's session. Asynchronous requests save it when
+    // they complete.
+    class SessionRequest extends HttpServletRequestWrapper implements AsyncListener {
+
+        final HttpServletResponse response;
+        private Session session;
+        private boolean resolved;
+        private boolean done;
+        volatile boolean async;
+
+        SessionRequest(HttpServletRequest request, HttpServletResponse response) {
+            super(request);
+            this.response = response;
+        }
+
+        // Listening from the start, the handler may complete before the dispatcher returns
+        @Override
+        public AsyncContext startAsync() {
+            return startAsync(this, response);
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            AsyncContext asyncContext = super.startAsync(request, response);
+            async = true;
+            asyncContext.addListener(this);
+            return asyncContext;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return getSession(true);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            synchronized ( this ) {
+                if ( !resolved ) {
+                    resolved = true;
+                    session = load(getRequestedSessionId());
+                }
+                if ( session != null && session.valid ) {
+                    return session;
+                }
+                if ( !create ) {
+                    return null;
+                }
+                if ( response.isCommitted() ) {
+                    throw new IllegalStateException("Cannot create a session after the response has been committed");
+                }
+
+                Session previous = session;
+                session = create();
+                // An invalidated session is removed when the request is done, along with the new one being saved
+                session.replaced = previous;
+                addCookie(session.id);
+                return session;
+            }
+        }
+
+        @Override
+        public String changeSessionId() {
+            synchronized ( this ) {
+                Session current = (Session) getSession(false);
+                if ( current == null ) {
+                    throw new IllegalStateException("There is no session to change the id of");
+                }
+                if ( current.previousId == null && !current.isNew ) {
+                    current.previousId = current.id;
+                }
+                current.id = newId();
+                addCookie(current.id);
+                return current.id;
+            }
+        }
+
+        @Override
+        public String getRequestedSessionId() {
+            Cookie[] cookies = getCookies();
+            if ( cookies != null ) {
+                for ( Cookie cookie : cookies ) {
+                    if ( SESSION_COOKIE.equals(cookie.getName()) ) {
+                        return cookie.getValue();
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdValid() {
+            String requested = getRequestedSessionId();
+            HttpSession current = getSession(false);
+            return requested != null && current != null && requested.equals(current.getId());
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromCookie() {
+            return getRequestedSessionId() != null;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromURL() {
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean isRequestedSessionIdFromUrl() {
+            return false;
+        }
+
+        private void addCookie(String id) {
+            Cookie cookie = new Cookie(SESSION_COOKIE, id);
+            String contextPath = getContextPath();
+            cookie.setPath(contextPath == null || contextPath.isEmpty() ? "/" : contextPath);
+            cookie.setHttpOnly(true);
+            cookie.setSecure(isSecure());
+            response.addCookie(cookie);
+        }
+
+        // Saves the session, if the request used one, once
+        void finish() {
+            Session current;
+            synchronized ( this ) {
+                if ( done ) {
+                    return;
+                }
+                done = true;
+                current = session;
+            }
+            if ( current != null ) {
+                save(current);
+            }
+            sweepIfDue();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finish();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+    }
+
+    // The copy of a session one request works on
+    class Session implements HttpSession {
+
+        volatile String id;
+        String previousId;
+        Session replaced;
+        final long creationTime;
+        final long lastAccessedTime;
+        final boolean isNew;
+        volatile boolean valid = true;
+
+        private final byte[] loadedBytes;
+        private final Map<String, Object> attributes;
+        // Attributes set by this request, with null for the removed ones
+        private final Map<String, Object> changes = new LinkedHashMap<>();
+        private int maxInactiveInterval;
+        private boolean intervalChanged;
+
+        Session(String id, byte[] bytes, Map<String, Object> attributes) {
+            this.id = id;
+            this.loadedBytes = bytes;
+            this.attributes = attributes;
+            if ( bytes != null ) {
+                creationTime = SessionSerializer.getCreationTime(bytes);
+                lastAccessedTime = SessionSerializer.getLastAccessedTime(bytes);
+                maxInactiveInterval = SessionSerializer.getMaxInactiveInterval(bytes);
+                isNew = false;
+            } else {
+                creationTime = System.currentTimeMillis();
+                lastAccessedTime = creationTime;
+                maxInactiveInterval = FrameworkSessions.this.maxInactiveInterval;
+                isNew = true;
+            }
+        }
+
+        private void checkValid() {
+            if ( !valid ) {
+                throw new IllegalStateException(String.format("Session [%s] has been invalidated", id));
+            }
+        }
+
+        @Override
+        public long getCreationTime() {
+            checkValid();
+            return creationTime;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        // The previous request of the session, to a minute
+        @Override
+        public long getLastAccessedTime() {
+            checkValid();
+            return lastAccessedTime;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return servletContext;
+        }
+
+        @Override
+        public synchronized void setMaxInactiveInterval(int interval) {
+            maxInactiveInterval = interval;
+            intervalChanged = true;
+        }
+
+        @Override
+        public synchronized int getMaxInactiveInterval() {
+            return maxInactiveInterval;
+        }
+
+        @Override
+        @Deprecated
+        public javax.servlet.http.HttpSessionContext getSessionContext() {
+            return null;
+        }
+
+        @Override
+        public synchronized Object getAttribute(String name) {
+            checkValid();
+            return attributes.get(name);
+        }
+
+        @Override
+        @Deprecated
+        public Object getValue(String name) {
+            return getAttribute(name);
+        }
+
+        @Override
+        public synchronized Enumeration<String> getAttributeNames() {
+            checkValid();
+            return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+        }
+
+        @Override
+        @Deprecated
+        public synchronized String[] getValueNames() {
+            checkValid();
+            return attributes.keySet().toArray(new String[0]);
+        }
+
+        @Override
+        public synchronized void setAttribute(String name, Object value) {
+            checkValid();
+            if ( value == null ) {
+                removeAttribute(name);
+                return;
+            }
+            if ( !(value instanceof Serializable) ) {
+                throw new IllegalArgumentException(String.format("Session attribute [%s] of class [%s] is not Serializable",
+                        name, value.getClass().getName()));
+            }
+            attributes.put(name, value);
+            changes.put(name, value);
+        }
+
+        @Override
+        @Deprecated
+        public void putValue(String name, Object value) {
+            setAttribute(name, value);
+        }
+
+        @Override
+        public synchronized void removeAttribute(String name) {
+            checkValid();
+            if ( attributes.remove(name) != null || !isNew ) {
+                changes.put(name, null);
+            }
+        }
+
+        @Override
+        @Deprecated
+        public void removeValue(String name) {
+            removeAttribute(name);
+        }
+
+        @Override
+        public synchronized void invalidate() {
+            checkValid();
+            valid = false;
+        }
+
+        @Override
+        public synchronized boolean isNew() {
+            checkValid();
+            return isNew;
+        }
+
+        // Writes the session to the store as the request leaves it. Returns what was saved, or null when nothing had
+        // to be.
+        synchronized byte[] commit(long now) throws IOException {
+            if ( replaced != null ) {
+                replaced.commit(now);
+            }
+            if ( previousId != null ) {
+                synchronized ( saveLock(previousId) ) {
+                    store.remove(previousId);
+                }
+            }
+            synchronized ( saveLock(id) ) {
+                return write(now);
+            }
+        }
+
+        private byte[] write(long now) throws IOException {
+            if ( !valid ) {
+                store.remove(id);
+                return null;
+            }
+
+            byte[] bytes;
+            if ( isNew || previousId != null || intervalChanged || !changes.isEmpty() ) {
+                Map<String, Object> current = attributes;
+                if ( !isNew && previousId == null ) {
+                    current = merge(store.load(id));
+                    if ( current == null ) {
+                        // Invalidated or expired by another request meanwhile
+                        return null;
+                    }
+                }
+                bytes = serializer.write(creationTime, now, maxInactiveInterval, current);
+            } else if ( now - lastAccessedTime >= (maxInactiveInterval > 0 ? Math.min(ACCESS_RESOLUTION, maxInactiveInterval * 250L) : ACCESS_RESOLUTION) ) {
+                byte[] stored = store.load(id);
+                if ( stored == null ) {
+                    return null;
+                }
+                bytes = SessionSerializer.touch(stored, now);
+            } else {
+                return null;
+            }
+
+            store.save(id, bytes, maxInactiveInterval > 0 ? now + maxInactiveInterval * 1000L : Long.MAX_VALUE);
+            return bytes;
+        }
+
+        // The changes of this request over the session as it is stored now
+        private Map<String, Object> merge(byte[] stored) throws IOException {
+            if ( stored == null ) {
+                return null;
+            }
+            if ( stored == loadedBytes ) {
+                return attributes;
+            }
+            Map<String, Object> current = serializer.readAttributes(stored);
+            for ( Map.Entry<String, Object> change : changes.entrySet() ) {
+                if ( change.getValue() != null ) {
+                    current.put(change.getKey(), change.getValue());
+                } else {
+                    current.remove(change.getKey());
+                }
+            }
+            return current;
+        }
+
+    }
+
+}
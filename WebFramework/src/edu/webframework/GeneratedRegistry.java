@@ -0,0 +1,210 @@
+package edu.webframework;
+
+import edu.webframework.annotations.ControllerLifecycle;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Everything the generated registries found on the class path have registered, in registration order
+class GeneratedRegistry implements ControllerRegistry.Registrar {
+
+    final Map<Class<?>, Entry> services = new LinkedHashMap<>();
+    final Map<Class<?>, Entry> controllers = new LinkedHashMap<>();
+    final Set<Class<?>> reflectiveServices = new LinkedHashSet<>();
+    final Set<Class<?>> reflectiveControllers = new LinkedHashSet<>();
+
+    @Override
+    public ControllerRegistry.Registration service(Class<? extends ServiceController> type, ControllerRegistry.Accessor accessor) {
+        Entry entry = new Entry(type, accessor);
+        services.put(type, entry);
+        return entry;
+    }
+
+    @Override
+    public ControllerRegistry.Registration controller(Class<? extends WebController> type, String path, ControllerLifecycle lifecycle,
+                                                      int poolSize, Class<? extends AsyncExecutorFactory> executor,
+                                                      ControllerRegistry.Accessor accessor) {
+        Entry entry = new Entry(type, accessor);
+        entry.path = path;
+        entry.lifecycle = lifecycle;
+        entry.poolSize = poolSize;
+        entry.executor = executor;
+        controllers.put(type, entry);
+        return entry;
+    }
+
+    @Override
+    public void reflectiveService(Class<?> type) {
+        reflectiveServices.add(type);
+    }
+
+    @Override
+    public void reflectiveController(Class<?> type) {
+        reflectiveControllers.add(type);
+    }
+
+    boolean isEmpty() {
+        return services.isEmpty() && controllers.isEmpty() && reflectiveServices.isEmpty() && reflectiveControllers.isEmpty();
+    }
+
+    // The classes still to be registered with reflection: the ones listed in the web.xml that were not generated,
+    // followed by the ones the generated registries could not handle
+    Class<?>[] reflectiveServiceClasses(Class<?>[] listed) {
+        return merge(listed, services, reflectiveServices);
+    }
+
+    Class<?>[] reflectiveControllerClasses(Class<?>[] listed) {
+        return merge(listed, controllers, reflectiveControllers);
+    }
+
+    private static Class<?>[] merge(Class<?>[] listed, Map<Class<?>, Entry> generated, Set<Class<?>> reflective) {
+        Set<Class<?>> classes = new LinkedHashSet<>();
+        for ( Class<?> clazz : listed ) {
+            if ( !generated.containsKey(clazz) ) {
+                classes.add(clazz);
+            }
+        }
+        classes.addAll(reflective);
+        return classes.toArray(new Class<?>[classes.size()]);
+    }
+
+    static class Entry implements ControllerRegistry.Registration {
+
+        final Class<?> type;
+        final ControllerRegistry.Accessor accessor;
+
+        String path;
+        ControllerLifecycle lifecycle = ControllerLifecycle.REQUEST;
+        int poolSize;
+        Class<? extends AsyncExecutorFactory> executor = DefaultAsyncExecutorFactory.class;
+
+        final List<Class<?>> requiredServices = new ArrayList<>();
+        final List<Handler> handlers = new ArrayList<>();
+
+        // Set once the controller is registered, so the error handler can reuse it
+        ServletDispatcher.ControllerDescriptor descriptor;
+
+        Entry(Class<?> type, ControllerRegistry.Accessor accessor) {
+            this.type = type;
+            this.accessor = accessor;
+        }
+
+        @Override
+        public ControllerRegistry.Registration require(int field, Class<?> serviceType) {
+            while ( requiredServices.size() <= field ) {
+                requiredServices.add(null);
+            }
+            requiredServices.set(field, serviceType);
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration handler(int handler, String httpMethod, String action, String name, boolean async) {
+            handlers.add(new Handler(handler, httpMethod, action, name, async));
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration argument(String name, boolean required, boolean fromUrl, Class<?> type, Class<?>... genericTypes) {
+            if ( handlers.isEmpty() ) {
+                throw new IllegalStateException(String.format("Argument [%s] registered before any handler of [%s]", name, this.type.getName()));
+            }
+            handlers.get(handlers.size() - 1).arguments.add(new Argument(name, required, fromUrl, type, genericTypes));
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration fromBody() {
+            if ( handlers.isEmpty() || handlers.get(handlers.size() - 1).arguments.isEmpty() ) {
+                throw new IllegalStateException(String.format("Body binding registered before any argument of [%s]", this.type.getName()));
+            }
+            List<Argument> arguments = handlers.get(handlers.size() - 1).arguments;
+            arguments.get(arguments.size() - 1).fromBody = true;
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration cache(long ttl, String[] parameters, String[] sessionAttributes) {
+            if ( handlers.isEmpty() ) {
+                throw new IllegalStateException(String.format("Cache registered before any handler of [%s]", this.type.getName()));
+            }
+            handlers.get(handlers.size() - 1).cachePolicy = new ResponseCache.Policy(ttl, parameters, sessionAttributes);
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration shallowETag() {
+            if ( handlers.isEmpty() ) {
+                throw new IllegalStateException(String.format("ETag registered before any handler of [%s]", this.type.getName()));
+            }
+            handlers.get(handlers.size() - 1).shallowETag = true;
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration noCompression() {
+            if ( handlers.isEmpty() ) {
+                throw new IllegalStateException(String.format("Compression opt-out registered before any handler of [%s]", this.type.getName()));
+            }
+            handlers.get(handlers.size() - 1).compress = false;
+            return this;
+        }
+
+        @Override
+        public ControllerRegistry.Registration priority(String priority) {
+            if ( handlers.isEmpty() ) {
+                throw new IllegalStateException(String.format("Priority registered before any handler of [%s]", this.type.getName()));
+            }
+            handlers.get(handlers.size() - 1).priority = priority;
+            return this;
+        }
+
+    }
+
+    static class Handler {
+
+        final int index;
+        final String httpMethod;
+        final String action;
+        final String name;
+        final boolean async;
+        final List<Argument> arguments = new ArrayList<>();
+        ResponseCache.Policy cachePolicy;
+        boolean shallowETag;
+        boolean compress = true;
+        String priority;
+
+        Handler(int index, String httpMethod, String action, String name, boolean async) {
+            this.index = index;
+            this.httpMethod = httpMethod;
+            this.action = action;
+            this.name = name;
+            this.async = async;
+        }
+
+    }
+
+    static class Argument {
+
+        final String name;
+        final boolean required;
+        final boolean fromUrl;
+        final Class<?> type;
+        final Class<?>[] genericTypes;
+        boolean fromBody;
+
+        Argument(String name, boolean required, boolean fromUrl, Class<?> type, Class<?>[] genericTypes) {
+            this.name = name;
+            this.required = required;
+            this.fromUrl = fromUrl;
+            this.type = type;
+            this.genericTypes = genericTypes;
+        }
+
+    }
+
+}
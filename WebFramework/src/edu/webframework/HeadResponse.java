@@ -0,0 +1,82 @@
+package edu.webframework;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+// Handed to the GET handler of a HEAD request. Status and headers go through, whatever the handler writes is dropped,
+// and compiled views and JSON only set their content type. The Content-Length is only sent when it is known without
+// rendering: set by the handler, or by the response cache or the capture of an entity tag, from a body the handler or
+// a JSP wrote. Otherwise the dispatcher commits the headers before the container could send a length of 0.
+class HeadResponse extends HttpServletResponseWrapper {
+
+    // A view or JSON the handler skipped, so what it wrote is not the body of the GET response
+    boolean skipped;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    HeadResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    // The HEAD response under the wrappers of the dispatcher, or null for any other request
+    static HeadResponse of(ServletResponse response) {
+        while ( response instanceof ServletResponseWrapper ) {
+            if ( response instanceof HeadResponse ) {
+                return (HeadResponse) response;
+            }
+            response = ((ServletResponseWrapper) response).getResponse();
+        }
+        return null;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if ( writer != null ) {
+            throw new IllegalStateException("getWriter() has already been called on this response");
+        }
+        if ( outputStream == null ) {
+            outputStream = new Discarding();
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws UnsupportedEncodingException {
+        if ( writer == null ) {
+            if ( outputStream != null ) {
+                throw new IllegalStateException("getOutputStream() has already been called on this response");
+            }
+            writer = new PrintWriter(new OutputStreamWriter(new Discarding(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    static class Discarding extends ServletOutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+
+    }
+
+}
@@ -0,0 +1,346 @@
+package edu.webframework;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+// Binds a JSON document as it is read, one token at a time, straight into beans, lists and scalars described by
+// their binding plans, the ones castObject uses. No tree is built: values of unknown members are skipped without
+// being kept, scalars go through the same converters as request parameters, and a null leaves the property unset.
+class JsonReader {
+
+    static final int BUFFER_SIZE = 8192;
+    // Deeper documents are rejected rather than followed until the stack runs out
+    static final int MAX_DEPTH = 64;
+
+    static class SyntaxException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        SyntaxException(String message) {
+            super(message);
+        }
+
+    }
+
+    private final Reader in;
+    private final char[] buffer;
+    private final StringBuilder text = new StringBuilder();
+    private int position = 0;
+    private int limit = 0;
+    private int depth = 0;
+    private long offset = 0;
+
+    JsonReader(Reader in, int bufferSize) {
+        this.in = in;
+        this.buffer = new char[Math.max(16, Math.min(bufferSize, BUFFER_SIZE))];
+    }
+
+    boolean isEmpty() throws IOException {
+        return peek() < 0;
+    }
+
+    // Nothing but whitespace may follow the value
+    void end() throws IOException {
+        if ( peek() >= 0 ) {
+            throw syntax("Unexpected content after the value");
+        }
+    }
+
+    Object readBean(BeanBindingPlan plan) throws IOException {
+        if ( readNull() ) {
+            return null;
+        }
+        expect('{');
+        enter();
+        Object instance = plan.constructor.get();
+        if ( peek() == '}' ) {
+            read();
+        } else {
+            do {
+                String name = readString();
+                expect(':');
+                BeanBindingPlan.Property property = plan.getProperty(name);
+                if ( property == null ) {
+                    skipValue();
+                } else {
+                    readProperty(instance, property);
+                }
+            } while ( next('}') );
+        }
+        depth--;
+        return instance;
+    }
+
+    private void readProperty(Object instance, BeanBindingPlan.Property property) throws IOException {
+        Object value;
+        switch ( property.kind ) {
+            case SCALAR:
+                value = readScalar(property.converter);
+                break;
+            case LIST:
+                value = readList(property.converter, property.nested);
+                break;
+            default:
+                value = readBean(property.nested);
+                break;
+        }
+        if ( value != null ) {
+            property.setter.accept(instance, value);
+        }
+    }
+
+    // Elements are converted when the list is of scalars, bound when it is of beans, and null otherwise
+    List<Object> readList(ArgumentBinder.ValueConverter converter, BeanBindingPlan elementPlan) throws IOException {
+        if ( readNull() ) {
+            return null;
+        }
+        expect('[');
+        enter();
+        List<Object> list = new ArrayList<>();
+        if ( peek() == ']' ) {
+            read();
+        } else {
+            do {
+                if ( converter != null ) {
+                    list.add(readScalar(converter));
+                } else if ( elementPlan != null ) {
+                    list.add(readBean(elementPlan));
+                } else {
+                    skipValue();
+                    list.add(null);
+                }
+            } while ( next(']') );
+        }
+        depth--;
+        return list;
+    }
+
+    Object readScalar(ArgumentBinder.ValueConverter converter) throws IOException {
+        String value = readScalar();
+        if ( value == null ) {
+            return null;
+        }
+        try {
+            return converter.convert(value);
+        } catch ( IllegalArgumentException ex ) {
+            throw syntax(String.format("Cannot convert [%s]", value));
+        }
+    }
+
+    // The text of a string, number or boolean, null for null
+    String readScalar() throws IOException {
+        int c = peek();
+        if ( c == '"' ) {
+            return readString();
+        }
+        if ( c == '{' || c == '[' ) {
+            throw syntax("Expected a string, number or boolean");
+        }
+        String literal = readLiteral();
+        return "null".equals(literal) ? null : literal;
+    }
+
+    void skipValue() throws IOException {
+        int c = peek();
+        if ( c == '"' ) {
+            skipString();
+        } else if ( c == '{' || c == '[' ) {
+            char close = c == '{' ? '}' : ']';
+            read();
+            enter();
+            if ( peek() == close ) {
+                read();
+            } else {
+                do {
+                    if ( close == '}' ) {
+                        skipString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while ( next(close) );
+            }
+            depth--;
+        } else {
+            readLiteral();
+        }
+    }
+
+    private boolean readNull() throws IOException {
+        if ( peek() != 'n' ) {
+            return false;
+        }
+        if ( !"null".equals(readLiteral()) ) {
+            throw syntax("Expected null");
+        }
+        return true;
+    }
+
+    // After a member or an element, true when another one follows
+    private boolean next(char close) throws IOException {
+        int c = read();
+        if ( c == ',' ) {
+            return true;
+        }
+        if ( c != close ) {
+            throw syntax(String.format("Expected [,] or [%s]", close));
+        }
+        return false;
+    }
+
+    private String readLiteral() throws IOException {
+        text.setLength(0);
+        peek();
+        while ( true ) {
+            if ( position == limit && !fill() ) {
+                break;
+            }
+            char c = buffer[position];
+            if ( !(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c == '-' || c == '+' || c == '.' || c == 'E') ) {
+                break;
+            }
+            text.append(c);
+            position++;
+        }
+
+        String literal = text.toString();
+        if ( literal.isEmpty() ) {
+            throw syntax("Expected a value");
+        }
+        if ( !"true".equals(literal) && !"false".equals(literal) && !"null".equals(literal) && !isNumber(literal) ) {
+            throw syntax(String.format("Unknown literal [%s]", literal));
+        }
+        return literal;
+    }
+
+    private static boolean isNumber(String literal) {
+        char first = literal.charAt(0);
+        if ( !(first == '-' || first >= '0' && first <= '9') ) {
+            return false;
+        }
+        try {
+            Double.parseDouble(literal);
+            return true;
+        } catch ( NumberFormatException ex ) {
+            return false;
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        text.setLength(0);
+        while ( true ) {
+            int c = readChar();
+            if ( c == '"' ) {
+                return text.toString();
+            } else if ( c == '\\' ) {
+                text.append(readEscape());
+            } else if ( c < 0x20 ) {
+                throw syntax(c < 0 ? "Unterminated string" : "Control character in a string");
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while ( true ) {
+            int c = readChar();
+            if ( c == '"' ) {
+                return;
+            } else if ( c == '\\' ) {
+                readEscape();
+            } else if ( c < 0x20 ) {
+                throw syntax(c < 0 ? "Unterminated string" : "Control character in a string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = readChar();
+        switch ( c ) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u': {
+                int value = 0;
+                for ( int i = 0; i < 4; i++ ) {
+                    int digit = Character.digit(readChar(), 16);
+                    if ( digit < 0 ) {
+                        throw syntax("Invalid unicode escape");
+                    }
+                    value = value * 16 + digit;
+                }
+                return (char) value;
+            }
+            default:
+                throw syntax("Invalid escape");
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if ( read() != expected ) {
+            throw syntax(String.format("Expected [%s]", expected));
+        }
+    }
+
+    private void enter() throws SyntaxException {
+        if ( ++depth > MAX_DEPTH ) {
+            throw syntax(String.format("Nested deeper than [%s]", MAX_DEPTH));
+        }
+    }
+
+    // The next character that is not whitespace, without consuming it, -1 at the end
+    private int peek() throws IOException {
+        while ( true ) {
+            if ( position == limit && !fill() ) {
+                return -1;
+            }
+            char c = buffer[position];
+            if ( c != ' ' && c != '\n' && c != '\r' && c != '\t' ) {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        if ( c >= 0 ) {
+            position++;
+        }
+        return c;
+    }
+
+    // Inside strings whitespace counts
+    private int readChar() throws IOException {
+        if ( position == limit && !fill() ) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if ( read <= 0 ) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    private SyntaxException syntax(String message) {
+        return new SyntaxException(String.format("%s at character [%s]", message, offset + position));
+    }
+
+}
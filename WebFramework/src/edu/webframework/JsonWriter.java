@@ -0,0 +1,483 @@
+package edu.webframework;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+// JSON straight into an output stream, encoded to UTF-8 in a buffer that is taken from a pool and only handed to the
+// stream when full. Beans are written through a plan built once per class from the getters of their fields (the same
+// fields castObject sets through their setters), with the names already quoted and encoded.
+class JsonWriter {
+
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_POOLED = 64;
+    // Beans referring to each other would otherwise be written until the stack runs out
+    static final int MAX_DEPTH = 64;
+
+    private static final byte[] NULL = ascii("null");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    private static final byte[] MIN_LONG = ascii(String.valueOf(Long.MIN_VALUE));
+
+    private static final BlockingQueue<JsonWriter> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    interface ValueWriter {
+        void write(JsonWriter out, Object value) throws IOException;
+    }
+
+    private static final ClassValue<ValueWriter> writers = new ClassValue<ValueWriter>() {
+        @Override
+        protected ValueWriter computeValue(Class<?> type) {
+            return forClass(type);
+        }
+    };
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] digits = new byte[20];
+    private int position = 0;
+    private int depth = 0;
+    private OutputStream out;
+
+    static JsonWriter acquire(OutputStream out) {
+        JsonWriter writer = pool.poll();
+        if ( writer == null ) {
+            writer = new JsonWriter();
+        }
+        writer.out = out;
+        return writer;
+    }
+
+    // Hands what is still buffered to the stream and gives the writer back to the pool
+    void release() throws IOException {
+        try {
+            flush();
+        } finally {
+            out = null;
+            position = 0;
+            depth = 0;
+            pool.offer(this);
+        }
+    }
+
+    void flush() throws IOException {
+        if ( position > 0 ) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    void writeValue(Object value) throws IOException {
+        if ( value == null ) {
+            writeRaw(NULL);
+        } else {
+            writers.get(value.getClass()).write(this, value);
+        }
+    }
+
+    // An array written element by element, so the elements do not have to be in memory at once
+    void writeArray(Iterator<?> items) throws IOException {
+        enter();
+        writeRaw('[');
+        boolean first = true;
+        while ( items.hasNext() ) {
+            if ( !first ) {
+                writeRaw(',');
+            }
+            writeValue(items.next());
+            first = false;
+        }
+        writeRaw(']');
+        depth--;
+    }
+
+    void writeString(String value) throws IOException {
+        int length = value.length();
+        writeRaw('"');
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt(i);
+            if ( c < 0x80 ) {
+                if ( c < 0x20 || c == '"' || c == '\\' ) {
+                    writeEscaped(c);
+                } else {
+                    writeRaw((byte) c);
+                }
+            } else if ( c < 0x800 ) {
+                ensure(2);
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if ( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if ( Character.isSurrogate(c) ) {
+                // A lone surrogate cannot be encoded, it is escaped as it is
+                writeEscaped(c);
+            } else {
+                ensure(3);
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeRaw('"');
+    }
+
+    private void writeEscaped(char c) throws IOException {
+        switch ( c ) {
+            case '"': writeRaw('\\'); writeRaw('"'); return;
+            case '\\': writeRaw('\\'); writeRaw('\\'); return;
+            case '\n': writeRaw('\\'); writeRaw('n'); return;
+            case '\r': writeRaw('\\'); writeRaw('r'); return;
+            case '\t': writeRaw('\\'); writeRaw('t'); return;
+            default:
+                ensure(6);
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                buffer[position++] = HEX[(c >> 12) & 0xf];
+                buffer[position++] = HEX[(c >> 8) & 0xf];
+                buffer[position++] = HEX[(c >> 4) & 0xf];
+                buffer[position++] = HEX[c & 0xf];
+        }
+    }
+
+    void writeLong(long value) throws IOException {
+        if ( value == Long.MIN_VALUE ) {
+            writeRaw(MIN_LONG);
+            return;
+        }
+        if ( value < 0 ) {
+            writeRaw('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while ( value > 0 );
+        ensure(count);
+        while ( count > 0 ) {
+            buffer[position++] = digits[--count];
+        }
+    }
+
+    // JSON has no NaN nor infinities
+    void writeDouble(double value) throws IOException {
+        if ( Double.isNaN(value) || Double.isInfinite(value) ) {
+            writeRaw(NULL);
+        } else if ( value == (long) value && Math.abs(value) < 1e15 ) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+        writeRaw(value ? TRUE : FALSE);
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        ensure(length);
+        for ( int i = 0; i < length; i++ ) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    void writeRaw(char c) throws IOException {
+        writeRaw((byte) c);
+    }
+
+    private void writeRaw(byte b) throws IOException {
+        if ( position == buffer.length ) {
+            flush();
+        }
+        buffer[position++] = b;
+    }
+
+    private void writeRaw(byte[] bytes) throws IOException {
+        if ( bytes.length > buffer.length ) {
+            flush();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensure(int length) throws IOException {
+        if ( position + length > buffer.length ) {
+            flush();
+        }
+    }
+
+    private void enter() {
+        if ( ++depth > MAX_DEPTH ) {
+            throw new IllegalStateException(String.format("JSON nested deeper than [%s], beans referring to each other?", MAX_DEPTH));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static ValueWriter forClass(Class<?> type) {
+        if ( String.class.equals(type) || Character.class.equals(type) || CharSequence.class.isAssignableFrom(type) ) {
+            return STRING;
+        } else if ( Boolean.class.equals(type) ) {
+            return BOOLEAN;
+        } else if ( Integer.class.equals(type) || Long.class.equals(type) || Short.class.equals(type) || Byte.class.equals(type) ) {
+            return LONG;
+        } else if ( Double.class.equals(type) || Float.class.equals(type) ) {
+            return DOUBLE;
+        } else if ( BigDecimal.class.equals(type) || BigInteger.class.equals(type) ) {
+            return NUMBER;
+        } else if ( Number.class.isAssignableFrom(type) ) {
+            return NUMBER;
+        } else if ( type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum()) ) {
+            return ENUM;
+        } else if ( Date.class.isAssignableFrom(type) ) {
+            return DATE;
+        } else if ( Map.class.isAssignableFrom(type) ) {
+            return MAP;
+        } else if ( Iterable.class.isAssignableFrom(type) ) {
+            return ITERABLE;
+        } else if ( type.isArray() ) {
+            return ARRAY;
+        } else if ( BeanBindingPlan.isBeanClass(type) ) {
+            try {
+                return new BeanWriter(type);
+            } catch ( ReflectiveOperationException ex ) {
+                throw new IllegalStateException(String.format("Cannot write [%s] as JSON", type.getName()), ex);
+            }
+        }
+        // Everything else, java.time values included, is written the way it prints
+        return STRING;
+    }
+
+    static final ValueWriter STRING = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeString(value.toString());
+        }
+    };
+
+    static final ValueWriter BOOLEAN = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeBoolean((Boolean) value);
+        }
+    };
+
+    static final ValueWriter LONG = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeLong(((Number) value).longValue());
+        }
+    };
+
+    static final ValueWriter DOUBLE = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            double number = ((Number) value).doubleValue();
+            // Widening a float shows digits it never had
+            if ( value instanceof Float && number != (long) number && !Float.isNaN((Float) value) && !Float.isInfinite((Float) value) ) {
+                out.writeAscii(value.toString());
+            } else {
+                out.writeDouble(number);
+            }
+        }
+    };
+
+    static final ValueWriter NUMBER = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeAscii(value.toString());
+        }
+    };
+
+    static final ValueWriter ENUM = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeString(((Enum<?>) value).name());
+        }
+    };
+
+    // Milliseconds since the epoch
+    static final ValueWriter DATE = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeLong(((Date) value).getTime());
+        }
+    };
+
+    static final ValueWriter MAP = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.enter();
+            out.writeRaw('{');
+            boolean first = true;
+            for ( Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet() ) {
+                if ( !first ) {
+                    out.writeRaw(',');
+                }
+                out.writeString(String.valueOf(entry.getKey()));
+                out.writeRaw(':');
+                out.writeValue(entry.getValue());
+                first = false;
+            }
+            out.writeRaw('}');
+            out.depth--;
+        }
+    };
+
+    static final ValueWriter ITERABLE = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.writeArray(((Iterable<?>) value).iterator());
+        }
+    };
+
+    static final ValueWriter ARRAY = new ValueWriter() {
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.enter();
+            out.writeRaw('[');
+            if ( value instanceof Object[] ) {
+                Object[] array = (Object[]) value;
+                for ( int i = 0; i < array.length; i++ ) {
+                    if ( i > 0 ) {
+                        out.writeRaw(',');
+                    }
+                    out.writeValue(array[i]);
+                }
+            } else if ( value instanceof int[] ) {
+                int[] array = (int[]) value;
+                for ( int i = 0; i < array.length; i++ ) {
+                    if ( i > 0 ) {
+                        out.writeRaw(',');
+                    }
+                    out.writeLong(array[i]);
+                }
+            } else if ( value instanceof long[] ) {
+                long[] array = (long[]) value;
+                for ( int i = 0; i < array.length; i++ ) {
+                    if ( i > 0 ) {
+                        out.writeRaw(',');
+                    }
+                    out.writeLong(array[i]);
+                }
+            } else if ( value instanceof char[] ) {
+                out.writeString(new String((char[]) value));
+            } else {
+                // The other primitive arrays are rare enough to be boxed
+                for ( int i = 0, length = Array.getLength(value); i < length; i++ ) {
+                    if ( i > 0 ) {
+                        out.writeRaw(',');
+                    }
+                    out.writeValue(Array.get(value, i));
+                }
+            }
+            out.writeRaw(']');
+            out.depth--;
+        }
+    };
+
+    // Every field of the class and its superclasses that has a getter, getX() or isX() for booleans, in declaration
+    // order. Null values are written as null.
+    static class BeanWriter implements ValueWriter {
+
+        final byte[][] names;
+        final List<Function<Object, Object>> getters = new ArrayList<>();
+
+        BeanWriter(Class<?> type) throws ReflectiveOperationException {
+            List<byte[]> names = new ArrayList<>();
+            List<Class<?>> hierarchy = new ArrayList<>();
+            for ( Class<?> clazz = type; clazz != null && !Object.class.equals(clazz); clazz = clazz.getSuperclass() ) {
+                hierarchy.add(0, clazz);
+            }
+
+            for ( Class<?> clazz : hierarchy ) {
+                for ( Field field : clazz.getDeclaredFields() ) {
+                    int modifiers = field.getModifiers();
+                    if ( Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ) {
+                        continue;
+                    }
+                    Method getter = getGetter(type, field);
+                    if ( getter == null ) {
+                        continue;
+                    }
+
+                    names.add(encodeName(field.getName()));
+                    getters.add(LambdaAccessors.getter(getter));
+                }
+            }
+            this.names = names.toArray(new byte[names.size()][]);
+        }
+
+        // Quoted and followed by the colon
+        private static byte[] encodeName(String name) {
+            JsonWriter writer = new JsonWriter();
+            try {
+                writer.writeString(name);
+                writer.writeRaw(':');
+            } catch ( IOException ex ) {
+                // Names are far shorter than the buffer, nothing is written to the stream
+                throw new IllegalStateException(ex);
+            }
+            return Arrays.copyOf(writer.buffer, writer.position);
+        }
+
+        private static Method getGetter(Class<?> type, Field field) {
+            String suffix = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+            for ( String prefix : new String[] { "get", "is" } ) {
+                try {
+                    Method method = type.getMethod(prefix + suffix);
+                    if ( method.getReturnType().equals(field.getType()) && ("get".equals(prefix)
+                            || boolean.class.equals(field.getType()) || Boolean.class.equals(field.getType())) ) {
+                        return method;
+                    }
+                } catch ( NoSuchMethodException ex ) {
+                    // Try the next convention
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void write(JsonWriter out, Object value) throws IOException {
+            out.enter();
+            out.writeRaw('{');
+            for ( int i = 0; i < names.length; i++ ) {
+                if ( i > 0 ) {
+                    out.writeRaw(',');
+                }
+                out.writeRaw(names[i]);
+                out.writeValue(getters.get(i).apply(value));
+            }
+            out.writeRaw('}');
+            out.depth--;
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package edu.webframework;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Constructors, getters and setters linked once with LambdaMetafactory, falling back to reflection when the target class
+// cannot be linked from the framework
+class LambdaAccessors {
+
+    // Classes spun by LambdaMetafactory live next to the framework, so they have to be able to load and access the
+    // target class from here
+    static boolean isLinkable(Class<?> clazz) {
+        if ( !Modifier.isPublic(clazz.getModifiers()) && clazz.getPackage() != LambdaAccessors.class.getPackage() ) {
+            return false;
+        }
+        try {
+            return Class.forName(clazz.getName(), false, LambdaAccessors.class.getClassLoader()) == clazz;
+        } catch ( ClassNotFoundException ex ) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Supplier<Object> constructor(Class<?> type) throws ReflectiveOperationException {
+        final Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+
+        if ( isLinkable(type) ) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle target = lookup.unreflectConstructor(constructor);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class), target, target.type());
+                return (Supplier<Object>) site.getTarget().invoke();
+            } catch ( Throwable t ) {
+                // Fall back to reflection
+            }
+        }
+
+        return new Supplier<Object>() {
+            @Override
+            public Object get() {
+                try {
+                    return constructor.newInstance();
+                } catch ( ReflectiveOperationException ex ) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static BiConsumer<Object, Object> setter(final Method setter) {
+        setter.setAccessible(true);
+
+        if ( isLinkable(setter.getDeclaringClass()) ) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle target = lookup.unreflect(setter);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(BiConsumer.class),
+                        MethodType.methodType(void.class, Object.class, Object.class), target, target.type().changeReturnType(void.class));
+                return (BiConsumer<Object, Object>) site.getTarget().invoke();
+            } catch ( Throwable t ) {
+                // Fall back to reflection
+            }
+        }
+
+        return new BiConsumer<Object, Object>() {
+            @Override
+            public void accept(Object instance, Object value) {
+                try {
+                    setter.invoke(instance, value);
+                } catch ( ReflectiveOperationException ex ) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+
+    // Primitive values come back boxed
+    @SuppressWarnings("unchecked")
+    static Function<Object, Object> getter(final Method getter) {
+        getter.setAccessible(true);
+
+        if ( isLinkable(getter.getDeclaringClass()) ) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle target = lookup.unreflect(getter);
+                CallSite site = LambdaMetafactory.metafactory(lookup, "apply", MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class), target, target.type().wrap());
+                return (Function<Object, Object>) site.getTarget().invoke();
+            } catch ( Throwable t ) {
+                // Fall back to reflection
+            }
+        }
+
+        return new Function<Object, Object>() {
+            @Override
+            public Object apply(Object instance) {
+                try {
+                    return getter.invoke(instance);
+                } catch ( ReflectiveOperationException ex ) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+
+}
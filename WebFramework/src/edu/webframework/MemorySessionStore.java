@@ -0,0 +1,118 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+// The default session store, the serialized sessions in memory. Once they add up to the session.size context parameter
+// bytes, the least recently used sessions are evicted, whether they have expired or not.
+public class MemorySessionStore implements SessionStore {
+
+    public static final String SESSION_SIZE = "session.size";
+    public static final long DEFAULT_SESSION_SIZE = 64 * 1024 * 1024;
+
+    private volatile ConcurrentLruCache<String, Entry> sessions = newCache(DEFAULT_SESSION_SIZE);
+
+    @Override
+    public void initialize(ServletContext servletContext) {
+        String size = servletContext.getInitParameter(SESSION_SIZE);
+        long maxBytes = DEFAULT_SESSION_SIZE;
+        if ( size != null ) {
+            try {
+                maxBytes = Long.parseLong(size.trim());
+            } catch ( NumberFormatException ex ) {
+                servletContext.log(String.format("Invalid session size [%s], using [%s]", size, maxBytes));
+            }
+        }
+        setMaxSize(maxBytes);
+    }
+
+    void setMaxSize(long maxBytes) {
+        sessions = newCache(maxBytes);
+    }
+
+    private static ConcurrentLruCache<String, Entry> newCache(long maxBytes) {
+        return new ConcurrentLruCache<>(maxBytes, new ToIntFunction<Entry>() {
+            @Override
+            public int applyAsInt(Entry entry) {
+                return entry.session.length;
+            }
+        });
+    }
+
+    @Override
+    public byte[] load(String id) {
+        Entry entry = sessions.get(id);
+        if ( entry == null ) {
+            return null;
+        }
+        if ( entry.expires <= System.currentTimeMillis() ) {
+            sessions.remove(id);
+            return null;
+        }
+        return entry.session;
+    }
+
+    @Override
+    public void save(String id, byte[] session, long expires) {
+        sessions.put(id, new Entry(session, expires));
+    }
+
+    @Override
+    public void remove(String id) {
+        sessions.remove(id);
+    }
+
+    @Override
+    public int evictExpired() {
+        final long now = System.currentTimeMillis();
+        return sessions.removeValues(new Predicate<Entry>() {
+            @Override
+            public boolean test(Entry entry) {
+                return entry.expires <= now;
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    // In bytes
+    public long getWeight() {
+        return sessions.getWeight();
+    }
+
+    public long getMaxWeight() {
+        return sessions.getMaxWeight();
+    }
+
+    // Sessions dropped to make room for others before they expired
+    public long getEvictions() {
+        return sessions.getEvictions();
+    }
+
+    @Override
+    public void close() {
+        sessions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[MemorySessionStore sessions [%s] bytes [%s/%s] evictions [%s]]", size(), getWeight(), getMaxWeight(), getEvictions());
+    }
+
+    static class Entry {
+
+        final byte[] session;
+        final long expires;
+
+        Entry(byte[] session, long expires) {
+            this.session = session;
+            this.expires = expires;
+        }
+
+    }
+
+}
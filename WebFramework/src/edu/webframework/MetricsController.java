@@ -0,0 +1,30 @@
+package edu.webframework;
+
+import edu.webframework.annotations.*;
+
+import java.io.IOException;
+
+// Built-in controller serving the metrics registry, mounted by the dispatcher on the path given by the metrics.path
+// context parameter. Plain text by default, JSON with format=json.
+@UrlPathController(path = "/_metrics", lifecycle = ControllerLifecycle.SINGLETON)
+@Priority(Priority.CRITICAL)
+public class MetricsController extends WebController {
+
+    @RequireService
+    MetricsRegistry metrics;
+
+    @HttpMethod(type = HttpMethodType.GET)
+    public void show(@HttpRequestParameter(name = "format") String format) throws IOException {
+        getResponse().setCharacterEncoding("UTF-8");
+        getResponse().setHeader("Cache-Control", "no-cache");
+
+        if ( "json".equals(format) ) {
+            getResponse().setContentType("application/json");
+            getResponse().getWriter().write(metrics.toJson());
+        } else {
+            getResponse().setContentType("text/plain");
+            getResponse().getWriter().write(metrics.toText());
+        }
+    }
+
+}
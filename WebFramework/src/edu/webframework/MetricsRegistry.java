@@ -0,0 +1,250 @@
+package edu.webframework;
+
+import edu.webframework.annotations.Service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Request counts, error counts and latency histograms of every handler known by the dispatcher. The metrics of a
+// handler are created when its controller is registered and linked from its descriptor, so recording a request is
+// only a few atomic increments, without lookups nor allocations.
+@Service
+public class MetricsRegistry extends ServiceController {
+
+    static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final ConcurrentMap<String, RouteMetrics> routes = new ConcurrentSkipListMap<>();
+    private final LongAdder unmatched = new LongAdder();
+
+    // Set by the dispatcher, their counters are reported along the routes
+    ResponseCache responseCache;
+    FragmentCache fragmentCache;
+    FrameworkSessions sessions;
+    ConcurrencyLimits concurrencyLimits;
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    RouteMetrics register(String controller, String method, String action) {
+        String key = String.format("%s %s %s", controller, method, action);
+        RouteMetrics metrics = routes.get(key);
+        if ( metrics == null ) {
+            metrics = new RouteMetrics(controller, method, action);
+            RouteMetrics previous = routes.putIfAbsent(key, metrics);
+            if ( previous != null ) {
+                metrics = previous;
+            }
+        }
+        return metrics;
+    }
+
+    RouteMetrics get(String controller, String method, String action) {
+        return routes.get(String.format("%s %s %s", controller, method, action));
+    }
+
+    void recordUnmatched() {
+        unmatched.increment();
+    }
+
+    public long getUnmatched() {
+        return unmatched.sum();
+    }
+
+    public String toText() {
+        StringBuilder builder = new StringBuilder();
+        for ( RouteMetrics metrics : routes.values() ) {
+            LatencyHistogram latency = metrics.latency;
+            builder.append(String.format("route [%s] method [%s] action [%s]%n", metrics.controller, metrics.method, metrics.action));
+            builder.append(String.format("   count %s%n", metrics.getCount()));
+
+            builder.append("   errors");
+            for ( ServletDispatcher.WebControllerError error : ServletDispatcher.WebControllerError.values() ) {
+                builder.append(String.format(" %s=%s", error, metrics.getErrors(error)));
+            }
+            builder.append(String.format("%n"));
+
+            builder.append(String.format(Locale.ROOT, "   latency ms mean=%.3f", latency.getMean() / 1e6));
+            for ( double percentile : PERCENTILES ) {
+                builder.append(String.format(Locale.ROOT, " p%s=%.3f", formatPercentile(percentile), latency.getValueAtPercentile(percentile) / 1e6));
+            }
+            builder.append(String.format(Locale.ROOT, " max=%.3f%n", latency.getMax() / 1e6));
+
+            ConcurrencyLimits.Limit limit = metrics.concurrencyLimit;
+            if ( limit != null ) {
+                builder.append(String.format("   concurrency limit=%s inFlight=%s rejected=%s%n", limit.getLimit(), limit.getInFlight(), limit.getRejected()));
+            }
+        }
+        if ( responseCache != null ) {
+            builder.append(String.format("response cache %s%n", responseCache));
+        }
+        if ( fragmentCache != null ) {
+            builder.append(String.format("fragment cache %s%n", fragmentCache));
+            for ( Map.Entry<String, FragmentCache.FragmentMetrics> fragment : fragmentCache.getFragmentMetrics().entrySet() ) {
+                builder.append(String.format("   fragment [%s] %s%n", fragment.getKey(), fragment.getValue()));
+            }
+        }
+        if ( sessions != null ) {
+            builder.append(String.format("sessions %s%n", sessions));
+        }
+        if ( concurrencyLimits != null ) {
+            builder.append(String.format("concurrency %s%n", concurrencyLimits));
+        }
+        builder.append(String.format("unmatched %s%n", getUnmatched()));
+        return builder.toString();
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder("{\"routes\":[");
+        boolean first = true;
+        for ( RouteMetrics metrics : routes.values() ) {
+            LatencyHistogram latency = metrics.latency;
+            if ( !first ) {
+                builder.append(',');
+            }
+            first = false;
+
+            builder.append("{\"controller\":").append(quote(metrics.controller))
+                    .append(",\"method\":").append(quote(metrics.method))
+                    .append(",\"action\":").append(quote(metrics.action))
+                    .append(",\"count\":").append(metrics.getCount())
+                    .append(",\"errors\":{");
+            ServletDispatcher.WebControllerError[] errors = ServletDispatcher.WebControllerError.values();
+            for ( int i = 0; i < errors.length; i++ ) {
+                builder.append(i > 0 ? "," : "").append(quote(errors[i].name())).append(':').append(metrics.getErrors(errors[i]));
+            }
+            builder.append("},\"latency\":{\"unit\":\"ms\"")
+                    .append(String.format(Locale.ROOT, ",\"mean\":%.3f", latency.getMean() / 1e6));
+            for ( double percentile : PERCENTILES ) {
+                builder.append(String.format(Locale.ROOT, ",\"p%s\":%.3f", formatPercentile(percentile), latency.getValueAtPercentile(percentile) / 1e6));
+            }
+            builder.append(String.format(Locale.ROOT, ",\"max\":%.3f}", latency.getMax() / 1e6));
+
+            ConcurrencyLimits.Limit limit = metrics.concurrencyLimit;
+            if ( limit != null ) {
+                builder.append(",\"concurrency\":{\"limit\":").append(limit.getLimit())
+                        .append(",\"inFlight\":").append(limit.getInFlight())
+                        .append(",\"rejected\":").append(limit.getRejected()).append('}');
+            }
+            builder.append('}');
+        }
+        builder.append(']');
+        if ( responseCache != null ) {
+            builder.append(",\"responseCache\":{\"size\":").append(responseCache.size())
+                    .append(",\"maxSize\":").append(responseCache.getMaxSize())
+                    .append(",\"hits\":").append(responseCache.getHits())
+                    .append(",\"misses\":").append(responseCache.getMisses())
+                    .append(",\"evictions\":").append(responseCache.getEvictions())
+                    .append(",\"expirations\":").append(responseCache.getExpirations()).append('}');
+        }
+        if ( fragmentCache != null ) {
+            builder.append(",\"fragmentCache\":{\"size\":").append(fragmentCache.size())
+                    .append(",\"bytes\":").append(fragmentCache.getWeight())
+                    .append(",\"maxBytes\":").append(fragmentCache.getMaxWeight())
+                    .append(",\"hits\":").append(fragmentCache.getHits())
+                    .append(",\"misses\":").append(fragmentCache.getMisses())
+                    .append(",\"evictions\":").append(fragmentCache.getEvictions())
+                    .append(",\"fragments\":{");
+            boolean firstFragment = true;
+            for ( Map.Entry<String, FragmentCache.FragmentMetrics> fragment : fragmentCache.getFragmentMetrics().entrySet() ) {
+                FragmentCache.FragmentMetrics fragmentMetrics = fragment.getValue();
+                builder.append(firstFragment ? "" : ",").append(quote(fragment.getKey()))
+                        .append(":{\"hits\":").append(fragmentMetrics.getHits())
+                        .append(",\"misses\":").append(fragmentMetrics.getMisses())
+                        .append(String.format(Locale.ROOT, ",\"hitRatio\":%.3f}", fragmentMetrics.getHitRatio()));
+                firstFragment = false;
+            }
+            builder.append("}}");
+        }
+        if ( sessions != null ) {
+            builder.append(",\"sessions\":{\"size\":").append(sessions.size())
+                    .append(",\"created\":").append(sessions.getCreated())
+                    .append(",\"loaded\":").append(sessions.getLoaded())
+                    .append(",\"saved\":").append(sessions.getSaved())
+                    .append(",\"expired\":").append(sessions.getExpired())
+                    .append(",\"failures\":").append(sessions.getFailures()).append('}');
+        }
+        if ( concurrencyLimits != null ) {
+            builder.append(",\"concurrency\":{\"limit\":").append(concurrencyLimits.getLimit())
+                    .append(",\"maxLimit\":").append(concurrencyLimits.getMaxLimit())
+                    .append(",\"inFlight\":").append(concurrencyLimits.getInFlight())
+                    .append(",\"globallyRejected\":").append(concurrencyLimits.getGloballyRejected())
+                    .append(",\"rejected\":{");
+            for ( int i = 0; i < ConcurrencyLimits.PRIORITIES.length; i++ ) {
+                String priority = ConcurrencyLimits.PRIORITIES[i];
+                builder.append(i > 0 ? "," : "").append(quote(priority)).append(':').append(concurrencyLimits.getRejected(priority));
+            }
+            builder.append("}}");
+        }
+        builder.append(",\"unmatched\":").append(getUnmatched()).append('}');
+        return builder.toString();
+    }
+
+    private static String formatPercentile(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile).replace(".", "");
+    }
+
+    private static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt(i);
+            if ( c == '"' || c == '\\' ) {
+                builder.append('\\').append(c);
+            } else if ( c < 0x20 ) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    // Metrics of one (controller, HTTP method, action) handler
+    static class RouteMetrics {
+
+        final String controller;
+        final String method;
+        final String action;
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLongArray errors = new AtomicLongArray(ServletDispatcher.WebControllerError.values().length);
+        // Set when the dispatcher limits concurrency
+        volatile ConcurrencyLimits.Limit concurrencyLimit;
+
+        RouteMetrics(String controller, String method, String action) {
+            this.controller = controller;
+            this.method = method;
+            this.action = action;
+        }
+
+        void record(long nanos, ServletDispatcher.WebControllerError error) {
+            latency.record(nanos);
+            if ( error != null ) {
+                errors.incrementAndGet(error.ordinal());
+            }
+        }
+
+        // Rejected requests never reach the handler, they are counted as errors without a latency
+        void recordRejected() {
+            errors.incrementAndGet(ServletDispatcher.WebControllerError.ServiceUnavailable.ordinal());
+        }
+
+        long getCount() {
+            return latency.getCount();
+        }
+
+        long getErrors(ServletDispatcher.WebControllerError error) {
+            return errors.get(error.ordinal());
+        }
+
+    }
+
+}
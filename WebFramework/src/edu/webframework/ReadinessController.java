@@ -0,0 +1,24 @@
+package edu.webframework;
+
+import edu.webframework.annotations.*;
+
+import java.io.IOException;
+
+// Built-in controller for load balancer readiness probes, mounted by the dispatcher on the path given by the
+// readiness.path context parameter. Answers 200 once the dispatcher has finished its init, 503 before. Its priority
+// is critical, so probes are still answered while requests are shed.
+@UrlPathController(path = "/_ready", lifecycle = ControllerLifecycle.SINGLETON)
+@Priority(Priority.CRITICAL)
+public class ReadinessController extends WebController {
+
+    @HttpMethod(type = HttpMethodType.GET)
+    public void show() throws IOException {
+        boolean ready = Boolean.TRUE.equals(getServletContext().getAttribute(ServletDispatcher.DispatcherReadyAttr));
+
+        getResponse().setHeader("Cache-Control", "no-cache");
+        getResponse().setContentType("text/plain");
+        getResponse().setStatus(ready ? 200 : 503);
+        getResponse().getWriter().write(ready ? "ready" : "starting");
+    }
+
+}
@@ -0,0 +1,97 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.Executor;
+
+// Request scoped state of the thread currently running a controller method. Singleton controllers are shared by all
+// requests, so they read the request and response from here instead of from their own fields.
+public class RequestContext {
+
+    private static final ThreadLocal<RequestContext> current = new ThreadLocal<RequestContext>() {
+        @Override
+        protected RequestContext initialValue() {
+            return new RequestContext();
+        }
+    };
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private ServletContext servletContext;
+    private Executor executor;
+
+    public static RequestContext current() {
+        return current.get();
+    }
+
+    static RequestContext enter(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response) {
+        RequestContext context = current.get();
+        context.servletContext = servletContext;
+        context.request = request;
+        context.response = response;
+        return context;
+    }
+
+    // Asynchronous handlers also get the executor of their controller, for their continuations
+    static RequestContext enter(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response, Executor executor) {
+        RequestContext context = enter(servletContext, request, response);
+        context.executor = executor;
+        return context;
+    }
+
+    static void exit() {
+        RequestContext context = current.get();
+        context.servletContext = null;
+        context.request = null;
+        context.response = null;
+        context.executor = null;
+    }
+
+    // The executor of the asynchronous handler, running every task with the request of the handler, whatever thread
+    // runs it. Null outside of asynchronous handlers.
+    Executor propagatingExecutor() {
+        if ( executor == null ) {
+            return null;
+        }
+        final Executor target = executor;
+        final ServletContext servletContext = this.servletContext;
+        final HttpServletRequest request = this.request;
+        final HttpServletResponse response = this.response;
+        return new Executor() {
+            @Override
+            public void execute(final Runnable task) {
+                target.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // The thread may already be running another request, it gets it back afterwards
+                        RequestContext context = current.get();
+                        ServletContext previousServletContext = context.servletContext;
+                        HttpServletRequest previousRequest = context.request;
+                        HttpServletResponse previousResponse = context.response;
+                        Executor previousExecutor = context.executor;
+                        enter(servletContext, request, response, target);
+                        try {
+                            task.run();
+                        } finally {
+                            enter(previousServletContext, previousRequest, previousResponse, previousExecutor);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    public HttpServletRequest getRequest() {
+        return request;
+    }
+
+    public HttpServletResponse getResponse() {
+        return response;
+    }
+
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+}
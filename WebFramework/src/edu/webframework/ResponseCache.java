@@ -0,0 +1,521 @@
+package edu.webframework;
+
+import edu.webframework.annotations.Service;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+// Rendered responses of the GET handlers annotated with @CacheResponse. The dispatcher serves them before the
+// controller is even created, until they expire after the ttl of their handler or are evicted, least recently used
+// first, once the cache is full. Services changing what the pages show can ask for the cache with @RequireService and
+// invalidate what became stale.
+@Service
+public class ResponseCache extends ServiceController {
+
+    private volatile ConcurrentLruCache<Key, CachedResponse> responses = new ConcurrentLruCache<>(ServletDispatcher.DEFAULT_RESPONSE_CACHE_SIZE);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+        invalidateAll();
+    }
+
+    void setMaxSize(int maxSize) {
+        responses = new ConcurrentLruCache<>(maxSize);
+    }
+
+    // Every cached response of the handlers of the controller
+    public int invalidate(final Class<? extends WebController> controller) {
+        return responses.removeIf(new Predicate<Key>() {
+            @Override
+            public boolean test(Key key) {
+                return key.controller.equals(controller);
+            }
+        });
+    }
+
+    // Every cached variant of the path, without the context path
+    public int invalidate(final String path) {
+        return responses.removeIf(new Predicate<Key>() {
+            @Override
+            public boolean test(Key key) {
+                return key.path.equals(path);
+            }
+        });
+    }
+
+    public void invalidateAll() {
+        responses.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return responses.getEvictions();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public int size() {
+        return responses.size();
+    }
+
+    public int getMaxSize() {
+        return responses.getMaxSize();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size [%s/%s] hits [%s] misses [%s] evictions [%s] expirations [%s]",
+                size(), getMaxSize(), getHits(), getMisses(), getEvictions(), getExpirations());
+    }
+
+    // The session is only read, requests without one are keyed with null attributes
+    Key key(Class<?> controller, String action, String path, Policy policy, HttpServletRequest request) {
+        Object[] values = new Object[policy.parameters.length + policy.sessionAttributes.length];
+        int i = 0;
+        for ( String parameter : policy.parameters ) {
+            String[] parameterValues = request.getParameterValues(parameter);
+            values[i++] = parameterValues != null ? Arrays.asList(parameterValues) : null;
+        }
+
+        HttpSession session = policy.sessionAttributes.length > 0 ? request.getSession(false) : null;
+        for ( String attribute : policy.sessionAttributes ) {
+            Object value = session != null ? session.getAttribute(attribute) : null;
+            values[i++] = value != null ? String.valueOf(value) : null;
+        }
+        return new Key(controller, action, path, values);
+    }
+
+    // Writes the cached response, or only its headers with a 304 when the client already has its entity tag
+    boolean serve(Key key, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CachedResponse cached = responses.get(key);
+        if ( cached != null && cached.expires - System.nanoTime() < 0 ) {
+            responses.remove(key);
+            expirations.increment();
+            cached = null;
+        }
+
+        if ( cached == null ) {
+            misses.increment();
+            return false;
+        }
+
+        hits.increment();
+        if ( cached.etag != null && ConditionalRequests.isNotModified(request, cached.etag, -1) ) {
+            cached.writeHeadersTo(response);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            cached.writeTo(response);
+        }
+        return true;
+    }
+
+    // Keeps what the handler wrote when it is a complete response that can be shared
+    void store(Key key, Policy policy, CapturingResponse captured, byte[] body) {
+        if ( captured.isCacheable() ) {
+            responses.put(key, new CachedResponse(captured.status, captured.headers, captured.getContentType(),
+                    captured.getCharacterEncoding(), body, System.nanoTime() + policy.ttl));
+        }
+    }
+
+    // What a @CacheResponse handler is cached with
+    static class Policy {
+
+        final long ttl;
+        final String[] parameters;
+        final String[] sessionAttributes;
+
+        Policy(long ttlSeconds, String[] parameters, String[] sessionAttributes) {
+            this.ttl = TimeUnit.SECONDS.toNanos(ttlSeconds);
+            this.parameters = parameters;
+            this.sessionAttributes = sessionAttributes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ttl [%s] s parameters %s session attributes %s", TimeUnit.NANOSECONDS.toSeconds(ttl),
+                    Arrays.toString(parameters), Arrays.toString(sessionAttributes));
+        }
+
+    }
+
+    static class Key {
+
+        final Class<?> controller;
+        final String action;
+        final String path;
+        final Object[] values;
+        private final int hash;
+
+        Key(Class<?> controller, String action, String path, Object[] values) {
+            this.controller = controller;
+            this.action = action;
+            this.path = path;
+            this.values = values;
+            this.hash = 31 * (31 * (31 * controller.hashCode() + action.hashCode()) + path.hashCode()) + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !(o instanceof Key) ) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && controller.equals(other.controller) && action.equals(other.action)
+                    && path.equals(other.path) && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    static class CachedResponse {
+
+        final int status;
+        final Map<String, List<String>> headers;
+        final String contentType;
+        final String characterEncoding;
+        final byte[] body;
+        final long expires;
+        final String etag;
+
+        CachedResponse(int status, Map<String, List<String>> headers, String contentType, String characterEncoding, byte[] body, long expires) {
+            this.status = status;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.characterEncoding = characterEncoding;
+            this.body = body;
+            this.expires = expires;
+            List<String> etags = headers.get("ETag");
+            this.etag = etags != null ? etags.get(0) : null;
+        }
+
+        void writeTo(HttpServletResponse response) throws IOException {
+            response.setStatus(status);
+            writeHeadersTo(response);
+            if ( contentType != null ) {
+                response.setContentType(contentType);
+                response.setCharacterEncoding(characterEncoding);
+            }
+            response.setContentLength(body.length);
+            response.getOutputStream().write(body);
+        }
+
+        void writeHeadersTo(HttpServletResponse response) {
+            for ( Map.Entry<String, List<String>> header : headers.entrySet() ) {
+                List<String> values = header.getValue();
+                response.setHeader(header.getKey(), values.get(0));
+                for ( int i = 1; i < values.size(); i++ ) {
+                    response.addHeader(header.getKey(), values.get(i));
+                }
+            }
+        }
+
+    }
+
+    // Handed to the handler instead of the real response. Status and headers go through and are recorded, the body is
+    // kept in memory until the handler is done, so a JSP forward renders into it too. A handler that goes asynchronous
+    // is not done when it returns, so from then on its body streams to the real response and is neither hashed nor
+    // cached.
+    static class CapturingResponse extends HttpServletResponseWrapper {
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private ServletOutputStream sink;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private boolean streaming = false;
+
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int status = SC_OK;
+        // Cookies are not meant to be shared, errors and redirects have already been sent
+        boolean shared = true;
+        boolean sent = false;
+
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        // A 200 the handler is done with, neither an error nor a redirect
+        boolean isComplete() {
+            return !sent && !streaming && status == SC_OK;
+        }
+
+        boolean isCacheable() {
+            if ( !shared || !isComplete() ) {
+                return false;
+            }
+            List<String> cacheControl = headers.get("Cache-Control");
+            return cacheControl == null || !(cacheControl.toString().contains("no-store") || cacheControl.toString().contains("private"));
+        }
+
+        byte[] getBody() {
+            if ( writer != null ) {
+                writer.flush();
+            }
+            return body.toByteArray();
+        }
+
+        String getETag() {
+            List<String> etags = headers.get("ETag");
+            return etags != null ? etags.get(0) : null;
+        }
+
+        void send(byte[] content) throws IOException {
+            if ( !sent && !streaming ) {
+                getResponse().getOutputStream().write(content);
+            }
+        }
+
+        // Sends what was captured so far and writes the rest straight to the real response
+        void stream() throws IOException {
+            if ( streaming ) {
+                return;
+            }
+            byte[] content = getBody();
+            streaming = true;
+            if ( !sent && content.length > 0 ) {
+                getResponse().getOutputStream().write(content);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            status = sc;
+            sent = true;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            status = sc;
+            sent = true;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            status = SC_FOUND;
+            sent = true;
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            shared = false;
+            super.addCookie(cookie);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            headers.remove(name);
+            record(name, value);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            record(name, value);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            headers.remove(name);
+            record(name, formatDate(date));
+            super.setDateHeader(name, date);
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            record(name, formatDate(date));
+            super.addDateHeader(name, date);
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            headers.remove(name);
+            record(name, String.valueOf(value));
+            super.setIntHeader(name, value);
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            record(name, String.valueOf(value));
+            super.addIntHeader(name, value);
+        }
+
+        private void record(String name, String value) {
+            List<String> values = headers.get(name);
+            if ( values == null ) {
+                values = new ArrayList<>();
+                headers.put(name, values);
+            }
+            values.add(value);
+        }
+
+        private static String formatDate(long date) {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC));
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if ( writer != null ) {
+                throw new IllegalStateException("getWriter() has already been called on this response");
+            }
+            if ( outputStream == null ) {
+                outputStream = sink();
+            }
+            return outputStream;
+        }
+
+        private ServletOutputStream sink() {
+            if ( sink == null ) {
+                sink = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        if ( streaming ) {
+                            getResponse().getOutputStream().write(b);
+                        } else {
+                            body.write(b);
+                        }
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        if ( streaming ) {
+                            getResponse().getOutputStream().write(b, off, len);
+                        } else {
+                            body.write(b, off, len);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if ( streaming ) {
+                            getResponse().getOutputStream().flush();
+                        }
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        try {
+                            return !streaming || getResponse().getOutputStream().isReady();
+                        } catch ( IOException ex ) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+
+                    // Non-blocking writes are the container's to schedule, they go straight to the real response
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        try {
+                            stream();
+                            getResponse().getOutputStream().setWriteListener(writeListener);
+                        } catch ( IOException ex ) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                };
+            }
+            return sink;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if ( outputStream != null ) {
+                throw new IllegalStateException("getOutputStream() has already been called on this response");
+            }
+            if ( writer == null ) {
+                writer = new PrintWriter(new OutputStreamWriter(sink(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        // Nothing is sent before the handler is done
+        @Override
+        public void flushBuffer() throws IOException {
+            if ( writer != null ) {
+                writer.flush();
+            }
+            if ( streaming ) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if ( writer != null ) {
+                writer.flush();
+            }
+            body.reset();
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            resetBuffer();
+            headers.clear();
+            status = SC_OK;
+            shared = true;
+            super.reset();
+        }
+
+    }
+
+}
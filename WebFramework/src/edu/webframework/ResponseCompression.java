@@ -0,0 +1,544 @@
+package edu.webframework;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Gzip or deflate compression of the responses of synchronous handlers, negotiated from Accept-Encoding. The body is
+// buffered up to the threshold, so small responses go out as they are, and is then streamed through a Deflater taken
+// from a pool. Responses with a Content-Encoding of their own, or whose content type is compressed already, are left
+// alone.
+class ResponseCompression {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_POOLED = 64;
+
+    private static final String[] COMPRESSED_TYPES = { "image/", "audio/", "video/", "font/woff", "application/zip",
+            "application/gzip", "application/x-gzip", "application/pdf", "application/octet-stream",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/x-bzip2" };
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    final int threshold;
+    private final BlockingQueue<Compressor> gzipPool = new ArrayBlockingQueue<>(MAX_POOLED);
+    private final BlockingQueue<Compressor> deflatePool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    ResponseCompression(int threshold) {
+        this.threshold = Math.max(0, threshold);
+    }
+
+    // Null when the client takes neither gzip nor deflate
+    CompressingResponse wrap(HttpServletRequest request, HttpServletResponse response) {
+        String coding = negotiate(request.getHeader("Accept-Encoding"));
+        return coding != null ? new CompressingResponse(this, coding, request, response) : null;
+    }
+
+    // The coding the client prefers, gzip on a tie
+    static String negotiate(String acceptEncoding) {
+        if ( acceptEncoding == null ) {
+            return null;
+        }
+        float gzip = quality(acceptEncoding, GZIP);
+        float deflate = quality(acceptEncoding, DEFLATE);
+        if ( gzip <= 0 && deflate <= 0 ) {
+            return null;
+        }
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    // The q value of the coding, or of * when the coding is not listed, 0 when neither is
+    static float quality(String acceptEncoding, String coding) {
+        if ( acceptEncoding == null ) {
+            return 0;
+        }
+        float wildcard = 0;
+        for ( String entry : acceptEncoding.split(",") ) {
+            String[] parts = entry.trim().split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if ( coding.equals(name) || "*".equals(name) ) {
+                float q = 1;
+                for ( int i = 1; i < parts.length; i++ ) {
+                    String parameter = parts[i].trim();
+                    if ( parameter.startsWith("q=") ) {
+                        try {
+                            q = Float.parseFloat(parameter.substring(2));
+                        } catch ( NumberFormatException ex ) {
+                            q = 0;
+                        }
+                    }
+                }
+                if ( coding.equals(name) ) {
+                    return q;
+                }
+                wildcard = q;
+            }
+        }
+        return wildcard;
+    }
+
+    static boolean isCompressible(String contentType) {
+        if ( contentType == null ) {
+            return true;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if ( type.startsWith("image/svg") ) {
+            return true;
+        }
+        for ( String compressed : COMPRESSED_TYPES ) {
+            if ( type.startsWith(compressed) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Compressor acquire(String coding) {
+        Compressor compressor = (GZIP.equals(coding) ? gzipPool : deflatePool).poll();
+        return compressor != null ? compressor : new Compressor(coding);
+    }
+
+    void release(Compressor compressor) {
+        compressor.reset();
+        if ( !(GZIP.equals(compressor.coding) ? gzipPool : deflatePool).offer(compressor) ) {
+            compressor.deflater.end();
+        }
+    }
+
+    // A Deflater with its output buffer. Gzip is raw deflate between a header and a trailer written here, deflate is
+    // the zlib format the Deflater writes by itself.
+    static class Compressor {
+
+        final String coding;
+        final Deflater deflater;
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream out;
+
+        Compressor(String coding) {
+            this.coding = coding;
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, GZIP.equals(coding));
+        }
+
+        void start(OutputStream out) throws IOException {
+            this.out = out;
+            if ( GZIP.equals(coding) ) {
+                out.write(GZIP_HEADER);
+            }
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            if ( len == 0 ) {
+                return;
+            }
+            if ( GZIP.equals(coding) ) {
+                crc.update(b, off, len);
+            }
+            deflater.setInput(b, off, len);
+            while ( !deflater.needsInput() ) {
+                drain(Deflater.NO_FLUSH);
+            }
+        }
+
+        void flush() throws IOException {
+            int length;
+            do {
+                length = drain(Deflater.SYNC_FLUSH);
+            } while ( length == buffer.length );
+            out.flush();
+        }
+
+        void finish() throws IOException {
+            deflater.finish();
+            while ( !deflater.finished() ) {
+                drain(Deflater.NO_FLUSH);
+            }
+            if ( GZIP.equals(coding) ) {
+                writeInt((int) crc.getValue());
+                writeInt((int) deflater.getBytesRead());
+            }
+        }
+
+        private int drain(int flush) throws IOException {
+            int length = deflater.deflate(buffer, 0, buffer.length, flush);
+            if ( length > 0 ) {
+                out.write(buffer, 0, length);
+            }
+            return length;
+        }
+
+        private void writeInt(int value) throws IOException {
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+            out.write((value >> 16) & 0xff);
+            out.write((value >> 24) & 0xff);
+        }
+
+        void reset() {
+            deflater.reset();
+            crc.reset();
+            out = null;
+        }
+
+    }
+
+    // Decides on the first write past the threshold (or on a flush) whether the body is compressed. Until then the
+    // Content-Length is held back, since it only holds for the uncompressed body. The body of a request that went
+    // asynchronous before that is not compressed, since the dispatcher cannot end the compressed stream once the
+    // handler completes; a handler that went asynchronous after compression started has to close the output stream.
+    static class CompressingResponse extends HttpServletResponseWrapper {
+
+        private static final int BUFFERING = 0;
+        private static final int COMPRESSING = 1;
+        private static final int IDENTITY = 2;
+        private static final int FINISHED = 3;
+
+        private final ResponseCompression compression;
+        private final String coding;
+        private final HttpServletRequest request;
+        private final byte[] pending;
+        private int count = 0;
+        private int state = BUFFERING;
+        private long contentLength = -1;
+        private Compressor compressor;
+        private OutputStream target;
+        private ServletOutputStream body;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+        private boolean draining = false;
+
+        CompressingResponse(ResponseCompression compression, String coding, HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.compression = compression;
+            this.coding = coding;
+            this.request = request;
+            this.pending = new byte[compression.threshold];
+        }
+
+        // Sends whatever is still buffered and ends the compressed stream. Called by the dispatcher once the handler
+        // is done, and when the container closes the response after forwarding to a view.
+        void finish() throws IOException {
+            drainWriter();
+            if ( state == BUFFERING ) {
+                if ( contentLength < 0 && count > 0 ) {
+                    contentLength = count;
+                }
+                passThrough();
+            }
+            if ( state == COMPRESSING ) {
+                try {
+                    compressor.finish();
+                } finally {
+                    compression.release(compressor);
+                    compressor = null;
+                }
+            }
+            state = FINISHED;
+        }
+
+        // Called by the dispatcher instead of finish when the handler went asynchronous: what is buffered is sent as it
+        // is, and the rest of the body follows it, uncompressed unless compression already started
+        void detach() throws IOException {
+            drainWriter();
+            if ( state == BUFFERING ) {
+                passThrough();
+            }
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if ( state == BUFFERING ) {
+                if ( count + len <= pending.length ) {
+                    System.arraycopy(b, off, pending, count, len);
+                    count += len;
+                    return;
+                }
+                start();
+            }
+            if ( state == COMPRESSING ) {
+                compressor.write(b, off, len);
+            } else if ( state == IDENTITY ) {
+                target.write(b, off, len);
+            }
+            // Like the container, ignores what is written once the response is done
+        }
+
+        private void flush() throws IOException {
+            if ( state == BUFFERING ) {
+                start();
+            }
+            if ( state == COMPRESSING ) {
+                compressor.flush();
+            } else if ( state == IDENTITY ) {
+                target.flush();
+            }
+        }
+
+        private void start() throws IOException {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            int status = response.getStatus();
+            if ( status < 200 || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED || response.containsHeader("Content-Encoding") || request.isAsyncStarted()
+                    || !isCompressible(response.getContentType()) || (contentLength >= 0 && contentLength < compression.threshold) ) {
+                passThrough();
+                return;
+            }
+
+            response.setHeader("Content-Encoding", coding);
+            response.addHeader("Vary", "Accept-Encoding");
+            // The compressed body is another representation, only equivalent to the one the entity tag stands for
+            String etag = response.getHeader("ETag");
+            if ( etag != null && etag.startsWith("\"") ) {
+                response.setHeader("ETag", "W/" + etag);
+            }
+
+            target = response.getOutputStream();
+            compressor = compression.acquire(coding);
+            compressor.start(target);
+            state = COMPRESSING;
+            compressor.write(pending, 0, count);
+            count = 0;
+        }
+
+        private void passThrough() throws IOException {
+            if ( contentLength >= 0 ) {
+                super.setContentLengthLong(contentLength);
+            }
+            state = IDENTITY;
+            if ( count > 0 ) {
+                target = getResponse().getOutputStream();
+                target.write(pending, 0, count);
+                count = 0;
+            } else {
+                target = new OutputStream() {
+                    private OutputStream out;
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        stream().write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        stream().write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        stream().flush();
+                    }
+
+                    // Nothing was written yet, a response without a body does not need to open the stream
+                    private OutputStream stream() throws IOException {
+                        if ( out == null ) {
+                            out = getResponse().getOutputStream();
+                        }
+                        return out;
+                    }
+                };
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            if ( state == IDENTITY ) {
+                super.setContentLengthLong(len);
+            } else if ( state == BUFFERING ) {
+                contentLength = len;
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if ( "Content-Length".equalsIgnoreCase(name) ) {
+                setContentLengthLong(Long.parseLong(value.trim()));
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if ( "Content-Length".equalsIgnoreCase(name) ) {
+                setContentLengthLong(Long.parseLong(value.trim()));
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if ( "Content-Length".equalsIgnoreCase(name) ) {
+                setContentLengthLong(value);
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if ( "Content-Length".equalsIgnoreCase(name) ) {
+                setContentLengthLong(value);
+            } else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if ( writer != null ) {
+                throw new IllegalStateException("getWriter() has already been called on this response");
+            }
+            if ( outputStream == null ) {
+                outputStream = body();
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if ( outputStream != null ) {
+                throw new IllegalStateException("getOutputStream() has already been called on this response");
+            }
+            if ( writer == null ) {
+                writer = new PrintWriter(new OutputStreamWriter(body(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        private ServletOutputStream body() {
+            if ( body == null ) {
+                body = new ServletOutputStream() {
+                    private final byte[] single = new byte[1];
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        single[0] = (byte) b;
+                        CompressingResponse.this.write(single, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        CompressingResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        if ( !draining ) {
+                            CompressingResponse.this.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        finish();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        try {
+                            return state == BUFFERING || getResponse().getOutputStream().isReady();
+                        } catch ( IOException ex ) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+
+                    // Non-blocking writes are the container's to schedule, what is buffered is sent first
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        try {
+                            detach();
+                            getResponse().getOutputStream().setWriteListener(writeListener);
+                        } catch ( IOException ex ) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    }
+                };
+            }
+            return body;
+        }
+
+        // Moves what the writer holds into the body, without the flush that would end the buffering
+        private void drainWriter() {
+            if ( writer != null ) {
+                draining = true;
+                try {
+                    writer.flush();
+                } finally {
+                    draining = false;
+                }
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            drainWriter();
+            flush();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if ( state != BUFFERING ) {
+                throw new IllegalStateException("The response body has already been started");
+            }
+            drainWriter();
+            count = 0;
+            super.resetBuffer();
+        }
+
+        @Override
+        public void reset() {
+            resetBuffer();
+            contentLength = -1;
+            super.reset();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            discard();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            discard();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            discard();
+            super.sendRedirect(location);
+        }
+
+        // Errors and redirects replace the body, and the container writes theirs
+        private void discard() {
+            if ( compressor != null ) {
+                compression.release(compressor);
+                compressor = null;
+            }
+            count = 0;
+            state = FINISHED;
+        }
+
+    }
+
+}
@@ -0,0 +1,296 @@
+package edu.webframework;
+
+import edu.webframework.exceptions.WebControllerDefinitionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Segment based router. Every URL path template is split by '/' and stored as a path in the trie, where literal
+// segments are looked up by hash and "{name}" (or typed "{name:int}") segments are captured without regular expressions,
+// so the cost of a lookup depends on the length of the path and not on the number of registered routes. A placeholder
+// may have literal text around it within its segment, as in "item-{id}" or "{name}.json".
+class RouteTrie<T> {
+
+    static final String[] NO_VALUES = new String[0];
+
+    // Characters accepted inside a captured segment, same set as the regular expression used by older versions
+    private static final boolean[] SEGMENT_CHARS = new boolean[128];
+
+    static {
+        for ( char c = 'a'; c <= 'z'; c++ ) SEGMENT_CHARS[c] = true;
+        for ( char c = 'A'; c <= 'Z'; c++ ) SEGMENT_CHARS[c] = true;
+        for ( char c = '0'; c <= '9'; c++ ) SEGMENT_CHARS[c] = true;
+        for ( char c : "-_~.';:@&=+%#$".toCharArray() ) SEGMENT_CHARS[c] = true;
+    }
+
+    enum SegmentType {
+
+        INT("int", 10),
+        LONG("long", 19),
+        STRING("string", 0);
+
+        private final String name;
+        private final int maxDigits;
+
+        SegmentType(String name, int maxDigits) {
+            this.name = name;
+            this.maxDigits = maxDigits;
+        }
+
+        static SegmentType fromName(String name) throws WebControllerDefinitionException {
+            for ( SegmentType type : values() ) {
+                if ( type.name.equals(name) ) {
+                    return type;
+                }
+            }
+            throw new WebControllerDefinitionException(String.format("Unknown URL segment type [%s]", name));
+        }
+
+        boolean accepts(String path, int start, int end) {
+            if ( this == STRING ) {
+                for ( int i = start; i < end; i++ ) {
+                    char c = path.charAt(i);
+                    if ( c >= 128 || !SEGMENT_CHARS[c] ) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            int i = start;
+            boolean negative = i < end && path.charAt(i) == '-';
+            if ( negative ) {
+                i++;
+            }
+
+            int digits = end - i;
+            if ( digits == 0 || digits > maxDigits ) {
+                return false;
+            }
+
+            long value = 0;
+            for ( ; i < end; i++ ) {
+                char c = path.charAt(i);
+                if ( c < '0' || c > '9' ) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                if ( value < 0 ) {
+                    return false;
+                }
+            }
+
+            if ( this == INT ) {
+                return negative ? -value >= Integer.MIN_VALUE : value <= Integer.MAX_VALUE;
+            }
+            return true;
+        }
+
+    }
+
+    static class RouteMatch<T> {
+
+        final T value;
+        final String[] values;
+
+        RouteMatch(T value, String[] values) {
+            this.value = value;
+            this.values = values;
+        }
+
+    }
+
+    private static class Node<T> {
+
+        final Map<String, Node<T>> literals = new ConcurrentHashMap<>();
+        volatile Node<T>[] parameters = newNodeArray(0);
+
+        String parameterName;
+        SegmentType parameterType;
+        String prefix = "";
+        String suffix = "";
+        int parameterIndex = -1;
+
+        volatile T value;
+        int parameterCount;
+
+        Node<T> findParameter(String name, SegmentType type, String prefix, String suffix) {
+            for ( Node<T> parameter : parameters ) {
+                if ( parameter.parameterName.equals(name) && parameter.parameterType == type
+                        && parameter.prefix.equals(prefix) && parameter.suffix.equals(suffix) ) {
+                    return parameter;
+                }
+            }
+            return null;
+        }
+
+        Node<T> addParameter(String name, SegmentType type, String prefix, String suffix, int index) {
+            Node<T> node = new Node<>();
+            node.parameterName = name;
+            node.parameterType = type;
+            node.prefix = prefix;
+            node.suffix = suffix;
+            node.parameterIndex = index;
+
+            // Typed segments are tried before plain strings, so "{id:int}" wins over "{name}" on the same level, and
+            // of the same type the ones with more literal text, so "item-{id}" wins over "{name}"
+            Node<T>[] current = parameters;
+            Node<T>[] updated = Arrays.copyOf(current, current.length + 1);
+            int i = updated.length - 1;
+            while ( i > 0 && updated[i - 1].comesAfter(node) ) {
+                updated[i] = updated[i - 1];
+                i--;
+            }
+            updated[i] = node;
+            parameters = updated;
+
+            return node;
+        }
+
+        private boolean comesAfter(Node<T> other) {
+            if ( parameterType != other.parameterType ) {
+                return parameterType.ordinal() > other.parameterType.ordinal();
+            }
+            return prefix.length() + suffix.length() < other.prefix.length() + other.suffix.length();
+        }
+
+        // Whether the segment between start and end has the literal text of the placeholder around a value of its type
+        boolean accepts(String path, int start, int end) {
+            return end - start >= prefix.length() + suffix.length()
+                    && path.startsWith(prefix, start)
+                    && path.startsWith(suffix, end - suffix.length())
+                    && parameterType.accepts(path, start + prefix.length(), end - suffix.length());
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> Node<T>[] newNodeArray(int size) {
+            return (Node<T>[]) new Node<?>[size];
+        }
+
+    }
+
+    private final Node<T> root = new Node<>();
+    private volatile int maxParameters = 0;
+    private volatile int size = 0;
+
+    // Returns the value previously registered for the same template, if any
+    synchronized T add(String template, T value, List<String> parameterNames) throws WebControllerDefinitionException {
+        Node<T> node = root;
+        int parameterIndex = 0;
+
+        for ( String segment : split(template) ) {
+            if ( segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0 ) {
+                int open = segment.indexOf('{');
+                int close = segment.indexOf('}');
+                if ( open < 0 || close < open || segment.indexOf('{', open + 1) >= 0 || segment.indexOf('}', close + 1) >= 0 ) {
+                    throw new WebControllerDefinitionException(String.format("URL segment [%s] in path [%s] must have a single \"{name}\" placeholder", segment, template));
+                }
+                String prefix = segment.substring(0, open);
+                String suffix = segment.substring(close + 1);
+
+                String definition = segment.substring(open + 1, close);
+                int separator = definition.indexOf(':');
+                String name = separator < 0 ? definition : definition.substring(0, separator);
+                SegmentType type = separator < 0 ? SegmentType.STRING : SegmentType.fromName(definition.substring(separator + 1));
+
+                if ( parameterNames.contains(name) ) {
+                    throw new WebControllerDefinitionException(String.format("URL argument [%s] is repeated in path [%s]", name, template));
+                }
+                parameterNames.add(name);
+
+                Node<T> next = node.findParameter(name, type, prefix, suffix);
+                if ( next == null ) {
+                    next = node.addParameter(name, type, prefix, suffix, parameterIndex);
+                }
+                node = next;
+                parameterIndex++;
+            } else {
+                Node<T> next = node.literals.get(segment);
+                if ( next == null ) {
+                    next = new Node<>();
+                    node.literals.put(segment, next);
+                }
+                node = next;
+            }
+        }
+
+        T previous = node.value;
+        node.parameterCount = parameterIndex;
+        node.value = value;
+
+        if ( previous == null ) {
+            size++;
+        }
+        maxParameters = Math.max(maxParameters, parameterIndex);
+
+        return previous;
+    }
+
+    RouteMatch<T> match(String path) {
+        int[] bounds = maxParameters == 0 ? null : new int[maxParameters * 2];
+        Node<T> node = find(root, path, 0, bounds);
+
+        if ( node == null ) {
+            return null;
+        }
+
+        if ( node.parameterCount == 0 ) {
+            return new RouteMatch<>(node.value, NO_VALUES);
+        }
+
+        String[] values = new String[node.parameterCount];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = path.substring(bounds[i * 2], bounds[i * 2 + 1]);
+        }
+        return new RouteMatch<>(node.value, values);
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Node<T> find(Node<T> node, String path, int start, int[] bounds) {
+        int end = path.indexOf('/', start);
+        boolean last = end < 0;
+        if ( last ) {
+            end = path.length();
+        }
+
+        Node<T> literal = node.literals.get(path.substring(start, end));
+        if ( literal != null ) {
+            Node<T> found = last ? (literal.value != null ? literal : null) : find(literal, path, end + 1, bounds);
+            if ( found != null ) {
+                return found;
+            }
+        }
+
+        for ( Node<T> parameter : node.parameters ) {
+            if ( parameter.accepts(path, start, end) ) {
+                Node<T> found = last ? (parameter.value != null ? parameter : null) : find(parameter, path, end + 1, bounds);
+                if ( found != null ) {
+                    bounds[parameter.parameterIndex * 2] = start + parameter.prefix.length();
+                    bounds[parameter.parameterIndex * 2 + 1] = end - parameter.suffix.length();
+                    return found;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static List<String> split(String template) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ( (end = template.indexOf('/', start)) >= 0 ) {
+            segments.add(template.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(template.substring(start));
+        return segments;
+    }
+
+}
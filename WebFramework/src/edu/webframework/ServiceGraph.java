@@ -0,0 +1,199 @@
+package edu.webframework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+// Dependencies between services, taken from the @RequireService fields connected at init. Lets independent services
+// start (and stop) concurrently while a service still starts after every service it requires, and stops before them.
+class ServiceGraph {
+
+    interface ServiceTask {
+        void run(Class<?> service);
+    }
+
+    private final Map<Class<?>, Set<Class<?>>> dependencies = new LinkedHashMap<>();
+
+    synchronized void add(Class<?> service) {
+        if ( !dependencies.containsKey(service) ) {
+            dependencies.put(service, new LinkedHashSet<Class<?>>());
+        }
+    }
+
+    synchronized void addDependency(Class<?> service, Class<?> dependency) {
+        add(service);
+        add(dependency);
+        if ( !service.equals(dependency) ) {
+            dependencies.get(service).add(dependency);
+        }
+    }
+
+    synchronized boolean contains(Class<?> service) {
+        return dependencies.containsKey(service);
+    }
+
+    synchronized Set<Class<?>> getDependencies(Class<?> service) {
+        Set<Class<?>> serviceDependencies = dependencies.get(service);
+        return serviceDependencies != null ? new LinkedHashSet<>(serviceDependencies) : Collections.<Class<?>>emptySet();
+    }
+
+    // Services in registration order, moved after their dependencies (Kahn's algorithm). Services in a cycle, or
+    // depending on one, cannot be ordered and are left out.
+    synchronized List<Class<?>> getOrder() {
+        Map<Class<?>, Integer> pending = new HashMap<>();
+        Map<Class<?>, List<Class<?>>> dependents = new HashMap<>();
+        for ( Map.Entry<Class<?>, Set<Class<?>>> entry : dependencies.entrySet() ) {
+            pending.put(entry.getKey(), entry.getValue().size());
+            for ( Class<?> dependency : entry.getValue() ) {
+                if ( !dependents.containsKey(dependency) ) {
+                    dependents.put(dependency, new ArrayList<Class<?>>());
+                }
+                dependents.get(dependency).add(entry.getKey());
+            }
+        }
+
+        List<Class<?>> order = new ArrayList<>();
+        for ( Class<?> service : dependencies.keySet() ) {
+            if ( pending.get(service) == 0 ) {
+                order.add(service);
+            }
+        }
+        for ( int i = 0; i < order.size(); i++ ) {
+            List<Class<?>> serviceDependents = dependents.get(order.get(i));
+            if ( serviceDependents != null ) {
+                for ( Class<?> dependent : serviceDependents ) {
+                    int count = pending.get(dependent) - 1;
+                    pending.put(dependent, count);
+                    if ( count == 0 ) {
+                        order.add(dependent);
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    // Services left out of the order, in registration order
+    synchronized List<Class<?>> getUnordered(List<Class<?>> order) {
+        Set<Class<?>> ordered = new LinkedHashSet<>(order);
+        List<Class<?>> unordered = new ArrayList<>();
+        for ( Class<?> service : dependencies.keySet() ) {
+            if ( !ordered.contains(service) ) {
+                unordered.add(service);
+            }
+        }
+        return unordered;
+    }
+
+    // Every unordered service still has a dependency that is unordered, so following those from any of them ends
+    // up going around a cycle
+    synchronized List<Class<?>> findCycle(List<Class<?>> unordered) {
+        if ( unordered.isEmpty() ) {
+            return Collections.emptyList();
+        }
+
+        Set<Class<?>> remaining = new LinkedHashSet<>(unordered);
+        List<Class<?>> path = new ArrayList<>();
+        Class<?> service = unordered.get(0);
+        while ( !path.contains(service) ) {
+            path.add(service);
+            for ( Class<?> dependency : dependencies.get(service) ) {
+                if ( remaining.contains(dependency) ) {
+                    service = dependency;
+                    break;
+                }
+            }
+        }
+
+        List<Class<?>> cycle = new ArrayList<>(path.subList(path.indexOf(service), path.size()));
+        cycle.add(service);
+        return cycle;
+    }
+
+    // Runs the task of every service on the executor, once the tasks of its dependencies are done, or with reverse
+    // once the tasks of the services depending on it are done. Unordered services run one after the other on the
+    // calling thread at the end (at the beginning with reverse). Returns how long each task took, in nanoseconds.
+    Map<Class<?>, Long> run(Executor executor, boolean reverse, final ServiceTask task) {
+        List<Class<?>> order = getOrder();
+        List<Class<?>> unordered = getUnordered(order);
+        final Map<Class<?>, Long> times = new ConcurrentHashMap<>();
+
+        if ( reverse ) {
+            Collections.reverse(order);
+            Collections.reverse(unordered);
+            for ( Class<?> service : unordered ) {
+                timed(service, task, times).run();
+            }
+        }
+
+        Map<Class<?>, Set<Class<?>>> waitFor = reverse ? getDependents() : getDependencies();
+        Map<Class<?>, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        for ( Class<?> service : order ) {
+            List<CompletableFuture<Void>> previous = new ArrayList<>();
+            for ( Class<?> other : waitFor.get(service) ) {
+                CompletableFuture<Void> future = futures.get(other);
+                if ( future != null ) {
+                    previous.add(future);
+                }
+            }
+            futures.put(service, CompletableFuture.allOf(previous.toArray(new CompletableFuture<?>[previous.size()]))
+                    .thenRunAsync(timed(service, task, times), executor));
+        }
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
+
+        if ( !reverse ) {
+            for ( Class<?> service : unordered ) {
+                timed(service, task, times).run();
+            }
+        }
+
+        return times;
+    }
+
+    private synchronized Map<Class<?>, Set<Class<?>>> getDependencies() {
+        Map<Class<?>, Set<Class<?>>> copy = new HashMap<>();
+        for ( Map.Entry<Class<?>, Set<Class<?>>> entry : dependencies.entrySet() ) {
+            copy.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private synchronized Map<Class<?>, Set<Class<?>>> getDependents() {
+        Map<Class<?>, Set<Class<?>>> dependents = new HashMap<>();
+        for ( Class<?> service : dependencies.keySet() ) {
+            dependents.put(service, new LinkedHashSet<Class<?>>());
+        }
+        for ( Map.Entry<Class<?>, Set<Class<?>>> entry : dependencies.entrySet() ) {
+            for ( Class<?> dependency : entry.getValue() ) {
+                dependents.get(dependency).add(entry.getKey());
+            }
+        }
+        return dependents;
+    }
+
+    // Tasks are expected to handle their own failures, anything escaping is swallowed so dependents still run
+    private static Runnable timed(final Class<?> service, final ServiceTask task, final Map<Class<?>, Long> times) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    task.run(service);
+                } catch ( RuntimeException ex ) {
+                    // Already reported by the task
+                } finally {
+                    times.put(service, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+}
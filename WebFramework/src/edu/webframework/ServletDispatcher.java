@@ -1,36 +1,117 @@
 package edu.webframework;
 
 import edu.webframework.annotations.*;
+import edu.webframework.exceptions.InvalidHttpRequestParameterException;
+import edu.webframework.exceptions.InvalidRequestBodyException;
 import edu.webframework.exceptions.RequiredHttpRequestParameterException;
 import edu.webframework.exceptions.WebControllerDefinitionException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.net.URLDecoder;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 public class ServletDispatcher extends HttpServlet {
 
     public static final String WebControllerErrorTypeAttr = "_WEB_CONTROLLER_ERROR_TYPE_";
     public static final String WebControllerExceptionAttr = "_WEB_CONTROLLER_EXCEPTION_";
+    public static final String WebControllerAsyncDispatchAttr = "_WEB_CONTROLLER_ASYNC_DISPATCH_";
+    public static final String WebControllerNotModifiedAttr = "_WEB_CONTROLLER_NOT_MODIFIED_";
+    public static final String DispatcherReadyAttr = "_DISPATCHER_READY_";
+    public static final String TemplatesAttr = "_TEMPLATES_";
+    public static final String FragmentCacheAttr = "_FRAGMENT_CACHE_";
+
+    // Every HttpMethodType a handler can be declared for
+    static final String[] HTTP_METHODS = { HttpMethodType.GET, HttpMethodType.POST, HttpMethodType.PUT, HttpMethodType.DELETE, HttpMethodType.HEAD };
 
     public static final String DEFAULT = "_DEFAULT_";
     public static final String ACTION = "_action_";
 
+    public static final String ROUTE_CACHE_SIZE = "routecache.size";
+    public static final int DEFAULT_ROUTE_CACHE_SIZE = 1024;
+
+    public static final String RESPONSE_CACHE_SIZE = "responsecache.size";
+    public static final int DEFAULT_RESPONSE_CACHE_SIZE = 256;
+
+    public static final String FRAGMENT_CACHE_SIZE = "fragmentcache.size";
+    public static final long DEFAULT_FRAGMENT_CACHE_SIZE = 8 * 1024 * 1024;
+
+    public static final String COMPRESSION = "compression";
+    public static final String NO_COMPRESSION = "none";
+    public static final String COMPRESSION_THRESHOLD = "compression.threshold";
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    public static final String JSON_MAX_BODY = "json.maxbody";
+    public static final long DEFAULT_JSON_MAX_BODY = 1024 * 1024;
+
+    public static final String STATIC_RESOURCES = "static.resources";
+    public static final String STATIC_MAX_AGE = "static.maxage";
+    public static final long DEFAULT_STATIC_MAX_AGE = 86400;
+
+    public static final String SESSION_STORE = "session.store";
+    public static final String CONTAINER_SESSIONS = "container";
+    public static final String MEMORY_SESSIONS = "memory";
+    public static final String FILE_SESSIONS = "file";
+    public static final String SESSION_TIMEOUT = "session.timeout";
+    public static final int DEFAULT_SESSION_TIMEOUT = 1800;
+
+    public static final String CONCURRENCY = "concurrency";
+    public static final String ADAPTIVE_CONCURRENCY = "adaptive";
+    public static final String CONCURRENCY_INITIAL = "concurrency.initial";
+    // Tomcat's default maxThreads, so a cold start admits what the container can run
+    public static final int DEFAULT_CONCURRENCY_INITIAL = 200;
+    public static final String CONCURRENCY_MAX = "concurrency.max";
+    public static final int DEFAULT_CONCURRENCY_MAX = 1000;
+    public static final String CONCURRENCY_RETRY_AFTER = "concurrency.retryafter";
+    public static final long DEFAULT_CONCURRENCY_RETRY_AFTER = 1;
+
+    public static final String VIEWS = "views";
+    public static final String COMPILED_VIEWS = "compiled";
+
+    public static final String CONTROLLER_INVOKER = "controller.invoker";
+    public static final String REFLECTION_INVOKER = "reflection";
+
+    public static final String ASYNC_TIMEOUT = "async.timeout";
+    public static final long DEFAULT_ASYNC_TIMEOUT = 30000;
+
+    public static final String METRICS_PATH = "metrics.path";
+
+    public static final String SERVICE_THREADS = "services.threads";
+
+    public static final String ACTIVATION = "activation";
+    public static final String LAZY_ACTIVATION = "lazy";
+
+    public static final String READINESS_PATH = "readiness.path";
+
+    public static final String ERROR_DISPATCH = "error.dispatch";
+    public static final String REQUEST_ERROR_DISPATCH = "request";
+
+    public static final String CONTROLLER_REGISTRY = "controller.registry";
+    public static final String GENERATED_CONTROLLER_REGISTRY = "generated";
+
     public enum WebControllerError {
 
         NotFound(404),
         InternalServerError(500),
-        BadRequest(400);
+        BadRequest(400),
+        GatewayTimeout(504),
+        PayloadTooLarge(413),
+        ServiceUnavailable(503);
 
         private int statusCode;
 
@@ -43,23 +124,112 @@ public class ServletDispatcher extends HttpServlet {
         }
     }
 
-    Map<Pattern, ControllerDescriptor> servletWebControllerProviders = new ConcurrentHashMap<>();
+    RouteTrie<ControllerDescriptor> servletWebControllerProviders = new RouteTrie<>();
     Map<Class, ServiceController> servletServiceProviders = new ConcurrentHashMap<>();
 
     ControllerDescriptor errorHandlerProvider = null;
+    boolean redirectErrors = true;
+
+    ConcurrentLruCache<RouteCacheKey, ResolvedRoute> routeCache = new ConcurrentLruCache<>(DEFAULT_ROUTE_CACHE_SIZE);
+
+    boolean useMethodHandles = true;
+
+    Map<Class<?>, BeanBindingPlan> beanBindingPlans = new ConcurrentHashMap<>();
+
+    Map<Class<? extends AsyncExecutorFactory>, ExecutorService> asyncExecutors = new ConcurrentHashMap<>();
+    long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+
+    ResponseCache responseCache = new ResponseCache();
+    FragmentCache fragmentCache = new FragmentCache();
+
+    FrameworkSessions frameworkSessions = null;
+
+    ConcurrencyLimits concurrencyLimits = null;
+
+    ResponseCompression responseCompression = new ResponseCompression(DEFAULT_COMPRESSION_THRESHOLD);
+    long maxJsonBodySize = DEFAULT_JSON_MAX_BODY;
+
+    StaticResources staticResources = null;
+
+    GeneratedRegistry generatedRegistry = new GeneratedRegistry();
+
+    ServiceGraph serviceGraph = new ServiceGraph();
+    Set<Class<?>> initializedServices = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+    Map<Class<?>, Long> serviceInitTimes = new ConcurrentHashMap<>();
+    int serviceThreads = Runtime.getRuntime().availableProcessors();
+
+    boolean lazyActivation = false;
+    final Object serviceActivationLock = new Object();
 
     @Override
     public void init() {
-        Class[] controllerClasses = getControllerClasses("webcontrollers");
-        Class[] serviceClasses = getControllerClasses("services");
+        long start = System.nanoTime();
+        lazyActivation = LAZY_ACTIVATION.equals(getServletContext().getInitParameter(ACTIVATION));
+        initializeRouteCache(getServletContext().getInitParameter(ROUTE_CACHE_SIZE));
+        useMethodHandles = !REFLECTION_INVOKER.equals(getServletContext().getInitParameter(CONTROLLER_INVOKER));
+        initializeAsyncTimeout(getServletContext().getInitParameter(ASYNC_TIMEOUT));
+        initializeServiceThreads(getServletContext().getInitParameter(SERVICE_THREADS));
+        redirectErrors = !REQUEST_ERROR_DISPATCH.equals(getServletContext().getInitParameter(ERROR_DISPATCH));
+
+        // Opt-in, the processor runs in every build with the framework on its class path, and would otherwise route
+        // controllers left out of the web.xml on purpose
+        if ( GENERATED_CONTROLLER_REGISTRY.equals(getServletContext().getInitParameter(CONTROLLER_REGISTRY)) ) {
+            loadControllerRegistries(getClassLoader());
+        }
+
+        // Classes handled by a generated registry are left out of the web.xml lists, which become optional
+        Class<?>[] controllerClasses = generatedRegistry.reflectiveControllerClasses(getControllerClasses("webcontrollers"));
+        Class<?>[] serviceClasses = generatedRegistry.reflectiveServiceClasses(getControllerClasses("services"));
         Class[] exceptionHandlerClass = getControllerClasses("errorhandler");
 
+        initializeMetrics(getServletContext().getInitParameter(METRICS_PATH));
+        initializeResponseCache(getServletContext().getInitParameter(RESPONSE_CACHE_SIZE));
+        initializeFragmentCache(getServletContext().getInitParameter(FRAGMENT_CACHE_SIZE));
+        initializeSessions(getServletContext().getInitParameter(SESSION_STORE), getServletContext().getInitParameter(SESSION_TIMEOUT));
+        initializeConcurrencyLimits(getServletContext().getInitParameter(CONCURRENCY), getServletContext().getInitParameter(CONCURRENCY_INITIAL),
+                getServletContext().getInitParameter(CONCURRENCY_MAX), getServletContext().getInitParameter(CONCURRENCY_RETRY_AFTER));
+        initializeCompression(getServletContext().getInitParameter(COMPRESSION), getServletContext().getInitParameter(COMPRESSION_THRESHOLD));
+        initializeStaticResources(getServletContext().getInitParameter(STATIC_RESOURCES), getServletContext().getInitParameter(STATIC_MAX_AGE));
+        initializeJsonMaxBody(getServletContext().getInitParameter(JSON_MAX_BODY));
+        initializeViews(getServletContext().getInitParameter(VIEWS));
         initializeServices(serviceClasses);
+        initializeGeneratedWebControllers();
         initializeWebControllers(controllerClasses);
         initializeErrorHandler(exceptionHandlerClass);
+        initializeReadiness(getServletContext().getInitParameter(READINESS_PATH));
+
+        getServletContext().setAttribute(DispatcherReadyAttr, Boolean.TRUE);
+        log(String.format(Locale.ROOT, "Ready in [%.1f] ms%s", (System.nanoTime() - start) / 1e6,
+                lazyActivation ? ", controllers and services will be activated on first use" : ""));
+    }
+
+    protected void loadControllerRegistries(ClassLoader classLoader) {
+        try {
+            for ( ControllerRegistry registry : ServiceLoader.load(ControllerRegistry.class, classLoader) ) {
+                log(String.format("Loading controller registry [%s]...", registry.getClass().getName()));
+                registry.register(generatedRegistry);
+            }
+        } catch ( ServiceConfigurationError ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
+    protected ClassLoader getClassLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : ServletDispatcher.class.getClassLoader();
     }
 
     protected void initializeServices(Class[] serviceClasses) {
+        for ( GeneratedRegistry.Entry service : generatedRegistry.services.values() ) {
+            try {
+                registerGeneratedService(service);
+            } catch ( Exception ex ) {
+                log(ex.getMessage(), ex);
+            }
+        }
+
         for ( Class serviceClass : serviceClasses ) {
             try {
                 registerClassService(serviceClass);
@@ -68,9 +238,9 @@ public class ServletDispatcher extends HttpServlet {
             }
         }
 
-        for ( Class serviceClass : serviceClasses ) {
+        for ( GeneratedRegistry.Entry service : generatedRegistry.services.values() ) {
             try {
-                connectServiceDependencies(serviceClass);
+                connectGeneratedServiceDependencies(service);
             } catch ( Exception ex ) {
                 log(ex.getMessage(), ex);
             }
@@ -78,11 +248,342 @@ public class ServletDispatcher extends HttpServlet {
 
         for ( Class serviceClass : serviceClasses ) {
             try {
-                initializeService(serviceClass);
+                connectServiceDependencies(serviceClass);
             } catch ( Exception ex ) {
                 log(ex.getMessage(), ex);
             }
         }
+
+        if ( lazyActivation ) {
+            log("Service initialization deferred until a controller requires them");
+            return;
+        }
+
+        initializeServiceGraph();
+    }
+
+    // Services are initialized on a pool of services.threads threads, each one as soon as all the services it
+    // requires are initialized, so a slow service only delays the services depending on it
+    protected void initializeServiceGraph() {
+        List<Class<?>> unordered = serviceGraph.getUnordered(serviceGraph.getOrder());
+        if ( !unordered.isEmpty() ) {
+            log(String.format("Service dependency cycle [%s], services [%s] will be initialized one after the other",
+                    formatServices(serviceGraph.findCycle(unordered), " -> "), formatServices(unordered, ", ")));
+        }
+
+        long start = System.nanoTime();
+        Map<Class<?>, Long> times = runServiceGraph("webframework-service-init", false, new ServiceGraph.ServiceTask() {
+            @Override
+            public void run(Class<?> service) {
+                try {
+                    initializeService(service);
+                } catch ( Exception ex ) {
+                    log(ex.getMessage(), ex);
+                }
+            }
+        });
+
+        log(String.format(Locale.ROOT, "Services initialized in [%.1f] ms with [%s] threads", (System.nanoTime() - start) / 1e6, serviceThreads));
+        List<Map.Entry<Class<?>, Long>> report = new ArrayList<>(times.entrySet());
+        Collections.sort(report, new Comparator<Map.Entry<Class<?>, Long>>() {
+            @Override
+            public int compare(Map.Entry<Class<?>, Long> a, Map.Entry<Class<?>, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        for ( Map.Entry<Class<?>, Long> entry : report ) {
+            serviceInitTimes.put(entry.getKey(), entry.getValue());
+            log(String.format(Locale.ROOT, "   Service [%s] initialized in [%.1f] ms", entry.getKey().getCanonicalName(), entry.getValue() / 1e6));
+        }
+    }
+
+    protected Map<Class<?>, Long> runServiceGraph(final String threadName, boolean reverse, ServiceGraph.ServiceTask task) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, serviceThreads), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, String.format("%s-%s", threadName, count.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            return serviceGraph.run(executor, reverse, task);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String formatServices(List<Class<?>> services, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for ( Class<?> service : services ) {
+            builder.append(builder.length() > 0 ? separator : "").append(service.getCanonicalName());
+        }
+        return builder.toString();
+    }
+
+    protected void initializeServiceThreads(String threads) {
+        if ( threads != null ) {
+            try {
+                serviceThreads = Integer.parseInt(threads.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid service threads [%s], using [%s]", threads, serviceThreads));
+            }
+        }
+    }
+
+    protected void initializeRouteCache(String cacheSize) {
+        int size = DEFAULT_ROUTE_CACHE_SIZE;
+        if ( cacheSize != null ) {
+            try {
+                size = Integer.parseInt(cacheSize.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid route cache size [%s], using [%s]", cacheSize, size));
+            }
+        }
+
+        routeCache = size > 0 ? new ConcurrentLruCache<RouteCacheKey, ResolvedRoute>(size) : null;
+        log(String.format("Route cache size [%s]", size));
+    }
+
+    protected void initializeAsyncTimeout(String timeout) {
+        if ( timeout != null ) {
+            try {
+                asyncTimeout = Long.parseLong(timeout.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid async timeout [%s], using [%s]", timeout, asyncTimeout));
+            }
+        }
+    }
+
+    // The registry is always available as a service, the controller exposing it is only mounted when a path is given
+    protected void initializeMetrics(String metricsPath) {
+        metricsRegistry.servletContext = getServletContext();
+        servletServiceProviders.put(MetricsRegistry.class, metricsRegistry);
+        serviceGraph.add(MetricsRegistry.class);
+
+        if ( metricsPath != null && !metricsPath.trim().isEmpty() ) {
+            registerBuiltInController(metricsPath.trim(), MetricsController.class);
+        }
+    }
+
+    // Like the metrics registry, the cache is a service so others can invalidate it
+    protected void initializeResponseCache(String cacheSize) {
+        int size = DEFAULT_RESPONSE_CACHE_SIZE;
+        if ( cacheSize != null ) {
+            try {
+                size = Integer.parseInt(cacheSize.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid response cache size [%s], using [%s]", cacheSize, size));
+            }
+        }
+
+        responseCache.servletContext = getServletContext();
+        responseCache.setMaxSize(size);
+        metricsRegistry.responseCache = responseCache;
+        servletServiceProviders.put(ResponseCache.class, responseCache);
+        serviceGraph.add(ResponseCache.class);
+        log(String.format("Response cache size [%s]", size));
+    }
+
+    // The size is in bytes. Views find the cache in the servlet context, services through @RequireService.
+    protected void initializeFragmentCache(String cacheSize) {
+        long size = DEFAULT_FRAGMENT_CACHE_SIZE;
+        if ( cacheSize != null ) {
+            try {
+                size = Long.parseLong(cacheSize.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid fragment cache size [%s], using [%s]", cacheSize, size));
+            }
+        }
+
+        fragmentCache.servletContext = getServletContext();
+        fragmentCache.setMaxSize(size);
+        fragmentCache.servletContext.setAttribute(FragmentCacheAttr, fragmentCache);
+        metricsRegistry.fragmentCache = fragmentCache;
+        servletServiceProviders.put(FragmentCache.class, fragmentCache);
+        serviceGraph.add(FragmentCache.class);
+        log(String.format("Fragment cache size [%s] bytes", size));
+    }
+
+    // With a store other than the container's, the dispatcher's requests get the framework's sessions. The timeout is
+    // in seconds.
+    protected void initializeSessions(String storeName, String timeout) {
+        if ( storeName == null || storeName.trim().isEmpty() || CONTAINER_SESSIONS.equals(storeName.trim()) ) {
+            return;
+        }
+
+        int interval = DEFAULT_SESSION_TIMEOUT;
+        if ( timeout != null ) {
+            try {
+                interval = Integer.parseInt(timeout.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid session timeout [%s], using [%s]", timeout, interval));
+            }
+        }
+
+        String name = storeName.trim();
+        SessionStore store;
+        try {
+            if ( MEMORY_SESSIONS.equals(name) ) {
+                store = new MemorySessionStore();
+            } else if ( FILE_SESSIONS.equals(name) ) {
+                store = new FileSessionStore();
+            } else {
+                store = (SessionStore) Class.forName(name, true, getClassLoader()).getConstructor().newInstance();
+            }
+            store.initialize(getServletContext());
+        } catch ( Exception ex ) {
+            log(String.format("Cannot use session store [%s], keeping the container's sessions", name), ex);
+            return;
+        }
+
+        frameworkSessions = new FrameworkSessions(store, new SessionSerializer(getClassLoader()), interval);
+        frameworkSessions.servletContext = getServletContext();
+        metricsRegistry.sessions = frameworkSessions;
+        servletServiceProviders.put(FrameworkSessions.class, frameworkSessions);
+        serviceGraph.add(FrameworkSessions.class);
+        log(String.format("Sessions in %s, timeout [%s] s", store, interval));
+    }
+
+    // Adaptive limits are opt-in, without them every request is admitted. The global limit and the ones of the handlers
+    // start at the initial limit, until latency samples adapt them, and never exceed the maximum. Retry-After is in
+    // seconds.
+    protected void initializeConcurrencyLimits(String concurrency, String initialLimit, String maxLimit, String retryAfter) {
+        if ( !ADAPTIVE_CONCURRENCY.equals(concurrency) ) {
+            return;
+        }
+
+        int initial = DEFAULT_CONCURRENCY_INITIAL;
+        if ( initialLimit != null ) {
+            try {
+                initial = Integer.parseInt(initialLimit.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid concurrency initial limit [%s], using [%s]", initialLimit, initial));
+            }
+        }
+        int max = DEFAULT_CONCURRENCY_MAX;
+        if ( maxLimit != null ) {
+            try {
+                max = Integer.parseInt(maxLimit.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid concurrency max [%s], using [%s]", maxLimit, max));
+            }
+        }
+        long seconds = DEFAULT_CONCURRENCY_RETRY_AFTER;
+        if ( retryAfter != null ) {
+            try {
+                seconds = Long.parseLong(retryAfter.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid concurrency retry after [%s], using [%s]", retryAfter, seconds));
+            }
+        }
+
+        concurrencyLimits = new ConcurrencyLimits();
+        concurrencyLimits.servletContext = getServletContext();
+        concurrencyLimits.setLimits(initial, max);
+        concurrencyLimits.setRetryAfter(seconds);
+        metricsRegistry.concurrencyLimits = concurrencyLimits;
+        servletServiceProviders.put(ConcurrencyLimits.class, concurrencyLimits);
+        serviceGraph.add(ConcurrencyLimits.class);
+        log(String.format("Adaptive concurrency limits from [%s] up to [%s], retry after [%s] s", concurrencyLimits.getLimit(),
+                concurrencyLimits.getMaxLimit(), seconds));
+    }
+
+    protected void initializeCompression(String compression, String threshold) {
+        if ( NO_COMPRESSION.equals(compression) ) {
+            responseCompression = null;
+            log("Response compression disabled");
+            return;
+        }
+
+        int size = DEFAULT_COMPRESSION_THRESHOLD;
+        if ( threshold != null ) {
+            try {
+                size = Integer.parseInt(threshold.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid compression threshold [%s], using [%s]", threshold, size));
+            }
+        }
+        responseCompression = new ResponseCompression(size);
+        log(String.format("Compressing responses over [%s] bytes", size));
+    }
+
+    // With compiled views, WebController.view renders the views the template engine can compile itself, and only
+    // forwards to the JSP container the others. Lazy activation leaves them to be compiled when first shown.
+    protected void initializeViews(String views) {
+        if ( !COMPILED_VIEWS.equals(views) ) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        Templates templates = new Templates(getServletContext());
+        getServletContext().setAttribute(TemplatesAttr, templates);
+        if ( !lazyActivation ) {
+            int compiled = templates.compileAll(Templates.VIEWS_DIRECTORY);
+            log(String.format(Locale.ROOT, "Compiled [%s] views in [%.1f] ms", compiled, (System.nanoTime() - start) / 1e6));
+        }
+    }
+
+    protected void initializeJsonMaxBody(String maxBody) {
+        if ( maxBody != null ) {
+            try {
+                maxJsonBodySize = Long.parseLong(maxBody.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid JSON body limit [%s], using [%s]", maxBody, maxJsonBodySize));
+            }
+        }
+    }
+
+    // Comma separated prefixes, served from the directory of the web root with the same name, or from the directory
+    // given after an equals sign
+    protected void initializeStaticResources(String locations, String maxAge) {
+        if ( locations == null || locations.trim().isEmpty() ) {
+            return;
+        }
+
+        long seconds = DEFAULT_STATIC_MAX_AGE;
+        if ( maxAge != null ) {
+            try {
+                seconds = Long.parseLong(maxAge.trim());
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid static resources max age [%s], using [%s]", maxAge, seconds));
+            }
+        }
+
+        StaticResources resources = new StaticResources(getServletContext(), seconds);
+        for ( String location : locations.trim().split(",") ) {
+            String[] parts = location.trim().split("=", 2);
+            String prefix = parts[0].trim();
+            String directory = parts.length > 1 ? parts[1].trim() : prefix;
+            try {
+                resources.addLocation(prefix, directory);
+                log(String.format("Serving static resources [%s] from [%s]", prefix, directory));
+            } catch ( IOException ex ) {
+                log(ex.getMessage(), ex);
+            }
+        }
+        staticResources = resources.isEmpty() ? null : resources;
+    }
+
+    protected void initializeReadiness(String readinessPath) {
+        if ( readinessPath != null && !readinessPath.trim().isEmpty() ) {
+            registerBuiltInController(readinessPath.trim(), ReadinessController.class);
+        }
+    }
+
+    // Built-in controllers are always activated eagerly, on the path given by their context parameter
+    protected void registerBuiltInController(String path, Class<?> clazz) {
+        try {
+            log(String.format("Loading controller [%s] on [%s]...", clazz.getCanonicalName(), path));
+            ControllerDescriptor descriptor = generateDescriptor(clazz);
+            descriptor.prepareLifecycle(getServletContext());
+            registerRoute(path, descriptor);
+        } catch ( Exception ex ) {
+            log(ex.getMessage(), ex);
+        }
     }
 
     protected void initializeWebControllers(Class[] controllerClasses) {
@@ -96,6 +597,16 @@ public class ServletDispatcher extends HttpServlet {
         }
     }
 
+    protected void initializeGeneratedWebControllers() {
+        for ( GeneratedRegistry.Entry controller : generatedRegistry.controllers.values() ) {
+            try {
+                registerGeneratedWebController(controller);
+            } catch ( Exception ex ) {
+                log(ex.getMessage(), ex);
+            }
+        }
+    }
+
     protected void initializeErrorHandler(Class[] exceptionHandlerClass) {
         if ( exceptionHandlerClass.length >= 1 ) {
             registerErrorHandlerController(exceptionHandlerClass[0]);
@@ -113,7 +624,7 @@ public class ServletDispatcher extends HttpServlet {
             for ( int i = 0; i < controllerClassNames.length; i++ ) {
                 String className = controllerClassNames[i].trim();
                 try {
-                    controllers[i] = Class.forName(className);
+                    controllers[i] = Class.forName(className, true, getClassLoader());
                 } catch ( Exception ex ) {
                     log(String.format("Could not find class [%s]", className));
                     return new Class[0];
@@ -128,10 +639,34 @@ public class ServletDispatcher extends HttpServlet {
 
     @Override
     public void destroy() {
-        Collection<ServiceController> services = servletServiceProviders.values();
-        for ( ServiceController service : services ) {
-            service.shutdown();
+        if ( routeCache != null ) {
+            log(String.format("Route cache %s", routeCache));
+        }
+
+        for ( ExecutorService executor : asyncExecutors.values() ) {
+            executor.shutdown();
         }
+
+        // Services registered by hand, outside initializeServices, have no known dependencies
+        for ( Class<?> service : servletServiceProviders.keySet() ) {
+            serviceGraph.add(service);
+        }
+
+        // Reverse order of initialization, every service stops before the services it requires
+        runServiceGraph("webframework-service-shutdown", true, new ServiceGraph.ServiceTask() {
+            @Override
+            public void run(Class<?> service) {
+                ServiceController controller = servletServiceProviders.get(service);
+                // With lazy activation, services no controller has asked for were never initialized
+                if ( controller != null && (!lazyActivation || initializedServices.contains(service)) ) {
+                    try {
+                        controller.shutdown();
+                    } catch ( Exception ex ) {
+                        log(ex.getMessage(), ex);
+                    }
+                }
+            }
+        });
     }
 
     @Override
@@ -168,10 +703,26 @@ public class ServletDispatcher extends HttpServlet {
 
     // @TODO Find better exception handling
     protected void processRequest(String method, HttpServletRequest request, HttpServletResponse response) throws ServletException {
+        long start = System.nanoTime();
+        FrameworkSessions.SessionRequest sessionRequest = null;
         try {
             String contextPath = request.getContextPath();
             String requestUri = request.getRequestURI();
             String processedUri = requestUri.replace(contextPath, "");
+
+            // Static resources never go through the routes, nor read the parameters
+            if ( staticResources != null && staticResources.handles(processedUri) ) {
+                if ( !staticResources.serve(method, processedUri, request, response) ) {
+                    handleException(request, response, null, WebControllerError.NotFound);
+                }
+                return;
+            }
+
+            if ( frameworkSessions != null ) {
+                sessionRequest = frameworkSessions.wrap(request, response);
+                request = sessionRequest;
+            }
+
             String requestUrl = request.getRequestURL().toString();
             String servletPath = request.getServletPath();
 
@@ -183,46 +734,253 @@ public class ServletDispatcher extends HttpServlet {
 
             setContextBaseUrl(request);
 
-            // @TODO Find a better way to group regular expressions, without having to iterate through multiple patterns
-            for (Pattern uriRegEx : servletWebControllerProviders.keySet()) {
-                Matcher m = uriRegEx.matcher(processedUri);
-                if (m.matches()) {
-                    try {
-                        ControllerDescriptor descriptor = servletWebControllerProviders.get(uriRegEx);
-                        HttpMethodActionMap actionMap = descriptor.providers.get(method);
-                        HttpRequestArgumentMethodDescriptor argumentMethodDescriptor = actionMap.get(action);
-                        if (argumentMethodDescriptor != null) {
-                            WebController controller = descriptor.instantiateWebController(getServletContext(), request, response);
-                            UrlRequestParameterDescriptor urlRequestParameterDescriptor = new UrlRequestParameterDescriptor(m, descriptor.urlRequestParameterIndex);
-
-                            argumentMethodDescriptor.method.invoke(controller, getMethodArgumentsArray(request, argumentMethodDescriptor, urlRequestParameterDescriptor));
-                            return;
-                        }
-                    } catch ( RequiredHttpRequestParameterException ex ) {
-                        handleException(request, response, ex, WebControllerError.BadRequest);
-                        return;
-                    } catch ( InvocationTargetException ex ) {
-                        handleException(request, response, ex.getCause(), WebControllerError.InternalServerError);
-                        return;
-                    }
+            ResolvedRoute route = resolveRoute(method, processedUri, action);
+            // Over its limits, the request is refused before anything of its handler runs
+            if ( route != null && route.argumentMethodDescriptor.concurrencyLimit != null
+                    && !concurrencyLimits.acquire(route.argumentMethodDescriptor.concurrencyLimit, route.argumentMethodDescriptor.priorityClass) ) {
+                rejectRequest(route, request, response);
+                return;
+            }
+
+            if ( route != null && route.argumentMethodDescriptor.async ) {
+                processAsyncRequest(route, request, response, start);
+                return;
+            }
 
-                    break;
+            if ( route != null ) {
+                // A HEAD run by the GET handler drops the body and renders no compiled view or JSON. Asynchronous
+                // handlers write theirs, which the container does not send.
+                HeadResponse head = HttpMethodType.HEAD.equals(method) && !method.equals(route.argumentMethodDescriptor.httpMethod)
+                        ? new HeadResponse(response) : null;
+                if ( head != null ) {
+                    response = head;
                 }
+                // Error pages of the route are compressed as well, the wrapper is finished once they are done
+                ResponseCompression.CompressingResponse compressed = responseCompression != null && route.argumentMethodDescriptor.compress
+                        ? responseCompression.wrap(request, response) : null;
+                if ( compressed != null ) {
+                    response = compressed;
+                }
+                try {
+                    processRoute(route, action, processedUri, request, response, start);
+                } finally {
+                    releaseConcurrency(route, start, false);
+                    if ( compressed != null && request.isAsyncStarted() ) {
+                        compressed.detach();
+                    } else if ( compressed != null ) {
+                        compressed.finish();
+                    }
+                    // Committed before the container closes the empty response, which would send a length of 0
+                    if ( head != null && !request.isAsyncStarted() ) {
+                        head.flushBuffer();
+                    }
+                }
+                return;
             }
 
+            metricsRegistry.recordUnmatched();
             log(String.format("Unknown url [%s]", requestUrl));
             handleException(request, response, null, WebControllerError.NotFound);
         } catch ( Throwable ex ) {
             throw new ServletException(ex);
+        } finally {
+            // The session is saved once the response is done, which for asynchronous handlers is when they complete
+            if ( sessionRequest != null && !sessionRequest.async ) {
+                sessionRequest.finish();
+            }
+        }
+    }
+
+    // Tells the client when to try again, the error controller can still render the page
+    protected void rejectRequest(ResolvedRoute route, HttpServletRequest request, HttpServletResponse response) throws Throwable {
+        route.argumentMethodDescriptor.metrics.recordRejected();
+        response.setHeader("Retry-After", String.valueOf(concurrencyLimits.getRetryAfter()));
+        handleException(request, response, null, WebControllerError.ServiceUnavailable);
+    }
+
+    // Gives back the places the request was admitted with, its latency adapting the limits
+    void releaseConcurrency(ResolvedRoute route, long start, boolean dropped) {
+        ConcurrencyLimits.Limit limit = route.argumentMethodDescriptor.concurrencyLimit;
+        if ( limit != null ) {
+            concurrencyLimits.release(limit, System.nanoTime() - start, dropped);
+        }
+    }
+
+    // A synchronous handler, answered from the response cache when it can be
+    protected void processRoute(ResolvedRoute route, String action, String processedUri, HttpServletRequest request,
+                                HttpServletResponse response, long start) throws Throwable {
+        ResponseCache.Policy cachePolicy = route.argumentMethodDescriptor.cachePolicy;
+        ResponseCache.Key cacheKey = null;
+        ResponseCache.CapturingResponse captured = null;
+        if ( cachePolicy != null ) {
+            cacheKey = responseCache.key(route.descriptor.classController, action, processedUri, cachePolicy, request);
+            if ( responseCache.serve(cacheKey, request, response) ) {
+                route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, null);
+                return;
+            }
+        }
+        if ( cachePolicy != null || route.argumentMethodDescriptor.shallowETag ) {
+            captured = new ResponseCache.CapturingResponse(response);
+        }
+
+        HttpServletResponse handlerResponse = captured != null ? captured : response;
+        ServletContext servletContext = getServletContext();
+        RequestContext.enter(servletContext, request, handlerResponse);
+        WebController controller = null;
+        // Anything escaping the handler other than a missing parameter or a bad body ends up as an internal server error
+        WebControllerError error = WebControllerError.InternalServerError;
+        try {
+            controller = route.descriptor.acquireWebController(servletContext, request, handlerResponse);
+            route.argumentMethodDescriptor.invoker.invoke(controller, getMethodArgumentsArray(request, route.argumentMethodDescriptor, route.urlRequestParameterDescriptor));
+            if ( captured != null ) {
+                sendCapturedResponse(request, cacheKey, cachePolicy, captured);
+            }
+            error = null;
+            return;
+        } catch ( RequiredHttpRequestParameterException | InvalidHttpRequestParameterException ex ) {
+            error = WebControllerError.BadRequest;
+            handleException(request, response, ex, WebControllerError.BadRequest);
+            return;
+        } catch ( InvalidRequestBodyException ex ) {
+            error = ex.isTooLarge() ? WebControllerError.PayloadTooLarge : WebControllerError.BadRequest;
+            handleException(request, response, ex, error);
+            return;
+        } catch ( InvocationTargetException ex ) {
+            handleException(request, response, ex.getCause(), WebControllerError.InternalServerError);
+            return;
+        } finally {
+            if ( controller != null ) {
+                route.descriptor.releaseWebController(controller);
+            }
+            RequestContext.exit();
+            route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, error);
+        }
+    }
+
+    // Gives the buffered response an entity tag hashed from its body unless the handler has set one, keeps it in the
+    // response cache, then sends it, or only a 304 when the client already has that entity tag. A HEAD is answered with
+    // the length of the body, unless its view was skipped and there is no body to hash, keep or measure.
+    protected void sendCapturedResponse(HttpServletRequest request, ResponseCache.Key cacheKey, ResponseCache.Policy cachePolicy,
+                                        ResponseCache.CapturingResponse captured) throws IOException {
+        HeadResponse head = HeadResponse.of(captured);
+        if ( head != null && head.skipped ) {
+            return;
+        }
+        // A handler that went asynchronous is not done, what it writes from now on goes straight out
+        if ( request.isAsyncStarted() ) {
+            captured.stream();
+            return;
+        }
+        byte[] body = captured.getBody();
+        if ( captured.isComplete() && captured.getETag() == null ) {
+            captured.setHeader("ETag", ConditionalRequests.hash(body));
+        }
+
+        if ( cacheKey != null ) {
+            responseCache.store(cacheKey, cachePolicy, captured, body);
+        }
+
+        if ( captured.isComplete() && ConditionalRequests.isNotModified(request, captured.getETag(), -1) ) {
+            captured.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        } else {
+            if ( head != null && captured.isComplete() ) {
+                captured.setContentLength(body.length);
+            }
+            captured.send(body);
         }
     }
 
+    protected void processAsyncRequest(ResolvedRoute route, HttpServletRequest request, HttpServletResponse response, long start) throws Throwable {
+        Object[] arguments;
+        try {
+            arguments = getMethodArgumentsArray(request, route.argumentMethodDescriptor, route.urlRequestParameterDescriptor);
+        } catch ( RequiredHttpRequestParameterException | InvalidHttpRequestParameterException ex ) {
+            route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, WebControllerError.BadRequest);
+            releaseConcurrency(route, start, false);
+            handleException(request, response, ex, WebControllerError.BadRequest);
+            return;
+        } catch ( InvalidRequestBodyException ex ) {
+            WebControllerError error = ex.isTooLarge() ? WebControllerError.PayloadTooLarge : WebControllerError.BadRequest;
+            route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, error);
+            releaseConcurrency(route, start, false);
+            handleException(request, response, ex, error);
+            return;
+        }
+
+        AsyncRequest asyncRequest = new AsyncRequest(route, request, response, arguments, start);
+        if ( request.isAsyncSupported() ) {
+            asyncRequest.start();
+        } else {
+            // The dispatcher is not declared with async-supported, so the container thread waits for the result
+            asyncRequest.await();
+        }
+    }
+
+    protected ResolvedRoute resolveRoute(String method, String processedUri, String action) throws UnsupportedEncodingException {
+        RouteCacheKey key = null;
+        if ( routeCache != null ) {
+            key = new RouteCacheKey(method, processedUri, action);
+            ResolvedRoute cached = routeCache.get(key);
+            if ( cached != null ) {
+                return cached;
+            }
+        }
+
+        RouteTrie.RouteMatch<ControllerDescriptor> match = servletWebControllerProviders.match(processedUri);
+        if ( match == null ) {
+            return null;
+        }
+
+        ControllerDescriptor descriptor = match.value;
+        if ( !descriptor.active ) {
+            activate(descriptor);
+        }
+
+        HttpMethodActionMap actionMap = descriptor.providers.get(method);
+        HttpRequestArgumentMethodDescriptor argumentMethodDescriptor = actionMap != null ? actionMap.get(action) : null;
+        // Unless the controller handles HEAD itself, it is its GET without the body
+        if ( argumentMethodDescriptor == null && HttpMethodType.HEAD.equals(method) ) {
+            actionMap = descriptor.providers.get(HttpMethodType.GET);
+            argumentMethodDescriptor = actionMap != null ? actionMap.get(action) : null;
+        }
+        if ( argumentMethodDescriptor == null ) {
+            return null;
+        }
+
+        String[] values = match.values;
+        for ( int i = 0; i < values.length; i++ ) {
+            if ( needsUrlDecoding(values[i]) ) {
+                values[i] = URLDecoder.decode(values[i], "UTF-8");
+            }
+        }
+
+        ResolvedRoute route = new ResolvedRoute(descriptor, argumentMethodDescriptor,
+                new UrlRequestParameterDescriptor(values, descriptor.urlRequestParameterIndex));
+
+        // Only routes that resolve to a handler are cached, so unknown URLs cannot push the hot ones out
+        if ( key != null ) {
+            routeCache.put(key, route);
+        }
+
+        return route;
+    }
+
+    private static boolean needsUrlDecoding(String value) {
+        return value.indexOf('%') >= 0 || value.indexOf('+') >= 0;
+    }
+
     protected void handleException(HttpServletRequest request, HttpServletResponse response, Throwable exception, WebControllerError error) throws Throwable {
         if ( errorHandlerProvider == null && exception != null ) {
             throw exception;
         }
 
-        if ( errorHandlerProvider != null && !response.isCommitted() ) {
+        if ( response.isCommitted() ) {
+            return;
+        }
+
+        if ( errorHandlerProvider == null ) {
+            response.setStatus(error.getStatusCode());
+        } else if ( redirectErrors ) {
             request.getSession().setAttribute(WebControllerErrorTypeAttr, error);
             request.getSession().setAttribute(WebControllerExceptionAttr, exception);
 
@@ -231,34 +989,66 @@ public class ServletDispatcher extends HttpServlet {
                 String path = String.format("%s%s", request.getContextPath(), pathController.path());
                 response.sendRedirect(path);
             }
+        } else {
+            dispatchError(request, response, exception, error);
+        }
+    }
+
+    // Runs the default GET handler of the error controller on the failed request itself, with the error in request
+    // attributes, so no session is created and the client does not have to follow a redirect
+    protected void dispatchError(HttpServletRequest request, HttpServletResponse response, Throwable exception, WebControllerError error) throws IOException {
+        request.setAttribute(WebControllerErrorTypeAttr, error);
+        request.setAttribute(WebControllerExceptionAttr, exception);
+        response.setStatus(error.getStatusCode());
+
+        HttpMethodActionMap actionMap = errorHandlerProvider.providers.get(HttpMethodType.GET);
+        HttpRequestArgumentMethodDescriptor argumentMethodDescriptor = actionMap != null ? actionMap.get(DEFAULT) : null;
+        if ( argumentMethodDescriptor == null ) {
+            return;
+        }
+
+        ServletContext servletContext = getServletContext();
+        RequestContext.enter(servletContext, request, response);
+        WebController controller = null;
+        try {
+            controller = errorHandlerProvider.acquireWebController(servletContext, request, response);
+            UrlRequestParameterDescriptor urlRequestParameterDescriptor =
+                    new UrlRequestParameterDescriptor(new String[errorHandlerProvider.urlRequestParameterIndex.size()], errorHandlerProvider.urlRequestParameterIndex);
+            argumentMethodDescriptor.invoker.invoke(controller, getMethodArgumentsArray(request, argumentMethodDescriptor, urlRequestParameterDescriptor));
+        } catch ( Exception ex ) {
+            // The error controller failing must not hide the original error
+            Throwable cause = ex instanceof InvocationTargetException ? ex.getCause() : ex;
+            log(String.format("Error controller [%s] failed handling [%s]", errorHandlerProvider.classController.getName(), error), cause);
+            if ( !response.isCommitted() ) {
+                response.sendError(error.getStatusCode());
+            }
+        } finally {
+            if ( controller != null ) {
+                errorHandlerProvider.releaseWebController(controller);
+            }
+            RequestContext.exit();
         }
     }
 
     protected Object[] getMethodArgumentsArray(HttpServletRequest request,
                                              HttpRequestArgumentMethodDescriptor argumentMethodDescriptor,
                                              UrlRequestParameterDescriptor urlRequestParameterDescriptor)
-            throws RequiredHttpRequestParameterException, UnsupportedEncodingException {
-        Object[] arguments = new Object[argumentMethodDescriptor.requestArguments.size()];
-        int i = 0;
-        for ( RequestArgument requestArgument : argumentMethodDescriptor.requestArguments ) {
-            String argumentName = requestArgument.name;
-            if ( requestArgument.fromUrl ) {
-                if ( urlRequestParameterDescriptor != null ) {
-                    arguments[i] = castPrimitive(requestArgument.type, URLDecoder.decode(urlRequestParameterDescriptor.getValue(argumentName), "UTF-8"));
-                } else {
-                    arguments[i] = null;
-                }
-            } else {
-                arguments[i] = cast(request, requestArgument.type, requestArgument.genericTypes, argumentName);
+            throws RequiredHttpRequestParameterException, InvalidHttpRequestParameterException, InvalidRequestBodyException {
+        ArgumentBinder[] binders = argumentMethodDescriptor.binders;
+        Object[] arguments = new Object[binders.length];
+        for ( int i = 0; i < binders.length; i++ ) {
+            ArgumentBinder binder = binders[i];
+            try {
+                arguments[i] = binder.bind(request, urlRequestParameterDescriptor);
+            } catch ( IllegalArgumentException ex ) {
+                throw new InvalidHttpRequestParameterException(binder.name, ex.getMessage());
             }
 
-            if ( arguments[i] == null && requestArgument.required ) {
-                throw new RequiredHttpRequestParameterException(argumentName);
+            if ( arguments[i] == null && binder.required ) {
+                throw new RequiredHttpRequestParameterException(binder.name);
             }
 
-            // log(String.format("Attribute name [%s] value [%s]", requestArgument.name, arguments[i]));
-
-            i++;
+            // log(String.format("Attribute name [%s] value [%s]", binder.name, arguments[i]));
         }
         return arguments;
     }
@@ -279,16 +1069,9 @@ public class ServletDispatcher extends HttpServlet {
     }
 
     protected <T> T castPrimitive(Class<T> clazz, String value) {
-        if ( String.class.equals(clazz) ) {
-            return (T) value;
-        } else if ( Integer.class.equals(clazz) ) {
-            return (T) Integer.valueOf(value);
-        } else if ( Long.class.equals(clazz) ) {
-            return (T) Long.valueOf(value);
-        } else if ( Float.class.equals(clazz) ) {
-            return (T) Float.valueOf(value);
-        } else if ( Double.class.equals(clazz) ) {
-            return (T) Double.valueOf(value);
+        ArgumentBinder.ValueConverter converter = ArgumentBinder.ValueConverter.forClass(clazz);
+        if ( converter != null ) {
+            return (T) converter.convert(value);
         }
 
         // @TODO Maybe, it should throw exception here...
@@ -299,49 +1082,17 @@ public class ServletDispatcher extends HttpServlet {
         List list = new ArrayList<>();
 
         if ( parameterValues != null ) {
-            for ( String value : parameterValues ) {
-                list.add(castPrimitive(genericType, value));
-            }
-        }
-
-        return (T) list;
-    }
-
-    protected <T> T castObject(HttpServletRequest request, Class<T> clazz, String argumentName) {
-        try {
-            T instance = clazz.newInstance();
-            Field[] fields = clazz.getDeclaredFields();
-
-            for ( Field field : fields ) {
-                String fieldName = field.getName();
-
-                String requestFieldName = argumentName + "." + fieldName;
-
-                Class<?> fieldClass = field.getType();
-                Method method = clazz.getMethod(getSetterMethodName(fieldName), new Class[]{fieldClass});
-
-                if ( List.class.equals(fieldClass) ) {
-                    String[] values = request.getParameterValues(requestFieldName);
-                    if ( values != null && values.length > 0 ) {
-                        ParameterizedType paramType = (ParameterizedType) field.getGenericType();
-                        method.invoke(instance, castList(request.getParameterValues(requestFieldName), (Class) paramType.getActualTypeArguments()[0]));
-                    } else {
-                        method.invoke(instance, new ArrayList<>());
-                    }
-                } else if ( isClassPrimitive(fieldClass) ) {
-                    String value = request.getParameter(requestFieldName);
-                    if ( value != null ) {
-                        method.invoke(instance, castPrimitive(fieldClass, value));
-                    }
-                }
-                // @TODO Look for a possible solution for circular class dependencies when looking up the fields.
-                /* else {
-                    method.invoke(instance, castObject(request, fieldClass, requestFieldName));
-                } */
+            for ( String value : parameterValues ) {
+                list.add(castPrimitive(genericType, value));
             }
+        }
 
-            return instance;
+        return (T) list;
+    }
 
+    protected <T> T castObject(HttpServletRequest request, Class<T> clazz, String argumentName) {
+        try {
+            return (T) getBeanBindingPlan(clazz).new Binding(argumentName, 0).bind(request);
         } catch ( Exception ex ) {
             // @TODO Maybe, it should throw exception here...
             log(ex.getMessage(), ex);
@@ -349,10 +1100,18 @@ public class ServletDispatcher extends HttpServlet {
         }
     }
 
+    protected BeanBindingPlan getBeanBindingPlan(Class<?> clazz) throws ReflectiveOperationException {
+        BeanBindingPlan plan = beanBindingPlans.get(clazz);
+        if ( plan == null ) {
+            synchronized ( beanBindingPlans ) {
+                plan = BeanBindingPlan.build(clazz, beanBindingPlans);
+            }
+        }
+        return plan;
+    }
+
     protected String getSetterMethodName(String fieldName) {
-        return String.format("set%s%s",
-                fieldName.substring(0, 1).toUpperCase(),
-                fieldName.substring(1));
+        return BeanBindingPlan.getSetterMethodName(fieldName);
     }
 
     protected boolean isClassPrimitive(Class clazz) {
@@ -365,7 +1124,17 @@ public class ServletDispatcher extends HttpServlet {
     protected void registerErrorHandlerController(Class clazz) {
         try {
             log(String.format("Registering error handling controller [%s]", clazz.getCanonicalName()));
-            errorHandlerProvider = registerClassWebController(clazz);
+            GeneratedRegistry.Entry generated = generatedRegistry.controllers.get(clazz);
+            if ( generated != null && generated.descriptor != null ) {
+                errorHandlerProvider = generated.descriptor;
+            } else {
+                errorHandlerProvider = registerClassWebController(clazz);
+            }
+
+            // Errors can happen anywhere, the error handler is never left for later
+            if ( errorHandlerProvider != null && !errorHandlerProvider.active ) {
+                activate(errorHandlerProvider);
+            }
         } catch ( Exception ex ) {
             log(ex.getMessage(), ex);
         }
@@ -375,16 +1144,100 @@ public class ServletDispatcher extends HttpServlet {
         log(String.format("Loading controller [%s]...", clazz.getCanonicalName()));
         ControllerDescriptor descriptor = null;
         if ( isClassWebController(clazz) ) {
-            descriptor = generateDescriptor(clazz);
             UrlPathController pathController = (UrlPathController) clazz.getAnnotation(UrlPathController.class);
-            Pattern pattern = getUriPattern(pathController, descriptor);
-            servletWebControllerProviders.put(pattern, descriptor);
+            if ( lazyActivation ) {
+                descriptor = newInactiveDescriptor(clazz);
+            } else {
+                descriptor = generateDescriptor(clazz);
+                descriptor.prepareLifecycle(getServletContext());
+            }
+            registerRoute(pathController, descriptor);
         } else {
             log(String.format("   Class [%s] does not have UrlPathController annotation or does not extend from WebController", clazz.getCanonicalName()));
         }
         return descriptor;
     }
 
+    protected ControllerDescriptor registerGeneratedWebController(GeneratedRegistry.Entry controller) throws Exception {
+        log(String.format("Loading generated controller [%s]...", controller.type.getCanonicalName()));
+        ControllerDescriptor descriptor;
+        if ( lazyActivation ) {
+            descriptor = newInactiveDescriptor(controller.type);
+            descriptor.generated = controller;
+        } else {
+            descriptor = generateDescriptor(controller);
+            descriptor.prepareLifecycle(getServletContext());
+        }
+        registerRoute(controller.path, descriptor);
+        controller.descriptor = descriptor;
+        return descriptor;
+    }
+
+    // Only the route template is registered, the controller is described on the first request to it
+    protected ControllerDescriptor newInactiveDescriptor(Class<?> clazz) {
+        log("   Activation deferred until the first request");
+        ControllerDescriptor descriptor = new ControllerDescriptor();
+        descriptor.classController = clazz;
+        descriptor.active = false;
+        return descriptor;
+    }
+
+    // Describes a controller registered with lazy activation and initializes the services it requires, once, on the
+    // first request to one of its routes. Requests racing for it wait until it is done.
+    protected void activate(ControllerDescriptor descriptor) {
+        synchronized ( descriptor ) {
+            if ( descriptor.active ) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            log(String.format("Activating controller [%s]...", descriptor.classController.getCanonicalName()));
+            try {
+                if ( descriptor.generated != null ) {
+                    describe(descriptor, descriptor.generated);
+                } else {
+                    describe(descriptor, descriptor.classController);
+                }
+
+                for ( ServiceInjection injection : descriptor.serviceInjections ) {
+                    activateService(injection.type);
+                }
+
+                descriptor.prepareLifecycle(getServletContext());
+                log(String.format(Locale.ROOT, "   Activated in [%.1f] ms", (System.nanoTime() - start) / 1e6));
+            } catch ( Exception ex ) {
+                // Same as a controller failing to register at init, none of its routes resolve
+                descriptor.providers.clear();
+                log(ex.getMessage(), ex);
+            } finally {
+                descriptor.active = true;
+            }
+        }
+    }
+
+    // Initializes a service after the services it requires, if nobody did it before
+    protected void activateService(Class<?> service) {
+        synchronized ( serviceActivationLock ) {
+            activateService(service, new HashSet<Class<?>>());
+        }
+    }
+
+    private void activateService(Class<?> service, Set<Class<?>> visiting) {
+        if ( initializedServices.contains(service) || !visiting.add(service) ) {
+            return;
+        }
+
+        for ( Class<?> dependency : serviceGraph.getDependencies(service) ) {
+            activateService(dependency, visiting);
+        }
+
+        try {
+            initializeService(service);
+        } catch ( Exception ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
     protected boolean isClassWebController(Class clazz) {
         return clazz != null
                 && clazz.isAnnotationPresent(UrlPathController.class)
@@ -394,11 +1247,23 @@ public class ServletDispatcher extends HttpServlet {
     protected ControllerDescriptor generateDescriptor(Class clazz) throws Exception {
         ControllerDescriptor descriptor = new ControllerDescriptor();
         descriptor.classController = clazz;
+        describe(descriptor, clazz);
+        return descriptor;
+    }
+
+    protected void describe(ControllerDescriptor descriptor, Class<?> clazz) throws Exception {
+
+        UrlPathController pathController = clazz.getAnnotation(UrlPathController.class);
+        if ( pathController != null ) {
+            descriptor.lifecycle = pathController.lifecycle();
+            descriptor.poolSize = pathController.poolSize();
+        }
+        descriptor.constructor = LambdaAccessors.constructor(clazz);
+        descriptor.serviceInjections = getServiceInjections(getServiceFields(clazz));
 
         Method[] classMethods = clazz.getDeclaredMethods();
 
-        descriptor.providers.put(HttpMethodType.GET, new HttpMethodActionMap());
-        descriptor.providers.put(HttpMethodType.POST, new HttpMethodActionMap());
+        addActionMaps(descriptor);
 
         for ( Method classMethod : classMethods ) {
             if ( classMethod.isAnnotationPresent(HttpMethod.class) ) {
@@ -407,19 +1272,10 @@ public class ServletDispatcher extends HttpServlet {
                 HttpRequestArgumentMethodDescriptor argumentDescriptor = new HttpRequestArgumentMethodDescriptor();
                 argumentDescriptor.httpMethod = httpMethod.type();
                 argumentDescriptor.method = classMethod;
+                argumentDescriptor.invoker = ControllerInvoker.forMethod(classMethod, useMethodHandles);
 
                 Class[] paramClasses = classMethod.getParameterTypes();
-                Type[] genTypes = classMethod.getGenericParameterTypes();
-                ParameterizedType[] genericTypes;
-
-                boolean doesMethodArgumentContainGenerics = genTypes != null && genTypes.length > 0
-                        && genTypes[0] instanceof ParameterizedType;
-
-                if ( doesMethodArgumentContainGenerics ) {
-                    genericTypes = Arrays.copyOf(genTypes, genTypes.length, ParameterizedType[].class);
-                } else {
-                    genericTypes = new ParameterizedType[0];
-                }
+                Type[] genericTypes = classMethod.getGenericParameterTypes();
 
                 Annotation[][] parameterAnnotationsArray = classMethod.getParameterAnnotations();
 
@@ -434,21 +1290,203 @@ public class ServletDispatcher extends HttpServlet {
                     for ( Annotation parameterAnnotation : parameterAnnotations ) {
                         if ( parameterAnnotation != null && parameterAnnotation instanceof HttpRequestParameter ) {
                             HttpRequestParameter httpRequestParameter = (HttpRequestParameter) parameterAnnotation;
-                            Class[] genericClasses = genericTypes.length > 0 ? castTypeArray(genericTypes[i].getActualTypeArguments()) : new Class[0];
+                            Class[] genericClasses = genericTypes[i] instanceof ParameterizedType
+                                    ? castTypeArray(((ParameterizedType) genericTypes[i]).getActualTypeArguments())
+                                    : new Class[0];
                             argumentDescriptor.requestArguments.add(new RequestArgument(httpRequestParameter, paramClass, genericClasses));
                         }
                     }
                 }
 
-                log(String.format("   Method [%s] action [%s] will handle [%s]", classMethod.getName(), httpMethod.action(), argumentDescriptor));
-                HttpMethodActionMap actionMap = descriptor.providers.get(argumentDescriptor.httpMethod);
-                actionMap.put(httpMethod.action(), argumentDescriptor);
+                argumentDescriptor.async = CompletionStage.class.isAssignableFrom(classMethod.getReturnType());
+                argumentDescriptor.shallowETag = classMethod.isAnnotationPresent(ShallowETag.class);
+                argumentDescriptor.compress = !classMethod.isAnnotationPresent(NoCompression.class) && !clazz.isAnnotationPresent(NoCompression.class);
+                Priority priority = classMethod.isAnnotationPresent(Priority.class) ? classMethod.getAnnotation(Priority.class)
+                        : clazz.getAnnotation(Priority.class);
+                argumentDescriptor.priority = priority != null ? priority.value() : null;
+                CacheResponse cacheResponse = classMethod.getAnnotation(CacheResponse.class);
+                if ( cacheResponse != null ) {
+                    argumentDescriptor.cachePolicy = new ResponseCache.Policy(cacheResponse.ttl(), cacheResponse.parameters(), cacheResponse.sessionAttributes());
+                }
+                addHandler(descriptor, argumentDescriptor, classMethod.getName(), httpMethod.action(),
+                        pathController != null ? pathController.executor() : DefaultAsyncExecutorFactory.class);
             }
         }
+    }
 
+    // Same descriptor as above, built from what a generated registry knows about the controller at compile time
+    protected ControllerDescriptor generateDescriptor(GeneratedRegistry.Entry controller) throws Exception {
+        ControllerDescriptor descriptor = new ControllerDescriptor();
+        descriptor.classController = controller.type;
+        describe(descriptor, controller);
         return descriptor;
     }
 
+    protected void describe(ControllerDescriptor descriptor, GeneratedRegistry.Entry controller) throws Exception {
+        descriptor.lifecycle = controller.lifecycle;
+        descriptor.poolSize = controller.poolSize;
+        descriptor.constructor = getGeneratedConstructor(controller.accessor);
+        descriptor.serviceInjections = getServiceInjections(controller);
+
+        addActionMaps(descriptor);
+
+        for ( GeneratedRegistry.Handler handler : controller.handlers ) {
+            HttpRequestArgumentMethodDescriptor argumentDescriptor = new HttpRequestArgumentMethodDescriptor();
+            argumentDescriptor.httpMethod = handler.httpMethod;
+            argumentDescriptor.invoker = new ControllerInvoker.GeneratedInvoker(controller.accessor, handler.index);
+            argumentDescriptor.async = handler.async;
+            argumentDescriptor.cachePolicy = handler.cachePolicy;
+            argumentDescriptor.shallowETag = handler.shallowETag;
+            argumentDescriptor.compress = handler.compress;
+            argumentDescriptor.priority = handler.priority;
+
+            for ( GeneratedRegistry.Argument argument : handler.arguments ) {
+                argumentDescriptor.requestArguments.add(new RequestArgument(argument.name, argument.required, argument.fromUrl, argument.fromBody,
+                        argument.type, argument.genericTypes));
+            }
+
+            addHandler(descriptor, argumentDescriptor, handler.name, handler.action, controller.executor);
+        }
+    }
+
+    private void addActionMaps(ControllerDescriptor descriptor) {
+        for ( String httpMethod : HTTP_METHODS ) {
+            descriptor.providers.put(httpMethod, new HttpMethodActionMap());
+        }
+    }
+
+    private void addHandler(ControllerDescriptor descriptor, HttpRequestArgumentMethodDescriptor argumentDescriptor, String methodName,
+                            String action, Class<? extends AsyncExecutorFactory> executorFactory) throws Exception {
+        argumentDescriptor.metrics = metricsRegistry.register(descriptor.classController.getName(), argumentDescriptor.httpMethod, action);
+
+        argumentDescriptor.binders = new ArgumentBinder[argumentDescriptor.requestArguments.size()];
+        boolean bodyBound = false;
+        for ( int i = 0; i < argumentDescriptor.binders.length; i++ ) {
+            RequestArgument requestArgument = argumentDescriptor.requestArguments.get(i);
+            if ( requestArgument.fromBody ) {
+                // The body can only be read once
+                if ( bodyBound ) {
+                    throw new WebControllerDefinitionException(String.format("Method [%s] action [%s] binds more than one argument from the request body",
+                            methodName, action));
+                }
+                bodyBound = true;
+                requestArgument.binder = ArgumentBinder.forBody(this, requestArgument.name, requestArgument.type, requestArgument.genericTypes);
+            } else {
+                requestArgument.binder = ArgumentBinder.forArgument(this, requestArgument.name, requestArgument.fromUrl,
+                        requestArgument.type, requestArgument.genericTypes);
+            }
+            requestArgument.binder.required = requestArgument.required;
+            argumentDescriptor.binders[i] = requestArgument.binder;
+        }
+
+        // Only complete synchronous GET responses can be replayed or hashed
+        if ( (argumentDescriptor.cachePolicy != null || argumentDescriptor.shallowETag)
+                && (argumentDescriptor.async || !HttpMethodType.GET.equals(argumentDescriptor.httpMethod)) ) {
+            log(String.format("   Method [%s] action [%s] cannot be cached nor hashed, only synchronous GET handlers can", methodName, action));
+            argumentDescriptor.cachePolicy = null;
+            argumentDescriptor.shallowETag = false;
+        }
+
+        // Safe methods are normal unless told otherwise, the others bulk
+        String priority = argumentDescriptor.priority;
+        if ( priority == null ) {
+            priority = HttpMethodType.GET.equals(argumentDescriptor.httpMethod) || HttpMethodType.HEAD.equals(argumentDescriptor.httpMethod)
+                    ? Priority.NORMAL : Priority.BULK;
+        }
+        argumentDescriptor.priorityClass = ConcurrencyLimits.priorityClass(priority);
+        if ( argumentDescriptor.priorityClass < 0 ) {
+            throw new WebControllerDefinitionException(String.format("Method [%s] action [%s] has unknown priority [%s]", methodName, action, priority));
+        }
+        // Like its metrics, the limit of a handler outlives the descriptors built for it
+        if ( concurrencyLimits != null ) {
+            if ( argumentDescriptor.metrics.concurrencyLimit == null ) {
+                argumentDescriptor.metrics.concurrencyLimit = concurrencyLimits.newLimit();
+            }
+            argumentDescriptor.concurrencyLimit = argumentDescriptor.metrics.concurrencyLimit;
+        }
+
+        if ( argumentDescriptor.async && descriptor.executor == null ) {
+            descriptor.executor = getAsyncExecutor(executorFactory);
+        }
+
+        log(String.format("   Method [%s] action [%s] will handle [%s]", methodName, action, argumentDescriptor));
+        HttpMethodActionMap actionMap = descriptor.providers.get(argumentDescriptor.httpMethod);
+        if ( actionMap == null ) {
+            throw new WebControllerDefinitionException(String.format("Method [%s] action [%s] handles unknown HTTP method [%s]",
+                    methodName, action, argumentDescriptor.httpMethod));
+        }
+        actionMap.put(action, argumentDescriptor);
+    }
+
+    protected ExecutorService getAsyncExecutor(Class<? extends AsyncExecutorFactory> factoryClass) throws Exception {
+        synchronized ( asyncExecutors ) {
+            ExecutorService executor = asyncExecutors.get(factoryClass);
+            if ( executor == null ) {
+                executor = factoryClass.newInstance().createExecutor();
+                asyncExecutors.put(factoryClass, executor);
+                log(String.format("   Async executor [%s] created by [%s]", executor.getClass().getName(), factoryClass.getCanonicalName()));
+            }
+            return executor;
+        }
+    }
+
+    protected Field[] getServiceFields(Class<?> clazz) {
+        List<Field> serviceFields = new ArrayList<>();
+        for ( Field field : clazz.getDeclaredFields() ) {
+            if ( field.isAnnotationPresent(RequireService.class) ) {
+                field.setAccessible(true);
+                serviceFields.add(field);
+            }
+        }
+        return serviceFields.toArray(new Field[serviceFields.size()]);
+    }
+
+    protected ServiceInjection[] getServiceInjections(Field[] serviceFields) {
+        ServiceInjection[] injections = new ServiceInjection[serviceFields.length];
+        for ( int i = 0; i < serviceFields.length; i++ ) {
+            final Field field = serviceFields[i];
+            injections[i] = new ServiceInjection(field.getType(), new BiConsumer<Object, Object>() {
+                @Override
+                public void accept(Object target, Object service) {
+                    try {
+                        field.set(target, service);
+                    } catch ( IllegalAccessException ex ) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+        }
+        return injections;
+    }
+
+    protected ServiceInjection[] getServiceInjections(GeneratedRegistry.Entry entry) {
+        List<ServiceInjection> injections = new ArrayList<>();
+        for ( int i = 0; i < entry.requiredServices.size(); i++ ) {
+            if ( entry.requiredServices.get(i) != null ) {
+                injections.add(new ServiceInjection(entry.requiredServices.get(i), getGeneratedSetter(entry.accessor, i)));
+            }
+        }
+        return injections.toArray(new ServiceInjection[injections.size()]);
+    }
+
+    private static Supplier<Object> getGeneratedConstructor(final ControllerRegistry.Accessor accessor) {
+        return new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return accessor.newInstance();
+            }
+        };
+    }
+
+    private static BiConsumer<Object, Object> getGeneratedSetter(final ControllerRegistry.Accessor accessor, final int field) {
+        return new BiConsumer<Object, Object>() {
+            @Override
+            public void accept(Object target, Object service) {
+                accessor.inject(field, target, service);
+            }
+        };
+    }
+
     protected Class[] castTypeArray(Type[] types) {
         Class[] classes = new Class[types.length];
 
@@ -467,11 +1505,40 @@ public class ServletDispatcher extends HttpServlet {
             ServiceController serviceController = (ServiceController) clazz.newInstance();
             serviceController.servletContext = getServletContext();
             servletServiceProviders.put(clazz, serviceController);
+            serviceGraph.add(clazz);
         } else {
             log(String.format("   Class [%s] does not have Service annotation", clazz.getCanonicalName()));
         }
     }
 
+    protected void registerGeneratedService(GeneratedRegistry.Entry service) {
+        log(String.format("Loading generated service [%s]...", service.type.getCanonicalName()));
+        ServiceController serviceController = (ServiceController) service.accessor.newInstance();
+        serviceController.servletContext = getServletContext();
+        servletServiceProviders.put(service.type, serviceController);
+        serviceGraph.add(service.type);
+    }
+
+    protected void connectGeneratedServiceDependencies(GeneratedRegistry.Entry service) {
+        log(String.format("Loading service dependencies [%s]...", service.type.getCanonicalName()));
+        ServiceController controller = servletServiceProviders.get(service.type);
+
+        for ( ServiceInjection injection : getServiceInjections(service) ) {
+            if ( injection.type.equals(service.type) ) {
+                log("   TRYING TO RUSTLE MY JIMMIES? Not a chance, bro...");
+                continue;
+            }
+
+            if ( servletServiceProviders.containsKey(injection.type) ) {
+                log(String.format("   Setting service [%s] to service [%s]", injection.type.getCanonicalName(), service.type.getCanonicalName()));
+                injection.setter.accept(controller, servletServiceProviders.get(injection.type));
+                serviceGraph.addDependency(service.type, injection.type);
+            } else {
+                log(String.format("   Field class service [%s] is not available", injection.type.getCanonicalName()));
+            }
+        }
+    }
+
     protected void connectServiceDependencies(Class clazz) throws Exception {
         log(String.format("Loading service dependencies [%s]...", clazz.getCanonicalName()));
         if ( isClassServiceController(clazz) ) {
@@ -489,6 +1556,7 @@ public class ServletDispatcher extends HttpServlet {
                     if ( servletServiceProviders.containsKey(fieldClass) ) {
                         log(String.format("   Setting service [%s] to service [%s]", fieldClass.getCanonicalName(), clazz.getCanonicalName()));
                         field.set(controller, servletServiceProviders.get(fieldClass));
+                        serviceGraph.addDependency(clazz, fieldClass);
                     } else {
                         log(String.format("   Field class service [%s] is not available", fieldClass.getCanonicalName()));
                     }
@@ -508,36 +1576,38 @@ public class ServletDispatcher extends HttpServlet {
     protected void initializeService(Class clazz) {
         ServiceController controller = servletServiceProviders.get(clazz);
         if ( controller != null ) {
+            if ( !initializedServices.add(clazz) ) {
+                return;
+            }
             controller.initialize();
         } else {
             log(String.format("Service [%s] is not available", clazz.getCanonicalName()));
         }
     }
 
-    protected Pattern getUriPattern(UrlPathController pathController, ControllerDescriptor descriptor) {
-        String path = pathController.path();
-
-        Pattern p = Pattern.compile("\\{[a-zA-Z0-9]*\\}");
-        Matcher m = p.matcher(path);
-
-        int i = 1;
-
-        while ( m.find() ) {
-            int start = m.start() + 1;
-            int end = m.end() - 1;
+    protected void registerRoute(UrlPathController pathController, ControllerDescriptor descriptor) throws WebControllerDefinitionException {
+        registerRoute(pathController.path(), descriptor);
+    }
 
-            descriptor.urlRequestParameterIndex.put(path.substring(start, end), i);
+    protected void registerRoute(String path, ControllerDescriptor descriptor) throws WebControllerDefinitionException {
+        List<String> parameterNames = new ArrayList<>();
 
-            i++;
+        ControllerDescriptor previous = servletWebControllerProviders.add(path, descriptor, parameterNames);
 
-            log(String.format("   i [%s] URL Argument [%s]", i, path.substring(start, end)));
+        for ( int i = 0; i < parameterNames.size(); i++ ) {
+            descriptor.urlRequestParameterIndex.put(parameterNames.get(i), i);
+            log(String.format("   i [%s] URL Argument [%s]", i, parameterNames.get(i)));
         }
 
-        path = "^" + path.replaceAll("\\{[a-zA-Z0-9]*\\}", "([a-z-A-Z-0-9-_~\\.\\'\\;\\:\\@\\&\\=\\+\\%\\#\\$]*)") + "$";
-
         log(String.format("   path [%s]", path));
 
-        return Pattern.compile(path);
+        if ( previous != null ) {
+            log(String.format("   Path [%s] was already handled by [%s]", path, previous.classController.getCanonicalName()));
+        }
+
+        if ( routeCache != null ) {
+            routeCache.clear();
+        }
     }
 
     class ControllerDescriptor {
@@ -546,25 +1616,76 @@ public class ServletDispatcher extends HttpServlet {
         Map<String, HttpMethodActionMap> providers = new ConcurrentHashMap<>();
         Map<String, Integer> urlRequestParameterIndex = new ConcurrentHashMap<>();
 
-        public WebController instantiateWebController(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response) throws Exception {
-            Object o = classController.newInstance();
+        ControllerLifecycle lifecycle = ControllerLifecycle.REQUEST;
+        int poolSize;
+        Supplier<Object> constructor;
+        ServiceInjection[] serviceInjections = new ServiceInjection[0];
 
-            WebController controller = (WebController) o;
-            controller.servletContext = servletContext;
+        // False until a lazily registered controller is described, on the first request to it
+        volatile boolean active = true;
+        GeneratedRegistry.Entry generated;
+
+        WebController singleton;
+        Queue<WebController> pool;
+
+        Executor executor;
+
+        void prepareLifecycle(ServletContext servletContext) throws Exception {
+            for ( ServiceInjection injection : serviceInjections ) {
+                if ( !servletServiceProviders.containsKey(injection.type) ) {
+                    log(String.format("   Field class service [%s] is not available", injection.type.getCanonicalName()));
+                }
+            }
+
+            log(String.format("   Lifecycle [%s]", lifecycle));
+            if ( lifecycle == ControllerLifecycle.SINGLETON ) {
+                singleton = newWebController(servletContext);
+            } else if ( lifecycle == ControllerLifecycle.POOLED ) {
+                pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+            }
+        }
+
+        public WebController instantiateWebController(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response) throws Exception {
+            WebController controller = newWebController(servletContext);
             controller.request = request;
             controller.response = response;
+            return controller;
+        }
 
-            Field[] classFields = classController.getDeclaredFields();
+        WebController acquireWebController(ServletContext servletContext, HttpServletRequest request, HttpServletResponse response) throws Exception {
+            if ( lifecycle == ControllerLifecycle.SINGLETON && singleton != null ) {
+                return singleton;
+            }
 
-            for ( Field field : classFields ) {
-                if ( field.isAnnotationPresent(RequireService.class) ) {
-                    Class fieldClass = field.getType();
-                    if ( servletServiceProviders.containsKey(fieldClass) ) {
-                        //log(String.format("   Setting service [%s] to controller [%s]", fieldClass.getCanonicalName(), classController.getCanonicalName()));
-                        field.set(controller, servletServiceProviders.get(fieldClass));
-                    } else {
-                        log(String.format("   Field class service [%s] is not available", fieldClass.getCanonicalName()));
-                    }
+            if ( lifecycle == ControllerLifecycle.POOLED && pool != null ) {
+                WebController controller = pool.poll();
+                if ( controller == null ) {
+                    controller = newWebController(servletContext);
+                }
+                controller.request = request;
+                controller.response = response;
+                return controller;
+            }
+
+            return instantiateWebController(servletContext, request, response);
+        }
+
+        void releaseWebController(WebController controller) {
+            if ( lifecycle == ControllerLifecycle.POOLED && pool != null ) {
+                controller.request = null;
+                controller.response = null;
+                pool.offer(controller);
+            }
+        }
+
+        WebController newWebController(ServletContext servletContext) throws Exception {
+            WebController controller = (WebController) constructor.get();
+            controller.servletContext = servletContext;
+
+            for ( ServiceInjection injection : serviceInjections ) {
+                ServiceController service = servletServiceProviders.get(injection.type);
+                if ( service != null ) {
+                    injection.setter.accept(controller, service);
                 }
             }
 
@@ -573,17 +1694,196 @@ public class ServletDispatcher extends HttpServlet {
 
     }
 
+    // Runs a handler that returns a CompletionStage on the executor of its controller, and completes the response
+    // once the stage completes or the async timeout of the request expires, whatever happens first
+    class AsyncRequest implements Runnable, AsyncListener {
+
+        final ResolvedRoute route;
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        final Object[] arguments;
+        final long start;
+
+        final AtomicBoolean finished = new AtomicBoolean();
+        AsyncContext asyncContext;
+        volatile WebController controller;
+
+        AsyncRequest(ResolvedRoute route, HttpServletRequest request, HttpServletResponse response, Object[] arguments, long start) {
+            this.route = route;
+            this.request = request;
+            this.response = response;
+            this.arguments = arguments;
+            this.start = start;
+        }
+
+        void start() throws Throwable {
+            try {
+                asyncContext = request.startAsync(request, response);
+                asyncContext.setTimeout(asyncTimeout);
+                asyncContext.addListener(this);
+                route.descriptor.executor.execute(this);
+            } catch ( Throwable t ) {
+                if ( asyncContext != null ) {
+                    finish(t);
+                    return;
+                }
+                // Never started, the container thread gets the failure, but the request is done with all the same
+                if ( finished.compareAndSet(false, true) ) {
+                    route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, WebControllerError.InternalServerError);
+                    releaseConcurrency(route, start, false);
+                }
+                throw t;
+            }
+        }
+
+        void await() throws Throwable {
+            WebControllerError error = WebControllerError.InternalServerError;
+            try {
+                CompletionStage<?> stage = invoke();
+                if ( stage != null ) {
+                    stage.toCompletableFuture().get(asyncTimeout, TimeUnit.MILLISECONDS);
+                }
+                error = null;
+            } catch ( InvocationTargetException | ExecutionException ex ) {
+                handleException(request, response, unwrap(ex), WebControllerError.InternalServerError);
+            } catch ( TimeoutException ex ) {
+                error = WebControllerError.GatewayTimeout;
+                handleException(request, response, ex, WebControllerError.GatewayTimeout);
+            } finally {
+                if ( controller != null ) {
+                    route.descriptor.releaseWebController(controller);
+                }
+                route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, error);
+                releaseConcurrency(route, start, error == WebControllerError.GatewayTimeout);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                CompletionStage<?> stage = invoke();
+                if ( stage == null ) {
+                    finish(null);
+                } else {
+                    stage.whenComplete(new BiConsumer<Object, Throwable>() {
+                        @Override
+                        public void accept(Object result, Throwable t) {
+                            finish(t);
+                        }
+                    });
+                }
+            } catch ( Throwable t ) {
+                finish(t);
+            }
+        }
+
+        private CompletionStage<?> invoke() throws Exception {
+            ServletContext servletContext = getServletContext();
+            RequestContext.enter(servletContext, request, response, route.descriptor.executor);
+            try {
+                controller = route.descriptor.acquireWebController(servletContext, request, response);
+                return (CompletionStage<?>) route.argumentMethodDescriptor.invoker.invoke(controller, arguments);
+            } finally {
+                RequestContext.exit();
+            }
+        }
+
+        void finish(Throwable t) {
+            if ( !finished.compareAndSet(false, true) ) {
+                return;
+            }
+
+            route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, t != null ? WebControllerError.InternalServerError : null);
+            releaseConcurrency(route, start, false);
+            try {
+                if ( t != null ) {
+                    handleAsyncException(unwrap(t), WebControllerError.InternalServerError);
+                }
+            } finally {
+                if ( controller != null ) {
+                    route.descriptor.releaseWebController(controller);
+                }
+                // A view dispatched through the async context completes the response by itself
+                if ( request.getAttribute(WebControllerAsyncDispatchAttr) == null ) {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        private void handleAsyncException(Throwable exception, WebControllerError error) {
+            try {
+                handleException(request, response, exception, error);
+            } catch ( Throwable t ) {
+                log(String.format("Async request [%s] failed", request.getRequestURI()), t);
+                try {
+                    if ( !response.isCommitted() ) {
+                        response.sendError(error.getStatusCode());
+                    }
+                } catch ( IOException ex ) {
+                    log(ex.getMessage(), ex);
+                }
+            }
+        }
+
+        private Throwable unwrap(Throwable t) {
+            while ( (t instanceof InvocationTargetException || t instanceof ExecutionException || t instanceof CompletionException)
+                    && t.getCause() != null ) {
+                t = t.getCause();
+            }
+            return t;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            // The handler may still be using its controller, so it is not given back to the pool
+            if ( finished.compareAndSet(false, true) ) {
+                route.argumentMethodDescriptor.metrics.record(System.nanoTime() - start, WebControllerError.GatewayTimeout);
+                releaseConcurrency(route, start, true);
+                log(String.format("Async request [%s] timed out after [%s] ms", request.getRequestURI(), asyncTimeout));
+                handleAsyncException(new TimeoutException(String.format("Request timed out after [%s] ms", asyncTimeout)), WebControllerError.GatewayTimeout);
+                if ( request.getAttribute(WebControllerAsyncDispatchAttr) == null ) {
+                    asyncContext.complete();
+                }
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            finish(event.getThrowable());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+    }
+
     class HttpMethodActionMap extends ConcurrentHashMap<String, HttpRequestArgumentMethodDescriptor> {}
 
     class HttpRequestArgumentMethodDescriptor {
 
         Method method;
+        ControllerInvoker invoker;
         String httpMethod;
+        boolean async;
+        MetricsRegistry.RouteMetrics metrics;
+        ResponseCache.Policy cachePolicy;
+        boolean shallowETag;
+        boolean compress = true;
+        String priority;
+        int priorityClass;
+        ConcurrencyLimits.Limit concurrencyLimit;
         List<RequestArgument> requestArguments = new ArrayList<>();
+        ArgumentBinder[] binders = new ArgumentBinder[0];
 
         @Override
         public String toString() {
-            return String.format("[HttpRequestArgumentMethodDescriptor method [%s] arguments [%s]]", httpMethod, requestArguments.size());
+            return String.format("[HttpRequestArgumentMethodDescriptor method [%s] arguments [%s] invoker [%s]%s]", httpMethod, requestArguments.size(), invoker,
+                    cachePolicy != null ? String.format(" cache [%s]", cachePolicy) : "");
         }
 
     }
@@ -593,32 +1893,102 @@ public class ServletDispatcher extends HttpServlet {
         String name;
         boolean required;
         boolean fromUrl;
+        boolean fromBody;
         Class<?> type;
         Class<?>[] genericTypes;
+        ArgumentBinder binder;
 
         public RequestArgument(HttpRequestParameter httpRequestParameter, Class clazz, Class[] genericClasses) {
-            name = httpRequestParameter.name();
-            required = httpRequestParameter.required();
-            fromUrl = httpRequestParameter.fromUrl();
-            type = clazz;
-            genericTypes = genericClasses;
+            this(httpRequestParameter.name(), httpRequestParameter.required(), httpRequestParameter.fromUrl(), httpRequestParameter.fromBody(),
+                    clazz, genericClasses);
+        }
+
+        public RequestArgument(String name, boolean required, boolean fromUrl, boolean fromBody, Class<?> type, Class<?>[] genericTypes) {
+            this.name = name;
+            this.required = required;
+            this.fromUrl = fromUrl;
+            this.fromBody = fromBody;
+            this.type = type;
+            this.genericTypes = genericTypes;
+        }
+
+    }
+
+    // Sets a required service on a controller, through its field or through a generated registry
+    static class ServiceInjection {
+
+        final Class<?> type;
+        final BiConsumer<Object, Object> setter;
+
+        ServiceInjection(Class<?> type, BiConsumer<Object, Object> setter) {
+            this.type = type;
+            this.setter = setter;
+        }
+
+    }
+
+    static final class RouteCacheKey {
+
+        final String method;
+        final String uri;
+        final String action;
+        final int hash;
+
+        RouteCacheKey(String method, String uri, String action) {
+            this.method = method;
+            this.uri = uri;
+            this.action = action;
+            this.hash = 31 * (31 * method.hashCode() + uri.hashCode()) + action.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( !(o instanceof RouteCacheKey) ) {
+                return false;
+            }
+            RouteCacheKey other = (RouteCacheKey) o;
+            return hash == other.hash && uri.equals(other.uri) && method.equals(other.method) && action.equals(other.action);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+    class ResolvedRoute {
+
+        final ControllerDescriptor descriptor;
+        final HttpRequestArgumentMethodDescriptor argumentMethodDescriptor;
+        final UrlRequestParameterDescriptor urlRequestParameterDescriptor;
+
+        ResolvedRoute(ControllerDescriptor descriptor, HttpRequestArgumentMethodDescriptor argumentMethodDescriptor,
+                      UrlRequestParameterDescriptor urlRequestParameterDescriptor) {
+            this.descriptor = descriptor;
+            this.argumentMethodDescriptor = argumentMethodDescriptor;
+            this.urlRequestParameterDescriptor = urlRequestParameterDescriptor;
         }
 
     }
 
-    private class UrlRequestParameterDescriptor {
+    // Holds the path variables of a resolved route, already URL decoded
+    class UrlRequestParameterDescriptor {
 
-        Matcher matcher;
+        String[] values;
         Map<String, Integer> urlRequestParameterIndex = new HashMap<>();
 
-        public UrlRequestParameterDescriptor(Matcher matcher, Map<String, Integer> urlRequestParameterIndex) {
-            this.matcher = matcher;
+        public UrlRequestParameterDescriptor(String[] values, Map<String, Integer> urlRequestParameterIndex) {
+            this.values = values;
             this.urlRequestParameterIndex = urlRequestParameterIndex;
         }
 
         public String getValue(String urlRequestParameterName) {
-            int group = urlRequestParameterIndex.get(urlRequestParameterName);
-            return matcher.group(group);
+            Integer index = urlRequestParameterIndex.get(urlRequestParameterName);
+            return index != null ? values[index] : null;
         }
 
     }
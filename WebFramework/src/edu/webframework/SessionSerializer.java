@@ -0,0 +1,292 @@
+package edu.webframework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Sessions of the framework as the bytes their store keeps. A fixed header with the times of the session is followed
+// by its attributes. Strings, numbers, booleans and byte arrays are written with a one byte tag, numbers as variable
+// length integers, and only other Serializable values go through Java serialization, each on its own. A login with
+// a user name and a numeric id takes 45 bytes.
+public class SessionSerializer {
+
+    static final byte VERSION = 1;
+    static final int HEADER = 21;
+
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte TRUE = 4;
+    static final byte FALSE = 5;
+    static final byte DOUBLE = 6;
+    static final byte BYTES = 7;
+    static final byte OBJECT = 8;
+
+    private final ClassLoader classLoader;
+
+    // Serialized values are read with the classes of the loader, the one of the application
+    public SessionSerializer(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public byte[] write(long creationTime, long lastAccessedTime, int maxInactiveInterval, Map<String, Object> attributes) throws IOException {
+        Output out = new Output(HEADER + 16 * attributes.size());
+        out.write(VERSION);
+        out.writeLong(creationTime);
+        out.writeLong(lastAccessedTime);
+        out.writeInt(maxInactiveInterval);
+        out.writeVarLong(attributes.size());
+        for ( Map.Entry<String, Object> attribute : attributes.entrySet() ) {
+            out.writeString(attribute.getKey());
+            writeValue(out, attribute.getKey(), attribute.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    private void writeValue(Output out, String name, Object value) throws IOException {
+        if ( value instanceof String ) {
+            out.write(STRING);
+            out.writeString((String) value);
+        } else if ( value instanceof Integer ) {
+            out.write(INTEGER);
+            out.writeVarLong(zigZag((Integer) value));
+        } else if ( value instanceof Long ) {
+            out.write(LONG);
+            out.writeVarLong(zigZag((Long) value));
+        } else if ( value instanceof Boolean ) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if ( value instanceof Double ) {
+            out.write(DOUBLE);
+            out.writeLong(Double.doubleToLongBits((Double) value));
+        } else if ( value instanceof byte[] ) {
+            out.write(BYTES);
+            out.writeArray((byte[]) value);
+        } else if ( value instanceof Serializable ) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try ( ObjectOutputStream objects = new ObjectOutputStream(bytes) ) {
+                objects.writeObject(value);
+            }
+            out.write(OBJECT);
+            out.writeArray(bytes.toByteArray());
+        } else {
+            throw new NotSerializableException(String.format("Session attribute [%s] of class [%s]", name,
+                    value != null ? value.getClass().getName() : null));
+        }
+    }
+
+    public static long getCreationTime(byte[] session) {
+        return readLong(session, 1);
+    }
+
+    public static long getLastAccessedTime(byte[] session) {
+        return readLong(session, 9);
+    }
+
+    public static int getMaxInactiveInterval(byte[] session) {
+        return (int) readBytes(session, 17, 4);
+    }
+
+    // The same session accessed at another time, without reading its attributes
+    public static byte[] touch(byte[] session, long lastAccessedTime) {
+        byte[] touched = session.clone();
+        for ( int i = 0; i < 8; i++ ) {
+            touched[9 + i] = (byte) (lastAccessedTime >>> (56 - 8 * i));
+        }
+        return touched;
+    }
+
+    public Map<String, Object> readAttributes(byte[] session) throws IOException {
+        if ( session.length < HEADER || session[0] != VERSION ) {
+            throw new StreamCorruptedException(String.format("Unknown session format [%s]", session.length > 0 ? session[0] : -1));
+        }
+
+        Input in = new Input(session, HEADER);
+        int count = (int) in.readVarLong();
+        Map<String, Object> attributes = new LinkedHashMap<>(count * 4 / 3 + 1);
+        for ( int i = 0; i < count; i++ ) {
+            String name = in.readString();
+            attributes.put(name, readValue(in));
+        }
+        return attributes;
+    }
+
+    private Object readValue(Input in) throws IOException {
+        byte tag = in.read();
+        switch ( tag ) {
+            case STRING:
+                return in.readString();
+            case INTEGER:
+                return (int) unZigZag(in.readVarLong());
+            case LONG:
+                return unZigZag(in.readVarLong());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readLong());
+            case BYTES:
+                return in.readBytes();
+            case OBJECT:
+                try ( ObjectInputStream objects = new ApplicationObjectInputStream(new ByteArrayInputStream(in.readBytes()), classLoader) ) {
+                    return objects.readObject();
+                } catch ( ClassNotFoundException ex ) {
+                    throw new IOException(ex);
+                }
+            default:
+                throw new StreamCorruptedException(String.format("Unknown session attribute tag [%s]", tag));
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return readBytes(bytes, offset, 8);
+    }
+
+    private static long readBytes(byte[] bytes, int offset, int length) {
+        long value = 0;
+        for ( int i = 0; i < length; i++ ) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    static class Output extends ByteArrayOutputStream {
+
+        Output(int size) {
+            super(size);
+        }
+
+        void write(byte b) {
+            super.write(b);
+        }
+
+        void writeInt(int value) {
+            for ( int shift = 24; shift >= 0; shift -= 8 ) {
+                super.write(value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            for ( int shift = 56; shift >= 0; shift -= 8 ) {
+                super.write((int) (value >>> shift));
+            }
+        }
+
+        void writeVarLong(long value) {
+            while ( (value & ~0x7fL) != 0 ) {
+                super.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            super.write((int) value);
+        }
+
+        void writeArray(byte[] bytes) {
+            writeVarLong(bytes.length);
+            super.write(bytes, 0, bytes.length);
+        }
+
+        void writeString(String value) {
+            writeArray(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+    }
+
+    static class Input {
+
+        private final byte[] bytes;
+        private int position;
+
+        Input(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        byte read() throws IOException {
+            if ( position >= bytes.length ) {
+                throw new StreamCorruptedException("Truncated session");
+            }
+            return bytes[position++];
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for ( int i = 0; i < 8; i++ ) {
+                value = (value << 8) | (read() & 0xff);
+            }
+            return value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for ( int shift = 0; shift < 64; shift += 7 ) {
+                byte b = read();
+                value |= (long) (b & 0x7f) << shift;
+                if ( (b & 0x80) == 0 ) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed session integer");
+        }
+
+        byte[] readBytes() throws IOException {
+            long length = readVarLong();
+            if ( length < 0 || length > bytes.length - position ) {
+                throw new StreamCorruptedException("Truncated session");
+            }
+            byte[] value = new byte[(int) length];
+            System.arraycopy(bytes, position, value, 0, value.length);
+            position += value.length;
+            return value;
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if ( length < 0 || length > bytes.length - position ) {
+                throw new StreamCorruptedException("Truncated session");
+            }
+            String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+
+    }
+
+    static class ApplicationObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        ApplicationObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch ( ClassNotFoundException ex ) {
+                return super.resolveClass(desc);
+            }
+        }
+
+    }
+
+}
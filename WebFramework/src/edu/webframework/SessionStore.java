@@ -0,0 +1,29 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import java.io.IOException;
+
+// Where the framework keeps its sessions between requests, as the bytes of SessionSerializer. The session.store
+// context parameter picks MemorySessionStore, FileSessionStore, or the class name of another implementation with a
+// public constructor taking no arguments. Stores are used by every request thread at once.
+public interface SessionStore {
+
+    // Called once at init, stores read their own context parameters
+    void initialize(ServletContext servletContext) throws IOException;
+
+    // The session with the id, or null when there is none or it expired
+    byte[] load(String id) throws IOException;
+
+    // Replaces the session with the id, expires is in milliseconds since the epoch
+    void save(String id, byte[] session, long expires) throws IOException;
+
+    void remove(String id) throws IOException;
+
+    // Drops the expired sessions, returns how many
+    int evictExpired() throws IOException;
+
+    int size();
+
+    void close() throws IOException;
+
+}
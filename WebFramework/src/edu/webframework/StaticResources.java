@@ -0,0 +1,234 @@
+package edu.webframework;
+
+import edu.webframework.annotations.HttpMethodType;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+// Files of the directories mapped by the static.resources context parameter, served by the dispatcher before any
+// route is resolved. Small files are kept in memory. Bigger ones are handed to the sendfile of Tomcat when the
+// connector supports it, which sends them from the kernel, and are otherwise copied from their file channel. A file.gz
+// next to a file is sent instead of it to clients accepting gzip. Every file gets an entity tag hashed from its
+// content, and is checked for changes at most once a second.
+class StaticResources {
+
+    static final int MAX_CACHED_FILE_SIZE = 64 * 1024;
+    static final int MAX_CACHED_FILES = 512;
+    static final long CHECK_INTERVAL = 1000000000L;
+    static final long MAPPED_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    // Request attributes of the sendfile of Tomcat's NIO and APR connectors
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final ServletContext servletContext;
+    private final List<Location> locations = new ArrayList<>();
+    private final ConcurrentLruCache<File, Resource> resources = new ConcurrentLruCache<>(MAX_CACHED_FILES);
+    private final String cacheControl;
+
+    StaticResources(ServletContext servletContext, long maxAge) {
+        this.servletContext = servletContext;
+        this.cacheControl = String.format("public, max-age=%s", maxAge);
+    }
+
+    // A prefix of the request path, and the directory of the web root (or of the file system) it is served from
+    void addLocation(String prefix, String directory) throws IOException {
+        String realPath = servletContext.getRealPath(directory);
+        File base = realPath != null && new File(realPath).isDirectory() ? new File(realPath) : new File(directory);
+        if ( !base.isDirectory() ) {
+            throw new IOException(String.format("Static resources directory [%s] does not exist", directory));
+        }
+        locations.add(new Location(prefix.endsWith("/") ? prefix : prefix + "/", base.getCanonicalFile()));
+    }
+
+    boolean isEmpty() {
+        return locations.isEmpty();
+    }
+
+    boolean handles(String path) {
+        return getLocation(path) != null;
+    }
+
+    // False when there is no such file, which the dispatcher answers with its usual not found error
+    boolean serve(String method, String path, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if ( !HttpMethodType.GET.equals(method) && !HttpMethodType.HEAD.equals(method) ) {
+            response.setHeader("Allow", "GET, HEAD");
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return true;
+        }
+
+        Location location = getLocation(path);
+        File file = location != null ? location.resolve(path) : null;
+        Resource resource = file != null ? getResource(file) : null;
+        if ( resource == null ) {
+            return false;
+        }
+
+        Variant variant = resource.gzip != null && acceptsGzip(request) ? resource.gzip : resource.identity;
+        response.setHeader("Cache-Control", cacheControl);
+        response.setHeader("ETag", variant.etag);
+        response.setDateHeader("Last-Modified", resource.lastModified);
+        if ( resource.gzip != null ) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if ( ConditionalRequests.isNotModified(request, variant.etag, resource.lastModified) ) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+
+        response.setContentType(resource.contentType);
+        if ( variant == resource.gzip ) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setContentLengthLong(variant.length);
+        if ( HttpMethodType.HEAD.equals(method) ) {
+            return true;
+        }
+
+        OutputStream out = response.getOutputStream();
+        if ( variant.content != null ) {
+            out.write(variant.content);
+        } else if ( Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) ) {
+            // The container sends the file once the dispatcher returns, with the Content-Length already set
+            request.setAttribute(SENDFILE_FILENAME, variant.file.getPath());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, variant.length);
+        } else {
+            try ( FileChannel channel = FileChannel.open(variant.file.toPath(), StandardOpenOption.READ) ) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = 0;
+                while ( position < variant.length ) {
+                    position += channel.transferTo(position, variant.length - position, target);
+                }
+            }
+        }
+        return true;
+    }
+
+    private Location getLocation(String path) {
+        for ( Location location : locations ) {
+            if ( path.startsWith(location.prefix) ) {
+                return location;
+            }
+        }
+        return null;
+    }
+
+    private Resource getResource(File file) throws IOException {
+        Resource resource = resources.get(file);
+        long now = System.nanoTime();
+        if ( resource != null && now - resource.checked < CHECK_INTERVAL ) {
+            return resource;
+        }
+
+        if ( !file.isFile() ) {
+            if ( resource != null ) {
+                resources.remove(file);
+            }
+            return null;
+        }
+
+        if ( resource == null || resource.lastModified != file.lastModified() || resource.identity.length != file.length() ) {
+            resource = new Resource(file, servletContext.getMimeType(file.getName()));
+        }
+        resource.checked = now;
+        resources.put(file, resource);
+        return resource;
+    }
+
+    static boolean acceptsGzip(HttpServletRequest request) {
+        return ResponseCompression.quality(request.getHeader("Accept-Encoding"), ResponseCompression.GZIP) > 0;
+    }
+
+    static class Location {
+
+        final String prefix;
+        final File directory;
+
+        Location(String prefix, File directory) {
+            this.prefix = prefix;
+            this.directory = directory;
+        }
+
+        // Null for paths leaving the directory
+        File resolve(String path) throws IOException {
+            String relative;
+            try {
+                relative = URLDecoder.decode(path.substring(prefix.length()).replace("+", "%2B"), "UTF-8");
+            } catch ( IllegalArgumentException ex ) {
+                return null;
+            }
+            File file = new File(directory, relative).getCanonicalFile();
+            return file.getPath().startsWith(directory.getPath() + File.separator) ? file : null;
+        }
+
+    }
+
+    static class Resource {
+
+        final long lastModified;
+        final String contentType;
+        final Variant identity;
+        final Variant gzip;
+        volatile long checked;
+
+        Resource(File file, String contentType) throws IOException {
+            this.lastModified = file.lastModified();
+            this.contentType = contentType != null ? contentType : "application/octet-stream";
+            this.identity = new Variant(file, "");
+
+            File gzipFile = new File(file.getPath() + ".gz");
+            this.gzip = gzipFile.isFile() ? new Variant(gzipFile, "-gz") : null;
+        }
+
+    }
+
+    // One encoding of a file. The content is hashed through a read-only mapping of the file, and only kept when small.
+    static class Variant {
+
+        final File file;
+        final long length;
+        final String etag;
+        final byte[] content;
+
+        Variant(File file, String suffix) throws IOException {
+            this.file = file;
+            this.length = file.length();
+            if ( length <= MAX_CACHED_FILE_SIZE ) {
+                content = Files.readAllBytes(file.toPath());
+                etag = tag(ConditionalRequests.hash(content), suffix);
+            } else {
+                content = null;
+                MessageDigest digest = ConditionalRequests.newDigest();
+                try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+                    for ( long position = 0; position < length; position += MAPPED_CHUNK_SIZE ) {
+                        digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_CHUNK_SIZE, length - position)));
+                    }
+                }
+                etag = tag(ConditionalRequests.toETag(digest), suffix);
+            }
+        }
+
+        private static String tag(String etag, String suffix) {
+            return suffix.isEmpty() ? etag : etag.substring(0, etag.length() - 1) + suffix + "\"";
+        }
+
+    }
+
+}
@@ -0,0 +1,885 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A view compiled from its JSP file, for the part of JSP views use: template text, page and taglib directives,
+// comments, expressions, the forEach, if, choose and out tags of the JSTL core library, and the cache tag of the
+// framework's own tag library. The text between them is encoded to UTF-8 once, and rendering writes it and the values
+// of the expressions straight to the response stream, giving the same bytes the JSP container would. Scriptlets,
+// standard actions, other tags and other encodings cannot be compiled, those views are left to the container.
+class Template {
+
+    static final String CORE_TAGLIB = "http://java.sun.com/jsp/jstl/core";
+    static final String FRAMEWORK_TAGLIB = "http://edu.webframework/tags";
+
+    private static final Pattern PAGE_DIRECTIVE = Pattern.compile("<%@\\s*page\\s(.*?)%>", Pattern.DOTALL);
+    private static final Pattern DIRECTIVE_ATTRIBUTE = Pattern.compile("([\\w.]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+    private static final Pattern CHARSET = Pattern.compile(";\\s*charset\\s*=\\s*([^;\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    static class CompileException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        CompileException(String message) {
+            super(message);
+        }
+
+    }
+
+    final String path;
+    final String contentType;
+    final Node[] nodes;
+    final int slots;
+
+    Template(String path, String contentType, Node[] nodes, int slots) {
+        this.path = path;
+        this.contentType = contentType;
+        this.nodes = nodes;
+        this.slots = slots;
+    }
+
+    // The encoding of the page comes from its page directive, which is ASCII, so it can be read before the encoding
+    // is known
+    static Template compile(String path, byte[] source) throws CompileException {
+        String pageEncoding = null;
+        String contentType = null;
+        Matcher directive = PAGE_DIRECTIVE.matcher(new String(source, StandardCharsets.ISO_8859_1));
+        while ( directive.find() ) {
+            Map<String, String> attributes = parseDirectiveAttributes(directive.group(1));
+            pageEncoding = attributes.containsKey("pageEncoding") ? attributes.get("pageEncoding") : pageEncoding;
+            contentType = attributes.containsKey("contentType") ? attributes.get("contentType") : contentType;
+        }
+
+        String contentCharset = null;
+        if ( contentType != null ) {
+            Matcher charset = CHARSET.matcher(contentType);
+            contentCharset = charset.find() ? charset.group(1) : null;
+        }
+
+        Charset encoding;
+        try {
+            encoding = Charset.forName(pageEncoding != null ? pageEncoding : contentCharset != null ? contentCharset : "ISO-8859-1");
+        } catch ( IllegalArgumentException ex ) {
+            throw new CompileException(String.format("Unknown page encoding of [%s]", path));
+        }
+
+        // The response is written as the content type says, or in the page encoding
+        String responseCharset = contentCharset != null ? contentCharset : encoding.name();
+        if ( !StandardCharsets.UTF_8.name().equalsIgnoreCase(responseCharset) && !"utf8".equalsIgnoreCase(responseCharset) ) {
+            throw new CompileException(String.format("Only views written in UTF-8 are compiled, [%s] is written in [%s]", path, responseCharset));
+        }
+        if ( contentType == null ) {
+            contentType = "text/html";
+        }
+        if ( contentCharset == null ) {
+            contentType = contentType + ";charset=UTF-8";
+        }
+
+        Compiler compiler = new Compiler(path, new String(source, encoding));
+        List<Node> nodes = compiler.parseBody(null);
+        return new Template(path, contentType, nodes.toArray(new Node[nodes.size()]), compiler.maxSlots);
+    }
+
+    static Map<String, String> parseDirectiveAttributes(String text) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        Matcher attribute = DIRECTIVE_ATTRIBUTE.matcher(text);
+        while ( attribute.find() ) {
+            attributes.put(attribute.group(1), attribute.group(2) != null ? attribute.group(2) : attribute.group(3));
+        }
+        return attributes;
+    }
+
+    void render(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(contentType);
+        Scope scope = new Scope(request, response, new Object[slots]);
+        TemplateWriter out = TemplateWriter.acquire(response.getOutputStream());
+        try {
+            render(nodes, scope, out);
+        } finally {
+            out.release();
+        }
+    }
+
+    static void render(Node[] nodes, Scope scope, TemplateWriter out) throws IOException {
+        for ( Node node : nodes ) {
+            node.render(scope, out);
+        }
+    }
+
+    static int toInt(Object value, String what) {
+        if ( value instanceof Number ) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.parseInt(TemplateExpression.toText(value).trim());
+        } catch ( NumberFormatException ex ) {
+            throw new IllegalArgumentException(String.format("%s [%s] is not a number", what, value));
+        }
+    }
+
+    // What expressions read from while a template renders: the slots of the loop variables, and the model in the
+    // request, the session and the application. It is the pageContext of the expressions too.
+    static class Scope {
+
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+        final Object[] locals;
+
+        Scope(HttpServletRequest request, HttpServletResponse response, Object[] locals) {
+            this.request = request;
+            this.response = response;
+            this.locals = locals;
+        }
+
+        Object getAttribute(String name) {
+            Object value = request.getAttribute(name);
+            if ( value == null ) {
+                HttpSession session = request.getSession(false);
+                value = session != null ? session.getAttribute(name) : null;
+            }
+            if ( value == null ) {
+                value = request.getServletContext().getAttribute(name);
+            }
+            return value;
+        }
+
+        public HttpServletRequest getRequest() {
+            return request;
+        }
+
+        public HttpServletResponse getResponse() {
+            return response;
+        }
+
+        // Unlike a JSP page, a template never creates a session
+        public HttpSession getSession() {
+            return request.getSession(false);
+        }
+
+        public ServletContext getServletContext() {
+            return request.getServletContext();
+        }
+
+    }
+
+    interface Node {
+        void render(Scope scope, TemplateWriter out) throws IOException;
+    }
+
+    static class Text implements Node {
+
+        final String text;
+        final byte[] bytes;
+
+        Text(String text) {
+            this.text = text;
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            out.write(bytes);
+        }
+
+    }
+
+    // An expression in the template text, written as it is, or a c:out, escaped unless escapeXml is false
+    static class Value implements Node {
+
+        final TemplateExpression value;
+        final TemplateExpression defaultValue;
+        final boolean escape;
+
+        Value(TemplateExpression value, TemplateExpression defaultValue, boolean escape) {
+            this.value = value;
+            this.defaultValue = defaultValue;
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            Object result = value.evaluate(scope);
+            if ( result == null && defaultValue != null ) {
+                result = defaultValue.evaluate(scope);
+            }
+            out.write(TemplateExpression.toText(result), escape);
+        }
+
+    }
+
+    static class If implements Node {
+
+        final TemplateExpression test;
+        final Node[] body;
+
+        If(TemplateExpression test, Node[] body) {
+            this.test = test;
+            this.body = body;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            if ( TemplateExpression.toBoolean(test.evaluate(scope)) ) {
+                Template.render(body, scope, out);
+            }
+        }
+
+    }
+
+    // The first c:when whose test holds, or the c:otherwise, which has no test. The whitespace around them is written
+    // as the JSP container writes it.
+    static class Choose implements Node {
+
+        final Node[] children;
+
+        Choose(Node[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            boolean chosen = false;
+            for ( Node child : children ) {
+                if ( child instanceof When ) {
+                    When when = (When) child;
+                    if ( !chosen && (when.test == null || TemplateExpression.toBoolean(when.test.evaluate(scope))) ) {
+                        Template.render(when.body, scope, out);
+                        chosen = true;
+                    }
+                } else {
+                    child.render(scope, out);
+                }
+            }
+        }
+
+    }
+
+    static class When implements Node {
+
+        final TemplateExpression test;
+        final Node[] body;
+
+        When(TemplateExpression test, Node[] body) {
+            this.test = test;
+            this.body = body;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            throw new IllegalStateException("c:when is only rendered by its c:choose");
+        }
+
+    }
+
+    // Items of a collection, iterator, map, array or comma separated string, or the numbers from begin to end when
+    // there are no items. The next item is taken before the body is rendered, so the status knows the last one.
+    static class ForEach implements Node {
+
+        final TemplateExpression items;
+        final TemplateExpression begin;
+        final TemplateExpression end;
+        final TemplateExpression step;
+        final int varSlot;
+        final int statusSlot;
+        final Node[] body;
+
+        ForEach(TemplateExpression items, TemplateExpression begin, TemplateExpression end, TemplateExpression step,
+                int varSlot, int statusSlot, Node[] body) {
+            this.items = items;
+            this.begin = begin;
+            this.end = end;
+            this.step = step;
+            this.varSlot = varSlot;
+            this.statusSlot = statusSlot;
+            this.body = body;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            int first = begin != null ? toInt(begin.evaluate(scope), "forEach bound") : 0;
+            int last = end != null ? toInt(end.evaluate(scope), "forEach bound") : -1;
+            int increment = step != null ? toInt(step.evaluate(scope), "forEach step") : 1;
+            if ( increment < 1 ) {
+                throw new IllegalArgumentException(String.format("forEach step [%s] is not positive", increment));
+            }
+
+            Iterator<?> iterator;
+            int index;
+            if ( items == null ) {
+                iterator = new Range(first, last);
+                index = first;
+            } else {
+                iterator = iterate(items.evaluate(scope));
+                for ( index = 0; index < first; index++ ) {
+                    if ( !iterator.hasNext() ) {
+                        return;
+                    }
+                    iterator.next();
+                }
+            }
+            if ( !iterator.hasNext() || last >= 0 && index > last ) {
+                return;
+            }
+
+            LoopStatus status = statusSlot >= 0 ? new LoopStatus() : null;
+            Object current = iterator.next();
+            int count = 0;
+            try {
+                while ( true ) {
+                    int nextIndex = index + increment;
+                    boolean hasNext = last < 0 || nextIndex <= last;
+                    for ( int i = 1; hasNext && i < increment; i++ ) {
+                        if ( iterator.hasNext() ) {
+                            iterator.next();
+                        } else {
+                            hasNext = false;
+                        }
+                    }
+                    hasNext = hasNext && iterator.hasNext();
+                    Object next = hasNext ? iterator.next() : null;
+
+                    count++;
+                    if ( varSlot >= 0 ) {
+                        scope.locals[varSlot] = current;
+                    }
+                    if ( status != null ) {
+                        status.current = current;
+                        status.index = index;
+                        status.count = count;
+                        status.last = !hasNext;
+                        scope.locals[statusSlot] = status;
+                    }
+                    Template.render(body, scope, out);
+
+                    if ( !hasNext ) {
+                        return;
+                    }
+                    current = next;
+                    index = nextIndex;
+                }
+            } finally {
+                if ( varSlot >= 0 ) {
+                    scope.locals[varSlot] = null;
+                }
+                if ( statusSlot >= 0 ) {
+                    scope.locals[statusSlot] = null;
+                }
+            }
+        }
+
+        private static Iterator<?> iterate(final Object items) {
+            if ( items == null ) {
+                return Collections.emptyIterator();
+            }
+            if ( items instanceof Iterable ) {
+                return ((Iterable<?>) items).iterator();
+            }
+            if ( items instanceof Iterator ) {
+                return (Iterator<?>) items;
+            }
+            if ( items instanceof Map ) {
+                return ((Map<?, ?>) items).entrySet().iterator();
+            }
+            if ( items instanceof Object[] ) {
+                return Arrays.asList((Object[]) items).iterator();
+            }
+            if ( items instanceof String ) {
+                return Arrays.asList(((String) items).split(",")).iterator();
+            }
+            if ( items instanceof Enumeration ) {
+                return Collections.list((Enumeration<?>) items).iterator();
+            }
+            if ( items.getClass().isArray() ) {
+                return new Iterator<Object>() {
+                    int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < Array.getLength(items);
+                    }
+
+                    @Override
+                    public Object next() {
+                        if ( !hasNext() ) {
+                            throw new NoSuchElementException();
+                        }
+                        return Array.get(items, next++);
+                    }
+                };
+            }
+            throw new IllegalArgumentException(String.format("Cannot iterate over [%s]", items.getClass().getName()));
+        }
+
+    }
+
+    // A wf:cache, its body rendered once into the dispatcher's fragment cache and written from it afterwards. Without
+    // the cache in the servlet context the body is rendered every time.
+    static class Cached implements Node {
+
+        final TemplateExpression name;
+        final TemplateExpression key;
+        final TemplateExpression tags;
+        final TemplateExpression ttl;
+        final Node[] body;
+
+        Cached(TemplateExpression name, TemplateExpression key, TemplateExpression tags, TemplateExpression ttl, Node[] body) {
+            this.name = name;
+            this.key = key;
+            this.tags = tags;
+            this.ttl = ttl;
+            this.body = body;
+        }
+
+        @Override
+        public void render(Scope scope, TemplateWriter out) throws IOException {
+            FragmentCache cache = (FragmentCache) scope.getServletContext().getAttribute(ServletDispatcher.FragmentCacheAttr);
+            if ( cache == null ) {
+                Template.render(body, scope, out);
+                return;
+            }
+
+            FragmentCache.Key fragmentKey = new FragmentCache.Key(TemplateExpression.toText(name.evaluate(scope)), key != null ? key.evaluate(scope) : null);
+            byte[] fragment = cache.get(fragmentKey);
+            if ( fragment == null ) {
+                String[] tagNames = FragmentCache.parseTags(tags != null ? TemplateExpression.toText(tags.evaluate(scope)) : null);
+                long[] versions = cache.versions(tagNames);
+                ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+                TemplateWriter writer = TemplateWriter.acquire(rendered);
+                try {
+                    Template.render(body, scope, writer);
+                } finally {
+                    writer.release();
+                }
+                fragment = rendered.toByteArray();
+                cache.store(fragmentKey, tagNames, versions, ttl != null ? toInt(ttl.evaluate(scope), "cache ttl") : 0, fragment);
+            }
+            out.write(fragment);
+        }
+
+    }
+
+    static class Range implements Iterator<Object> {
+
+        private int next;
+        private final int last;
+
+        Range(int first, int last) {
+            this.next = first;
+            this.last = last;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next <= last;
+        }
+
+        @Override
+        public Object next() {
+            if ( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            return next++;
+        }
+
+    }
+
+    // The varStatus of a forEach
+    static class LoopStatus {
+
+        Object current;
+        int index;
+        int count;
+        boolean last;
+
+        public Object getCurrent() {
+            return current;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean isFirst() {
+            return count == 1;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+
+    }
+
+    // Parses the page into nodes, resolving the names of the loop variables to slots as their tags open and close
+    static class Compiler {
+
+        final String path;
+        final String source;
+        final Map<String, Integer> locals = new HashMap<>();
+        int position = 0;
+        int slots = 0;
+        int maxSlots = 0;
+        String corePrefix;
+        String frameworkPrefix;
+
+        Compiler(String path, String source) {
+            this.path = path;
+            this.source = source;
+        }
+
+        // Until the end tag of the given tag, prefix included, or until the end of the page
+        List<Node> parseBody(String tag) throws CompileException {
+            List<Node> nodes = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            while ( position < source.length() ) {
+                if ( source.startsWith("<%--", position) ) {
+                    int end = source.indexOf("--%>", position + 4);
+                    if ( end < 0 ) {
+                        throw error("Unterminated comment");
+                    }
+                    position = end + 4;
+                } else if ( source.startsWith("<%@", position) ) {
+                    parseDirective();
+                } else if ( source.startsWith("<%", position) ) {
+                    throw error("Scriptlets, declarations and scripting expressions are not supported");
+                } else if ( source.startsWith("<jsp:", position) ) {
+                    throw error("Standard actions are not supported");
+                } else if ( source.startsWith("\\${", position) || source.startsWith("\\#{", position) ) {
+                    text.append(source, position + 1, position + 3);
+                    position += 3;
+                } else if ( source.startsWith("${", position) ) {
+                    int end = TemplateExpression.findEnd(source, position + 2);
+                    addText(nodes, text);
+                    nodes.add(new Value(parseExpression(source.substring(position + 2, end)), null, false));
+                    position = end + 1;
+                } else if ( source.startsWith("#{", position) ) {
+                    throw error("Deferred expressions are not supported");
+                } else if ( prefixAt("</") != null ) {
+                    String prefix = prefixAt("</");
+                    position += prefix.length() + 3;
+                    String name = prefix + ":" + readName();
+                    skipWhitespace();
+                    if ( !name.equals(tag) || !source.startsWith(">", position) ) {
+                        throw error(String.format("Unexpected end tag [%s]", name));
+                    }
+                    position++;
+                    addText(nodes, text);
+                    return nodes;
+                } else if ( prefixAt("<") != null ) {
+                    addText(nodes, text);
+                    nodes.add(parseTag(prefixAt("<"), tag));
+                } else {
+                    text.append(source.charAt(position++));
+                }
+            }
+
+            if ( tag != null ) {
+                throw error(String.format("Missing end tag of [%s]", tag));
+            }
+            addText(nodes, text);
+            return nodes;
+        }
+
+        // The prefix of the tag of a supported library opened, or closed, at the position
+        private String prefixAt(String opening) {
+            if ( corePrefix != null && source.startsWith(opening + corePrefix + ":", position) ) {
+                return corePrefix;
+            }
+            if ( frameworkPrefix != null && source.startsWith(opening + frameworkPrefix + ":", position) ) {
+                return frameworkPrefix;
+            }
+            return null;
+        }
+
+        private void addText(List<Node> nodes, StringBuilder text) {
+            if ( text.length() > 0 ) {
+                nodes.add(new Text(text.toString()));
+                text.setLength(0);
+            }
+        }
+
+        private void parseDirective() throws CompileException {
+            int end = source.indexOf("%>", position);
+            if ( end < 0 ) {
+                throw error("Unterminated directive");
+            }
+            String directive = source.substring(position + 3, end).trim();
+            String name = directive.split("\\s", 2)[0];
+            Map<String, String> attributes = parseDirectiveAttributes(directive.substring(name.length()));
+
+            if ( "taglib".equals(name) ) {
+                if ( CORE_TAGLIB.equals(attributes.get("uri")) ) {
+                    corePrefix = attributes.get("prefix");
+                } else if ( FRAMEWORK_TAGLIB.equals(attributes.get("uri")) ) {
+                    frameworkPrefix = attributes.get("prefix");
+                } else {
+                    throw error(String.format("Tag library [%s] is not supported", attributes.containsKey("uri") ? attributes.get("uri") : attributes.get("tagdir")));
+                }
+            } else if ( "page".equals(name) ) {
+                if ( "true".equals(attributes.get("isELIgnored")) || "true".equals(attributes.get("trimDirectiveWhitespaces"))
+                        || attributes.containsKey("errorPage") ) {
+                    throw error("Page attributes isELIgnored, trimDirectiveWhitespaces and errorPage are not supported");
+                }
+            } else {
+                throw error(String.format("Directive [%s] is not supported", name));
+            }
+            position = end + 2;
+        }
+
+        // Tags are named with their prefix from here on, as the end tags that close them
+        private Node parseTag(String prefix, String parent) throws CompileException {
+            position += prefix.length() + 2;
+            String name = prefix + ":" + readName();
+            Map<String, String> attributes = new HashMap<>();
+            boolean empty = parseAttributes(attributes);
+
+            if ( prefix.equals(frameworkPrefix) ) {
+                if ( !name.equals(frameworkPrefix + ":cache") ) {
+                    throw error(String.format("Tag [%s] is not supported", name));
+                }
+                checkAttributes(name, attributes, "name", "key", "tags", "ttl");
+                return new Cached(parseAttribute(name, attributes, "name", true), parseAttribute(name, attributes, "key", false),
+                        parseAttribute(name, attributes, "tags", false), parseAttribute(name, attributes, "ttl", false),
+                        parseChildren(name, empty));
+            }
+
+            switch ( name.substring(prefix.length() + 1) ) {
+                case "forEach":
+                    return parseForEach(name, attributes, empty);
+                case "if": {
+                    checkAttributes(name, attributes, "test");
+                    TemplateExpression test = parseAttribute(name, attributes, "test", true);
+                    return new If(test, parseChildren(name, empty));
+                }
+                case "choose":
+                    return parseChoose(name, attributes, empty);
+                case "when":
+                case "otherwise": {
+                    if ( !(prefix + ":choose").equals(parent) ) {
+                        throw error(String.format("Tag [%s] outside of a choose", name));
+                    }
+                    boolean when = name.endsWith(":when");
+                    checkAttributes(name, attributes, when ? "test" : null);
+                    TemplateExpression test = when ? parseAttribute(name, attributes, "test", true) : null;
+                    return new When(test, parseChildren(name, empty));
+                }
+                case "out": {
+                    checkAttributes(name, attributes, "value", "default", "escapeXml");
+                    if ( !empty && parseBody(name).size() > 0 ) {
+                        throw error("The body of c:out is not supported");
+                    }
+                    String escapeXml = attributes.get("escapeXml");
+                    if ( escapeXml != null && !"true".equals(escapeXml) && !"false".equals(escapeXml) ) {
+                        throw error("escapeXml of c:out has to be true or false");
+                    }
+                    return new Value(parseAttribute(name, attributes, "value", true), parseAttribute(name, attributes, "default", false),
+                            !"false".equals(escapeXml));
+                }
+                default:
+                    throw error(String.format("Tag [%s] is not supported", name));
+            }
+        }
+
+        private Node parseForEach(String tag, Map<String, String> attributes, boolean empty) throws CompileException {
+            checkAttributes(tag, attributes, "items", "var", "varStatus", "begin", "end", "step");
+            TemplateExpression items = parseAttribute(tag, attributes, "items", false);
+            TemplateExpression begin = parseAttribute(tag, attributes, "begin", false);
+            TemplateExpression end = parseAttribute(tag, attributes, "end", false);
+            TemplateExpression step = parseAttribute(tag, attributes, "step", false);
+            if ( items == null && (begin == null || end == null) ) {
+                throw error("forEach needs either items, or begin and end");
+            }
+
+            // The variables are only visible in the body, and hide model attributes of the same name
+            String var = attributes.get("var");
+            String varStatus = attributes.get("varStatus");
+            Integer previousVar = var != null ? locals.get(var) : null;
+            Integer previousStatus = varStatus != null ? locals.get(varStatus) : null;
+            int varSlot = var != null ? allocate(var) : -1;
+            int statusSlot = varStatus != null ? allocate(varStatus) : -1;
+
+            Node[] body = parseChildren(tag, empty);
+
+            release(var, previousVar);
+            release(varStatus, previousStatus);
+            return new ForEach(items, begin, end, step, varSlot, statusSlot, body);
+        }
+
+        private Node parseChoose(String tag, Map<String, String> attributes, boolean empty) throws CompileException {
+            checkAttributes(tag, attributes);
+            Node[] children = parseChildren(tag, empty);
+            boolean otherwise = false;
+            for ( Node child : children ) {
+                if ( child instanceof Text ) {
+                    if ( !((Text) child).text.trim().isEmpty() ) {
+                        throw error("A choose can only contain when and otherwise tags");
+                    }
+                } else if ( !(child instanceof When) ) {
+                    throw error("A choose can only contain when and otherwise tags");
+                } else if ( otherwise ) {
+                    throw error("The otherwise of a choose has to be its last tag");
+                } else {
+                    otherwise = ((When) child).test == null;
+                }
+            }
+            return new Choose(children);
+        }
+
+        private Node[] parseChildren(String tag, boolean empty) throws CompileException {
+            List<Node> body = empty ? new ArrayList<Node>() : parseBody(tag);
+            return body.toArray(new Node[body.size()]);
+        }
+
+        // Slots are taken and given back as loops nest, so sibling loops share them
+        private int allocate(String name) {
+            int slot = slots++;
+            locals.put(name, slot);
+            maxSlots = Math.max(maxSlots, slots);
+            return slot;
+        }
+
+        private void release(String name, Integer previous) {
+            if ( name == null ) {
+                return;
+            }
+            slots--;
+            if ( previous != null ) {
+                locals.put(name, previous);
+            } else {
+                locals.remove(name);
+            }
+        }
+
+        private void checkAttributes(String tag, Map<String, String> attributes, String... allowed) throws CompileException {
+            for ( String attribute : attributes.keySet() ) {
+                if ( !Arrays.asList(allowed).contains(attribute) ) {
+                    throw error(String.format("Attribute [%s] of [%s] is not supported", attribute, tag));
+                }
+            }
+        }
+
+        private TemplateExpression parseAttribute(String tag, Map<String, String> attributes, String name, boolean required) throws CompileException {
+            String value = attributes.get(name);
+            if ( value == null ) {
+                if ( required ) {
+                    throw error(String.format("Attribute [%s] of [%s] is required", name, tag));
+                }
+                return null;
+            }
+            try {
+                return TemplateExpression.parseAttribute(value, locals);
+            } catch ( CompileException ex ) {
+                throw error(ex.getMessage());
+            }
+        }
+
+        private TemplateExpression parseExpression(String text) throws CompileException {
+            try {
+                return TemplateExpression.parse(text, locals);
+            } catch ( CompileException ex ) {
+                throw error(ex.getMessage());
+            }
+        }
+
+        // Values are read up to their closing quote, skipping the quotes of the expressions in them. True for tags
+        // closed with />.
+        private boolean parseAttributes(Map<String, String> attributes) throws CompileException {
+            while ( true ) {
+                skipWhitespace();
+                if ( source.startsWith("/>", position) ) {
+                    position += 2;
+                    return true;
+                }
+                if ( source.startsWith(">", position) ) {
+                    position++;
+                    return false;
+                }
+
+                String name = readName();
+                skipWhitespace();
+                if ( name.isEmpty() || !source.startsWith("=", position) ) {
+                    throw error("Malformed tag attribute");
+                }
+                position++;
+                skipWhitespace();
+                char quote = position < source.length() ? source.charAt(position) : 0;
+                if ( quote != '"' && quote != '\'' ) {
+                    throw error(String.format("Value of attribute [%s] is not quoted", name));
+                }
+                position++;
+
+                StringBuilder value = new StringBuilder();
+                while ( true ) {
+                    if ( position >= source.length() ) {
+                        throw error(String.format("Unterminated value of attribute [%s]", name));
+                    }
+                    char c = source.charAt(position);
+                    if ( source.startsWith("${", position) ) {
+                        int end = TemplateExpression.findEnd(source, position + 2);
+                        value.append(source, position, end + 1);
+                        position = end + 1;
+                    } else if ( c == '\\' && position + 1 < source.length() && source.charAt(position + 1) == quote ) {
+                        value.append(quote);
+                        position += 2;
+                    } else if ( c == quote ) {
+                        position++;
+                        break;
+                    } else {
+                        value.append(c);
+                        position++;
+                    }
+                }
+                attributes.put(name, value.toString());
+            }
+        }
+
+        private String readName() {
+            int start = position;
+            while ( position < source.length() && (Character.isLetterOrDigit(source.charAt(position)) || source.charAt(position) == '_') ) {
+                position++;
+            }
+            return source.substring(start, position);
+        }
+
+        private void skipWhitespace() {
+            while ( position < source.length() && Character.isWhitespace(source.charAt(position)) ) {
+                position++;
+            }
+        }
+
+        private CompileException error(String message) {
+            int line = 1;
+            for ( int i = 0; i < position && i < source.length(); i++ ) {
+                if ( source.charAt(i) == '\n' ) {
+                    line++;
+                }
+            }
+            return new CompileException(String.format("%s, line [%s] of [%s]", message, line, path));
+        }
+
+    }
+
+}
@@ -0,0 +1,782 @@
+package edu.webframework;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+// The part of the JSP expression language views need: model attributes and loop variables, properties of beans and
+// maps, indexes of lists, maps and arrays, literals, comparisons, logic, empty and the conditional operator. Names are
+// resolved when the template is compiled, loop variables to a slot of the scope and the others to the model, and each
+// property is linked to the getter of the last class it was read from.
+abstract class TemplateExpression {
+
+    // Names of the implicit objects of the expression language the engine does not provide
+    private static final String[] IMPLICIT_OBJECTS = { "pageScope", "requestScope", "sessionScope", "applicationScope",
+            "paramValues", "header", "headerValues", "cookie", "initParam" };
+
+    private static final ClassValue<Map<String, Function<Object, Object>>> getters = new ClassValue<Map<String, Function<Object, Object>>>() {
+        @Override
+        protected Map<String, Function<Object, Object>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    abstract Object evaluate(Template.Scope scope);
+
+    // The whole text of an expression, without the ${ and }
+    static TemplateExpression parse(String text, Map<String, Integer> locals) throws Template.CompileException {
+        Parser parser = new Parser(text, locals);
+        TemplateExpression expression = parser.parseExpression();
+        parser.skipWhitespace();
+        if ( parser.position < text.length() ) {
+            throw new Template.CompileException(String.format("Unexpected [%s] in expression [%s]", text.substring(parser.position), text));
+        }
+        return expression;
+    }
+
+    // An attribute of a tag, plain text, one expression, or text and expressions concatenated
+    static TemplateExpression parseAttribute(String value, Map<String, Integer> locals) throws Template.CompileException {
+        List<TemplateExpression> parts = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        int position = 0;
+        while ( position < value.length() ) {
+            if ( value.startsWith("\\${", position) ) {
+                text.append("${");
+                position += 3;
+            } else if ( value.startsWith("${", position) ) {
+                int end = findEnd(value, position + 2);
+                if ( text.length() > 0 ) {
+                    parts.add(new Literal(text.toString()));
+                    text.setLength(0);
+                }
+                parts.add(parse(value.substring(position + 2, end), locals));
+                position = end + 1;
+            } else {
+                text.append(value.charAt(position++));
+            }
+        }
+        if ( text.length() > 0 || parts.isEmpty() ) {
+            parts.add(new Literal(text.toString()));
+        }
+        return parts.size() == 1 ? parts.get(0) : new Composite(parts.toArray(new TemplateExpression[parts.size()]));
+    }
+
+    // The position of the brace closing an expression starting at the given position, skipping string literals
+    static int findEnd(String text, int position) throws Template.CompileException {
+        char quote = 0;
+        for ( int i = position; i < text.length(); i++ ) {
+            char c = text.charAt(i);
+            if ( quote != 0 ) {
+                if ( c == '\\' ) {
+                    i++;
+                } else if ( c == quote ) {
+                    quote = 0;
+                }
+            } else if ( c == '\'' || c == '"' ) {
+                quote = c;
+            } else if ( c == '}' ) {
+                return i;
+            }
+        }
+        throw new Template.CompileException(String.format("Unterminated expression [%s]", text.substring(position - 2)));
+    }
+
+    // Coercions of the expression language
+
+    static String toText(Object value) {
+        if ( value == null ) {
+            return "";
+        }
+        if ( value instanceof String ) {
+            return (String) value;
+        }
+        return value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+    }
+
+    static boolean toBoolean(Object value) {
+        if ( value == null ) {
+            return false;
+        }
+        if ( value instanceof Boolean ) {
+            return (Boolean) value;
+        }
+        if ( value instanceof String ) {
+            return Boolean.parseBoolean((String) value);
+        }
+        throw new IllegalArgumentException(String.format("Cannot convert [%s] of type [%s] to a boolean", value, value.getClass().getName()));
+    }
+
+    static boolean isEmpty(Object value) {
+        if ( value == null ) {
+            return true;
+        }
+        if ( value instanceof String ) {
+            return ((String) value).isEmpty();
+        }
+        if ( value instanceof Collection ) {
+            return ((Collection<?>) value).isEmpty();
+        }
+        if ( value instanceof Map ) {
+            return ((Map<?, ?>) value).isEmpty();
+        }
+        return value.getClass().isArray() && Array.getLength(value) == 0;
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        if ( left == right ) {
+            return true;
+        }
+        if ( left == null || right == null ) {
+            return false;
+        }
+        if ( left instanceof Number || right instanceof Number ) {
+            return compareNumbers(left, right) == 0;
+        }
+        if ( left instanceof Boolean || right instanceof Boolean ) {
+            return toBoolean(left) == toBoolean(right);
+        }
+        if ( left instanceof Enum || right instanceof Enum || left instanceof String || right instanceof String ) {
+            return toText(left).equals(toText(right));
+        }
+        return left.equals(right);
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compare(Object left, Object right) {
+        if ( left instanceof Number || right instanceof Number ) {
+            return compareNumbers(left, right);
+        }
+        if ( left instanceof String || right instanceof String ) {
+            return toText(left).compareTo(toText(right));
+        }
+        if ( left instanceof Comparable ) {
+            return ((Comparable<Object>) left).compareTo(right);
+        }
+        throw new IllegalArgumentException(String.format("Cannot compare [%s] with [%s]", left, right));
+    }
+
+    private static int compareNumbers(Object left, Object right) {
+        Number leftNumber = toNumber(left);
+        Number rightNumber = toNumber(right);
+        if ( isDecimal(leftNumber) || isDecimal(rightNumber) ) {
+            return Double.compare(leftNumber.doubleValue(), rightNumber.doubleValue());
+        }
+        return Long.compare(leftNumber.longValue(), rightNumber.longValue());
+    }
+
+    private static boolean isDecimal(Number number) {
+        return number instanceof Double || number instanceof Float || number instanceof BigDecimal;
+    }
+
+    private static Number toNumber(Object value) {
+        if ( value instanceof Number ) {
+            return (Number) value;
+        }
+        String text = toText(value);
+        if ( text.isEmpty() ) {
+            return 0L;
+        }
+        try {
+            return text.indexOf('.') >= 0 || text.indexOf('e') >= 0 || text.indexOf('E') >= 0 ? (Number) Double.parseDouble(text) : (Number) Long.parseLong(text);
+        } catch ( NumberFormatException ex ) {
+            throw new IllegalArgumentException(String.format("Cannot convert [%s] to a number", text));
+        }
+    }
+
+    // getX(), or isX() for primitive booleans, found on a public class or interface so it can be called on any implementation
+    static Function<Object, Object> getGetter(Class<?> type, String name) {
+        Map<String, Function<Object, Object>> classGetters = getters.get(type);
+        Function<Object, Object> getter = classGetters.get(name);
+        if ( getter == null ) {
+            Method method = findGetter(type, name);
+            if ( method == null ) {
+                throw new IllegalArgumentException(String.format("Property [%s] not found on [%s]", name, type.getName()));
+            }
+            getter = LambdaAccessors.getter(method);
+            classGetters.put(name, getter);
+        }
+        return getter;
+    }
+
+    private static Method findGetter(Class<?> type, String name) {
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for ( String prefix : new String[] { "get", "is" } ) {
+            Method method;
+            try {
+                method = type.getMethod(prefix + suffix);
+            } catch ( NoSuchMethodException ex ) {
+                continue;
+            }
+            // Like JSP EL, isX() is only a getter of a primitive boolean, so both render a page the same way
+            if ( Void.TYPE.equals(method.getReturnType()) || "is".equals(prefix) && !boolean.class.equals(method.getReturnType()) ) {
+                continue;
+            }
+            return getPublicMethod(type, method);
+        }
+        return null;
+    }
+
+    // Methods of classes that are not public, like the entries of a HashMap, are called through the public class or
+    // interface declaring them
+    private static Method getPublicMethod(Class<?> type, Method method) {
+        if ( type == null ) {
+            return null;
+        }
+        if ( Modifier.isPublic(type.getModifiers()) ) {
+            try {
+                return type.getMethod(method.getName());
+            } catch ( NoSuchMethodException ex ) {
+                return null;
+            }
+        }
+        for ( Class<?> implemented : type.getInterfaces() ) {
+            Method found = getPublicMethod(implemented, method);
+            if ( found != null ) {
+                return found;
+            }
+        }
+        Method found = getPublicMethod(type.getSuperclass(), method);
+        // Classes of the application can still be called through reflection
+        return found != null ? found : method.getDeclaringClass().getClassLoader() != null ? method : null;
+    }
+
+    static class Literal extends TemplateExpression {
+
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return value;
+        }
+
+    }
+
+    // A model attribute, from the request, the session or the application, in that order
+    static class ModelVariable extends TemplateExpression {
+
+        final String name;
+
+        ModelVariable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return scope.getAttribute(name);
+        }
+
+    }
+
+    static class LocalVariable extends TemplateExpression {
+
+        final int slot;
+
+        LocalVariable(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return scope.locals[slot];
+        }
+
+    }
+
+    // pageContext, with the request, the response, the session and the servlet context as properties
+    static class PageContextVariable extends TemplateExpression {
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return scope;
+        }
+
+    }
+
+    // param.name, the first value of a request parameter
+    static class Parameter extends TemplateExpression {
+
+        final TemplateExpression name;
+
+        Parameter(TemplateExpression name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return scope.getRequest().getParameter(toText(name.evaluate(scope)));
+        }
+
+    }
+
+    static class Property extends TemplateExpression {
+
+        final TemplateExpression target;
+        final String name;
+        // The class and getter last used, replaced together so readers never see a getter of another class
+        private Link link;
+
+        Property(TemplateExpression target, String name) {
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            Object value = target.evaluate(scope);
+            if ( value == null ) {
+                return null;
+            }
+            if ( value instanceof Map ) {
+                return ((Map<?, ?>) value).get(name);
+            }
+
+            Link link = this.link;
+            if ( link == null || link.type != value.getClass() ) {
+                link = new Link(value.getClass(), getGetter(value.getClass(), name));
+                this.link = link;
+            }
+            return link.getter.apply(value);
+        }
+
+    }
+
+    static class Link {
+
+        final Class<?> type;
+        final Function<Object, Object> getter;
+
+        Link(Class<?> type, Function<Object, Object> getter) {
+            this.type = type;
+            this.getter = getter;
+        }
+
+    }
+
+    static class Index extends TemplateExpression {
+
+        final TemplateExpression target;
+        final TemplateExpression index;
+
+        Index(TemplateExpression target, TemplateExpression index) {
+            this.target = target;
+            this.index = index;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            Object value = target.evaluate(scope);
+            Object key = index.evaluate(scope);
+            if ( value == null || key == null ) {
+                return null;
+            }
+            if ( value instanceof Map ) {
+                return ((Map<?, ?>) value).get(key);
+            }
+            if ( value instanceof List || value.getClass().isArray() ) {
+                int i = toNumber(key).intValue();
+                int length = value instanceof List ? ((List<?>) value).size() : Array.getLength(value);
+                if ( i < 0 || i >= length ) {
+                    return null;
+                }
+                return value instanceof List ? ((List<?>) value).get(i) : Array.get(value, i);
+            }
+            return getGetter(value.getClass(), toText(key)).apply(value);
+        }
+
+    }
+
+    static class Composite extends TemplateExpression {
+
+        final TemplateExpression[] parts;
+
+        Composite(TemplateExpression[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            StringBuilder text = new StringBuilder();
+            for ( TemplateExpression part : parts ) {
+                text.append(toText(part.evaluate(scope)));
+            }
+            return text.toString();
+        }
+
+    }
+
+    static class Conditional extends TemplateExpression {
+
+        final TemplateExpression test;
+        final TemplateExpression whenTrue;
+        final TemplateExpression whenFalse;
+
+        Conditional(TemplateExpression test, TemplateExpression whenTrue, TemplateExpression whenFalse) {
+            this.test = test;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return toBoolean(test.evaluate(scope)) ? whenTrue.evaluate(scope) : whenFalse.evaluate(scope);
+        }
+
+    }
+
+    static class Logical extends TemplateExpression {
+
+        final TemplateExpression left;
+        final TemplateExpression right;
+        final boolean and;
+
+        Logical(TemplateExpression left, TemplateExpression right, boolean and) {
+            this.left = left;
+            this.right = right;
+            this.and = and;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            boolean value = toBoolean(left.evaluate(scope));
+            if ( value != and ) {
+                return value;
+            }
+            return toBoolean(right.evaluate(scope));
+        }
+
+    }
+
+    static class Comparison extends TemplateExpression {
+
+        final TemplateExpression left;
+        final TemplateExpression right;
+        final String operator;
+
+        Comparison(TemplateExpression left, TemplateExpression right, String operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            Object leftValue = left.evaluate(scope);
+            Object rightValue = right.evaluate(scope);
+            switch ( operator ) {
+                case "==":
+                    return isEqual(leftValue, rightValue);
+                case "!=":
+                    return !isEqual(leftValue, rightValue);
+                default:
+                    if ( leftValue == null || rightValue == null ) {
+                        return false;
+                    }
+                    int comparison = compare(leftValue, rightValue);
+                    switch ( operator ) {
+                        case "<":
+                            return comparison < 0;
+                        case ">":
+                            return comparison > 0;
+                        case "<=":
+                            return comparison <= 0;
+                        default:
+                            return comparison >= 0;
+                    }
+            }
+        }
+
+    }
+
+    static class Not extends TemplateExpression {
+
+        final TemplateExpression operand;
+
+        Not(TemplateExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return !toBoolean(operand.evaluate(scope));
+        }
+
+    }
+
+    static class Empty extends TemplateExpression {
+
+        final TemplateExpression operand;
+
+        Empty(TemplateExpression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(Template.Scope scope) {
+            return isEmpty(operand.evaluate(scope));
+        }
+
+    }
+
+    // Recursive descent over the grammar of the expression language, from the conditional operator down
+    static class Parser {
+
+        final String text;
+        final Map<String, Integer> locals;
+        int position = 0;
+
+        Parser(String text, Map<String, Integer> locals) {
+            this.text = text;
+            this.locals = locals;
+        }
+
+        TemplateExpression parseExpression() throws Template.CompileException {
+            TemplateExpression test = parseOr();
+            if ( accept("?") ) {
+                TemplateExpression whenTrue = parseExpression();
+                expect(":");
+                return new Conditional(test, whenTrue, parseExpression());
+            }
+            return test;
+        }
+
+        private TemplateExpression parseOr() throws Template.CompileException {
+            TemplateExpression left = parseAnd();
+            while ( accept("||") || acceptWord("or") ) {
+                left = new Logical(left, parseAnd(), false);
+            }
+            return left;
+        }
+
+        private TemplateExpression parseAnd() throws Template.CompileException {
+            TemplateExpression left = parseEquality();
+            while ( accept("&&") || acceptWord("and") ) {
+                left = new Logical(left, parseEquality(), true);
+            }
+            return left;
+        }
+
+        private TemplateExpression parseEquality() throws Template.CompileException {
+            TemplateExpression left = parseRelational();
+            while ( true ) {
+                if ( accept("==") || acceptWord("eq") ) {
+                    left = new Comparison(left, parseRelational(), "==");
+                } else if ( accept("!=") || acceptWord("ne") ) {
+                    left = new Comparison(left, parseRelational(), "!=");
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        private TemplateExpression parseRelational() throws Template.CompileException {
+            TemplateExpression left = parseUnary();
+            while ( true ) {
+                String operator;
+                if ( accept("<=") || acceptWord("le") ) {
+                    operator = "<=";
+                } else if ( accept(">=") || acceptWord("ge") ) {
+                    operator = ">=";
+                } else if ( accept("<") || acceptWord("lt") ) {
+                    operator = "<";
+                } else if ( accept(">") || acceptWord("gt") ) {
+                    operator = ">";
+                } else {
+                    return left;
+                }
+                left = new Comparison(left, parseUnary(), operator);
+            }
+        }
+
+        private TemplateExpression parseUnary() throws Template.CompileException {
+            skipWhitespace();
+            if ( text.startsWith("!", position) && !text.startsWith("!=", position) ) {
+                position++;
+                return new Not(parseUnary());
+            }
+            if ( acceptWord("not") ) {
+                return new Not(parseUnary());
+            }
+            if ( acceptWord("empty") ) {
+                return new Empty(parseUnary());
+            }
+            return parsePostfix();
+        }
+
+        private TemplateExpression parsePostfix() throws Template.CompileException {
+            skipWhitespace();
+            int start = position;
+            TemplateExpression expression;
+            if ( isIdentifierStart() ) {
+                String name = readIdentifier();
+                if ( "param".equals(name) && !locals.containsKey(name) ) {
+                    expression = parseParameter();
+                } else {
+                    expression = parseName(name);
+                }
+            } else {
+                expression = parsePrimary();
+            }
+
+            while ( true ) {
+                if ( accept(".") ) {
+                    skipWhitespace();
+                    if ( !isIdentifierStart() ) {
+                        throw new Template.CompileException(String.format("Expected a property name at [%s] in [%s]", position, text));
+                    }
+                    expression = new Property(expression, readIdentifier());
+                } else if ( accept("[") ) {
+                    TemplateExpression index = parseExpression();
+                    expect("]");
+                    expression = new Index(expression, index);
+                } else {
+                    break;
+                }
+            }
+            if ( expression == null ) {
+                throw new Template.CompileException(String.format("Expected a value at [%s] in [%s]", start, text));
+            }
+            return expression;
+        }
+
+        private TemplateExpression parseParameter() throws Template.CompileException {
+            if ( accept(".") ) {
+                skipWhitespace();
+                return new Parameter(new Literal(readIdentifier()));
+            }
+            if ( accept("[") ) {
+                TemplateExpression name = parseExpression();
+                expect("]");
+                return new Parameter(name);
+            }
+            throw new Template.CompileException(String.format("Only single parameters of param can be read, in [%s]", text));
+        }
+
+        private TemplateExpression parseName(String name) throws Template.CompileException {
+            switch ( name ) {
+                case "true":
+                    return new Literal(Boolean.TRUE);
+                case "false":
+                    return new Literal(Boolean.FALSE);
+                case "null":
+                    return new Literal(null);
+            }
+            Integer slot = locals.get(name);
+            if ( slot != null ) {
+                return new LocalVariable(slot);
+            }
+            if ( "pageContext".equals(name) ) {
+                return new PageContextVariable();
+            }
+            for ( String implicitObject : IMPLICIT_OBJECTS ) {
+                if ( implicitObject.equals(name) ) {
+                    throw new Template.CompileException(String.format("Implicit object [%s] is not supported", name));
+                }
+            }
+            return new ModelVariable(name);
+        }
+
+        private TemplateExpression parsePrimary() throws Template.CompileException {
+            if ( accept("(") ) {
+                TemplateExpression expression = parseExpression();
+                expect(")");
+                return expression;
+            }
+            if ( position >= text.length() ) {
+                return null;
+            }
+
+            char c = text.charAt(position);
+            if ( c == '\'' || c == '"' ) {
+                StringBuilder value = new StringBuilder();
+                position++;
+                while ( position < text.length() && text.charAt(position) != c ) {
+                    char next = text.charAt(position++);
+                    if ( next == '\\' && position < text.length() ) {
+                        next = text.charAt(position++);
+                    }
+                    value.append(next);
+                }
+                expect(String.valueOf(c));
+                return new Literal(value.toString());
+            }
+
+            if ( c >= '0' && c <= '9' ) {
+                int start = position;
+                boolean decimal = false;
+                while ( position < text.length() ) {
+                    c = text.charAt(position);
+                    if ( c == '.' || c == 'e' || c == 'E' ) {
+                        decimal = true;
+                    } else if ( !(c >= '0' && c <= '9') && !((c == '+' || c == '-') && decimal) ) {
+                        break;
+                    }
+                    position++;
+                }
+                String number = text.substring(start, position);
+                try {
+                    return new Literal(decimal ? (Object) Double.valueOf(number) : (Object) Long.valueOf(number));
+                } catch ( NumberFormatException ex ) {
+                    throw new Template.CompileException(String.format("Invalid number [%s] in [%s]", number, text));
+                }
+            }
+            return null;
+        }
+
+        private boolean isIdentifierStart() {
+            return position < text.length() && Character.isJavaIdentifierStart(text.charAt(position));
+        }
+
+        private String readIdentifier() {
+            int start = position;
+            while ( position < text.length() && Character.isJavaIdentifierPart(text.charAt(position)) ) {
+                position++;
+            }
+            return text.substring(start, position);
+        }
+
+        private boolean accept(String token) {
+            skipWhitespace();
+            if ( text.startsWith(token, position) ) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        // Operators written as words only match whole words
+        private boolean acceptWord(String word) {
+            skipWhitespace();
+            int end = position + word.length();
+            if ( text.startsWith(word, position) && (end == text.length() || !Character.isJavaIdentifierPart(text.charAt(end))) ) {
+                position = end;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) throws Template.CompileException {
+            if ( !accept(token) ) {
+                throw new Template.CompileException(String.format("Expected [%s] at [%s] in [%s]", token, position, text));
+            }
+        }
+
+        void skipWhitespace() {
+            while ( position < text.length() && Character.isWhitespace(text.charAt(position)) ) {
+                position++;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.webframework;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Rendered templates straight into an output stream, the text of the template already encoded and the values encoded
+// to UTF-8 as they are written, in a buffer that is taken from a pool and only handed to the stream when full
+class TemplateWriter {
+
+    static final int BUFFER_SIZE = 8192;
+    static final int MAX_POOLED = 64;
+
+    private static final byte[] AMP = ascii("&amp;");
+    private static final byte[] LT = ascii("&lt;");
+    private static final byte[] GT = ascii("&gt;");
+    private static final byte[] QUOT = ascii("&#034;");
+    private static final byte[] APOS = ascii("&#039;");
+
+    private static final BlockingQueue<TemplateWriter> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private OutputStream out;
+
+    static TemplateWriter acquire(OutputStream out) {
+        TemplateWriter writer = pool.poll();
+        if ( writer == null ) {
+            writer = new TemplateWriter();
+        }
+        writer.out = out;
+        return writer;
+    }
+
+    // Hands what is still buffered to the stream and gives the writer back to the pool
+    void release() throws IOException {
+        try {
+            flush();
+        } finally {
+            out = null;
+            position = 0;
+            pool.offer(this);
+        }
+    }
+
+    void flush() throws IOException {
+        if ( position > 0 ) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    void write(byte[] bytes) throws IOException {
+        if ( bytes.length > buffer.length - position ) {
+            flush();
+            if ( bytes.length > buffer.length ) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // Escaped as c:out does: ampersands, angle brackets and both quotes
+    void write(String value, boolean escape) throws IOException {
+        int length = value.length();
+        for ( int i = 0; i < length; i++ ) {
+            char c = value.charAt(i);
+            if ( c < 0x80 ) {
+                if ( escape && (c == '&' || c == '<' || c == '>' || c == '"' || c == '\'') ) {
+                    write(c == '&' ? AMP : c == '<' ? LT : c == '>' ? GT : c == '"' ? QUOT : APOS);
+                } else {
+                    if ( position == buffer.length ) {
+                        flush();
+                    }
+                    buffer[position++] = (byte) c;
+                }
+            } else if ( c < 0x800 ) {
+                ensure(2);
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if ( Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)) ) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                ensure(4);
+                buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if ( Character.isSurrogate(c) ) {
+                // A lone surrogate cannot be encoded, the encoder of the JSP writer sends a question mark too
+                if ( position == buffer.length ) {
+                    flush();
+                }
+                buffer[position++] = '?';
+            } else {
+                ensure(3);
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private void ensure(int length) throws IOException {
+        if ( buffer.length - position < length ) {
+            flush();
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,75 @@
+package edu.webframework;
+
+import javax.servlet.ServletContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The compiled views of the application, by path. The views under /WEB-INF/jsp/ are compiled at startup, the others
+// the first time they are shown. Views that cannot be compiled are remembered as such and left to the JSP container.
+class Templates {
+
+    static final String VIEWS_DIRECTORY = "/WEB-INF/jsp/";
+
+    // Stands for the views left to the container, the map cannot hold nulls
+    private static final Object NOT_COMPILED = new Object();
+
+    private final ServletContext servletContext;
+    private final ConcurrentHashMap<String, Object> templates = new ConcurrentHashMap<>();
+
+    Templates(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    // The number of views compiled
+    int compileAll(String directory) {
+        int compiled = 0;
+        Set<String> paths = servletContext.getResourcePaths(directory);
+        if ( paths == null ) {
+            return 0;
+        }
+        for ( String path : paths ) {
+            if ( path.endsWith("/") ) {
+                compiled += compileAll(path);
+            } else if ( path.endsWith(".jsp") && get(path) != null ) {
+                compiled++;
+            }
+        }
+        return compiled;
+    }
+
+    // Null for views the container has to show
+    Template get(String path) {
+        Object template = templates.get(path);
+        if ( template == null ) {
+            template = compile(path);
+            Object previous = templates.putIfAbsent(path, template);
+            template = previous != null ? previous : template;
+        }
+        return template != NOT_COMPILED ? (Template) template : null;
+    }
+
+    private Object compile(String path) {
+        try ( InputStream in = servletContext.getResourceAsStream(path) ) {
+            if ( in == null ) {
+                return NOT_COMPILED;
+            }
+            ByteArrayOutputStream source = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ( (read = in.read(buffer)) >= 0 ) {
+                source.write(buffer, 0, read);
+            }
+            return Template.compile(path, source.toByteArray());
+        } catch ( Template.CompileException ex ) {
+            servletContext.log(String.format("View [%s] left to the JSP container: %s", path, ex.getMessage()));
+            return NOT_COMPILED;
+        } catch ( IOException ex ) {
+            servletContext.log(String.format("View [%s] cannot be read, left to the JSP container", path), ex);
+            return NOT_COMPILED;
+        }
+    }
+
+}
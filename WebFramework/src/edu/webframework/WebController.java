@@ -7,24 +7,40 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
 
 public abstract class WebController {
 
+    static final String JSON_CONTENT_TYPE = "application/json;charset=UTF-8";
+
     protected HttpServletRequest request;
     protected HttpServletResponse response;
     protected ServletContext servletContext;
 
     public void setModel(String key, Object bean) {
-        request.setAttribute(key, bean);
+        getRequest().setAttribute(key, bean);
     }
 
+    // Reading never creates a session, requests without one read null
     public Object getSessionAttribute(String key) {
-        return request.getSession().getAttribute(key);
+        HttpSession session = getRequest().getSession(false);
+        return session != null ? session.getAttribute(key) : null;
     }
 
+    // Setting null removes the attribute, without creating a session to remove it from
     public void setSessionAttribute(String key, Object value) {
-        request.getSession().setAttribute(key, value);
+        if ( value == null ) {
+            HttpSession session = getRequest().getSession(false);
+            if ( session != null ) {
+                session.removeAttribute(key);
+            }
+            return;
+        }
+        getRequest().getSession().setAttribute(key, value);
     }
 
     /* public Object getModel(String key) {
@@ -32,15 +48,131 @@ public abstract class WebController {
     } */
 
     public void view(String view) throws ServletException, IOException {
+        if ( isNotModified() ) {
+            return;
+        }
         String jspView = getJspViewPath(view, false);
-        log(String.format("jspView [%s] contextBaseUrl [%s]", jspView, request.getAttribute("contextBaseUrl")));
-        RequestDispatcher dispatcher = request.getRequestDispatcher(jspView);
-        dispatcher.forward(request, response);
+        log(String.format("jspView [%s] contextBaseUrl [%s]", jspView, getRequest().getAttribute("contextBaseUrl")));
+        render(jspView);
     }
 
     public void view(String view, boolean publicJsp) throws ServletException, IOException {
-        RequestDispatcher dispatcher = request.getRequestDispatcher(getJspViewPath(view, publicJsp));
-        dispatcher.forward(request, response);
+        if ( isNotModified() ) {
+            return;
+        }
+        render(getJspViewPath(view, publicJsp));
+    }
+
+    // Compiled views are written by the dispatcher's template engine, the others are forwarded to the JSP container.
+    // A HEAD only gets the content type of a compiled view, while a JSP is still run for the headers it sets.
+    private void render(String path) throws ServletException, IOException {
+        Templates templates = (Templates) getServletContext().getAttribute(ServletDispatcher.TemplatesAttr);
+        Template template = templates != null ? templates.get(path) : null;
+        if ( template != null && isHead() ) {
+            getResponse().setContentType(template.contentType);
+        } else if ( template != null ) {
+            template.render(getRequest(), getResponse());
+        } else {
+            forward(path);
+        }
+    }
+
+    // Writes the value as JSON straight to the response, see JsonWriter for how beans, collections and maps look
+    public void json(Object value) throws IOException {
+        if ( isNotModified() ) {
+            return;
+        }
+        if ( isHead() ) {
+            getResponse().setContentType(JSON_CONTENT_TYPE);
+            return;
+        }
+        JsonWriter writer = JsonWriter.acquire(startJson());
+        try {
+            writer.writeValue(value);
+        } finally {
+            writer.release();
+        }
+    }
+
+    // A JSON array of the items, written as the iterator produces them, so they never have to be in memory at once
+    public void json(Iterator<?> items) throws IOException {
+        if ( isNotModified() ) {
+            return;
+        }
+        if ( isHead() ) {
+            getResponse().setContentType(JSON_CONTENT_TYPE);
+            return;
+        }
+        JsonWriter writer = JsonWriter.acquire(startJson());
+        try {
+            writer.writeArray(items);
+        } finally {
+            writer.release();
+        }
+    }
+
+    private OutputStream startJson() throws IOException {
+        HttpServletResponse response = getResponse();
+        response.setContentType(JSON_CONTENT_TYPE);
+        return response.getOutputStream();
+    }
+
+    // Handlers running asynchronously cannot forward from their own thread, the view is dispatched through the
+    // async context instead, which also completes the response
+    private void forward(String path) throws ServletException, IOException {
+        HttpServletRequest request = getRequest();
+        if ( request.isAsyncStarted() ) {
+            request.setAttribute(ServletDispatcher.WebControllerAsyncDispatchAttr, path);
+            request.getAsyncContext().dispatch(path);
+        } else {
+            RequestDispatcher dispatcher = request.getRequestDispatcher(path);
+            dispatcher.forward(request, getResponse());
+        }
+    }
+
+    // Sets the validators of the response from the version of what the handler is about to show, and tells if the
+    // client already has it. The response is then a 304 Not Modified, views are not rendered and the handler can
+    // return straight away.
+    public boolean checkNotModified(String version) {
+        return checkNotModified(version, -1);
+    }
+
+    public boolean checkNotModified(long lastModified) {
+        return checkNotModified(null, lastModified);
+    }
+
+    public boolean checkNotModified(String version, long lastModified) {
+        HttpServletRequest request = getRequest();
+        HttpServletResponse response = getResponse();
+
+        String etag = version != null ? ConditionalRequests.quote(version) : null;
+        if ( etag != null ) {
+            response.setHeader("ETag", etag);
+        }
+        if ( lastModified >= 0 ) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+
+        if ( ConditionalRequests.isNotModified(request, etag, lastModified) ) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            request.setAttribute(ServletDispatcher.WebControllerNotModifiedAttr, Boolean.TRUE);
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean isNotModified() {
+        return getRequest().getAttribute(ServletDispatcher.WebControllerNotModifiedAttr) != null;
+    }
+
+    // A HEAD answered by the GET handler, which has no body to render but the headers of the GET
+    private boolean isHead() {
+        HeadResponse head = HeadResponse.of(getResponse());
+        if ( head == null ) {
+            return false;
+        }
+        head.skipped = true;
+        return true;
     }
 
     public void redirect(Class controllerClass) throws Exception {
@@ -51,7 +183,7 @@ public abstract class WebController {
         UrlPathController pathController = (UrlPathController) controllerClass.getAnnotation(UrlPathController.class);
         String path = getPath(pathController);
         log(String.format("Redirecting to [%s]", path));
-        response.sendRedirect(path);
+        getResponse().sendRedirect(path);
     }
 
     /* public void forward(Class controllerClass) throws Exception {
@@ -66,7 +198,7 @@ public abstract class WebController {
     } */
 
     protected String getPath(UrlPathController pathController) {
-        return String.format("%s%s", request.getContextPath(), pathController.path());
+        return String.format("%s%s", getRequest().getContextPath(), pathController.path());
     }
 
     protected String getJspViewPath(String viewPath, boolean publicJsp) {
@@ -76,18 +208,29 @@ public abstract class WebController {
             return String.format("/WEB-INF/jsp/%s.jsp", viewPath);
     }
 
+    // Singleton controllers never get their request and response fields set, they use the request context instead
     public HttpServletRequest getRequest() {
-        return request;
+        return request != null ? request : RequestContext.current().getRequest();
     }
 
     public HttpServletResponse getResponse() {
-        return response;
+        return response != null ? response : RequestContext.current().getResponse();
     }
 
     public ServletContext getServletContext() {
         return servletContext;
     }
 
+    // For the continuations of asynchronous handlers: runs them on the executor of the controller with the request of
+    // the handler. Singleton controllers have to use it, their request is unknown on any other thread.
+    public Executor asyncExecutor() {
+        Executor executor = RequestContext.current().propagatingExecutor();
+        if ( executor == null ) {
+            throw new IllegalStateException("Only asynchronous handlers have an async executor");
+        }
+        return executor;
+    }
+
     public void log(String message) {
         servletContext.log(message);
     }
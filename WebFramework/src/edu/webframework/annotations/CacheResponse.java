@@ -0,0 +1,17 @@
+package edu.webframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheResponse {
+
+    // Seconds
+    long ttl() default 60;
+    String[] parameters() default {};
+    String[] sessionAttributes() default {};
+
+}
@@ -0,0 +1,15 @@
+package edu.webframework.annotations;
+
+public enum ControllerLifecycle {
+
+    // A new controller is created and wired for every request
+    REQUEST,
+
+    // One controller is created and wired at registration and shared by all requests. It must not keep request
+    // state in fields, the request and response are available through getRequest() and getResponse()
+    SINGLETON,
+
+    // Controllers are wired once and reused from a pool, one request at a time
+    POOLED
+
+}
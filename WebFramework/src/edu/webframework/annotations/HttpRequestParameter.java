@@ -12,5 +12,6 @@ public @interface HttpRequestParameter {
     String name() default "";
     boolean required() default false;
     boolean fromUrl() default false;
+    boolean fromBody() default false;
 
 }
@@ -0,0 +1,22 @@
+package edu.webframework.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// The class a handler is admitted with when the dispatcher limits concurrency. Without it, GET and HEAD handlers are
+// NORMAL and the others BULK. On a controller, it applies to the handlers without one of their own.
+@Target({ ElementType.METHOD, ElementType.TYPE })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Priority {
+
+    // Never rejected, like health checks
+    String CRITICAL = "critical";
+    String NORMAL = "normal";
+    // Rejected first, like heavy POST actions
+    String BULK = "bulk";
+
+    String value();
+
+}
@@ -1,5 +1,8 @@
 package edu.webframework.annotations;
 
+import edu.webframework.AsyncExecutorFactory;
+import edu.webframework.DefaultAsyncExecutorFactory;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -10,5 +13,8 @@ import java.lang.annotation.Target;
 public @interface UrlPathController {
 
     String path();
+    ControllerLifecycle lifecycle() default ControllerLifecycle.REQUEST;
+    int poolSize() default 16;
+    Class<? extends AsyncExecutorFactory> executor() default DefaultAsyncExecutorFactory.class;
 
 }
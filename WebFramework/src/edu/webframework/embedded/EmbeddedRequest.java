@@ -0,0 +1,559 @@
+package edu.webframework.embedded;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// A parsed HTTP/1.1 request. The whole body is already in memory, parameters are only decoded when first asked for.
+class EmbeddedRequest implements HttpServletRequest {
+
+    private final EmbeddedServletContext servletContext;
+
+    final String method;
+    final String protocol;
+    private final String requestURI;
+    private final String queryString;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+
+    private final String localAddr;
+    private final int localPort;
+    private final String remoteAddr;
+    private final int remotePort;
+
+    EmbeddedResponse response;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private Map<String, String[]> parameters;
+    private String characterEncoding;
+    private Cookie[] cookies;
+    private boolean bodyRead;
+
+    EmbeddedRequest(EmbeddedServletContext servletContext, String method, String target,
+                    String protocol, Map<String, List<String>> headers, byte[] body,
+                    String localAddr, int localPort, String remoteAddr, int remotePort) {
+        this.servletContext = servletContext;
+        this.method = method;
+        this.protocol = protocol;
+        this.headers = headers;
+        this.body = body;
+        this.localAddr = localAddr;
+        this.localPort = localPort;
+        this.remoteAddr = remoteAddr;
+        this.remotePort = remotePort;
+
+        int query = target.indexOf('?');
+        requestURI = query >= 0 ? target.substring(0, query) : target;
+        queryString = query >= 0 ? target.substring(query + 1) : null;
+
+        String contentType = getContentType();
+        if ( contentType != null ) {
+            int charset = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+            if ( charset >= 0 ) {
+                characterEncoding = contentType.substring(charset + 8).trim().replace("\"", "");
+            }
+        }
+    }
+
+    boolean isKeepAlive() {
+        String connection = getHeader("connection");
+        if ( "HTTP/1.0".equals(protocol) ) {
+            return connection != null && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    private Map<String, String[]> getParameters() {
+        if ( parameters == null ) {
+            Map<String, List<String>> values = new LinkedHashMap<>();
+            // Query strings are always decoded as UTF-8, forms with the request encoding
+            decodeParameters(queryString, StandardCharsets.UTF_8.name(), values);
+
+            String contentType = getContentType();
+            if ( !bodyRead && contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded") ) {
+                String encoding = characterEncoding != null ? characterEncoding : StandardCharsets.UTF_8.name();
+                decodeParameters(new String(body, Charset.forName(encoding)), encoding, values);
+            }
+
+            parameters = new LinkedHashMap<>();
+            for ( Map.Entry<String, List<String>> entry : values.entrySet() ) {
+                parameters.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+            }
+        }
+        return parameters;
+    }
+
+    private static void decodeParameters(String encoded, String encoding, Map<String, List<String>> values) {
+        if ( encoded == null || encoded.isEmpty() ) {
+            return;
+        }
+
+        for ( String pair : encoded.split("&") ) {
+            if ( pair.isEmpty() ) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            try {
+                String name = URLDecoder.decode(equals >= 0 ? pair.substring(0, equals) : pair, encoding);
+                String value = equals >= 0 ? URLDecoder.decode(pair.substring(equals + 1), encoding) : "";
+                List<String> list = values.get(name);
+                if ( list == null ) {
+                    list = new ArrayList<>(1);
+                    values.put(name, list);
+                }
+                list.add(value);
+            } catch ( UnsupportedEncodingException | IllegalArgumentException ex ) {
+                // Malformed pairs are ignored, as containers do
+            }
+        }
+    }
+
+    @Override
+    public String getAuthType() {
+        return null;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        if ( cookies == null ) {
+            List<Cookie> list = new ArrayList<>();
+            for ( String header : getHeaderList("cookie") ) {
+                for ( String pair : header.split(";") ) {
+                    int equals = pair.indexOf('=');
+                    if ( equals > 0 ) {
+                        try {
+                            list.add(new Cookie(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim().replace("\"", "")));
+                        } catch ( IllegalArgumentException ex ) {
+                            // Cookie names the servlet API refuses
+                        }
+                    }
+                }
+            }
+            cookies = list.toArray(new Cookie[list.size()]);
+        }
+        return cookies;
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if ( value == null ) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch ( RuntimeException ex ) {
+            throw new IllegalArgumentException(String.format("Header [%s] is not a date [%s]", name, value));
+        }
+    }
+
+    private List<String> getHeaderList(String name) {
+        List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return values != null ? values : Collections.<String>emptyList();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = getHeaderList(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        return Collections.enumeration(getHeaderList(name));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return value != null ? Integer.parseInt(value.trim()) : -1;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getPathInfo() {
+        String contextPath = getContextPath();
+        return requestURI.length() > contextPath.length() ? requestURI.substring(contextPath.length()) : null;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        String pathInfo = getPathInfo();
+        return pathInfo != null ? servletContext.getRealPath(pathInfo) : null;
+    }
+
+    @Override
+    public String getContextPath() {
+        return servletContext.getContextPath();
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return null;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return null;
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        return null;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer("http://").append(getServerName()).append(':').append(getServerPort()).append(requestURI);
+    }
+
+    @Override
+    public String getServletPath() {
+        return "";
+    }
+
+    // The server has no sessions of its own, the dispatcher wraps its requests with the framework's
+    @Override
+    public HttpSession getSession(boolean create) {
+        if ( create ) {
+            throw new IllegalStateException("The embedded server only has the sessions of the dispatcher's requests");
+        }
+        return null;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override
+    public String changeSessionId() {
+        throw new IllegalStateException("There is no session associated with the request");
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        return false;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        return false;
+    }
+
+    @Override
+    @Deprecated
+    public boolean isRequestedSessionIdFromUrl() {
+        return false;
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+        throw new ServletException("The embedded server does not support authentication");
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        throw new ServletException("The embedded server does not support authentication");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new ServletException("The embedded server does not support authentication");
+    }
+
+    @Override
+    public Collection<Part> getParts() throws IOException, ServletException {
+        throw new ServletException("The embedded server does not support multipart requests");
+    }
+
+    @Override
+    public Part getPart(String name) throws IOException, ServletException {
+        throw new ServletException("The embedded server does not support multipart requests");
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException, ServletException {
+        throw new ServletException("The embedded server does not support protocol upgrades");
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+        if ( !Charset.isSupported(env) ) {
+            throw new UnsupportedEncodingException(env);
+        }
+        characterEncoding = env;
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+
+    @Override
+    public String getContentType() {
+        return getHeader("content-type");
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        bodyRead = true;
+        final ByteArrayInputStream input = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return input.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new IllegalStateException("The request is not asynchronous");
+            }
+
+            @Override
+            public int read() {
+                return input.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                return input.read(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = getParameters().get(name);
+        return values != null ? values[0] : null;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(getParameters().keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return getParameters().get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(getParameters());
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getScheme() {
+        return "http";
+    }
+
+    @Override
+    public String getServerName() {
+        String host = getHeader("host");
+        if ( host == null || host.isEmpty() ) {
+            return localAddr;
+        }
+        int colon = host.startsWith("[") ? host.indexOf(':', host.indexOf(']')) : host.indexOf(':');
+        return colon >= 0 ? host.substring(0, colon) : host;
+    }
+
+    @Override
+    public int getServerPort() {
+        String host = getHeader("host");
+        if ( host != null ) {
+            int colon = host.startsWith("[") ? host.indexOf(':', host.indexOf(']')) : host.indexOf(':');
+            if ( colon >= 0 ) {
+                try {
+                    return Integer.parseInt(host.substring(colon + 1));
+                } catch ( NumberFormatException ex ) {
+                    return localPort;
+                }
+            }
+            return 80;
+        }
+        return localPort;
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        String encoding = characterEncoding != null ? characterEncoding : StandardCharsets.ISO_8859_1.name();
+        return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return remoteAddr;
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        if ( o == null ) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, o);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        if ( path != null && !path.startsWith("/") ) {
+            String pathInfo = getPathInfo() != null ? getPathInfo() : "/";
+            path = pathInfo.substring(0, pathInfo.lastIndexOf('/') + 1) + path;
+        }
+        return servletContext.getRequestDispatcher(path);
+    }
+
+    @Override
+    @Deprecated
+    public String getRealPath(String path) {
+        return servletContext.getRealPath(path);
+    }
+
+    @Override
+    public int getRemotePort() {
+        return remotePort;
+    }
+
+    @Override
+    public String getLocalName() {
+        return localAddr;
+    }
+
+    @Override
+    public String getLocalAddr() {
+        return localAddr;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public AsyncContext startAsync() throws IllegalStateException {
+        throw new IllegalStateException("The embedded server does not support asynchronous requests");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) throws IllegalStateException {
+        throw new IllegalStateException("The embedded server does not support asynchronous requests");
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        throw new IllegalStateException("The request is not asynchronous");
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+}
@@ -0,0 +1,56 @@
+package edu.webframework.embedded;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// There is no JSP engine in the embedded server, forwarding and including only work for plain files of the web root
+class EmbeddedRequestDispatcher implements RequestDispatcher {
+
+    private final EmbeddedServletContext servletContext;
+    private final String path;
+
+    EmbeddedRequestDispatcher(EmbeddedServletContext servletContext, String path) {
+        this.servletContext = servletContext;
+        this.path = path;
+    }
+
+    @Override
+    public void forward(ServletRequest request, ServletResponse response) throws ServletException, IOException {
+        if ( response.isCommitted() ) {
+            throw new IllegalStateException(String.format("Cannot forward to [%s] after the response has been committed", path));
+        }
+        File file = getFile();
+        response.resetBuffer();
+        response.setContentType(servletContext.getMimeType(file.getName()));
+        response.getOutputStream().write(Files.readAllBytes(file.toPath()));
+    }
+
+    @Override
+    public void include(ServletRequest request, ServletResponse response) throws ServletException, IOException {
+        response.getOutputStream().write(Files.readAllBytes(getFile().toPath()));
+    }
+
+    private File getFile() throws ServletException {
+        String filePath = path;
+        int query = filePath.indexOf('?');
+        if ( query >= 0 ) {
+            filePath = filePath.substring(0, query);
+        }
+
+        if ( filePath.endsWith(".jsp") || filePath.endsWith(".jspx") ) {
+            throw new ServletException(String.format("JSP view [%s] cannot be rendered by the embedded server", filePath));
+        }
+
+        File file = servletContext.getFile(filePath);
+        if ( file == null || !file.isFile() ) {
+            throw new ServletException(String.format("Resource [%s] is not available", filePath));
+        }
+        return file;
+    }
+
+}
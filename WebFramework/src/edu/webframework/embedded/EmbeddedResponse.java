@@ -0,0 +1,483 @@
+package edu.webframework.embedded;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// The response is fully buffered and written by the server once the dispatcher returns, which is what lets it set
+// Content-Length and keep the connection alive for the next request
+class EmbeddedResponse implements HttpServletResponse {
+
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+    static {
+        REASONS.put(100, "Continue");
+        REASONS.put(200, "OK");
+        REASONS.put(201, "Created");
+        REASONS.put(202, "Accepted");
+        REASONS.put(204, "No Content");
+        REASONS.put(301, "Moved Permanently");
+        REASONS.put(302, "Found");
+        REASONS.put(303, "See Other");
+        REASONS.put(304, "Not Modified");
+        REASONS.put(307, "Temporary Redirect");
+        REASONS.put(400, "Bad Request");
+        REASONS.put(401, "Unauthorized");
+        REASONS.put(403, "Forbidden");
+        REASONS.put(404, "Not Found");
+        REASONS.put(405, "Method Not Allowed");
+        REASONS.put(408, "Request Timeout");
+        REASONS.put(411, "Length Required");
+        REASONS.put(413, "Payload Too Large");
+        REASONS.put(431, "Request Header Fields Too Large");
+        REASONS.put(500, "Internal Server Error");
+        REASONS.put(501, "Not Implemented");
+        REASONS.put(503, "Service Unavailable");
+        REASONS.put(504, "Gateway Timeout");
+        REASONS.put(505, "HTTP Version Not Supported");
+    }
+
+    private static volatile long dateSecond;
+    private static volatile String date;
+
+    static class ResponseBuffer extends ByteArrayOutputStream {
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+    }
+
+    private final ResponseBuffer body = new ResponseBuffer();
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Cookie> cookies = new ArrayList<>();
+
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding;
+    private boolean characterEncodingSet;
+    private long contentLength = -1;
+    private Locale locale = Locale.getDefault();
+
+    private boolean committed;
+    private boolean closed;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    // Status line and headers, followed by the body unless the request was a HEAD
+    ByteBuffer[] serialize(boolean includeBody, boolean keepAlive) {
+        if ( writer != null ) {
+            writer.flush();
+        }
+
+        StringBuilder builder = new StringBuilder(256);
+        String reason = REASONS.get(status);
+        builder.append("HTTP/1.1 ").append(status).append(' ').append(reason != null ? reason : "Unknown").append("\r\n");
+        builder.append("Date: ").append(currentDate()).append("\r\n");
+
+        String type = getContentType();
+        if ( type != null ) {
+            builder.append("Content-Type: ").append(type).append("\r\n");
+        }
+        // A HEAD without a body sends the length the handler set, or none when it is not known
+        long length = body.size() > 0 || includeBody ? body.size() : contentLength;
+        if ( status >= 200 && status != SC_NO_CONTENT && status != SC_NOT_MODIFIED && length >= 0 ) {
+            builder.append("Content-Length: ").append(length).append("\r\n");
+        }
+
+        for ( Map.Entry<String, List<String>> header : headers.entrySet() ) {
+            for ( String value : header.getValue() ) {
+                builder.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        for ( Cookie cookie : cookies ) {
+            builder.append("Set-Cookie: ").append(formatCookie(cookie)).append("\r\n");
+        }
+        if ( !keepAlive ) {
+            builder.append("Connection: close\r\n");
+        }
+        builder.append("\r\n");
+
+        ByteBuffer head = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.ISO_8859_1));
+        return includeBody ? new ByteBuffer[] { head, body.toByteBuffer() } : new ByteBuffer[] { head };
+    }
+
+    private static String currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        String current = date;
+        if ( current == null || second != dateSecond ) {
+            current = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochSecond(second).atZone(ZoneOffset.UTC));
+            date = current;
+            dateSecond = second;
+        }
+        return current;
+    }
+
+    private static String formatCookie(Cookie cookie) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(cookie.getName()).append('=').append(cookie.getValue() != null ? cookie.getValue() : "");
+        if ( cookie.getPath() != null ) {
+            builder.append("; Path=").append(cookie.getPath());
+        }
+        if ( cookie.getDomain() != null ) {
+            builder.append("; Domain=").append(cookie.getDomain());
+        }
+        if ( cookie.getMaxAge() >= 0 ) {
+            builder.append("; Max-Age=").append(cookie.getMaxAge());
+        }
+        if ( cookie.getSecure() ) {
+            builder.append("; Secure");
+        }
+        if ( cookie.isHttpOnly() ) {
+            builder.append("; HttpOnly");
+        }
+        return builder.toString();
+    }
+
+    private void setHeaderValue(String name, String value, boolean add) {
+        if ( committed ) {
+            return;
+        }
+        if ( "content-type".equalsIgnoreCase(name) ) {
+            setContentType(value);
+            return;
+        }
+        if ( "content-length".equalsIgnoreCase(name) ) {
+            setContentLengthLong(value != null ? Long.parseLong(value.trim()) : -1);
+            return;
+        }
+
+        if ( value == null ) {
+            if ( !add ) {
+                headers.remove(name);
+            }
+            return;
+        }
+
+        List<String> values = headers.get(name);
+        if ( values == null || !add ) {
+            values = new ArrayList<>(1);
+            headers.put(name, values);
+        }
+        values.add(value);
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        if ( !committed ) {
+            cookies.add(cookie);
+        }
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name)
+                || "content-type".equalsIgnoreCase(name) && contentType != null
+                || "content-length".equalsIgnoreCase(name) && contentLength >= 0;
+    }
+
+    @Override
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeUrl(String url) {
+        return url;
+    }
+
+    @Override
+    @Deprecated
+    public String encodeRedirectUrl(String url) {
+        return url;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        if ( committed ) {
+            throw new IllegalStateException("The response has already been committed");
+        }
+
+        resetBuffer();
+        status = sc;
+        contentType = "text/html";
+        characterEncoding = StandardCharsets.UTF_8.name();
+        characterEncodingSet = true;
+
+        String reason = REASONS.get(sc);
+        String message = msg != null ? msg : reason != null ? reason : "";
+        body.write(String.format("<html><head><title>%s</title></head><body><h1>%s %s</h1></body></html>",
+                sc, sc, escape(message)).getBytes(StandardCharsets.UTF_8));
+
+        committed = true;
+        closed = true;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        sendError(sc, null);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        if ( committed ) {
+            throw new IllegalStateException("The response has already been committed");
+        }
+
+        resetBuffer();
+        status = SC_FOUND;
+        setHeader("Location", location);
+        committed = true;
+        closed = true;
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        setHeader(name, DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC)));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        addHeader(name, DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC)));
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        setHeaderValue(name, value, false);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        setHeaderValue(name, value, true);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        if ( !committed ) {
+            status = sc;
+        }
+    }
+
+    @Override
+    @Deprecated
+    public void setStatus(int sc, String sm) {
+        setStatus(sc);
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        if ( "content-type".equalsIgnoreCase(name) ) {
+            return getContentType();
+        }
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+        return values != null ? new ArrayList<>(values) : Collections.<String>emptyList();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return new ArrayList<>(headers.keySet());
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding != null ? characterEncoding : StandardCharsets.ISO_8859_1.name();
+    }
+
+    @Override
+    public String getContentType() {
+        if ( contentType == null ) {
+            return null;
+        }
+        return characterEncodingSet || writer != null ? contentType + ";charset=" + getCharacterEncoding() : contentType;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if ( writer != null ) {
+            throw new IllegalStateException("getWriter() has already been called on this response");
+        }
+        if ( outputStream == null ) {
+            outputStream = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    throw new IllegalStateException("The response is not asynchronous");
+                }
+
+                @Override
+                public void write(int b) {
+                    if ( !closed ) {
+                        body.write(b);
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    if ( !closed ) {
+                        body.write(b, off, len);
+                    }
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if ( writer == null ) {
+            if ( outputStream != null ) {
+                throw new IllegalStateException("getOutputStream() has already been called on this response");
+            }
+            ServletOutputStream stream = getOutputStream();
+            outputStream = null;
+            writer = new PrintWriter(new OutputStreamWriter(stream, Charset.forName(getCharacterEncoding())));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        if ( !committed && writer == null && charset != null ) {
+            characterEncoding = charset;
+            characterEncodingSet = true;
+        }
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if ( !committed ) {
+            contentLength = len;
+        }
+    }
+
+    @Override
+    public void setContentType(String type) {
+        if ( committed ) {
+            return;
+        }
+        if ( type == null ) {
+            contentType = null;
+            return;
+        }
+
+        int charset = type.toLowerCase(Locale.ROOT).indexOf("charset=");
+        if ( charset >= 0 ) {
+            setCharacterEncoding(type.substring(charset + 8).trim().replace("\"", ""));
+            type = type.substring(0, charset).trim();
+            if ( type.endsWith(";") ) {
+                type = type.substring(0, type.length() - 1).trim();
+            }
+        }
+        contentType = type;
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        if ( body.size() > 0 ) {
+            throw new IllegalStateException("Content has already been written");
+        }
+    }
+
+    @Override
+    public int getBufferSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if ( writer != null ) {
+            writer.flush();
+        }
+        committed = true;
+    }
+
+    @Override
+    public void resetBuffer() {
+        if ( committed ) {
+            throw new IllegalStateException("The response has already been committed");
+        }
+        if ( writer != null ) {
+            writer.flush();
+        }
+        body.reset();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        status = SC_OK;
+        headers.clear();
+        cookies.clear();
+        contentType = null;
+        contentLength = -1;
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+        if ( !committed && loc != null ) {
+            locale = loc;
+        }
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locale;
+    }
+
+}
@@ -0,0 +1,464 @@
+package edu.webframework.embedded;
+
+import edu.webframework.ServletDispatcher;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs a ServletDispatcher without a servlet container, on a small HTTP/1.1 server: one selector thread accepts
+// connections, reads and parses requests and writes responses, and a pool of workers runs the dispatcher. The
+// dispatcher is configured with the same context parameters (webcontrollers, services, errorhandler, ...) it reads
+// from the web.xml, which can be loaded as is with loadWebXml.
+public class EmbeddedServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_BODY_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 60000;
+
+    private static final long SWEEP_INTERVAL = 1000;
+
+    private final Map<String, String> initParameters = new LinkedHashMap<>();
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private String host;
+    private int port;
+    private String contextPath = "";
+    private File resourceBase;
+    private int workerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private int sessionTimeout = ServletDispatcher.DEFAULT_SESSION_TIMEOUT;
+    private int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+    int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    private HttpServlet servlet = new ServletDispatcher();
+
+    EmbeddedServletContext servletContext;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private ExecutorService workers;
+    private volatile boolean running;
+
+    public EmbeddedServer() {
+        this(DEFAULT_PORT);
+    }
+
+    public EmbeddedServer(int port) {
+        this.port = port;
+    }
+
+    public void setInitParameter(String name, String value) {
+        initParameters.put(name, value);
+    }
+
+    public String getInitParameter(String name) {
+        return initParameters.get(name);
+    }
+
+    // Reads the context parameters and the session timeout of a web.xml. When no web root has been set, the
+    // directory containing WEB-INF becomes the web root.
+    public void loadWebXml(File webXml) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            document = factory.newDocumentBuilder().parse(webXml);
+        } catch ( Exception ex ) {
+            throw new IOException(String.format("Could not read [%s]", webXml), ex);
+        }
+
+        NodeList contextParams = document.getElementsByTagNameNS("*", "context-param");
+        for ( int i = 0; i < contextParams.getLength(); i++ ) {
+            Element contextParam = (Element) contextParams.item(i);
+            String name = getChildText(contextParam, "param-name");
+            String value = getChildText(contextParam, "param-value");
+            if ( name != null ) {
+                setInitParameter(name, value != null ? value : "");
+            }
+        }
+
+        NodeList sessionTimeouts = document.getElementsByTagNameNS("*", "session-timeout");
+        if ( sessionTimeouts.getLength() > 0 ) {
+            try {
+                setSessionTimeout(Integer.parseInt(sessionTimeouts.item(0).getTextContent().trim()) * 60);
+            } catch ( NumberFormatException ex ) {
+                log(String.format("Invalid session timeout [%s]", sessionTimeouts.item(0).getTextContent()));
+            }
+        }
+
+        File webInf = webXml.getAbsoluteFile().getParentFile();
+        if ( resourceBase == null && webInf != null && "WEB-INF".equals(webInf.getName()) ) {
+            resourceBase = webInf.getParentFile();
+        }
+    }
+
+    private static String getChildText(Element element, String childName) {
+        NodeList children = element.getElementsByTagNameNS("*", childName);
+        return children.getLength() > 0 ? children.item(0).getTextContent().trim() : null;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public void setContextPath(String contextPath) {
+        this.contextPath = contextPath == null || "/".equals(contextPath) ? "" : contextPath;
+    }
+
+    public void setResourceBase(File resourceBase) {
+        this.resourceBase = resourceBase;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    // Seconds, as in HttpSession.setMaxInactiveInterval
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    // Milliseconds a keep-alive connection may stay idle before it is closed
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    // Any servlet can be run, the dispatcher is the default one
+    public void setServlet(HttpServlet servlet) {
+        this.servlet = servlet;
+    }
+
+    public HttpServlet getServlet() {
+        return servlet;
+    }
+
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    // The port the server is listening on, useful when it was started on port 0
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() throws IOException, ServletException {
+        if ( running ) {
+            throw new IllegalStateException("The server is already running");
+        }
+
+        long startTime = System.nanoTime();
+        servletContext = new EmbeddedServletContext(contextPath, resourceBase, sessionParameters());
+
+        servlet.init(new ServletConfig() {
+            @Override
+            public String getServletName() {
+                return "ServletDispatcher";
+            }
+
+            @Override
+            public ServletContext getServletContext() {
+                return servletContext;
+            }
+
+            @Override
+            public String getInitParameter(String name) {
+                return null;
+            }
+
+            @Override
+            public Enumeration<String> getInitParameterNames() {
+                return Collections.emptyEnumeration();
+            }
+        });
+
+        final AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "webframework-worker-" + workerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                select();
+            }
+        }, "webframework-selector");
+        selectorThread.start();
+
+        log(String.format("Embedded server listening on port [%s] context path [%s] started in [%s] ms",
+                getPort(), contextPath, (System.nanoTime() - startTime) / 1000000));
+    }
+
+    // The server has no sessions of its own, the dispatcher's requests get the framework's, in memory unless the
+    // session.store context parameter names another store
+    private Map<String, String> sessionParameters() {
+        Map<String, String> parameters = new LinkedHashMap<>(initParameters);
+        String store = parameters.get(ServletDispatcher.SESSION_STORE);
+        if ( store == null || store.trim().isEmpty() || ServletDispatcher.CONTAINER_SESSIONS.equals(store.trim()) ) {
+            if ( store != null && !store.trim().isEmpty() ) {
+                log(String.format("The embedded server has no container sessions, using [%s]", ServletDispatcher.MEMORY_SESSIONS));
+            }
+            parameters.put(ServletDispatcher.SESSION_STORE, ServletDispatcher.MEMORY_SESSIONS);
+        }
+        if ( !parameters.containsKey(ServletDispatcher.SESSION_TIMEOUT) ) {
+            parameters.put(ServletDispatcher.SESSION_TIMEOUT, String.valueOf(sessionTimeout));
+        }
+        return parameters;
+    }
+
+    public synchronized void stop() {
+        if ( !running ) {
+            return;
+        }
+
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+        }
+
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch ( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+        }
+
+        servlet.destroy();
+        log(String.format("Embedded server on port [%s] stopped", getPort()));
+    }
+
+    private void select() {
+        long lastSweep = System.currentTimeMillis();
+        while ( running ) {
+            try {
+                selector.select(SWEEP_INTERVAL);
+
+                Runnable task;
+                while ( (task = selectorTasks.poll()) != null ) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while ( keys.hasNext() ) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handleKey(key);
+                }
+
+                long now = System.currentTimeMillis();
+                if ( now - lastSweep >= SWEEP_INTERVAL ) {
+                    lastSweep = now;
+                    closeIdleConnections(now);
+                }
+            } catch ( IOException ex ) {
+                log(ex.getMessage(), ex);
+            }
+        }
+
+        for ( SelectionKey key : selector.keys() ) {
+            try {
+                key.channel().close();
+            } catch ( IOException ex ) {
+                // Closing anyway
+            }
+        }
+        try {
+            selector.close();
+        } catch ( IOException ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
+    private void handleKey(SelectionKey key) {
+        if ( !key.isValid() ) {
+            return;
+        }
+
+        if ( key.isAcceptable() ) {
+            accept();
+            return;
+        }
+
+        HttpConnection connection = (HttpConnection) key.attachment();
+        try {
+            if ( key.isWritable() ) {
+                connection.onWritable();
+            } else if ( key.isReadable() ) {
+                connection.onReadable();
+            }
+        } catch ( IOException | CancelledKeyException ex ) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ( (channel = serverChannel.accept()) != null ) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new HttpConnection(this, channel, key));
+            }
+        } catch ( IOException ex ) {
+            log(ex.getMessage(), ex);
+        }
+    }
+
+    private void closeIdleConnections(long now) {
+        for ( SelectionKey key : selector.keys() ) {
+            Object attachment = key.attachment();
+            if ( attachment instanceof HttpConnection ) {
+                HttpConnection connection = (HttpConnection) attachment;
+                if ( connection.isIdle() && now - connection.lastActivity > keepAliveTimeout ) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    // Runs the servlet for a parsed request on a worker, then hands the response back to the selector thread
+    void dispatch(final HttpConnection connection, final EmbeddedRequest request) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final boolean keepAlive = request.isKeepAlive() && running;
+                    final ByteBuffer[] response = service(request, keepAlive);
+                    selectorTasks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                connection.send(response, keepAlive);
+                            } catch ( IOException | CancelledKeyException ex ) {
+                                connection.close();
+                            }
+                        }
+                    });
+                    selector.wakeup();
+                }
+            });
+        } catch ( RejectedExecutionException ex ) {
+            connection.close();
+        }
+    }
+
+    ByteBuffer[] service(EmbeddedRequest request, boolean keepAlive) {
+        EmbeddedResponse response = new EmbeddedResponse();
+        request.response = response;
+
+        try {
+            String uri = request.getRequestURI();
+            if ( contextPath.isEmpty() || uri.equals(contextPath) || uri.startsWith(contextPath + "/") ) {
+                servlet.service(request, response);
+            } else {
+                response.sendError(404);
+            }
+        } catch ( Throwable t ) {
+            log(String.format("Request [%s %s] failed", request.method, request.getRequestURI()), t);
+            if ( !response.isCommitted() ) {
+                response.reset();
+                try {
+                    response.sendError(500);
+                } catch ( IOException ex ) {
+                    // The response is in memory
+                }
+            }
+        }
+
+        return response.serialize(!"HEAD".equals(request.method), keepAlive);
+    }
+
+    ByteBuffer[] errorResponse(int status) {
+        EmbeddedResponse response = new EmbeddedResponse();
+        try {
+            response.sendError(status);
+        } catch ( IOException ex ) {
+            // The response is in memory
+        }
+        return response.serialize(true, false);
+    }
+
+    void log(String message) {
+        if ( servletContext != null ) {
+            servletContext.log(message);
+        }
+    }
+
+    void log(String message, Throwable t) {
+        if ( servletContext != null ) {
+            servletContext.log(message, t);
+        }
+    }
+
+    // Usage: EmbeddedServer [--port 8080] [--context-path /app] [--web-root web] [web.xml]
+    public static void main(String[] args) throws Exception {
+        final EmbeddedServer server = new EmbeddedServer();
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( "--port".equals(args[i]) && i + 1 < args.length ) {
+                server.port = Integer.parseInt(args[++i]);
+            } else if ( "--context-path".equals(args[i]) && i + 1 < args.length ) {
+                server.setContextPath(args[++i]);
+            } else if ( "--web-root".equals(args[i]) && i + 1 < args.length ) {
+                server.setResourceBase(new File(args[++i]));
+            } else if ( "--workers".equals(args[i]) && i + 1 < args.length ) {
+                server.setWorkerThreads(Integer.parseInt(args[++i]));
+            } else {
+                server.loadWebXml(new File(args[i]));
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        }));
+        server.start();
+    }
+
+}
@@ -0,0 +1,351 @@
+package edu.webframework.embedded;
+
+import javax.servlet.*;
+import javax.servlet.descriptor.JspConfigDescriptor;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// The servlet context of the embedded server: init parameters, attributes, logging and, when a web root is given,
+// read only access to its files. Everything about registering servlets, filters and listeners is left out, the
+// embedded server only runs the dispatcher.
+class EmbeddedServletContext implements ServletContext {
+
+    private static final Logger LOGGER = Logger.getLogger(EmbeddedServer.class.getName());
+
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
+    static {
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("js", "application/javascript");
+        MIME_TYPES.put("json", "application/json");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("ico", "image/x-icon");
+        MIME_TYPES.put("woff", "font/woff");
+        MIME_TYPES.put("woff2", "font/woff2");
+    }
+
+    private final String contextPath;
+    private final File resourceBase;
+    private final Map<String, String> initParameters;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    EmbeddedServletContext(String contextPath, File resourceBase, Map<String, String> initParameters) {
+        this.contextPath = contextPath;
+        this.resourceBase = resourceBase;
+        this.initParameters = new ConcurrentHashMap<>(initParameters);
+    }
+
+    // Resolves a context relative path to a file inside the web root, refusing anything that escapes it
+    File getFile(String path) {
+        if ( resourceBase == null || path == null || !path.startsWith("/") ) {
+            return null;
+        }
+
+        try {
+            File file = new File(resourceBase, path.substring(1)).getCanonicalFile();
+            String base = resourceBase.getCanonicalPath();
+            return file.getPath().equals(base) || file.getPath().startsWith(base + File.separator) ? file : null;
+        } catch ( IOException ex ) {
+            return null;
+        }
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public ServletContext getContext(String uripath) {
+        return uripath != null && uripath.startsWith(contextPath) ? this : null;
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 3;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getEffectiveMajorVersion() {
+        return 3;
+    }
+
+    @Override
+    public int getEffectiveMinorVersion() {
+        return 1;
+    }
+
+    @Override
+    public String getMimeType(String file) {
+        int dot = file.lastIndexOf('.');
+        String mimeType = dot >= 0 ? MIME_TYPES.get(file.substring(dot + 1).toLowerCase(Locale.ROOT)) : null;
+        return mimeType != null ? mimeType : URLConnection.guessContentTypeFromName(file);
+    }
+
+    @Override
+    public Set<String> getResourcePaths(String path) {
+        File directory = getFile(path);
+        if ( directory == null || !directory.isDirectory() ) {
+            return null;
+        }
+
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Set<String> paths = new TreeSet<>();
+        File[] files = directory.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                paths.add(prefix + file.getName() + (file.isDirectory() ? "/" : ""));
+            }
+        }
+        return paths;
+    }
+
+    @Override
+    public URL getResource(String path) throws MalformedURLException {
+        File file = getFile(path);
+        return file != null && file.exists() ? file.toURI().toURL() : null;
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String path) {
+        File file = getFile(path);
+        try {
+            return file != null && file.isFile() ? new FileInputStream(file) : null;
+        } catch ( IOException ex ) {
+            return null;
+        }
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        return path != null && path.startsWith("/") ? new EmbeddedRequestDispatcher(this, path) : null;
+    }
+
+    @Override
+    public RequestDispatcher getNamedDispatcher(String name) {
+        return null;
+    }
+
+    @Override
+    @Deprecated
+    public Servlet getServlet(String name) throws ServletException {
+        return null;
+    }
+
+    @Override
+    @Deprecated
+    public Enumeration<Servlet> getServlets() {
+        return Collections.emptyEnumeration();
+    }
+
+    @Override
+    @Deprecated
+    public Enumeration<String> getServletNames() {
+        return Collections.emptyEnumeration();
+    }
+
+    @Override
+    public void log(String msg) {
+        LOGGER.info(msg);
+    }
+
+    @Override
+    @Deprecated
+    public void log(Exception exception, String msg) {
+        log(msg, exception);
+    }
+
+    @Override
+    public void log(String message, Throwable throwable) {
+        LOGGER.log(Level.SEVERE, message, throwable);
+    }
+
+    @Override
+    public String getRealPath(String path) {
+        File file = getFile(path);
+        return file != null ? file.getPath() : null;
+    }
+
+    @Override
+    public String getServerInfo() {
+        return "webframework-embedded";
+    }
+
+    @Override
+    public String getInitParameter(String name) {
+        return initParameters.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getInitParameterNames() {
+        return Collections.enumeration(initParameters.keySet());
+    }
+
+    @Override
+    public boolean setInitParameter(String name, String value) {
+        return initParameters.putIfAbsent(name, value) == null;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object object) {
+        if ( object == null ) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, object);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getServletContextName() {
+        return contextPath.isEmpty() ? "ROOT" : contextPath.substring(1);
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName, String className) {
+        throw new UnsupportedOperationException("The embedded server only runs the servlet dispatcher");
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName, Servlet servlet) {
+        throw new UnsupportedOperationException("The embedded server only runs the servlet dispatcher");
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName, Class<? extends Servlet> servletClass) {
+        throw new UnsupportedOperationException("The embedded server only runs the servlet dispatcher");
+    }
+
+    @Override
+    public <T extends Servlet> T createServlet(Class<T> clazz) throws ServletException {
+        throw new UnsupportedOperationException("The embedded server only runs the servlet dispatcher");
+    }
+
+    @Override
+    public ServletRegistration getServletRegistration(String servletName) {
+        return null;
+    }
+
+    @Override
+    public Map<String, ? extends ServletRegistration> getServletRegistrations() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName, String className) {
+        throw new UnsupportedOperationException("The embedded server does not support filters");
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName, Filter filter) {
+        throw new UnsupportedOperationException("The embedded server does not support filters");
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName, Class<? extends Filter> filterClass) {
+        throw new UnsupportedOperationException("The embedded server does not support filters");
+    }
+
+    @Override
+    public <T extends Filter> T createFilter(Class<T> clazz) throws ServletException {
+        throw new UnsupportedOperationException("The embedded server does not support filters");
+    }
+
+    @Override
+    public FilterRegistration getFilterRegistration(String filterName) {
+        return null;
+    }
+
+    @Override
+    public Map<String, ? extends FilterRegistration> getFilterRegistrations() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public SessionCookieConfig getSessionCookieConfig() {
+        throw new UnsupportedOperationException("The embedded server does not support session cookie configuration");
+    }
+
+    @Override
+    public void setSessionTrackingModes(Set<SessionTrackingMode> sessionTrackingModes) {
+        throw new UnsupportedOperationException("The embedded server only tracks sessions with cookies");
+    }
+
+    @Override
+    public Set<SessionTrackingMode> getDefaultSessionTrackingModes() {
+        return EnumSet.of(SessionTrackingMode.COOKIE);
+    }
+
+    @Override
+    public Set<SessionTrackingMode> getEffectiveSessionTrackingModes() {
+        return EnumSet.of(SessionTrackingMode.COOKIE);
+    }
+
+    @Override
+    public void addListener(String className) {
+        throw new UnsupportedOperationException("The embedded server does not support listeners");
+    }
+
+    @Override
+    public <T extends EventListener> void addListener(T t) {
+        throw new UnsupportedOperationException("The embedded server does not support listeners");
+    }
+
+    @Override
+    public void addListener(Class<? extends EventListener> listenerClass) {
+        throw new UnsupportedOperationException("The embedded server does not support listeners");
+    }
+
+    @Override
+    public <T extends EventListener> T createListener(Class<T> clazz) throws ServletException {
+        throw new UnsupportedOperationException("The embedded server does not support listeners");
+    }
+
+    @Override
+    public JspConfigDescriptor getJspConfigDescriptor() {
+        return null;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+    @Override
+    public void declareRoles(String... roleNames) {
+        throw new UnsupportedOperationException("The embedded server does not support security roles");
+    }
+
+    @Override
+    public String getVirtualServerName() {
+        return "localhost";
+    }
+
+}
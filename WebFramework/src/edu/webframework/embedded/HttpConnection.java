@@ -0,0 +1,434 @@
+package edu.webframework.embedded;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// One keep-alive connection, driven by the selector thread. Requests are parsed from the input buffer one at a time:
+// while a request is being served the connection is not read, so pipelined requests wait in the buffer and their
+// responses go out in order.
+class HttpConnection {
+
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    // Longest chunk size line, extensions included, like Tomcat's default limit of chunk extensions
+    static final int MAX_CHUNK_LINE = 8192;
+
+    static class BadRequestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequestException(int status, String message) {
+            super(message, null, false, false);
+            this.status = status;
+        }
+
+    }
+
+    // A request whose head is parsed, waiting for the rest of its body
+    static class PendingRequest {
+
+        final String method;
+        final String uri;
+        final String protocol;
+        final Map<String, List<String>> headers;
+        final int bodyStart;
+        long length;
+        ByteArrayOutputStream chunks;
+        int chunkPosition;
+        // Size of the chunk whose data is awaited, 0 while its size line is
+        int chunkSize;
+        boolean trailers;
+        int trailersSize;
+
+        PendingRequest(String method, String uri, String protocol, Map<String, List<String>> headers, int bodyStart) {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.headers = headers;
+            this.bodyStart = bodyStart;
+        }
+
+    }
+
+    private final EmbeddedServer server;
+    final SocketChannel channel;
+    final SelectionKey key;
+
+    private final String localAddr;
+    private final int localPort;
+    private final String remoteAddr;
+    private final int remotePort;
+
+    private byte[] input = new byte[4096];
+    private int start;
+    private int end;
+
+    private boolean busy;
+    private boolean inputClosed;
+    private boolean continueSent;
+    private ByteBuffer[] output;
+    private boolean closeAfterWrite;
+    // After an error the rest of the request is read and dropped, closing with unread input would reset the
+    // connection before the client reads the response
+    private boolean draining;
+
+    // Parse state of the request being received. Offsets are relative to start, which moves when the buffer is
+    // compacted. Scanned counts the bytes of the head, or of the chunk line, already searched for its end.
+    private int scanned;
+    private PendingRequest pending;
+
+    long lastActivity = System.currentTimeMillis();
+
+    HttpConnection(EmbeddedServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+
+        InetSocketAddress local = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        InetSocketAddress remote = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        localAddr = local.getAddress().getHostAddress();
+        localPort = local.getPort();
+        remoteAddr = remote != null ? remote.getAddress().getHostAddress() : null;
+        remotePort = remote != null ? remote.getPort() : -1;
+    }
+
+    boolean isIdle() {
+        return !busy && output == null;
+    }
+
+    void onReadable() throws IOException {
+        if ( draining ) {
+            if ( channel.read(ByteBuffer.wrap(input)) < 0 ) {
+                close();
+            }
+            return;
+        }
+        if ( end == input.length ) {
+            makeRoom();
+        }
+
+        int read = channel.read(ByteBuffer.wrap(input, end, input.length - end));
+        if ( read < 0 ) {
+            inputClosed = true;
+        } else {
+            end += read;
+            lastActivity = System.currentTimeMillis();
+        }
+        processInput();
+    }
+
+    void onWritable() throws IOException {
+        write();
+    }
+
+    // Called on the selector thread once the worker has produced the response of the current request
+    void send(ByteBuffer[] response, boolean keepAlive) throws IOException {
+        output = response;
+        closeAfterWrite = !keepAlive;
+        write();
+    }
+
+    private void write() throws IOException {
+        channel.write(output);
+        lastActivity = System.currentTimeMillis();
+        if ( output[output.length - 1].hasRemaining() ) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        output = null;
+        if ( closeAfterWrite && draining ) {
+            // Idle from now on, so the sweep closes it if the client never closes its side
+            channel.shutdownOutput();
+            busy = false;
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        } else if ( closeAfterWrite ) {
+            close();
+            return;
+        }
+
+        busy = false;
+        continueSent = false;
+        processInput();
+    }
+
+    private void processInput() throws IOException {
+        if ( busy || !channel.isOpen() ) {
+            return;
+        }
+
+        EmbeddedRequest request;
+        try {
+            request = parse();
+        } catch ( BadRequestException ex ) {
+            busy = true;
+            draining = !inputClosed;
+            server.log(String.format("Bad request from [%s]: %s", remoteAddr, ex.getMessage()));
+            send(server.errorResponse(ex.status), false);
+            return;
+        }
+
+        if ( request != null ) {
+            busy = true;
+            key.interestOps(0);
+            server.dispatch(this, request);
+        } else if ( inputClosed ) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void makeRoom() throws IOException {
+        if ( start > 0 ) {
+            System.arraycopy(input, start, input, 0, end - start);
+            end -= start;
+            start = 0;
+        } else {
+            byte[] larger = new byte[input.length * 2];
+            System.arraycopy(input, 0, larger, 0, end);
+            input = larger;
+        }
+    }
+
+    // Returns the next complete request in the buffer, or null when more bytes are needed. What was parsed of an
+    // incomplete request is kept, so every read only scans the bytes it added.
+    private EmbeddedRequest parse() throws BadRequestException, IOException {
+        if ( pending == null ) {
+            // Empty lines before a request are allowed
+            while ( scanned == 0 && start < end && (input[start] == '\r' || input[start] == '\n') ) {
+                start++;
+            }
+            if ( start == end ) {
+                start = end = 0;
+                return null;
+            }
+
+            // The end of the head may straddle the bytes already scanned and the new ones
+            int headerEnd = indexOf(input, start + Math.max(0, scanned - 3), end, "\r\n\r\n");
+            if ( headerEnd < 0 ) {
+                scanned = end - start;
+                if ( scanned > server.maxHeaderSize ) {
+                    throw new BadRequestException(431, "Request headers are too large");
+                }
+                return null;
+            }
+            scanned = 0;
+            pending = parseHead(headerEnd);
+        }
+
+        int bodyStart = start + pending.bodyStart;
+        byte[] body;
+        int requestEnd;
+        if ( pending.chunks != null ) {
+            requestEnd = decodeChunks(pending);
+            if ( requestEnd < 0 ) {
+                sendContinue(pending.headers);
+                return null;
+            }
+            body = pending.chunks.toByteArray();
+        } else {
+            if ( end - bodyStart < pending.length ) {
+                sendContinue(pending.headers);
+                return null;
+            }
+            body = new byte[(int) pending.length];
+            System.arraycopy(input, bodyStart, body, 0, body.length);
+            requestEnd = bodyStart + body.length;
+        }
+
+        PendingRequest request = pending;
+        pending = null;
+        start = requestEnd;
+        if ( start == end ) {
+            start = end = 0;
+        }
+
+        return new EmbeddedRequest(server.servletContext, request.method, request.uri, request.protocol,
+                request.headers, body, localAddr, localPort, remoteAddr, remotePort);
+    }
+
+    private PendingRequest parseHead(int headerEnd) throws BadRequestException {
+        String head = new String(input, start, headerEnd - start, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if ( requestLine.length != 3 || requestLine[1].isEmpty() ) {
+            throw new BadRequestException(400, String.format("Malformed request line [%s]", lines[0]));
+        }
+        if ( !"HTTP/1.1".equals(requestLine[2]) && !"HTTP/1.0".equals(requestLine[2]) ) {
+            throw new BadRequestException(505, String.format("Unsupported protocol [%s]", requestLine[2]));
+        }
+
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for ( int i = 1; i < lines.length; i++ ) {
+            int colon = lines[i].indexOf(':');
+            if ( colon <= 0 ) {
+                throw new BadRequestException(400, String.format("Malformed header [%s]", lines[i]));
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            List<String> values = headers.get(name);
+            if ( values == null ) {
+                values = new ArrayList<>(1);
+                headers.put(name, values);
+            }
+            values.add(lines[i].substring(colon + 1).trim());
+        }
+
+        PendingRequest request = new PendingRequest(requestLine[0], requestLine[1], requestLine[2], headers, headerEnd + 4 - start);
+        List<String> transferEncoding = headers.get("transfer-encoding");
+        List<String> contentLength = headers.get("content-length");
+        if ( transferEncoding != null ) {
+            if ( !"chunked".equalsIgnoreCase(transferEncoding.get(transferEncoding.size() - 1)) ) {
+                throw new BadRequestException(501, String.format("Unsupported transfer encoding %s", transferEncoding));
+            }
+            request.chunks = new ByteArrayOutputStream();
+            request.chunkPosition = request.bodyStart;
+        } else if ( contentLength != null ) {
+            request.length = parseContentLength(contentLength);
+        }
+        return request;
+    }
+
+    // A single length, the body cannot be delimited when several are sent (RFC 7230 section 3.3.2)
+    private long parseContentLength(List<String> contentLength) throws BadRequestException {
+        String value = contentLength.get(0);
+        if ( contentLength.size() > 1 || value.indexOf(',') >= 0 ) {
+            throw new BadRequestException(400, String.format("Several content lengths %s", contentLength));
+        }
+        if ( value.isEmpty() || value.length() > 18 ) {
+            throw new BadRequestException(400, String.format("Malformed content length [%s]", value));
+        }
+        long length = 0;
+        for ( int i = 0; i < value.length(); i++ ) {
+            char c = value.charAt(i);
+            if ( c < '0' || c > '9' ) {
+                throw new BadRequestException(400, String.format("Malformed content length [%s]", value));
+            }
+            length = length * 10 + (c - '0');
+        }
+        if ( length > server.maxBodySize ) {
+            throw new BadRequestException(413, String.format("Request body of [%s] bytes is too large", length));
+        }
+        return length;
+    }
+
+    // Decodes the chunks received since the last call, returning where the request ends or -1 if it is incomplete.
+    // What is decoded is dropped from the buffer, which only ever holds the chunk or the line being received, and the
+    // size lines and trailers are bounded as the head is.
+    private int decodeChunks(PendingRequest request) throws BadRequestException {
+        while ( true ) {
+            int position = start + request.chunkPosition;
+            if ( request.chunkSize > 0 ) {
+                int dataEnd = position + request.chunkSize;
+                if ( end - dataEnd < 2 ) {
+                    return -1;
+                }
+                if ( input[dataEnd] != '\r' || input[dataEnd + 1] != '\n' ) {
+                    throw new BadRequestException(400, "Chunk data is not followed by CRLF");
+                }
+                request.chunks.write(input, position, request.chunkSize);
+                request.chunkSize = 0;
+                consume(request, dataEnd + 2);
+                continue;
+            }
+
+            // The CRLF may straddle the bytes already scanned and the new ones
+            int lineEnd = indexOf(input, position + Math.max(0, scanned - 1), end, "\r\n");
+            if ( lineEnd < 0 ) {
+                scanned = end - position;
+                if ( request.trailers && request.trailersSize + scanned > server.maxHeaderSize ) {
+                    throw new BadRequestException(431, "Request trailers are too large");
+                } else if ( !request.trailers && scanned > MAX_CHUNK_LINE ) {
+                    throw new BadRequestException(400, "Chunk size line is too long");
+                }
+                return -1;
+            }
+            scanned = 0;
+
+            if ( request.trailers ) {
+                // Trailers are skipped up to the empty line closing the body
+                if ( lineEnd == position ) {
+                    return position + 2;
+                }
+                request.trailersSize += lineEnd + 2 - position;
+                if ( request.trailersSize > server.maxHeaderSize ) {
+                    throw new BadRequestException(431, "Request trailers are too large");
+                }
+                consume(request, lineEnd + 2);
+                continue;
+            }
+
+            if ( lineEnd - position > MAX_CHUNK_LINE ) {
+                throw new BadRequestException(400, "Chunk size line is too long");
+            }
+            String sizeLine = new String(input, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            int extension = sizeLine.indexOf(';');
+            int size;
+            try {
+                size = Integer.parseInt((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+            } catch ( NumberFormatException ex ) {
+                throw new BadRequestException(400, String.format("Malformed chunk size [%s]", sizeLine));
+            }
+            if ( size < 0 || request.chunks.size() + (long) size > server.maxBodySize ) {
+                throw new BadRequestException(413, "Chunked request body is too large");
+            }
+
+            if ( size == 0 ) {
+                request.trailers = true;
+            } else {
+                request.chunkSize = size;
+            }
+            consume(request, lineEnd + 2);
+        }
+    }
+
+    // Drops the head and the chunks decoded so far, the buffer is compacted the next time it is full
+    private void consume(PendingRequest request, int position) {
+        start = position;
+        request.chunkPosition = 0;
+    }
+
+    private void sendContinue(Map<String, List<String>> headers) throws IOException {
+        List<String> expect = headers.get("expect");
+        if ( !continueSent && expect != null && "100-continue".equalsIgnoreCase(expect.get(0)) ) {
+            continueSent = true;
+            channel.write(ByteBuffer.wrap(CONTINUE));
+        }
+    }
+
+    private static int indexOf(byte[] buffer, int from, int to, String pattern) {
+        int last = to - pattern.length();
+        outer:
+        for ( int i = from; i <= last; i++ ) {
+            for ( int j = 0; j < pattern.length(); j++ ) {
+                if ( buffer[i + j] != pattern.charAt(j) ) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch ( IOException ex ) {
+            // Nothing left to do with the connection
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package edu.webframework.exceptions;
+
+// Thrown for a request parameter or path variable that cannot be converted to the type of its argument, like a missing
+// one it is a client error and does not fill in a stack trace
+public class InvalidHttpRequestParameterException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidHttpRequestParameterException(String parameter, String reason) {
+        super(String.format("Invalid HTTP Request Parameter [%s]: %s", parameter, reason), null, false, false);
+    }
+
+}
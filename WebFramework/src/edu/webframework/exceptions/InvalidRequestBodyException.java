@@ -0,0 +1,20 @@
+package edu.webframework.exceptions;
+
+// Thrown for a request body that cannot be bound to an argument, either malformed or over the size limit. Like a
+// missing parameter it is a client error, so it does not fill in a stack trace either.
+public class InvalidRequestBodyException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean tooLarge;
+
+    public InvalidRequestBodyException(String message, boolean tooLarge) {
+        super(message, null, false, false);
+        this.tooLarge = tooLarge;
+    }
+
+    public boolean isTooLarge() {
+        return tooLarge;
+    }
+
+}
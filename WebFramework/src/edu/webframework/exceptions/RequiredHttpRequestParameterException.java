@@ -1,9 +1,11 @@
 package edu.webframework.exceptions;
 
+// Thrown for every request missing a parameter, which is a client error rather than a bug, so it does not pay for
+// filling in a stack trace
 public class RequiredHttpRequestParameterException extends Exception {
 
     public RequiredHttpRequestParameterException(String requiredParameter) {
-        super(String.format("Required HTTP Request Parameter [%s]", requiredParameter));
+        super(String.format("Required HTTP Request Parameter [%s]", requiredParameter), null, false, false);
     }
 
 }
@@ -0,0 +1,524 @@
+package edu.webframework.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Generates a GeneratedControllerRegistry class for every package with controllers or services, with the routes,
+// handler arguments and service wiring read from the annotations at compile time, and lists them in
+// META-INF/services/edu.webframework.ControllerRegistry. The registry lives in the same package as the classes it
+// registers, so it can create them, set their service fields and call their handlers directly. Whatever it cannot
+// reach (private members, inner classes, primitive or generic arguments) is left to the reflective registration.
+@SupportedAnnotationTypes({ ControllerRegistryProcessor.URL_PATH_CONTROLLER, ControllerRegistryProcessor.SERVICE })
+public class ControllerRegistryProcessor extends AbstractProcessor {
+
+    static final String URL_PATH_CONTROLLER = "edu.webframework.annotations.UrlPathController";
+    static final String SERVICE = "edu.webframework.annotations.Service";
+    static final String HTTP_METHOD = "edu.webframework.annotations.HttpMethod";
+    static final String HTTP_REQUEST_PARAMETER = "edu.webframework.annotations.HttpRequestParameter";
+    static final String REQUIRE_SERVICE = "edu.webframework.annotations.RequireService";
+    static final String CACHE_RESPONSE = "edu.webframework.annotations.CacheResponse";
+    static final String SHALLOW_ETAG = "edu.webframework.annotations.ShallowETag";
+    static final String NO_COMPRESSION = "edu.webframework.annotations.NoCompression";
+    static final String PRIORITY = "edu.webframework.annotations.Priority";
+
+    static final String WEB_CONTROLLER = "edu.webframework.WebController";
+    static final String SERVICE_CONTROLLER = "edu.webframework.ServiceController";
+    static final String CONTROLLER_REGISTRY = "edu.webframework.ControllerRegistry";
+    static final String COMPLETION_STAGE = "java.util.concurrent.CompletionStage";
+
+    static final String REGISTRY_CLASS = "GeneratedControllerRegistry";
+
+    private final Map<String, PackageRegistry> packages = new TreeMap<>();
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for ( TypeElement annotation : annotations ) {
+            for ( Element element : roundEnv.getElementsAnnotatedWith(annotation) ) {
+                if ( element.getKind() == ElementKind.CLASS ) {
+                    TypeElement type = (TypeElement) element;
+                    PackageRegistry registry = getPackageRegistry(type);
+                    if ( annotation.getQualifiedName().contentEquals(URL_PATH_CONTROLLER) ) {
+                        registry.controllers.add(type);
+                    } else {
+                        registry.services.add(type);
+                    }
+                }
+            }
+        }
+
+        // Registries are written in the round their classes show up, so the generated sources are compiled normally
+        for ( PackageRegistry registry : packages.values() ) {
+            if ( !registry.written && !registry.isEmpty() ) {
+                writeRegistry(registry);
+                registry.written = true;
+            }
+        }
+
+        if ( roundEnv.processingOver() && !generated.isEmpty() ) {
+            writeServiceFile();
+        }
+
+        return false;
+    }
+
+    private PackageRegistry getPackageRegistry(TypeElement type) {
+        String packageName = getPackage(type).getQualifiedName().toString();
+        PackageRegistry registry = packages.get(packageName);
+        if ( registry == null ) {
+            registry = new PackageRegistry(packageName);
+            packages.put(packageName, registry);
+        } else if ( registry.written ) {
+            // Classes generated by other processors in a later round, a source file cannot be written twice
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, String.format(
+                    "Class [%s] appeared after the registry of its package was generated, list it in the web.xml", type.getQualifiedName()), type);
+            registry = new PackageRegistry(packageName);
+            registry.written = true;
+        }
+        return registry;
+    }
+
+    private void writeRegistry(PackageRegistry registry) {
+        String className = registry.packageName.isEmpty() ? REGISTRY_CLASS : registry.packageName + "." + REGISTRY_CLASS;
+        List<Element> originating = new ArrayList<>();
+        originating.addAll(registry.services);
+        originating.addAll(registry.controllers);
+
+        SourceWriter out = new SourceWriter();
+        if ( !registry.packageName.isEmpty() ) {
+            out.line("package %s;", registry.packageName).line();
+        }
+        out.line("// Generated by %s, do not edit", ControllerRegistryProcessor.class.getName());
+        out.line("public final class %s implements %s {", REGISTRY_CLASS, CONTROLLER_REGISTRY).line();
+        out.line("    @Override");
+        out.line("    @SuppressWarnings(\"unchecked\")");
+        out.line("    public void register(%s.Registrar registrar) {", CONTROLLER_REGISTRY);
+
+        for ( TypeElement service : registry.services ) {
+            writeService(out, service);
+            out.line();
+        }
+        for ( TypeElement controller : registry.controllers ) {
+            writeController(out, controller);
+            out.line();
+        }
+        out.trim();
+
+        out.line("    }").line();
+        out.line("}");
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(className, originating.toArray(new Element[originating.size()]));
+            try ( Writer writer = file.openWriter() ) {
+                writer.write(out.toString());
+            }
+            generated.add(className);
+        } catch ( IOException ex ) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Could not write [%s]: %s", className, ex.getMessage()));
+        }
+    }
+
+    private void writeServiceFile() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    "META-INF/services/" + CONTROLLER_REGISTRY);
+            try ( Writer writer = file.openWriter() ) {
+                for ( String className : generated ) {
+                    writer.write(className);
+                    writer.write("\n");
+                }
+            }
+        } catch ( IOException ex ) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Could not write the registry service file: %s", ex.getMessage()));
+        }
+    }
+
+    private void writeService(SourceWriter out, TypeElement service) {
+        String name = service.getQualifiedName().toString();
+        List<VariableElement> fields = getServiceFields(service);
+
+        String reason = isAssignable(service, SERVICE_CONTROLLER) ? getInaccessibleReason(service, fields) : "does not extend ServiceController";
+        if ( reason != null ) {
+            note(service, reason);
+            out.line("        registrar.reflectiveService(%s.class);", name);
+            return;
+        }
+
+        out.line("        registrar.service(%s.class, new %s.Accessor() {", name, CONTROLLER_REGISTRY);
+        writeAccessorBody(out, name, fields);
+        out.line("        })");
+        writeRequirements(out, fields);
+        out.terminate();
+    }
+
+    private void writeController(SourceWriter out, TypeElement controller) {
+        String name = controller.getQualifiedName().toString();
+        List<VariableElement> fields = getServiceFields(controller);
+        List<ExecutableElement> handlers = new ArrayList<>();
+        for ( ExecutableElement method : ElementFilter.methodsIn(controller.getEnclosedElements()) ) {
+            if ( getAnnotation(method, HTTP_METHOD) != null ) {
+                handlers.add(method);
+            }
+        }
+
+        String reason = isAssignable(controller, WEB_CONTROLLER) ? getInaccessibleReason(controller, fields) : "does not extend WebController";
+        for ( int i = 0; i < handlers.size() && reason == null; i++ ) {
+            reason = getUnsupportedReason(handlers.get(i));
+        }
+        if ( reason != null ) {
+            note(controller, reason);
+            out.line("        registrar.reflectiveController(%s.class);", name);
+            return;
+        }
+
+        AnnotationMirror pathController = getAnnotation(controller, URL_PATH_CONTROLLER);
+        out.line("        registrar.controller(%s.class, %s, edu.webframework.annotations.ControllerLifecycle.%s, %s, %s.class, new %s.Accessor() {",
+                name, literal(getValue(pathController, "path")), getValue(pathController, "lifecycle"),
+                getValue(pathController, "poolSize"), getValue(pathController, "executor"), CONTROLLER_REGISTRY);
+        writeAccessorBody(out, name, fields);
+
+        out.line();
+        out.line("            @Override");
+        out.line("            public Object invoke(int handler, Object target, Object[] arguments) throws Throwable {");
+        out.line("                switch ( handler ) {");
+        for ( int i = 0; i < handlers.size(); i++ ) {
+            ExecutableElement handler = handlers.get(i);
+            StringBuilder call = new StringBuilder();
+            call.append("((").append(name).append(") target).").append(handler.getSimpleName()).append('(');
+            List<? extends VariableElement> parameters = handler.getParameters();
+            for ( int j = 0; j < parameters.size(); j++ ) {
+                call.append(j > 0 ? ", " : "").append('(').append(parameters.get(j).asType()).append(") arguments[").append(j).append(']');
+            }
+            call.append(')');
+
+            if ( handler.getReturnType().getKind() == TypeKind.VOID ) {
+                out.line("                    case %s: %s; return null;", i, call);
+            } else {
+                out.line("                    case %s: return %s;", i, call);
+            }
+        }
+        out.line("                    default: return super.invoke(handler, target, arguments);");
+        out.line("                }");
+        out.line("            }");
+        out.line("        })");
+        writeRequirements(out, fields);
+
+        for ( int i = 0; i < handlers.size(); i++ ) {
+            ExecutableElement handler = handlers.get(i);
+            AnnotationMirror httpMethod = getAnnotation(handler, HTTP_METHOD);
+            boolean async = processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(handler.getReturnType()),
+                    processingEnv.getTypeUtils().erasure(getType(COMPLETION_STAGE).asType()));
+            out.line("                .handler(%s, %s, %s, %s, %s)", i, literal(getValue(httpMethod, "type")), literal(getValue(httpMethod, "action")),
+                    literal(handler.getSimpleName().toString()), async);
+
+            for ( VariableElement parameter : handler.getParameters() ) {
+                AnnotationMirror requestParameter = getAnnotation(parameter, HTTP_REQUEST_PARAMETER);
+                StringBuilder argument = new StringBuilder();
+                argument.append(literal(getValue(requestParameter, "name"))).append(", ")
+                        .append(getValue(requestParameter, "required")).append(", ")
+                        .append(getValue(requestParameter, "fromUrl")).append(", ")
+                        .append(processingEnv.getTypeUtils().erasure(parameter.asType())).append(".class");
+                if ( parameter.asType().getKind() == TypeKind.DECLARED ) {
+                    for ( TypeMirror typeArgument : ((DeclaredType) parameter.asType()).getTypeArguments() ) {
+                        argument.append(", ").append(processingEnv.getTypeUtils().erasure(typeArgument)).append(".class");
+                    }
+                }
+                out.line("                    .argument(%s)", argument);
+                if ( Boolean.TRUE.equals(getValue(requestParameter, "fromBody")) ) {
+                    out.line("                    .fromBody()");
+                }
+            }
+
+            AnnotationMirror cacheResponse = getAnnotation(handler, CACHE_RESPONSE);
+            if ( cacheResponse != null ) {
+                out.line("                    .cache(%sL, %s, %s)", getValue(cacheResponse, "ttl"), stringArray(getValue(cacheResponse, "parameters")),
+                        stringArray(getValue(cacheResponse, "sessionAttributes")));
+            }
+            if ( getAnnotation(handler, SHALLOW_ETAG) != null ) {
+                out.line("                    .shallowETag()");
+            }
+            if ( getAnnotation(handler, NO_COMPRESSION) != null || getAnnotation(controller, NO_COMPRESSION) != null ) {
+                out.line("                    .noCompression()");
+            }
+            AnnotationMirror priority = getAnnotation(handler, PRIORITY);
+            if ( priority == null ) {
+                priority = getAnnotation(controller, PRIORITY);
+            }
+            if ( priority != null ) {
+                out.line("                    .priority(%s)", literal(getValue(priority, "value")));
+            }
+        }
+        out.terminate();
+    }
+
+    private void writeAccessorBody(SourceWriter out, String name, List<VariableElement> fields) {
+        out.line("            @Override");
+        out.line("            public Object newInstance() {");
+        out.line("                return new %s();", name);
+        out.line("            }");
+
+        if ( !fields.isEmpty() ) {
+            out.line();
+            out.line("            @Override");
+            out.line("            public void inject(int field, Object target, Object service) {");
+            out.line("                switch ( field ) {");
+            for ( int i = 0; i < fields.size(); i++ ) {
+                VariableElement field = fields.get(i);
+                out.line("                    case %s: ((%s) target).%s = (%s) service; return;", i, name, field.getSimpleName(),
+                        processingEnv.getTypeUtils().erasure(field.asType()));
+            }
+            out.line("                    default: super.inject(field, target, service);");
+            out.line("                }");
+            out.line("            }");
+        }
+    }
+
+    private void writeRequirements(SourceWriter out, List<VariableElement> fields) {
+        for ( int i = 0; i < fields.size(); i++ ) {
+            out.line("                .require(%s, %s.class)", i, processingEnv.getTypeUtils().erasure(fields.get(i).asType()));
+        }
+    }
+
+    private List<VariableElement> getServiceFields(TypeElement type) {
+        List<VariableElement> fields = new ArrayList<>();
+        for ( VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements()) ) {
+            if ( getAnnotation(field, REQUIRE_SERVICE) != null ) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    // Everything the generated code touches has to be visible from another class of the same package
+    private String getInaccessibleReason(TypeElement type, List<VariableElement> fields) {
+        for ( Element element = type; element instanceof TypeElement; element = element.getEnclosingElement() ) {
+            if ( element.getModifiers().contains(Modifier.PRIVATE) ) {
+                return "is not visible from its package";
+            }
+            if ( element.getEnclosingElement() instanceof TypeElement && !element.getModifiers().contains(Modifier.STATIC) ) {
+                return "is an inner class";
+            }
+        }
+
+        if ( type.getModifiers().contains(Modifier.ABSTRACT) ) {
+            return "is abstract";
+        }
+
+        List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+        boolean constructor = constructors.isEmpty();
+        for ( ExecutableElement candidate : constructors ) {
+            constructor |= candidate.getParameters().isEmpty() && !candidate.getModifiers().contains(Modifier.PRIVATE)
+                    && candidate.getThrownTypes().isEmpty();
+        }
+        if ( !constructor ) {
+            return "has no visible constructor without arguments";
+        }
+
+        for ( VariableElement field : fields ) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if ( modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL) ) {
+                return String.format("service field [%s] is private, static or final", field.getSimpleName());
+            }
+        }
+
+        return null;
+    }
+
+    private String getUnsupportedReason(ExecutableElement handler) {
+        Set<Modifier> modifiers = handler.getModifiers();
+        if ( modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC) || !handler.getTypeParameters().isEmpty() ) {
+            return String.format("handler [%s] is private, static or generic", handler.getSimpleName());
+        }
+
+        for ( VariableElement parameter : handler.getParameters() ) {
+            if ( getAnnotation(parameter, HTTP_REQUEST_PARAMETER) == null ) {
+                return String.format("handler [%s] argument [%s] is not an HttpRequestParameter", handler.getSimpleName(), parameter.getSimpleName());
+            }
+            if ( !isPlainType(parameter.asType()) ) {
+                return String.format("handler [%s] argument [%s] is primitive or has type variables", handler.getSimpleName(), parameter.getSimpleName());
+            }
+        }
+        return null;
+    }
+
+    // Classes and arrays whose type arguments are classes themselves, the only types the binders handle
+    private boolean isPlainType(TypeMirror type) {
+        if ( type.getKind() == TypeKind.ARRAY ) {
+            TypeMirror component = ((ArrayType) type).getComponentType();
+            return component.getKind().isPrimitive() || isPlainType(component);
+        }
+        if ( type.getKind() != TypeKind.DECLARED ) {
+            return false;
+        }
+        for ( TypeMirror typeArgument : ((DeclaredType) type).getTypeArguments() ) {
+            if ( typeArgument.getKind() != TypeKind.DECLARED || !((DeclaredType) typeArgument).getTypeArguments().isEmpty() ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAssignable(TypeElement type, String superclass) {
+        TypeElement superType = getType(superclass);
+        return superType != null && processingEnv.getTypeUtils().isAssignable(type.asType(), processingEnv.getTypeUtils().erasure(superType.asType()));
+    }
+
+    private void note(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                String.format("Class [%s] %s, it will be registered with reflection", type.getQualifiedName(), reason), type);
+    }
+
+    private TypeElement getType(String name) {
+        return processingEnv.getElementUtils().getTypeElement(name);
+    }
+
+    private PackageElement getPackage(Element element) {
+        return processingEnv.getElementUtils().getPackageOf(element);
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotation) {
+        for ( AnnotationMirror mirror : element.getAnnotationMirrors() ) {
+            if ( ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation) ) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    // The value of an annotation attribute, defaults included, as it has to be written in source: enum constants by
+    // their name and classes by their canonical name
+    private Object getValue(AnnotationMirror annotation, String attribute) {
+        Elements elements = processingEnv.getElementUtils();
+        Types types = processingEnv.getTypeUtils();
+        for ( Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(annotation).entrySet() ) {
+            if ( entry.getKey().getSimpleName().contentEquals(attribute) ) {
+                Object value = entry.getValue().getValue();
+                if ( value instanceof VariableElement ) {
+                    return ((VariableElement) value).getSimpleName().toString();
+                }
+                if ( value instanceof TypeMirror ) {
+                    return types.erasure((TypeMirror) value).toString();
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    // Array attributes come as the list of their annotation values
+    private static String stringArray(Object values) {
+        StringBuilder builder = new StringBuilder("new String[] {");
+        boolean first = true;
+        for ( Object value : (List<?>) values ) {
+            builder.append(first ? " " : ", ").append(literal(((AnnotationValue) value).getValue()));
+            first = false;
+        }
+        return builder.append(first ? "}" : " }").toString();
+    }
+
+    private static String literal(Object value) {
+        String string = String.valueOf(value);
+        StringBuilder builder = new StringBuilder("\"");
+        for ( int i = 0; i < string.length(); i++ ) {
+            char c = string.charAt(i);
+            if ( c == '"' || c == '\\' ) {
+                builder.append('\\').append(c);
+            } else if ( c < 0x20 || c > 0x7e ) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    static class PackageRegistry {
+
+        final String packageName;
+        final Set<TypeElement> services = new LinkedHashSet<>();
+        final Set<TypeElement> controllers = new LinkedHashSet<>();
+        boolean written;
+
+        PackageRegistry(String packageName) {
+            this.packageName = packageName;
+        }
+
+        boolean isEmpty() {
+            return services.isEmpty() && controllers.isEmpty();
+        }
+
+    }
+
+    static class SourceWriter {
+
+        private final StringBuilder builder = new StringBuilder();
+
+        SourceWriter line(String format, Object... arguments) {
+            builder.append(String.format(format, arguments)).append('\n');
+            return this;
+        }
+
+        SourceWriter line() {
+            builder.append('\n');
+            return this;
+        }
+
+        // Drops the empty line after the last statement
+        SourceWriter trim() {
+            if ( builder.length() > 1 && builder.charAt(builder.length() - 1) == '\n' && builder.charAt(builder.length() - 2) == '\n' ) {
+                builder.setLength(builder.length() - 1);
+            }
+            return this;
+        }
+
+        // Ends the statement on the last line
+        SourceWriter terminate() {
+            builder.setLength(builder.length() - 1);
+            builder.append(";\n");
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+
+    }
+
+}